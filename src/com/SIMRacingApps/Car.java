@@ -14,9 +14,10 @@ import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.Data;
 import com.SIMRacingApps.Data.State;
 import com.SIMRacingApps.Session.CarIdentifiers;
-import com.SIMRacingApps.Track.SectorType;
 import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
+import com.SIMRacingApps.Util.Config;
 import com.SIMRacingApps.Util.FindFile;
+import com.SIMRacingApps.Util.RollingStatistics;
 
 /**
  * Provides all information about a car. Each car will have an ID assigned to it by the SIM.
@@ -44,6 +45,32 @@ public class Car {
     protected double m_pitRoadSpeedRPM                      = -1;
     protected String m_carPath                              = "com/SIMRacingApps/Car.json";
     protected Map<String,Gauge> m_gauges                    = new TreeMap<String,Gauge>();
+
+    //the statistics of the laps run, see _addLap()
+    protected final RollingStatistics m_lapTimeStatistics   = new RollingStatistics();
+    protected final RollingStatistics m_fuelStatistics      = new RollingStatistics();  //liters
+
+    //the traces of the laps run by distance, see _addTrace()
+    private final String[]  m_lapTraceGauges                = __getLapTraceGauges();
+    private final double[]  m_lapTraceValues                = new double[m_lapTraceGauges.length];
+    private final String[]  m_lapTraceUOMs                  = new String[m_lapTraceGauges.length];
+    private Gauge[]         m_lapTraceGaugeRefs             = null;     //resolved on the first trace and again after _setGauge()
+    private final double[]  m_lapTraceScale                 = new double[m_lapTraceGauges.length];  //from the gauge's UOM to the one it is shown in
+    private final double[]  m_lapTraceOffset                = new double[m_lapTraceGauges.length];
+    protected final LapTrace m_lapTrace                     = new LapTrace(m_lapTraceGauges);
+
+    //the sector the car is in, worked out once per DataVersion, see getSector()
+    private final Object    m_sectorLock                    = new Object();
+    private Object          m_sectorVersion                 = null;
+    private int             m_sector                        = 0;
+
+    //the values from the session information, taken once per InfoVersion, see _getIdentity()
+    private volatile CarIdentity m_identity                 = null;
+
+    //the status and flags as primitives, set by the SIM on each tick, see _setStatusCurrent()
+    private volatile boolean m_statusCurrentSet             = false;
+    private String          m_statusCurrent                 = Status.INVALID;
+    private int             m_flagsCurrent                  = 0;
    
 
     /**
@@ -65,6 +92,15 @@ public class Car {
         public static final String TOWING          = "TOWING";
     }
 
+    /**
+     * This class enumerates the bits of the flags the SIM passes to {@link com.SIMRacingApps.Car#_setStatusCurrent(String, int)}.
+     */
+    public static class StatusFlag {
+        public static final int PITSPEEDLIMITER = 1;
+        public static final int YELLOW          = 2;
+        public static final int BLUE            = 4;
+    }
+
     /**
      * Defines the messages the spotter can say.
      * 
@@ -270,6 +306,93 @@ public class Car {
      */
     public boolean isValid() { return m_id != -1; }
 
+    /**
+     * SIM implementors call this once each time the car crosses the start/finish line, 
+     * to add the lap to the statistics used by the averages and the fuel calculations.
+     * 
+     * @param lapTime The time of the lap just completed in seconds.
+     * @param fuelUsed The fuel used on the lap in liters, zero if not known.
+     * @param valid false if the lap should not be counted, like a caution lap, a pit lap or an out lap.
+     */
+    protected void _addLap(double lapTime, double fuelUsed, boolean valid) {
+        m_lapTimeStatistics.add(lapTime, valid);
+        m_fuelStatistics.add(fuelUsed, valid && fuelUsed > 0.0);
+        m_lapTrace._complete(lapTime, valid);
+    }
+
+    /**
+     * SIM implementors call this every tick, to record where the car is in the lap for the lap traces
+     * used by {@link #getLapTimeDelta(String)} and {@link #getLapTrace(String, String)}.
+     * For "ME", the gauges in "lap-trace-gauges" are recorded too.
+     * 
+     * @param percent The percentage of the lap completed.
+     * @param lapTime The time into the current lap in seconds.
+     */
+    protected void _addTrace(double percent, double lapTime) {
+        if (m_lapTraceGauges.length > 0 && isME()) {
+            Gauge[] gauges = m_lapTraceGaugeRefs;
+            if (gauges == null)
+                m_lapTraceGaugeRefs = gauges = _resolveLapTraceGauges();
+            for (int i = 0; i < gauges.length; i++) {
+                Gauge gauge = gauges[i];
+                if (gauge._isValueCurrentSet()) {
+                    m_lapTraceValues[i] = (gauge._getValueCurrent() * m_lapTraceScale[i]) + m_lapTraceOffset[i];
+                }
+                else {
+                    Data d = gauge.getValueCurrent();
+                    m_lapTraceValues[i] = d.getState().equals(Data.State.NOTAVAILABLE) ? Double.NaN : d.getDouble();
+                    m_lapTraceUOMs[i]   = d.getUOM();
+                }
+            }
+            m_lapTrace._add(percent, lapTime, m_lapTraceValues, m_lapTraceUOMs);
+        }
+        else {
+            m_lapTrace._add(percent, lapTime, null, null);
+        }
+    }
+
+    //looks up the lap trace gauges and the UOM each is shown in. The conversion from the gauge's UOM to it
+    //is kept as a scale and an offset, so the primitive values the SIM sets can be converted without a Data.
+    private Gauge[] _resolveLapTraceGauges() {
+        Gauge[] gauges = new Gauge[m_lapTraceGauges.length];
+        for (int i = 0; i < gauges.length; i++) {
+            gauges[i] = _getGauge(m_lapTraceGauges[i]);
+            String from = gauges[i]._getUOM();
+            String to   = gauges[i].getUOM().getString();
+            Data zero = new Data("",0.0,from).convertUOM(to);
+            Data one  = new Data("",1.0,from).convertUOM(to);
+            if (zero.getUOM().equalsIgnoreCase(to) && one.getUOM().equalsIgnoreCase(to)) {
+                m_lapTraceOffset[i] = zero.getDouble();
+                m_lapTraceScale[i]  = one.getDouble() - m_lapTraceOffset[i];
+                m_lapTraceUOMs[i]   = one.getUOM();
+            }
+            else {
+                m_lapTraceOffset[i] = 0.0;
+                m_lapTraceScale[i]  = 1.0;
+                m_lapTraceUOMs[i]   = from;
+            }
+        }
+        return gauges;
+    }
+
+    /**
+     * SIM implementors call this when a new session starts to forget the laps of the previous one.
+     */
+    protected void _clearLaps() {
+        m_lapTimeStatistics.clear();
+        m_fuelStatistics.clear();
+        m_lapTrace._clear();
+    }
+
+    private static String[] __getLapTraceGauges() {
+        ArrayList<String> gauges = new ArrayList<String>();
+        for (String gauge : Server.getArg("lap-trace-gauges", "Speedometer;Throttle;Brake").split(";")) {
+            if (!gauge.trim().isEmpty())
+                gauges.add(gauge.trim());
+        }
+        return gauges.toArray(new String[gauges.size()]);
+    }
+
     /**
      * Returns the bearing of the car.
      * 
@@ -310,6 +433,9 @@ public class Car {
      * @return The name of the class in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getClassColor() {
+        Data identity = _getIdentity("CLASSCOLOR");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/ClassColor",0,"rgb",Data.State.NORMAL);
     }
     
@@ -321,6 +447,9 @@ public class Car {
      * @return The name of the class in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getClassName() {
+        Data identity = _getIdentity("CLASSNAME");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/ClassName","","String",Data.State.NORMAL);
     }
     
@@ -332,6 +461,9 @@ public class Car {
      * @return The color of the car in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getColor() {
+        Data identity = _getIdentity("COLOR");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/Color",0xdddddd,"RGB",Data.State.NORMAL);
     }
 
@@ -343,6 +475,9 @@ public class Car {
      * @return The color of the car number in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getColorNumber() {
+        Data identity = _getIdentity("COLORNUMBER");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/ColorNumber",0x000000,"RGB",Data.State.NORMAL);
     }
 
@@ -354,6 +489,9 @@ public class Car {
      * @return The color of the car number's background in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getColorNumberBackground() {
+        Data identity = _getIdentity("COLORNUMBERBACKGROUND");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/ColorNumberBackground",0x333333,"RGB",Data.State.NORMAL);
     }
 
@@ -365,6 +503,9 @@ public class Car {
      * @return The color of the car number's outline in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getColorNumberOutline() {
+        Data identity = _getIdentity("COLORNUMBEROUTLINE");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/ColorNumberOutline",0xff0000,"RGB",Data.State.NORMAL);
     }
 
@@ -376,6 +517,9 @@ public class Car {
      * @return The description of the car in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDescription() {
+        Data identity = _getIdentity("DESCRIPTION");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/Description",m_description,"",Data.State.NORMAL);
     }
     
@@ -398,6 +542,9 @@ public class Car {
      * @return The club name in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDriverClubName() {
+        Data identity = _getIdentity("DRIVERCLUBNAME");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/DriverClubName","",Data.State.NORMAL);
     }
 
@@ -409,6 +556,9 @@ public class Car {
      * @return The division name in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDriverDivisionName() {
+        Data identity = _getIdentity("DRIVERDIVISIONNAME");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/DriverDivisionName","",Data.State.NORMAL);
     }
 
@@ -420,6 +570,9 @@ public class Car {
      * @return The initials in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDriverInitials() {
+        Data identity = _getIdentity("DRIVERINITIALS");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/DriverInitials","",Data.State.NORMAL);
     }
 
@@ -433,6 +586,9 @@ public class Car {
      * @return The license color in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDriverLicenseColor() {
+        Data identity = _getIdentity("DRIVERLICENSECOLOR");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/DriverLicenseColor",0xFF0000/*red*/,"RGB",Data.State.NORMAL);
     }
 
@@ -446,6 +602,9 @@ public class Car {
      * @return The license color in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDriverLicenseColorText() {
+        Data identity = _getIdentity("DRIVERLICENSECOLORTEXT");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/DriverLicenseColorText",0xffffff/*white*/,"RGB",Data.State.NORMAL);
     }
 
@@ -461,7 +620,7 @@ public class Car {
         return new Data("Car/"+m_carIdentifier+"/DriverName","","text",Data.State.NORMAL);
     }
     public Data getDriverName(String allowName) { return getDriverName(new Data("",allowName).getBoolean()); }
-    public Data getDriverName() { return getDriverName(true); }
+    public Data getDriverName() { Data identity = _getIdentity("DRIVERNAME"); return identity != null ? identity : getDriverName(true); }
 
     /**
      * Returns the name of the current driver of the car in a shortened format.
@@ -477,7 +636,7 @@ public class Car {
         return new Data("Car/"+m_carIdentifier+"/DriverNameShort","","text",Data.State.NORMAL);
     }
     public Data getDriverNameShort(String allowName) { return getDriverNameShort(new Data("",allowName).getBoolean()); }
-    public Data getDriverNameShort() { return getDriverNameShort(true); }
+    public Data getDriverNameShort() { Data identity = _getIdentity("DRIVERNAMESHORT"); return identity != null ? identity : getDriverNameShort(true); }
     
     /**
      * Returns the rating of the current driver of the car.
@@ -490,6 +649,9 @@ public class Car {
      * @return The rating in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getDriverRating() {
+        Data identity = _getIdentity("DRIVERRATING");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/DriverRating","0","rating");
     }
 
@@ -612,17 +774,18 @@ public class Car {
 //                              ? m_SIMPlugin.getSession().getCar("LEADER").getLapsToGo().getDouble()
 //                              : getLapsToGo().getDouble();
                 lapsRemaining = getLapsToGo().getDouble();
+                double myPercentComplete = getLap(LapType.COMPLETEDPERCENT).getDouble();
                 double percentComplete = /*m_SIMPlugin.getSession().getType().getString().equalsIgnoreCase(Session.Type.RACE)
                                        ? m_SIMPlugin.getSession().getCar("LEADER").getLap(LapType.COMPLETEDPERCENT).getDouble()
-                                       : */getLap(LapType.COMPLETEDPERCENT).getDouble();
+                                       : */myPercentComplete;
                 
                 //compensate for the leader cross the line before I have
                 //If so, add the distance to get to the line.
                 //otherwise, subtract the distance I am from the line
-                if (getLap(LapType.COMPLETEDPERCENT).getDouble() > percentComplete) //if ahead of leader, relative wise
-                    lapsRemaining += (1.0 - (getLap(LapType.COMPLETEDPERCENT).getDouble() / 100.0)); //then add distance to finish line
+                if (myPercentComplete > percentComplete) //if ahead of leader, relative wise
+                    lapsRemaining += (1.0 - (myPercentComplete / 100.0)); //then add distance to finish line
                 else
-                    lapsRemaining -= (getLap(LapType.COMPLETEDPERCENT).getDouble() / 100.0); //else subtract distance from finish line
+                    lapsRemaining -= (myPercentComplete / 100.0); //else subtract distance from finish line
             }
             
             if (lapsRemaining > 0.0 && fuelperlap.getDouble() > 0.0) {
@@ -644,7 +807,7 @@ public class Car {
         return getFuelLevelToFinish(Integer.parseInt(lapsToAverage),0,"");
     }
     public Data getFuelLevelToFinish() {
-        return getFuelLevelToFinish(Integer.toString(DEFAULT_LAPS_FUEL_MILAGE));
+        return getFuelLevelToFinish(DEFAULT_LAPS_FUEL_MILAGE,0.0,"");
     }
     
 
@@ -687,7 +850,7 @@ public class Car {
         return getFuelLevelNeeded(Integer.parseInt(lapsToAverage),0.0,"");
     }
     public Data getFuelLevelNeeded() {
-        return getFuelLevelNeeded(Integer.toString(DEFAULT_LAPS_FUEL_MILAGE));
+        return getFuelLevelNeeded(DEFAULT_LAPS_FUEL_MILAGE,0.0,"");
     }
 
     /**
@@ -700,7 +863,10 @@ public class Car {
      * @return The number of laps in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getFuelLevelPerLap(int lapsToAverage,String UOM) {
-        return new Data("Car/"+m_carIdentifier+"/FuelPerLap",0.0,"l",Data.State.NORMAL).convertUOM(UOM);
+        double fuelPerLap = 0.0;
+        if (m_fuelStatistics.getValidCount() > 0)
+            fuelPerLap = lapsToAverage == 0 ? m_fuelStatistics.getMaximum(0) : m_fuelStatistics.getAverage(lapsToAverage);
+        return new Data("Car/"+m_carIdentifier+"/FuelPerLap",fuelPerLap,"l",Data.State.NORMAL).convertUOM(UOM);
     }
     public Data getFuelLevelPerLap(String lapsToAverage,String UOM) {
         return getFuelLevelPerLap(Integer.parseInt(lapsToAverage),UOM);
@@ -799,6 +965,18 @@ public class Car {
     }
     
     private boolean m_shiftLightsLoaded = false;
+    
+    //The user's shift light overrides, from the most specific to the least specific.
+    //The values passed are track, car, gear and engine power.
+    private static final Config.Chain SHIFTLIGHTSTART = Config.chain(
+            "%1$s-%2$s-ShiftLightStart-%3$s-%4$d", "%1$s-%2$s-ShiftLightStart-%3$s", "%1$s-%2$s-ShiftLightStart",
+            "%2$s-ShiftLightStart-%3$s-%4$d",      "%2$s-ShiftLightStart-%3$s",      "%2$s-ShiftLightStart");
+    private static final Config.Chain SHIFTLIGHTSHIFT = Config.chain(
+            "%1$s-%2$s-ShiftLightShift-%3$s-%4$d", "%1$s-%2$s-ShiftLightShift-%3$s", "%1$s-%2$s-ShiftLightShift",
+            "%2$s-ShiftLightShift-%3$s-%4$d",      "%2$s-ShiftLightShift-%3$s",      "%2$s-ShiftLightShift");
+    private static final Config.Chain SHIFTLIGHTBLINK = Config.chain(
+            "%1$s-%2$s-ShiftLightBlink-%3$s-%4$d", "%1$s-%2$s-ShiftLightBlink-%3$s", "%1$s-%2$s-ShiftLightBlink",
+            "%2$s-ShiftLightBlink-%3$s-%4$d",      "%2$s-ShiftLightBlink-%3$s",      "%2$s-ShiftLightBlink");
     /**
      * Assigns a gauge instance to this car.
      * If one already exists, it is replaced
@@ -845,30 +1023,11 @@ public class Car {
                     //stockcars_chevyss-ShiftLightShift = 7000
                     //stockcars_chevyss-ShiftLightBlink = 8000
                     
-                    double DriverCarSLFirstRPM = Server.getArg(
-                                                    String.format(              "%s-%s-ShiftLightStart-%s-%d", track,car,gear.getValueCurrent().getString(),power.getValueCurrent().getInteger()),
-                                                    Server.getArg(String.format("%s-%s-ShiftLightStart-%s",    track,car,gear.getValueCurrent().getString()),
-                                                    Server.getArg(String.format("%s-%s-ShiftLightStart",       track,car),
-                                                    Server.getArg(String.format("%s-ShiftLightStart-%s-%d",          car,gear.getValueCurrent().getString(),power.getValueCurrent().getInteger()),
-                                                    Server.getArg(String.format("%s-ShiftLightStart-%s",             car,gear.getValueCurrent().getString()),
-                                                    Server.getArg(String.format("%s-ShiftLightStart",                car),      -1.0)
-                                                 )))));
-                    double DriverCarSLShiftRPM = Server.getArg(
-                                                    String.format(              "%s-%s-ShiftLightShift-%s-%d", track,car,gear.getValueCurrent().getString(),power.getValueCurrent().getInteger()),
-                                                    Server.getArg(String.format("%s-%s-ShiftLightShift-%s",    track,car,gear.getValueCurrent().getString()),
-                                                    Server.getArg(String.format("%s-%s-ShiftLightShift",       track,car),
-                                                    Server.getArg(String.format("%s-ShiftLightShift-%s-%d",          car,gear.getValueCurrent().getString(),power.getValueCurrent().getInteger()),
-                                                    Server.getArg(String.format("%s-ShiftLightShift-%s",             car,gear.getValueCurrent().getString()),
-                                                    Server.getArg(String.format("%s-ShiftLightShift",                car),      -1.0)
-                                                 )))));
-                    double DriverCarSLBlinkRPM = Server.getArg(
-                                                    String.format(              "%s-%s-ShiftLightBlink-%s-%d", track,car,gear.getValueCurrent().getString(),power.getValueCurrent().getInteger()),
-                                                    Server.getArg(String.format("%s-%s-ShiftLightBlink-%s",    track,car,gear.getValueCurrent().getString()),
-                                                    Server.getArg(String.format("%s-%s-ShiftLightBlink",       track,car),
-                                                    Server.getArg(String.format("%s-ShiftLightBlink-%s-%d",          car,gear.getValueCurrent().getString(),power.getValueCurrent().getInteger()),
-                                                    Server.getArg(String.format("%s-ShiftLightBlink-%s",             car,gear.getValueCurrent().getString()),
-                                                    Server.getArg(String.format("%s-ShiftLightBlink",                car),      -1.0)
-                                                 )))));
+                    String  gearValue  = gear.getValueCurrent().getString();
+                    Integer powerValue = power.getValueCurrent().getInteger();
+                    double DriverCarSLFirstRPM = SHIFTLIGHTSTART.asDouble(-1.0, track,car,gearValue,powerValue);
+                    double DriverCarSLShiftRPM = SHIFTLIGHTSHIFT.asDouble(-1.0, track,car,gearValue,powerValue);
+                    double DriverCarSLBlinkRPM = SHIFTLIGHTBLINK.asDouble(-1.0, track,car,gearValue,powerValue);
                     
                     if (DriverCarSLFirstRPM > 0.0 && DriverCarSLShiftRPM > 0.0 && DriverCarSLBlinkRPM > 0.0) {
                         gauge._addStateRange("","SHIFTLIGHTS",            DriverCarSLFirstRPM,                  DriverCarSLShiftRPM, "rev/min");
@@ -885,6 +1044,7 @@ public class Car {
         }
         
         m_gauges.put(gauge.getType().getString().toLowerCase(), gauge);
+        m_lapTraceGaugeRefs = null;
     }
 
     /**
@@ -1305,6 +1465,10 @@ public class Car {
         String s = LapType.getReference(lapType);
         Data d = new Data("Car/"+m_carIdentifier+"/LapTime/"+lapType+(lapsToAverage > 0 ? "/"+lapsToAverage : ""),0.0,"s",Data.State.NOTAVAILABLE);
         d.add("reference",s);
+        
+        //the averages come from the laps the SIM has added with _addLap()
+        if ((s.equals(LapType.AVERAGE) || s.equals(LapType.RUNNINGAVERAGE)) && m_lapTimeStatistics.getValidCount() > 0)
+            d.setValue(m_lapTimeStatistics.getAverage(lapsToAverage),"s",Data.State.NORMAL);
         return d;
     }
     public Data getLapTime(String lapType,String lapsToAverage) {
@@ -1332,6 +1496,10 @@ public class Car {
         String s = LapType.getReference(lapType);
         Data d = new Data("Car/"+m_carIdentifier+"/LapTimeDelta/"+lapType,0.0,"s",Data.State.NOTAVAILABLE);
         d.add("reference",s);
+        //SESSIONBEST and SESSIONLAST are known from the lap traces, if the SIM records them
+        double delta = m_lapTrace.getDelta(s);
+        if (!Double.isNaN(delta))
+            d.setValue(delta,"s",Data.State.NORMAL);
         return d;
     }
     public Data getLapTimeDelta() {
@@ -1375,6 +1543,9 @@ public class Car {
         String s = LapType.getReference(lapType);
         Data d = new Data("Car/"+m_carIdentifier+"/LapTimeDeltaReference/"+lapType,0.0,"s",Data.State.NOTAVAILABLE);
         d.add("reference",s);
+        double reference = m_lapTrace.getLapTime(s);
+        if (reference > 0.0)
+            d.setValue(reference,"s",Data.State.NORMAL);
         return d;
     }
     public Data getLapTimeDeltaReference() {
@@ -1389,6 +1560,14 @@ public class Car {
      * @return The Lap Time Estimate in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getLapTimeProjected() {
+        //the server projects every car in the standings once per tick
+        double projected = m_SIMPlugin.getSession()._getLapTimeProjected(m_id);
+        if (!Double.isNaN(projected)) {
+            Data d = new Data("Car/"+m_carIdentifier+"/LapTimeProjected",projected,"s");
+            d.setState(State.NORMAL);
+            return d;
+        }
+        
         double pct = getLap(Car.LapType.COMPLETEDPERCENT).getDouble() / 100.0;
         double timeProjection = 0.0;
 
@@ -1401,8 +1580,8 @@ public class Car {
         //while on pit road, use speed if we can get it, otherwise use last lap time
         //or of this is the pace car, use speed
         if ((remainingTime <= 0.0 || getStatus().getString().contains("PIT") || getIsPaceCar().getBoolean()) && Math.floor(carspeed.getDouble()) > 0.0) {
-            Data tracklength = m_SIMPlugin.getSession().getTrack().getLength().convertUOM("mile");
-            timeProjection = ( (tracklength.getDouble() / carspeed.getDouble()) * 60 * 60 );
+            double tracklength = m_SIMPlugin.getSession().getTrack()._getLengthMeters() / LapTimeProjections.METERS_PER_MILE;
+            timeProjection = ( (tracklength / carspeed.getDouble()) * 60 * 60 );
         }
         else {
             if (remainingTime > 0.0)
@@ -1428,6 +1607,43 @@ public class Car {
         return new Data("Car/"+m_carIdentifier+"/LapTimes",a,"lap",Data.State.NOTAVAILABLE);
     }
     
+    /**
+     * Returns a lap as an array of values by the distance around the track, one for every 0.1% of the lap,
+     * so laps can be compared index by index. Distances the car has not reached are null.
+     * <p>
+     * The laps are recorded if the SIM calls {@link #_addTrace(double, double)}.
+     * The time into the lap is recorded for every car, the gauges in "lap-trace-gauges" only for "ME".
+     * <p>
+     * Supported Lap Types are: CURRENT, SESSIONBEST, SESSIONLAST
+     * 
+     * <p>PATH = {@link #getLapTrace(String, String) /Car/(CARIDENTIFIER)/LapTrace/(LAPTYPE)/(CHANNEL)}
+     * 
+     * @param lapType (Optional) as defined by {@link com.SIMRacingApps.Car.LapType}. Default SESSIONBEST.
+     * @param channel (Optional) "Time" or one of the gauge types in "lap-trace-gauges". Default Time.
+     * @return The array of values in a {@link com.SIMRacingApps.Data} container.
+     */
+    public Data getLapTrace(String lapType, String channel) {
+        String s = LapType.getReference(lapType);
+        int c = m_lapTrace.getChannel(channel);
+        ArrayList<Double> a = new ArrayList<Double>();
+        Data d = new Data("Car/"+m_carIdentifier+"/LapTrace/"+lapType+"/"+channel,a,c < 0 ? "" : m_lapTrace.getUOM(c),Data.State.NOTAVAILABLE);
+        d.add("reference",s);
+        double[] trace = c < 0 ? null : m_lapTrace.getTrace(s, c);
+        if (trace != null) {
+            a.ensureCapacity(trace.length);
+            for (double v : trace)
+                a.add(Double.isNaN(v) ? null : v);
+            d.setState(Data.State.NORMAL);
+        }
+        return d;
+    }
+    public Data getLapTrace(String lapType) {
+        return getLapTrace(lapType, LapTrace.TIME);
+    }
+    public Data getLapTrace() {
+        return getLapTrace(LapType.SESSIONBEST, LapTrace.TIME);
+    }
+
     /**
      * Returns the invalid status of each lap in in an array.
      * false means good green flag lap, true means under yellow, or pitted.
@@ -1623,6 +1839,9 @@ public class Car {
      * @return The car number in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getNumber() {
+        Data identity = _getIdentity("NUMBER");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/Number","","String",Data.State.NOTAVAILABLE);
     }
 
@@ -1634,6 +1853,9 @@ public class Car {
      * @return The slant in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getNumberFont() {
+        Data identity = _getIdentity("NUMBERFONT");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/NumberFont","Arial","String",Data.State.NOTAVAILABLE);
     }
 
@@ -1646,6 +1868,9 @@ public class Car {
      * @return The slant in a {@link com.SIMRacingApps.Data} container.
      */
     public Data getNumberSlant() {
+        Data identity = _getIdentity("NUMBERSLANT");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/NumberSlant","backwards","String",Data.State.NOTAVAILABLE);
     }
     
@@ -2000,6 +2225,46 @@ public class Car {
         return new Data("Car/"+m_carIdentifier+"/RPMPitRoadSpeed",m_pitRoadSpeedRPM,"rev/min",Data.State.NORMAL);
     }
     
+    /**
+     * Returns one of the values of this car that only come from the session information, like the driver's name or the number,
+     * without calling the SIM each time. All of them are read the first time one is asked for
+     * after the {@link com.SIMRacingApps.Session#getInfoVersion() /Session/InfoVersion} changes.
+     * If the SIM does not provide an InfoVersion, they are read at most once per tick instead.
+     * <p>
+     * The getters of these values call this first and return what it returns, if it is not null.
+     * A SIM that overrides one of them should do the same, so its callers share the snapshot too.
+     * While the snapshot is being taken, this returns null to the thread taking it, so the getters read the SIM.
+     * Two threads may take one at the same time, the last one is kept.
+     * 
+     * @param name The name of the value, as the data paths use it, upper case without the "get". For example, "DRIVERNAME".
+     * @return The value, shared by all callers so it must not be changed, or null if it should be read from the SIM.
+     */
+    protected Data _getIdentity(String name) {
+        //checked first, so the other paths do not read the InfoVersion
+        if (!CarIdentity.isName(name) || CarIdentity.isTaking())
+            return null;
+
+        Data infoVersion = m_SIMPlugin.getSession().getInfoVersion();
+        Object version = infoVersion.getState().equals(Data.State.NORMAL) ? infoVersion.getValue() : null;
+        long tick = m_SIMPlugin._getTickCount();
+        
+        CarIdentity identity = m_identity;
+        if (identity == null || !identity.isCurrent(version,tick)) {
+            identity = new CarIdentity(this,version,tick);
+            m_identity = identity;
+        }
+        return identity.get(name);
+    }
+
+    /**
+     * @param name The name of the value, as the data paths use it, without the "get". For example, "DriverName".
+     * @return true if the value only comes from the session information and does not change until the
+     *         {@link com.SIMRacingApps.Session#getInfoVersion() /Session/InfoVersion} does, see {@link #_getIdentity(String)}.
+     */
+    public static boolean _isIdentity(String name) {
+        return CarIdentity.isName(name.toUpperCase());
+    }
+
     /**
      * Returns the sector number this car is currently in. Returns zero(0) if car is not on the track, else the sector number starting with 1. 
      * 
@@ -2010,27 +2275,86 @@ public class Car {
     public Data getSector() {
         Data d = new Data("Car/"+m_carIdentifier+"/Sector",0,"",Data.State.NORMAL);
         
-        ArrayList<Double> sectors = m_SIMPlugin.getSession().getTrack().getSectors(SectorType.PERCENTAGE).getDoubleArray();
-        double percentage         = this.getLap(LapType.COMPLETEDPERCENT).getDouble();
-        String location           = this.getStatus().getString();
+        Object version = m_SIMPlugin.getSession().getDataVersion().getValue();
+        synchronized (m_sectorLock) {
+            if (version.equals(m_sectorVersion)) {
+                if (m_sector > 0)
+                    d.setValue(m_sector);
+                return d;
+            }
+        }
         
+        int sector = 0;
+        String location = this.getStatus().getString();
         if (location.equals(Car.Status.ONTRACK)
         ||  location.equals(Car.Status.OFFTRACK)
         ) {
-            int sector = 0;
-            while ((sector*2) < sectors.size()-1) {
-                if (percentage >= sectors.get(sector*2) && percentage < sectors.get((sector*2)+1)) {
-                    d.setValue(sector+1);
-                    break;
-                }
-                
-                sector++;
-            }
+            sector = m_SIMPlugin.getSession().getTrack()._getSector(this.getLap(LapType.COMPLETEDPERCENT).getDouble());
         }
         
+        synchronized (m_sectorLock) {
+            m_sectorVersion = version;
+            m_sector        = sector;
+        }
+        if (sector > 0)
+            d.setValue(sector);
         return d;
     }
 
+    /**
+     * Returns the time of a sector, timed by the server for every car on each tick
+     * by interpolating when the car crossed the start of each sector from the percentage of the lap completed and the session time.
+     * The sector number is returned in the "sector" value.
+     * <p>
+     * Supported Lap Types are:
+     * <dl>
+     * <dt>CURRENT</dt><dd>The time so far in the sector the car is in.</dd>
+     * <dt>SESSIONLAST</dt><dd>The last time of the sector.</dd>
+     * <dt>SESSIONBEST</dt><dd>The car's best time of the sector, not counting the times on pit road.</dd>
+     * </dl>
+     * See {@link com.SIMRacingApps.Session#getSectorTimeBest(String)} for the best of all the cars.
+     * 
+     * <p>PATH = {@link #getSectorTime(String, String) /Car/(CARIDENTIFIER)/SectorTime/(LAPTYPE)/(SECTOR)}
+     * 
+     * @since 1.23
+     * @param lapType (Optional) as defined by {@link com.SIMRacingApps.Car.LapType}. Default SESSIONLAST.
+     * @param sector (Optional) The sector number starting with 1. Default, the sector the car is in for CURRENT and the sector it last completed for the others.
+     * @return The time in seconds in a {@link com.SIMRacingApps.Data} container.
+     */
+    public Data getSectorTime(String lapType, String sector) {
+        String s = LapType.getReference(lapType);
+        Data d = new Data("Car/"+m_carIdentifier+"/SectorTime/"+lapType+"/"+sector,0.0,"s",Data.State.NOTAVAILABLE);
+        d.add("reference",s);
+        
+        SectorTimes times = m_SIMPlugin.getSession()._getSectorTimes();
+        int n = sector.isEmpty() ? 0 : new Data("",sector).getInteger();
+        if (n <= 0)
+            n = s.equals(LapType.CURRENT) ? times.getSector(m_id) : times.getCompleted(m_id);
+        d.add("sector",n);
+        
+        double time = 0.0;
+        if (s.equals(LapType.CURRENT)) {
+            if (n == times.getSector(m_id))
+                time = times.getCurrent(m_id);
+        }
+        else
+        if (s.equals(LapType.SESSIONLAST))
+            time = times.getLast(m_id, n);
+        else
+        if (s.equals(LapType.SESSIONBEST))
+            time = times.getBest(m_id, n);
+        
+        if (!Double.isNaN(time) && time > 0.0)
+            d.setValue(time,"s",Data.State.NORMAL);
+        return d;
+    }
+    public Data getSectorTime(String lapType) {
+        return getSectorTime(lapType, "");
+    }
+    public Data getSectorTime() {
+        return getSectorTime(LapType.SESSIONLAST, "");
+    }
+
     /**
      * Returns the current spotter message. 
      * 
@@ -2073,6 +2397,9 @@ public class Car {
      * @return The team name. Blank if session does not have teams 
      */
     public Data getTeamName() {
+        Data identity = _getIdentity("TEAMNAME");
+        if (identity != null)
+            return identity;
         return new Data("Car/"+m_carIdentifier+"/TeamName","","",Data.State.NOTAVAILABLE);
     }
     
@@ -2286,6 +2613,54 @@ public class Car {
     public Data getStatus() {
         return new Data("Car/"+m_carIdentifier+"/Status",Car.Status.INVALID,"Car.Status",Data.State.NOTAVAILABLE);
     }
+
+    /**
+     * Sets the status and the flags of the car for this tick, for the callers that cannot afford to build a {@link com.SIMRacingApps.Data}
+     * on every tick, like the realtime callbacks. The SIM should call it as it reads its data.
+     * It does not change what {@link #getStatus()} returns, the SIM still overrides that.
+     * 
+     * @param status The status as defined by {@link com.SIMRacingApps.Car.Status}.
+     * @param flags The bits defined by {@link com.SIMRacingApps.Car.StatusFlag} that are on.
+     */
+    public void _setStatusCurrent(String status, int flags) {
+        m_statusCurrent    = status;
+        m_flagsCurrent     = flags;
+        m_statusCurrentSet = true;
+    }
+
+    /**
+     * Forgets the status set by {@link #_setStatusCurrent(String, int)}, 
+     * for when the SIM no longer has it, so it is read from {@link #getStatus()} again.
+     */
+    public void _clearStatusCurrent() { m_statusCurrentSet = false; }
+
+    /**
+     * Returns the status, without building a {@link com.SIMRacingApps.Data},
+     * if the SIM set it with {@link #_setStatusCurrent(String, int)}. Otherwise it is read from {@link #getStatus()}.
+     * @return The status as defined by {@link com.SIMRacingApps.Car.Status}.
+     */
+    public String _getStatusCurrent() {
+        return m_statusCurrentSet ? m_statusCurrent : getStatus().getString();
+    }
+
+    /**
+     * Returns the flags, without building a {@link com.SIMRacingApps.Data},
+     * if the SIM set them with {@link #_setStatusCurrent(String, int)}. 
+     * Otherwise they are read from {@link #getMessages()}, {@link #getIsYellowFlag()} and {@link #getIsBlueFlag()}.
+     * @return The bits defined by {@link com.SIMRacingApps.Car.StatusFlag} that are on.
+     */
+    public int _getFlagsCurrent() {
+        if (m_statusCurrentSet)
+            return m_flagsCurrent;
+        int flags = 0;
+        if (getMessages().getString().contains(";"+Message.PITSPEEDLIMITER+";"))
+            flags |= StatusFlag.PITSPEEDLIMITER;
+        if (getIsYellowFlag().getBoolean())
+            flags |= StatusFlag.YELLOW;
+        if (getIsBlueFlag().getBoolean())
+            flags |= StatusFlag.BLUE;
+        return flags;
+    }
     
     /**
      * Returns the status of the car and the car identifier as one string.
@@ -2510,30 +2885,9 @@ public class Car {
                 do {
                     
                     String sGear = gearBox.getString();
-                    DriverCarSLFirstRPM = Server.getArg(
-                            String.format(              "%s-%s-ShiftLightStart-%s-%d", track,car,sGear,enginePower),
-                            Server.getArg(String.format("%s-%s-ShiftLightStart-%s",    track,car,sGear),
-                            Server.getArg(String.format("%s-%s-ShiftLightStart",       track,car),
-                            Server.getArg(String.format("%s-ShiftLightStart-%s-%d",    car,sGear,enginePower),
-                            Server.getArg(String.format("%s-ShiftLightStart-%s",       car,sGear),
-                            Server.getArg(String.format("%s-ShiftLightStart",          car),      -1.0)
-                         )))));
-                    DriverCarSLShiftRPM = Server.getArg(
-                            String.format(              "%s-%s-ShiftLightShift-%s-%d", track,car,sGear,enginePower),
-                            Server.getArg(String.format("%s-%s-ShiftLightShift-%s",    track,car,sGear),
-                            Server.getArg(String.format("%s-%s-ShiftLightShift",       track,car),
-                            Server.getArg(String.format("%s-ShiftLightShift-%s-%d",    car,sGear,enginePower),
-                            Server.getArg(String.format("%s-ShiftLightShift-%s",       car,sGear),
-                            Server.getArg(String.format("%s-ShiftLightShift",          car),      -1.0)
-                         )))));
-                    DriverCarSLBlinkRPM = Server.getArg(
-                            String.format(              "%s-%s-ShiftLightBlink-%s-%d", track,car,sGear,enginePower),
-                            Server.getArg(String.format("%s-%s-ShiftLightBlink-%s",    track,car,sGear),
-                            Server.getArg(String.format("%s-%s-ShiftLightBlink",       track,car),
-                            Server.getArg(String.format("%s-ShiftLightBlink-%s-%d",    car,sGear,enginePower),
-                            Server.getArg(String.format("%s-ShiftLightBlink-%s",       car,sGear),
-                            Server.getArg(String.format("%s-ShiftLightBlink",          car),      -1.0)
-                         )))));
+                    DriverCarSLFirstRPM = SHIFTLIGHTSTART.asDouble(-1.0, track,car,sGear,enginePower);
+                    DriverCarSLShiftRPM = SHIFTLIGHTSHIFT.asDouble(-1.0, track,car,sGear,enginePower);
+                    DriverCarSLBlinkRPM = SHIFTLIGHTBLINK.asDouble(-1.0, track,car,sGear,enginePower);
 
                     if (DriverCarSLFirstRPM > 0.0 && DriverCarSLShiftRPM > 0.0 && DriverCarSLBlinkRPM > 0.0) {
                         gauge._addStateRange("","SHIFTLIGHTS",            DriverCarSLFirstRPM,                  DriverCarSLShiftRPM, "rev/min");
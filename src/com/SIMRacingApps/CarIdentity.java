@@ -0,0 +1,118 @@
+package com.SIMRacingApps;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is a snapshot of the values of a car that only come from the session information,
+ * like the driver's name, the number, the colors and the class.
+ * The timing towers ask for them for every car on every poll, but they only change when the
+ * {@link com.SIMRacingApps.Session#getInfoVersion() /Session/InfoVersion} does.
+ * <p>
+ * The snapshot is taken by calling the car's getters once, so the SIM's overrides and the user's driver name mappings are used,
+ * and is never changed after that. A new one is taken when the version changes, see {@link com.SIMRacingApps.Car#_getIdentity(String)}.
+ * If the SIM does not provide a version, a new one is taken at most once per tick instead.
+ * <p>
+ * The getters return the {@link com.SIMRacingApps.Data} instances in it as is, so they must not be changed.
+ * The data paths get a copy from SIMPlugin.callMethod(), because it renames it, but DataService keeps the JSON of
+ * these values until the version changes, so that only happens once per version.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+class CarIdentity {
+
+    //the names of the values in the snapshot, keep it in sync with _put()
+    private static final Set<String> NAMES = new HashSet<String>(Arrays.asList(
+        "CLASSCOLOR","CLASSNAME","COLOR","COLORNUMBER","COLORNUMBERBACKGROUND","COLORNUMBEROUTLINE","DESCRIPTION",
+        "DRIVERCLUBNAME","DRIVERDIVISIONNAME","DRIVERINITIALS","DRIVERLICENSECOLOR","DRIVERLICENSECOLORTEXT",
+        "DRIVERNAME","DRIVERNAMESHORT","DRIVERRATING","NUMBER","NUMBERFONT","NUMBERSLANT","TEAMNAME"
+    ));
+
+    //true on the thread taking a snapshot, so the getters it calls read the SIM
+    private static final ThreadLocal<Boolean> TAKING = new ThreadLocal<Boolean>();
+
+    private final Object m_version;
+    private final long m_tick;
+    private final Map<String,Data> m_values = new HashMap<String,Data>();
+
+    /**
+     * Takes the snapshot.
+     * @param car The car.
+     * @param version The {@link com.SIMRacingApps.Session#getInfoVersion() InfoVersion} it is for, or null if the SIM does not provide one.
+     * @param tick The tick it is for, only used when there is no version.
+     */
+    CarIdentity(Car car, Object version, long tick) {
+        m_version = version;
+        m_tick = version == null ? tick : -1L;
+        Boolean taking = TAKING.get();
+        TAKING.set(Boolean.TRUE);
+        try {
+            _put(car);
+        }
+        finally {
+            TAKING.set(taking);
+        }
+    }
+
+    private void _put(Car car) {
+        m_values.put("CLASSCOLOR",             car.getClassColor());
+        m_values.put("CLASSNAME",              car.getClassName());
+        m_values.put("COLOR",                  car.getColor());
+        m_values.put("COLORNUMBER",            car.getColorNumber());
+        m_values.put("COLORNUMBERBACKGROUND",  car.getColorNumberBackground());
+        m_values.put("COLORNUMBEROUTLINE",     car.getColorNumberOutline());
+        m_values.put("DESCRIPTION",            car.getDescription());
+        m_values.put("DRIVERCLUBNAME",         car.getDriverClubName());
+        m_values.put("DRIVERDIVISIONNAME",     car.getDriverDivisionName());
+        m_values.put("DRIVERINITIALS",         car.getDriverInitials());
+        m_values.put("DRIVERLICENSECOLOR",     car.getDriverLicenseColor());
+        m_values.put("DRIVERLICENSECOLORTEXT", car.getDriverLicenseColorText());
+        m_values.put("DRIVERNAME",             car.getDriverName());
+        m_values.put("DRIVERNAMESHORT",        car.getDriverNameShort());
+        m_values.put("DRIVERRATING",           car.getDriverRating());
+        m_values.put("NUMBER",                 car.getNumber());
+        m_values.put("NUMBERFONT",             car.getNumberFont());
+        m_values.put("NUMBERSLANT",            car.getNumberSlant());
+        m_values.put("TEAMNAME",               car.getTeamName());
+    }
+
+    /**
+     * @param name The name of the value, upper case without the "get".
+     * @return true if it is one of the values in the snapshot.
+     */
+    static boolean isName(String name) {
+        return NAMES.contains(name);
+    }
+
+    /**
+     * @return true if this thread is taking a snapshot.
+     */
+    static boolean isTaking() {
+        return TAKING.get() != null;
+    }
+
+    /**
+     * @param version The current InfoVersion, or null if the SIM does not provide one.
+     * @param tick The current tick.
+     * @return true if the snapshot was taken for this version, or for this tick when there is no version.
+     */
+    boolean isCurrent(Object version, long tick) {
+        if (version == null)
+            return m_version == null && m_tick == tick;
+        return version.equals(m_version);
+    }
+
+    /**
+     * @param name The name of the value, as the data paths use it, upper case without the "get". For example, "DRIVERNAME".
+     * @return The value, shared by all callers so it must not be changed, or null if it is not in the snapshot.
+     */
+    Data get(String name) {
+        return m_values.get(name);
+    }
+}
@@ -622,6 +622,14 @@ public class Data extends Object {
     public Type      getType(String name)                           { return m_data.get(name) == null ? null : m_data.get(name).Type;}
     public Type      getType()                                      { return getType(m_defaultname);}
     
+    /**
+     * Returns the Locale used to format the value, see {@link #getStringFormatted(String, String)}.
+     * @param name (Optional), The name of the value.
+     * @return The Locale.
+     */
+    public Locale    getLocale(String name)                         { return m_data.get(name) == null ? Locale.getDefault() : m_data.get(name).locale;}
+    public Locale    getLocale()                                    { return getLocale(m_defaultname);}
+    
     /**
      * Returns the format string.
      * @param name (Optional), The name of the value.
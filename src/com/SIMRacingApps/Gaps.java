@@ -0,0 +1,341 @@
+package com.SIMRacingApps;
+
+import java.util.Arrays;
+
+/**
+ * This class computes the gaps between cars for {@link com.SIMRacingApps.Session#getDiffCars(String, String)}
+ * and {@link com.SIMRacingApps.Session#getDiffCarsRelative(String, String)} from primitive state
+ * that is read from each car once per {@link com.SIMRacingApps.Session#getDataVersion() DataVersion}.
+ * <p>
+ * When it is built, it reads the laps, the percentage of the lap completed and the lap times of every car in the
+ * {@link com.SIMRacingApps.Standings} in a single pass, along with the projected lap time and the smoothed speed
+ * that {@link com.SIMRacingApps.LapTimeProjections} keeps for the tick, then computes the gap vectors of every car
+ * to the leader of its class, to the overall leader, to the car one position ahead and to the reference car.
+ * Any other pair is computed the first time it is asked for.
+ * Every gap is kept until the next DataVersion, so a timing tower asking for the same gaps over and over only computes them once.
+ * <p>
+ * The results are the same as the original calculations, except the faster car is picked by its smoothed speed.
+ * The original calculations are still used for the PITSTALL and for cars not in the standings.
+ * Only {@link com.SIMRacingApps.Session} builds and reads it, while holding the lock on the standings.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+class Gaps {
+
+    //what a result is
+    static final int SECONDS = 0;
+    static final int LAPS    = 1;
+    static final int BLANK   = 2;   //the qualifying time is not known
+
+    //the kinds of gaps
+    private static final int DIFFCARS          = 0;
+    private static final int RELATIVE_AHEAD    = 1;
+    private static final int RELATIVE_BEHIND   = 2;
+
+    //how getDiffCars() calculates the gap for this session
+    private static final int MODE_RACE      = 0;    //racing, by distance
+    private static final int MODE_GRID      = 1;    //lap 1 of a race, by qualifying time
+    private static final int MODE_BESTLAP   = 2;    //practice and qualifying, by best lap
+
+    private int      m_mode         = MODE_BESTLAP;
+    private boolean  m_checkered    = false;
+
+    //the primitive state of each car, by the entry in the standings
+    private int      m_count        = 0;
+    private int[]    m_entryById    = new int[64];
+    private Car[]    m_cars         = new Car[64];     //by id, looked up again when the InfoVersion changes
+    private Object   m_carsVersion  = null;
+    private int      m_ids          = 0;
+    private boolean[] m_valid       = new boolean[64];
+    private double[] m_lap          = new double[64];
+    private double[] m_percent      = new double[64];
+    private double[] m_speed        = new double[64];  //smoothed, meters per second
+    private double[] m_projected    = new double[64];
+    private double[] m_last         = new double[64];
+    private double[] m_finishLine   = new double[64];
+    private double[] m_raceStart    = new double[64];
+    private double[] m_qualifying   = new double[64];
+    private double[] m_best         = new double[64];
+
+    //the gaps computed so far, open addressing on the pair. A key of zero is an empty slot.
+    private long[]   m_keys         = new long[1024];
+    private double[] m_values       = new double[1024];
+    private int[]    m_types        = new int[1024];
+    private int      m_used         = 0;
+
+    //the result of the last lookup
+    private double   m_value;
+    private int      m_type;
+
+    Gaps() {}
+
+    /**
+     * Reads the state of every car in the standings and computes the gap vectors.
+     * @param session The session.
+     * @param standings The standings, already built for this DataVersion.
+     */
+    void _build(Session session, Standings standings) {
+        String type   = session.getType().getString();
+        int    lap    = session.getLap().getInteger();
+        m_mode        = type.equalsIgnoreCase("RACE") ? (lap > 1 ? MODE_RACE : MODE_GRID) : MODE_BESTLAP;
+        m_checkered   = session.getIsCheckeredFlag().getBoolean();
+        Object version                 = session.getDataVersion().getValue();
+        LapTimeProjections projections = session._getLapTimeProjections();
+
+        m_count = standings.getCount();
+        if (m_valid.length < m_count) {
+            int size = Math.max(m_count, m_valid.length * 2);
+            m_valid      = new boolean[size];
+            m_lap        = new double[size];
+            m_percent    = new double[size];
+            m_speed      = new double[size];
+            m_projected  = new double[size];
+            m_last       = new double[size];
+            m_finishLine = new double[size];
+            m_raceStart  = new double[size];
+            m_qualifying = new double[size];
+            m_best       = new double[size];
+        }
+
+        int maxId = -1;
+        for (int e = 0; e < m_count; e++)
+            maxId = Math.max(maxId, standings._getId(e));
+        m_ids = maxId + 1;
+        if (m_entryById.length < m_ids)
+            m_entryById = new int[Math.max(m_ids, m_entryById.length * 2)];
+        Arrays.fill(m_entryById, 0, m_ids, -1);
+
+        Object infoVersion = session.getInfoVersion().getValue();
+        if (!infoVersion.equals(m_carsVersion)) {
+            Arrays.fill(m_cars, null);
+            m_carsVersion = infoVersion;
+        }
+        if (m_cars.length < m_ids)
+            m_cars = Arrays.copyOf(m_cars, Math.max(m_ids, m_cars.length * 2));
+
+        //the one pass over the cars, only reading what this session's mode needs
+        for (int e = 0; e < m_count; e++) {
+            int id = standings._getId(e);
+            m_entryById[id] = e;
+            Car car = m_cars[id];
+            if (car == null) {
+                car = session.getCar("I" + id);
+                if (car != null && car.getId().getInteger() == id)
+                    m_cars[id] = car;
+                else
+                    car = null;
+            }
+            m_valid[e] = car != null && car.isValid();
+            if (!m_valid[e])
+                continue;
+
+            if (m_mode == MODE_RACE) {
+                m_lap[e]        = car.getLap(Car.LapType.COMPLETED).getDouble();
+                m_percent[e]    = car.getLap(Car.LapType.COMPLETEDPERCENT).getDouble();
+                m_speed[e]      = projections.getSpeed(version, id);
+                m_projected[e]  = projections.getProjected(version, id);
+                //if the car was not projected this tick, read them the original way
+                if (Double.isNaN(m_speed[e]))
+                    m_speed[e]      = car._getGauge(Gauge.Type.SPEEDOMETER).getValueCurrent("mph").getDouble() * LapTimeProjections.MPS_PER_MPH;
+                if (Double.isNaN(m_projected[e]))
+                    m_projected[e]  = car.getLapTimeProjected().getDouble();
+                if (m_checkered) {
+                    m_finishLine[e] = car.getLapTime(Car.LapType.FINISHLINE).getDouble();
+                    m_raceStart[e]  = car.getLapTime(Car.LapType.RACESTART).getDouble();
+                }
+                else {
+                    m_last[e]   = car.getLapTime(Car.LapType.SESSIONLAST).getDouble();
+                }
+            }
+            else {
+                m_percent[e]    = car.getLap(Car.LapType.COMPLETEDPERCENT).getDouble();
+                m_projected[e]  = projections.getProjected(version, id);
+                if (Double.isNaN(m_projected[e]))
+                    m_projected[e]  = car.getLapTimeProjected().getDouble();
+                if (m_mode == MODE_GRID)
+                    m_qualifying[e] = car.getLapTime(Car.LapType.QUALIFYING).getDouble();
+                else
+                    m_best[e]       = car.getLapTime(Car.LapType.SESSIONBEST).getDouble();
+            }
+        }
+
+        if (m_used > 0) {
+            Arrays.fill(m_keys, 0L);
+            m_used = 0;
+        }
+
+        //the gap vectors
+        int leader    = standings._getLeader();
+        int reference = standings._getReference();
+        for (int e = 0; e < m_count; e++) {
+            int id = standings._getId(e);
+            int classLeader = standings._getClassLeader(id);
+            if (classLeader >= 0)
+                getDiffCars(classLeader, id);
+            if (leader >= 0 && leader != classLeader)
+                getDiffCars(leader, id);
+            int ahead = standings._getAhead(id);
+            if (ahead >= 0)
+                getDiffCars(ahead, id);
+            if (reference >= 0)
+                getDiffCars(id, reference);
+        }
+    }
+
+    /**
+     * Looks up, or computes, the gap returned by {@link com.SIMRacingApps.Session#getDiffCars(String, String)}.
+     * The result is in {@link #getValue()} and {@link #getType()}.
+     * @param id1 The id of car 1.
+     * @param id2 The id of car 2.
+     * @return false if either car is not known, so the original calculation has to be used.
+     */
+    boolean getDiffCars(int id1, int id2) {
+        int e1 = _entry(id1), e2 = _entry(id2);
+        if (e1 < 0 || e2 < 0)
+            return false;
+        long key = _key(DIFFCARS, id1, id2);
+        if (_get(key))
+            return true;
+
+        m_type = SECONDS;
+        if (m_mode == MODE_RACE) {
+            double pct1 = m_checkered ? 0.0 : m_percent[e1];
+            double pct2 = m_checkered ? 0.0 : m_percent[e2];
+            double distanceBetween = (m_lap[e2] + (pct2 / 100.0)) - (m_lap[e1] + (pct1 / 100.0));
+
+            //if refcar is the car, then just show the last time or the total session time if the race has finished.
+            if (id1 == id2) {
+                m_value = m_checkered ? m_finishLine[e2] - m_raceStart[e2] : m_last[e2];
+            }
+            else
+            if (distanceBetween >= 1.0) {
+                m_value = Math.floor(distanceBetween);
+                m_type  = LAPS;
+            }
+            else
+            if (distanceBetween <= -1.0) {
+                m_value = Math.ceil(distanceBetween);
+                m_type  = LAPS;
+            }
+            else
+            if (m_checkered) {
+                //the original uses car 1's race start for both cars
+                m_value = (m_finishLine[e1] - m_raceStart[e1]) - (m_finishLine[e2] - m_raceStart[e1]);
+            }
+            else {
+                //use the fastest car
+                m_value = distanceBetween * m_projected[m_speed[e1] > m_speed[e2] ? e1 : e2];
+            }
+        }
+        else
+        if (m_mode == MODE_GRID) {
+            if (id1 == id2)
+                m_value = m_qualifying[e2];
+            else
+            if (m_qualifying[e2] > 0.0)
+                m_value = m_qualifying[e1] - m_qualifying[e2];
+            else {
+                m_value = 0.0;
+                m_type  = BLANK;
+            }
+        }
+        else {
+            m_value = id1 == id2 ? m_best[e2] : m_best[e1] - m_best[e2];
+        }
+
+        _put(key);
+        return true;
+    }
+
+    /**
+     * Looks up, or computes, the gap returned by {@link com.SIMRacingApps.Session#getDiffCarsRelative(String, String)}.
+     * The result, always seconds, is in {@link #getValue()}.
+     * @param id1 The id of car 1.
+     * @param id2 The id of car 2.
+     * @param behind true if car 2 is named as being behind car 1.
+     * @return false if either car is not known, so the original calculation has to be used.
+     */
+    boolean getDiffCarsRelative(int id1, int id2, boolean behind) {
+        int e1 = _entry(id1), e2 = _entry(id2);
+        if (e1 < 0 || e2 < 0)
+            return false;
+        long key = _key(behind ? RELATIVE_BEHIND : RELATIVE_AHEAD, id1, id2);
+        if (_get(key))
+            return true;
+
+        double pct1 = m_percent[e1] / 100.0;
+        double pct2 = m_percent[e2] / 100.0;
+        double distanceBetween;
+        if (behind)
+            distanceBetween = pct2 > pct1 ? (1.0 - (pct2 - pct1)) * -1.0 : (pct1 - pct2) * -1.0;
+        else
+            distanceBetween = pct2 < pct1 ? (1.0 - (pct1 - pct2)) : (pct2 - pct1);
+
+        //if car1 is not moving, see if car2 is.
+        double projected = m_projected[e1] > 0.0 ? m_projected[e1] : m_projected[e2];
+        m_value = distanceBetween * projected;
+        m_type  = SECONDS;
+
+        _put(key);
+        return true;
+    }
+
+    /** @return The value of the last lookup. */
+    double getValue() { return m_value; }
+    /** @return The type of the last lookup, {@link #SECONDS}, {@link #LAPS} or {@link #BLANK}. */
+    int    getType()  { return m_type; }
+
+    private int _entry(int id) {
+        int e = id >= 0 && id < m_ids ? m_entryById[id] : -1;
+        return e >= 0 && m_valid[e] ? e : -1;
+    }
+
+    private static long _key(int kind, int id1, int id2) {
+        return (((long)kind + 1L) << 48) | (((long)id1 & 0xFFFFFFL) << 24) | ((long)id2 & 0xFFFFFFL);
+    }
+
+    private int _slot(long key) {
+        int h = (int)(key ^ (key >>> 24) ^ (key >>> 48)) * 0x9E3779B9;
+        return (h >>> 16) & (m_keys.length - 1);
+    }
+
+    private boolean _get(long key) {
+        for (int slot = _slot(key); m_keys[slot] != 0L; slot = (slot + 1) & (m_keys.length - 1)) {
+            if (m_keys[slot] == key) {
+                m_value = m_values[slot];
+                m_type  = m_types[slot];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void _put(long key) {
+        if ((m_used + 1) * 2 > m_keys.length) {
+            long[]   keys   = m_keys;
+            double[] values = m_values;
+            int[]    types  = m_types;
+            m_keys   = new long[keys.length * 2];
+            m_values = new double[keys.length * 2];
+            m_types  = new int[keys.length * 2];
+            m_used   = 0;
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] != 0L)
+                    _put(keys[i], values[i], types[i]);
+        }
+        _put(key, m_value, m_type);
+    }
+
+    private void _put(long key, double value, int type) {
+        int slot = _slot(key);
+        while (m_keys[slot] != 0L)
+            slot = (slot + 1) & (m_keys.length - 1);
+        m_keys[slot]   = key;
+        m_values[slot] = value;
+        m_types[slot]  = type;
+        m_used++;
+    }
+}
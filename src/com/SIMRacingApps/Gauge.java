@@ -589,6 +589,35 @@ public class Gauge {
 	protected ArrayList<String> m_stateRangeList = null;
     protected String m_reader;
     protected int m_lapChanged;
+
+    //the current value as a primitive in the gauge's UOM, set by the SIM on each tick, see _setValueCurrent()
+    private boolean m_valueCurrentSet       = false;
+    private double  m_valueCurrent          = 0.0;
+    private String  m_valueCurrentState     = Data.State.NORMAL;
+    private String  m_valueCurrentReplaced  = null;         //the value from the state range, if it replaces it
+    private String  m_valueCurrentString    = "";
+    private double  m_valueCurrentStringOf  = Double.NaN;   //the value m_valueCurrentString was made from
+
+    //the state ranges in the gauge's UOM, made as each gear and power is first seen, see __getPrimitiveStates()
+    private Map<String,PrimitiveStates> m_primitiveStates = new HashMap<String,PrimitiveStates>();
+    private String  m_primitiveGear         = null;
+    private String  m_primitivePower        = null;
+    private PrimitiveStates m_primitive     = null;
+
+    //the state ranges of a gear and power, in the order _getReturnValue() checks them
+    private static class PrimitiveStates {
+        final double[] start;
+        final double[] end;
+        final String[] state;
+        final String[] value;
+
+        PrimitiveStates(int size) {
+            start = new double[size];
+            end   = new double[size];
+            state = new String[size];
+            value = new String[size];
+        }
+    }
     
     @SuppressWarnings("unused")
     private Gauge() {}
@@ -984,9 +1013,153 @@ public class Gauge {
      * @param UOM (Optional) The unit of measure to return, default to the gauges UOM.
      * @return The current value.
      */
-    public Data getValueCurrent(String UOM) { return _getReturnValue(new Data("Car/"+m_carIdentifier+"/Gauge/"+m_type+"/ValueCurrent",0.0,UOM,Data.State.NOTAVAILABLE),""); }
+    public Data getValueCurrent(String UOM) { 
+        if (m_valueCurrentSet)
+            return _getReturnValue(new Data("Car/"+m_carIdentifier+"/Gauge/"+m_type+"/ValueCurrent",m_valueCurrent,m_UOM,Data.State.NORMAL),UOM);
+        return _getReturnValue(new Data("Car/"+m_carIdentifier+"/Gauge/"+m_type+"/ValueCurrent",0.0,UOM,Data.State.NOTAVAILABLE),""); 
+    }
     public Data getValueCurrent()           { return getValueCurrent(m_measurementSystem); }
 
+    /**
+     * Sets the current value of the gauge for this tick, for the callers that cannot afford to build a {@link com.SIMRacingApps.Data}
+     * on every tick, like the realtime callbacks. The SIM should call it as it reads its data.
+     * The state is looked up in the state ranges now, the same way {@link #getValueCurrent(String)} does.
+     * Once set, {@link #getValueCurrent(String)} also returns this value, unless the SIM overrides it.
+     * 
+     * @param value The value in the gauge's UOM.
+     * @param gear The gear the car is in, for the gear specific state ranges, or blank.
+     * @param power The engine power, for the power specific state ranges, or blank.
+     */
+    public void _setValueCurrent(double value, String gear, String power) {
+        PrimitiveStates states = __getPrimitiveStates(gear, power);
+        String state    = Data.State.NORMAL;
+        String replaced = null;
+        if (states != null) {
+            //like _getReturnValue(), the last range that matches wins
+            for (int i = 0; i < states.state.length; i++) {
+                if (value >= states.start[i] && value < states.end[i]) {
+                    state = states.state[i];
+                    if (states.value[i] != null)
+                        replaced = states.value[i];
+                }
+            }
+        }
+        m_valueCurrent         = value;
+        m_valueCurrentState    = state;
+        m_valueCurrentReplaced = replaced;
+        m_valueCurrentSet      = true;
+    }
+    public void _setValueCurrent(double value) { _setValueCurrent(value, "", ""); }
+
+    /**
+     * Forgets the value set by {@link #_setValueCurrent(double, String, String)}, 
+     * for when the SIM no longer has it, so it is read from {@link #getValueCurrent(String)} again.
+     */
+    public void _clearValueCurrent() { m_valueCurrentSet = false; }
+
+    /**
+     * Returns true if the SIM set the current value with {@link #_setValueCurrent(double, String, String)},
+     * so {@link #_getValueCurrent()} does not have to build a {@link com.SIMRacingApps.Data} to read it.
+     * @return true if it is set.
+     */
+    public boolean _isValueCurrentSet() { return m_valueCurrentSet; }
+
+    /**
+     * Returns the UOM the gauge keeps its values in, the one {@link #_setValueCurrent(double, String, String)} expects
+     * and {@link #_getValueCurrent()} returns, without building a {@link com.SIMRacingApps.Data}.
+     * @return The UOM.
+     */
+    public String _getUOM() { return m_UOM; }
+
+    /**
+     * Returns the current value as a primitive, without building a {@link com.SIMRacingApps.Data},
+     * if the SIM set it with {@link #_setValueCurrent(double, String, String)}. 
+     * Otherwise it is read from {@link #getValueCurrent(String)}.
+     * @return The current value in the gauge's UOM.
+     */
+    public double _getValueCurrent() {
+        return m_valueCurrentSet ? m_valueCurrent : getValueCurrent(m_UOM).getDouble();
+    }
+
+    /**
+     * Returns the state of the current value, without building a {@link com.SIMRacingApps.Data}, see {@link #_getValueCurrent()}.
+     * @return The state, like "NORMAL" or "SHIFT".
+     */
+    public String _getStateCurrent() {
+        return m_valueCurrentSet ? m_valueCurrentState : getValueCurrent(m_UOM).getState();
+    }
+
+    /**
+     * Returns the current value as a string, without building a {@link com.SIMRacingApps.Data}, see {@link #_getValueCurrent()}.
+     * If a state range replaces the value, like the gear gauge does for reverse and neutral, that value is returned.
+     * Whole numbers do not have a decimal point. The string is only made again when the value changes.
+     * @return The current value as a string.
+     */
+    public String _getValueCurrentString() {
+        if (!m_valueCurrentSet)
+            return getValueCurrent(m_UOM).getString();
+        if (m_valueCurrentReplaced != null)
+            return m_valueCurrentReplaced;
+        if (Double.compare(m_valueCurrent, m_valueCurrentStringOf) != 0) {
+            m_valueCurrentStringOf = m_valueCurrent;
+            m_valueCurrentString   = m_valueCurrent == Math.rint(m_valueCurrent) && !Double.isInfinite(m_valueCurrent)
+                                   ? Long.toString((long)m_valueCurrent)
+                                   : Double.toString(m_valueCurrent);
+        }
+        return m_valueCurrentString;
+    }
+
+    /*
+     * Returns the state ranges for the gear and power in the gauge's UOM, picked the same way _getReturnValue() does.
+     * The last one is kept, so nothing is looked up until the gear or power changes.
+     */
+    private PrimitiveStates __getPrimitiveStates(String gear, String power) {
+        if (m_primitiveGear != null && gear.equals(m_primitiveGear) && power.equals(m_primitivePower))
+            return m_primitive;
+
+        String key = null;
+        if (!gear.isEmpty() && !power.isEmpty() && m_states.get("-"+gear+"-"+power) != null)
+            key = "-"+gear+"-"+power;
+        else
+        if (!gear.isEmpty() && m_states.get("-"+gear) != null)
+            key = "-"+gear;
+        else
+        if (m_states.get("") != null)
+            key = "";
+
+        PrimitiveStates states = null;
+        if (key != null) {
+            states = m_primitiveStates.get(key);
+            if (states == null) {
+                TreeMap<Double,StateRange> ranges = m_states.get(key);
+                states = new PrimitiveStates(ranges.size());
+                Iterator<Entry<Double,StateRange>> itr = m_stateAscending 
+                                                       ? ranges.entrySet().iterator()
+                                                       : ranges.descendingMap().entrySet().iterator();
+                for (int i = 0; itr.hasNext(); i++) {
+                    StateRange range = itr.next().getValue();
+                    states.start[i] = range.start.convertUOM(m_UOM).getDouble();
+                    states.end[i]   = range.end.convertUOM(m_UOM).getDouble();
+                    states.state[i] = range.state;
+                    states.value[i] = range.value == null ? null : range.value.getString();
+                }
+                m_primitiveStates.put(key, states);
+            }
+        }
+
+        m_primitiveGear  = gear;
+        m_primitivePower = power;
+        m_primitive      = states;
+        return states;
+    }
+
+    //the state ranges changed, make the primitive ones again
+    private void __clearPrimitiveStates() {
+        m_primitiveStates.clear();
+        m_primitiveGear = m_primitivePower = null;
+        m_primitive     = null;
+    }
+
     /**
      * Returns the lap when the object for this gauge was changed.
      * 
@@ -1165,6 +1338,7 @@ public class Gauge {
             m_states.put(stateName, states = new TreeMap<Double,StateRange>());
         
         states.put(start, new StateRange(name.toUpperCase(),start,end,UOM));
+        __clearPrimitiveStates();
     }
 
     /*
@@ -1184,7 +1358,7 @@ public class Gauge {
             m_states.put(stateName, states = new TreeMap<Double,StateRange>());
         
         states.put(start, new StateRange(name.toUpperCase(),start,end,UOM,d));
-        
+        __clearPrimitiveStates();
     }
 
     /*
@@ -1204,6 +1378,7 @@ public class Gauge {
                 if (range.state.equals(name.toUpperCase()))
                     itr.remove();
             }
+            __clearPrimitiveStates();
         }
     }
     
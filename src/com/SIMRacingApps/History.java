@@ -0,0 +1,397 @@
+package com.SIMRacingApps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.SIMRacingApps.SIMPlugin.SIMPluginException;
+
+/**
+ * This class records the values of selected data paths every tick, so a chart can ask for a range of them
+ * in one request instead of polling the current value.
+ * <p>
+ * The paths to record are set with "history-paths", separated by semicolons.
+ * Each path has its own ring buffer of primitive arrays, holding the session time, the REFERENCE car's lap distance
+ * (laps completed plus the percentage of the lap) and the value of each sample.
+ * The buffers are allocated once, large enough for "history-seconds" of samples taken at most every "history-interval" milliseconds
+ * of session time, so the memory never grows. When the session time goes backwards, a new session started and the buffers are emptied.
+ * <p>
+ * The samples are returned by:
+ * <p>
+ * PATH = /History/(PATH)/(FROM)/(TO)/(POINTS)/(METHOD)
+ * <ul>
+ * <li>PATH is the path as it was entered in "history-paths", for example Car/REFERENCE/Gauge/Speedometer/ValueCurrent.</li>
+ * <li>FROM and TO are in seconds of session time. Zero or a negative number is relative to the last sample, so -60/0 is the last minute.
+ *     Prefix them with an "L" to use the lap distance instead, so L12/L13 is the 13th lap.</li>
+ * <li>POINTS is the maximum number of samples to return. If there are more in the range, they are downsampled.</li>
+ * <li>METHOD (Optional) is how to downsample. LTTB (Largest Triangle Three Buckets), the default, keeps the shape of the line.
+ *     MINMAX keeps the minimum and maximum of each bucket, so spikes are never lost. NONE returns the last POINTS samples of the range.</li>
+ * </ul>
+ * The value is JSON, with an array for the times, the lap distances and the values, in that order, so a whole lap is one compact request.
+ * <p>
+ * PATH = /History returns the paths being recorded.
+ * <p>
+ * The servlets serve these paths without locking the SIM, see {@link #getHistory(String)},
+ * so a large range does not hold up the SIM's thread or the other requests.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class History {
+
+    private static final String LTTB   = "LTTB";
+    private static final String MINMAX = "MINMAX";
+    private static final String NONE   = "NONE";
+
+    private final Series[] m_series;
+    private final double m_interval;
+    private double m_lastTime = -1.0;
+
+    //one path's samples, oldest first starting at m_first
+    private static class Series {
+        final String   path;
+        final double[] time;
+        final double[] lap;
+        final double[] value;
+        int    first = 0;
+        int    count = 0;
+        String uom   = "";
+
+        Series(String path, int capacity) {
+            this.path  = path;
+            this.time  = new double[capacity];
+            this.lap   = new double[capacity];
+            this.value = new double[capacity];
+        }
+
+        synchronized void add(double t, double l, double v, String u) {
+            int i;
+            if (count < time.length) {
+                i = (first + count) % time.length;
+                count++;
+            }
+            else {
+                i = first;
+                first = (first + 1) % time.length;
+            }
+            time[i]  = t;
+            lap[i]   = l;
+            value[i] = v;
+            uom      = u;
+        }
+
+        synchronized void clear() {
+            first = count = 0;
+        }
+    }
+
+    /**
+     * Creates the buffers for the paths in "history-paths".
+     */
+    public History() {
+        double seconds = Math.max(1, Server.getArg("history-seconds", 300));
+        m_interval = Math.max(0, Server.getArg("history-interval", 16)) / 1000.0;
+        int capacity = (int)Math.max(16, Math.min(10000000, seconds / Math.max(0.001, m_interval)));
+
+        List<Series> series = new ArrayList<Series>();
+        for (String path : Server.getArg("history-paths", "").split(";")) {
+            path = path.trim();
+            while (path.startsWith("/"))
+                path = path.substring(1);
+            if (!path.isEmpty())
+                series.add(new Series(path, capacity));
+        }
+        m_series = series.toArray(new Series[series.size()]);
+        if (m_series.length > 0)
+            Server.logger().info(String.format("History: recording %d paths, %d samples each", m_series.length, capacity));
+    }
+
+    /**
+     * @return true if there are paths to record.
+     */
+    public boolean isRecording() {
+        return m_series.length > 0;
+    }
+
+    /**
+     * Records a sample of each path. Called by the SIM's run loop after the callbacks have processed the tick.
+     * @param SIMPlugin The SIM.
+     */
+    public void _record(SIMPlugin SIMPlugin) {
+        if (m_series.length == 0)
+            return;
+
+        Session session = SIMPlugin.getSession();
+        double time = session.getTimeElapsed().getDouble();
+        if (time < m_lastTime) {
+            for (Series series : m_series)
+                series.clear();
+            m_lastTime = -1.0;
+        }
+        if (m_lastTime >= 0.0 && time - m_lastTime < m_interval)
+            return;
+        m_lastTime = time;
+
+        Car reference = session.getCar("REFERENCE");
+        double lap = reference == null ? 0.0
+                   : reference.getLap(Car.LapType.COMPLETED).getDouble() + (reference.getLap(Car.LapType.COMPLETEDPERCENT).getDouble() / 100.0);
+
+        for (Series series : m_series) {
+            try {
+                Data d = SIMPlugin.getData(series.path);
+                if (d != null)
+                    series.add(time, lap, d.getDouble(), d.getUOM());
+            } catch (SIMPluginException e) {
+                Server.logStackTrace(Level.WARNING, "History: cannot record " + series.path, e);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the data path is one of the history's, so it can be served by {@link #getHistory(String)}.
+     * @param path The data path.
+     * @return true if it starts with History.
+     */
+    public static boolean _isPath(String path) {
+        int i = 0;
+        while (i < path.length() && (path.charAt(i) == '/' || path.charAt(i) == ' '))
+            i++;
+        return path.regionMatches(true, i, "History", 0, 7) && (path.length() == i + 7 || path.charAt(i + 7) == '/');
+    }
+
+    /**
+     * Returns the samples for the data path, /History/(PATH)/(FROM)/(TO)/(POINTS)/(METHOD), split the same way
+     * {@link com.SIMRacingApps.SIMPlugin#getData(String)} does.
+     * Only the buffer of the path is locked, while the range is copied out, so call it without locking the SIM.
+     * @param path The data path.
+     * @return The samples as JSON in a {@link com.SIMRacingApps.Data} container.
+     */
+    public Data getHistory(String path) {
+        ArrayList<String> args = new ArrayList<String>();
+        boolean named = false;
+        for (String s : path.split("[/]")) {
+            if (s.trim().isEmpty())
+                continue;
+            if (named)
+                args.add(s.trim());
+            named = true;
+        }
+        return getHistory(args);
+    }
+
+    /**
+     * Returns the samples for the path, see the class description for the arguments.
+     * @param args The path, followed by the from, to, points and optional method.
+     * @return The samples as JSON in a {@link com.SIMRacingApps.Data} container.
+     */
+    public Data getHistory(List<String> args) {
+        if (args.isEmpty()) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < m_series.length; i++) {
+                if (i > 0)
+                    json.append(',');
+                json.append('"').append(__escape(m_series[i].path)).append('"');
+            }
+            return new Data("History",json.append(']').toString(),"JSON",Data.State.NORMAL);
+        }
+
+        String method = LTTB;
+        int n = args.size();
+        String last = args.get(n - 1);
+        if (last.equalsIgnoreCase(LTTB) || last.equalsIgnoreCase(MINMAX) || last.equalsIgnoreCase(NONE)) {
+            method = last.toUpperCase();
+            n--;
+        }
+        String path = "History/" + String.join("/", args);
+        if (n < 4)
+            return new Data(path,"ERROR: ("+path+") expected /History/(PATH)/(FROM)/(TO)/(POINTS)","String",Data.State.ERROR);
+
+        String name = String.join("/", args.subList(0, n - 3));
+        Series series = null;
+        for (Series s : m_series)
+            if (s.path.equalsIgnoreCase(name))
+                series = s;
+        if (series == null)
+            return new Data(path,"ERROR: ("+name+") is not in history-paths","String",Data.State.ERROR);
+
+        String from = args.get(n - 3), to = args.get(n - 2);
+        boolean byLap = from.toUpperCase().startsWith("L");
+        int points;
+        double fromValue, toValue;
+        try {
+            fromValue = Double.parseDouble(byLap ? from.substring(1) : from);
+            toValue   = Double.parseDouble(to.toUpperCase().startsWith("L") ? to.substring(1) : to);
+            points    = Integer.parseInt(args.get(n - 1));
+        }
+        catch (NumberFormatException e) {
+            return new Data(path,"ERROR: ("+path+") FROM, TO and POINTS must be numbers","String",Data.State.ERROR);
+        }
+
+        //copy the range out, so the recording is not held up while it is downsampled
+        double[] t, l, v;
+        String uom;
+        synchronized (series) {
+            uom = series.uom;
+            int cap = series.time.length;
+            double[] key = byLap ? series.lap : series.time;
+            double newest = series.count > 0 ? key[(series.first + series.count - 1) % cap] : 0.0;
+            if (fromValue <= 0.0 && !byLap)
+                fromValue += newest;
+            if (toValue <= 0.0 && !byLap)
+                toValue += newest;
+
+            int start = _search(series, key, fromValue);
+            int end   = _search(series, key, Math.nextUp(toValue));
+            int count = Math.max(0, end - start);
+            t = new double[count];
+            l = new double[count];
+            v = new double[count];
+            for (int i = 0; i < count; i++) {
+                int j = (series.first + start + i) % cap;
+                t[i] = series.time[j];
+                l[i] = series.lap[j];
+                v[i] = series.value[j];
+            }
+        }
+
+        int[] keep = _downsample(t, v, Math.max(2, points), method);
+
+        StringBuilder json = new StringBuilder(64 + keep.length * 40);
+        json.append("{\"Path\":\"").append(__escape(series.path))
+            .append("\",\"UOM\":\"").append(__escape(uom))
+            .append("\",\"Method\":\"").append(method)
+            .append("\",\"Samples\":").append(t.length)
+            .append(",\"Time\":");
+        _append(json, t, keep, 1000.0);
+        json.append(",\"Lap\":");
+        _append(json, l, keep, 100000.0);
+        json.append(",\"Value\":");
+        _append(json, v, keep, 10000.0);
+        json.append('}');
+        return new Data(path,json.toString(),"JSON",Data.State.NORMAL);
+    }
+
+    //returns the offset from the oldest sample of the first sample whose key is not less than the value.
+    //the time always increases. The lap distance only goes backwards if the REFERENCE car changes, which is close enough.
+    private static int _search(Series series, double[] key, double value) {
+        int cap = series.time.length, lo = 0, hi = series.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key[(series.first + mid) % cap] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Picks which samples to keep.
+     * @param x The times, increasing.
+     * @param y The values.
+     * @param points The maximum to keep.
+     * @param method LTTB, MINMAX or NONE.
+     * @return The indexes of the samples to keep, in order.
+     */
+    static int[] _downsample(double[] x, double[] y, int points, String method) {
+        int n = x.length;
+        if (n <= points) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++)
+                all[i] = i;
+            return all;
+        }
+
+        if (method.equals(NONE)) {
+            int[] keep = new int[points];
+            for (int i = 0; i < points; i++)
+                keep[i] = n - points + i;
+            return keep;
+        }
+
+        if (method.equals(MINMAX)) {
+            int buckets = points / 2;
+            int[] keep = new int[buckets * 2];
+            int k = 0;
+            for (int b = 0; b < buckets; b++) {
+                int start = (int)((long)b * n / buckets), end = (int)((long)(b + 1) * n / buckets);
+                int min = start, max = start;
+                for (int i = start + 1; i < end; i++) {
+                    if (y[i] < y[min]) min = i;
+                    if (y[i] > y[max]) max = i;
+                }
+                keep[k++] = Math.min(min, max);
+                if (min != max)
+                    keep[k++] = Math.max(min, max);
+            }
+            return k == keep.length ? keep : Arrays.copyOf(keep, k);
+        }
+
+        //Largest Triangle Three Buckets, Sveinn Steinarsson 2013.
+        //Keeps the first and last, then from each bucket the point that makes the largest triangle
+        //with the point kept from the previous bucket and the average of the next bucket.
+        int[] keep = new int[points];
+        double every = (double)(n - 2) / (points - 2);
+        int a = 0, k = 0;
+        keep[k++] = 0;
+        for (int b = 0; b < points - 2; b++) {
+            int nextStart = (int)Math.floor((b + 1) * every) + 1;
+            int nextEnd   = Math.min((int)Math.floor((b + 2) * every) + 1, n);
+            double avgX = 0.0, avgY = 0.0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            int count = Math.max(1, nextEnd - nextStart);
+            avgX /= count;
+            avgY /= count;
+
+            int start = (int)Math.floor(b * every) + 1;
+            int end   = (int)Math.floor((b + 1) * every) + 1;
+            double maxArea = -1.0;
+            int next = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((x[a] - avgX) * (y[i] - y[a]) - (x[a] - x[i]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            keep[k++] = next;
+            a = next;
+        }
+        keep[k++] = n - 1;
+        return keep;
+    }
+
+    //escapes a string to go between the quotes of a JSON string, the same way Data.toString() does
+    private static String __escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"","\\\"");
+    }
+
+    //appends the kept values as a JSON array, rounded to keep the response small
+    private static void _append(StringBuilder json, double[] values, int[] keep, double scale) {
+        json.append('[');
+        for (int i = 0; i < keep.length; i++) {
+            if (i > 0)
+                json.append(',');
+            double v = values[keep[i]];
+            if (Double.isNaN(v) || Double.isInfinite(v))
+                json.append("null");
+            else
+            if (Math.abs(v) >= 1.0e12)
+                json.append(v);
+            else {
+                double r = Math.round(v * scale) / scale;
+                if (r == Math.rint(r) && Math.abs(r) < 1.0e15)
+                    json.append((long)r);
+                else
+                    json.append(r);
+            }
+        }
+        json.append(']');
+    }
+}
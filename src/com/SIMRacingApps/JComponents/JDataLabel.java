@@ -2,7 +2,6 @@ package com.SIMRacingApps.JComponents;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeListenerProxy;
 
 import javax.swing.Icon;
 import javax.swing.JLabel;
@@ -33,24 +32,12 @@ public class JDataLabel extends JLabel {
 		m_name = name;
 		SIMPluginAWTEventDispatcher.getDispatcher().addPropertyChangeListener(m_name,m_listener = new PropertyChangeListener() {
 			public void propertyChange(PropertyChangeEvent evt) {
-				//if we have any listeners for "data", then let that listener update the text
-				boolean founddatalistener = false;
-				PropertyChangeListener[] listeners = getPropertyChangeListeners();
-				for (int i = 0; i < listeners.length; i++) {
-					if (listeners[i] instanceof PropertyChangeListenerProxy) {
-						PropertyChangeListenerProxy proxy = (PropertyChangeListenerProxy)listeners[i];
-		        	 	if (proxy.getPropertyName().equals("data")) { 
-		        	 		founddatalistener = true;
-		        	 		break;
-		        	 	}
-					}
-				}
-				
 				Data d = (Data)evt.getNewValue();
 				setData(d);
 				
-				if (!founddatalistener) {
-					setText(d.getStringFormatted(m_format));
+				//if we have any listeners for "data", then let that listener update the text
+				if (m_dataListeners == 0) {
+					updateText(TextFormat.get(m_format).format(d, m_text));
 				}
 			}
 		});
@@ -68,6 +55,69 @@ public class JDataLabel extends JLabel {
 	public String getFormat() { return m_format; }
 	public void setFormat(String format) { m_format = format; } 
 	
+	private final StringBuilder m_text = new StringBuilder(32);	//reused to render the text so an unchanged value creates no garbage
+	private int m_dataListeners;	//no initializer, the super constructor can add listeners before it would run
+	
+	@Override
+	public synchronized void addPropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+		super.addPropertyChangeListener(propertyName, listener);
+		if ("data".equals(propertyName) && listener != null)
+			m_dataListeners++;
+	}
+	
+	@Override
+	public synchronized void removePropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+		int count = getPropertyChangeListeners(propertyName).length;
+		super.removePropertyChangeListener(propertyName, listener);
+		if ("data".equals(propertyName) && getPropertyChangeListeners(propertyName).length < count)
+			m_dataListeners--;
+	}
+	
+	private boolean m_fixedWidth;
+	private boolean m_skipRevalidate;
+	
+	/**
+	 * Returns true if the size of the label does not depend on its text, see {@link #setFixedWidth(boolean)}.
+	 * @return true if fixed.
+	 */
+	public boolean isFixedWidth() { return m_fixedWidth; }
+	
+	/**
+	 * Set this when the size of the label does not depend on its text, 
+	 * like a fixed width font with a width in the format, or a size set by the layout.
+	 * Then a change to the text only repaints the label, without laying out the container again.
+	 * @param fixedWidth true if fixed.
+	 */
+	public void setFixedWidth(boolean fixedWidth) { m_fixedWidth = fixedWidth; }
+	
+	/**
+	 * Sets the text, but only if it is different from what is showing, 
+	 * so an unchanged value does not create a String, revalidate or repaint.
+	 * Use this from a "data" listener with a reused buffer instead of setText() to keep a busy dash smooth.
+	 * @param text The new text.
+	 * @return true if the text changed.
+	 */
+	public boolean updateText(CharSequence text) {
+		String current = getText();
+		if (current != null && current.contentEquals(text))
+			return false;
+		m_skipRevalidate = m_fixedWidth;
+		try {
+			setText(text.toString());
+		}
+		finally {
+			m_skipRevalidate = false;
+		}
+		return true;
+	}
+	
+	@Override
+	public void revalidate() {
+		//setText() calls this, but a fixed width label only needs the repaint that follows it
+		if (!m_skipRevalidate)
+			super.revalidate();
+	}
+	
 	public JDataLabel(String dataname) {
 		super();
 		setForeground(FOREGROUND);
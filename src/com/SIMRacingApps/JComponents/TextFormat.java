@@ -0,0 +1,279 @@
+package com.SIMRacingApps.JComponents;
+
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.SIMRacingApps.Data;
+
+/**
+ * This class formats a {@link Data} value into a reusable buffer the same way {@link Data#getStringFormatted(String)} does,
+ * without creating a String each time.
+ * <p>
+ * The format pattern is parsed once and cached, see {@link #get(String)}.
+ * Patterns with a single %d, %f or %s, with an optional width, precision and the "-" or "0" flags,
+ * plus any literal text, are rendered directly into the buffer.
+ * Anything else, like the time formats or the UOM arguments, falls back to getStringFormatted()
+ * and the result is copied into the buffer, so the text is always the same as it would have been.
+ * <p>
+ * This class is meant to be used on the event dispatch thread.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class TextFormat {
+
+    private static final Map<String,TextFormat> m_formats = new HashMap<String,TextFormat>();
+    private static final Map<Locale,Boolean> m_plainLocales = new HashMap<Locale,Boolean>();
+    private static final long[] POWERS = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+    private final String m_pattern;
+    private final boolean m_direct;     //false if the pattern can only be rendered by getStringFormatted()
+    private final String m_prefix;
+    private final String m_suffix;
+    private final char m_conversion;
+    private final int m_width;
+    private final int m_precision;
+    private final boolean m_leftJustify;
+    private final boolean m_zeroPad;
+
+    /**
+     * Returns the format for a pattern, parsing it the first time.
+     * @param pattern The pattern, as passed to {@link Data#getStringFormatted(String)}.
+     * @return The format.
+     */
+    public static TextFormat get(String pattern) {
+        synchronized (m_formats) {
+            TextFormat format = m_formats.get(pattern);
+            if (format == null)
+                m_formats.put(pattern, format = new TextFormat(pattern));
+            return format;
+        }
+    }
+
+    private TextFormat(String pattern) {
+        m_pattern = pattern;
+
+        String prefix = null, suffix = "";
+        char conversion = 0;
+        int width = -1, precision = -1;
+        boolean left = false, zero = false, direct = true;
+
+        //the times are formatted by getStringFormatted() if the pattern has a "t" anywhere in it
+        if (pattern.isEmpty() || pattern.contains("t") || pattern.contains("T"))
+            direct = false;
+
+        StringBuilder literal = new StringBuilder();
+        int n = pattern.length();
+        for (int i = 0; direct && i < n; i++) {
+            char c = pattern.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (++i >= n) {
+                direct = false;
+                break;
+            }
+            c = pattern.charAt(i);
+            if (c == '%') {
+                literal.append('%');
+                continue;
+            }
+            if (c == 'n') {
+                literal.append(System.lineSeparator());
+                continue;
+            }
+            if (conversion != 0) {      //only one value
+                direct = false;
+                break;
+            }
+
+            for (; i < n && (pattern.charAt(i) == '-' || pattern.charAt(i) == '0'); i++) {
+                if (pattern.charAt(i) == '-')
+                    left = true;
+                else
+                    zero = true;
+            }
+            for (; i < n && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '9'; i++)
+                width = Math.max(0, width) * 10 + (pattern.charAt(i) - '0');
+            if (i < n && pattern.charAt(i) == '.') {
+                precision = 0;
+                for (i++; i < n && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '9'; i++)
+                    precision = precision * 10 + (pattern.charAt(i) - '0');
+            }
+            c = i < n ? pattern.charAt(i) : 0;
+
+            //anything String.format() would throw on is left to getStringFormatted() so the error text is the same
+            if ((c == 'd' || c == 'f' || c == 's') && width < 1000 && precision < POWERS.length
+            && !(left && zero) && !((left || zero) && width < 0) && !(zero && c == 's') && !(c == 'd' && precision >= 0)) {
+                conversion = c;
+                prefix = literal.toString();
+                literal.setLength(0);
+            }
+            else {
+                direct = false;
+            }
+        }
+        if (conversion == 0)
+            direct = false;
+        else
+            suffix = literal.toString();
+
+        m_direct      = direct;
+        m_prefix      = prefix;
+        m_suffix      = suffix;
+        m_conversion  = conversion;
+        m_width       = width;
+        m_precision   = precision < 0 ? (conversion == 'f' ? 6 : -1) : precision;
+        m_leftJustify = left;
+        m_zeroPad     = zero;
+    }
+
+    /**
+     * @return The pattern.
+     */
+    public String getPattern() {
+        return m_pattern;
+    }
+
+    /**
+     * Formats the default value of the data into the buffer, replacing what was there.
+     * @param data The data.
+     * @param buffer The buffer.
+     * @return The buffer.
+     */
+    public StringBuilder format(Data data, StringBuilder buffer) {
+        buffer.setLength(0);
+        String name = data.getName();
+        Data.Type type = data.getType(name);
+
+        if (m_direct && type != null && _plain(data.getLocale(name))) {
+            Object value = data.getValue(name);
+            buffer.append(m_prefix);
+            int start = buffer.length();
+            boolean done = false;
+            switch (type) {
+                case BOOLEAN:
+                    //getStringFormatted() ignores the pattern for booleans
+                    buffer.setLength(0);
+                    buffer.append(((Boolean)value).booleanValue() ? "true" : "false");
+                    return buffer;
+                case INTEGER:
+                case LONG:
+                    if (m_conversion == 'd' || m_conversion == 's') {
+                        buffer.append(((Number)value).longValue());
+                        done = true;
+                    }
+                    break;
+                case DOUBLE:
+                    if (m_conversion == 'f')
+                        done = _fixed(buffer, ((Double)value).doubleValue());
+                    else
+                    if (m_conversion == 's') {
+                        buffer.append(((Double)value).doubleValue());
+                        done = true;
+                    }
+                    break;
+                case FLOAT:
+                    if (m_conversion == 'f')
+                        done = _fixed(buffer, ((Float)value).doubleValue());
+                    else
+                    if (m_conversion == 's') {
+                        buffer.append(((Float)value).floatValue());
+                        done = true;
+                    }
+                    break;
+                case STRING:
+                    if (m_conversion == 's') {
+                        buffer.append(value.toString());
+                        done = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (done && m_conversion == 's' && m_precision >= 0 && buffer.length() - start > m_precision)
+                buffer.setLength(start + m_precision);
+
+            if (done) {
+                _pad(buffer, start);
+                buffer.append(m_suffix);
+                return buffer;
+            }
+            buffer.setLength(0);
+        }
+
+        buffer.append(data.getStringFormatted(m_pattern));
+        return buffer;
+    }
+
+    //appends the double with m_precision decimals, returns false if it cannot be done exactly like String.format()
+    private boolean _fixed(StringBuilder buffer, double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d) || Math.abs(d) >= 1.0e15)
+            return false;
+
+        long power = POWERS[m_precision];
+        double scaled = Math.abs(d) * power;
+        if (scaled >= 1.0e15)   //past this a double cannot hold every digit String.format() would print
+            return false;
+        double floor = Math.floor(scaled);
+        //String.format() rounds the shortest decimal representation HALF_UP,
+        //the binary value can be a hair either side of the half, so let it decide those.
+        if (Math.abs(scaled - floor - 0.5) < Math.max(1.0e-6, 4.0 * Math.ulp(scaled)))
+            return false;
+        long rounded = (long)(scaled - floor < 0.5 ? floor : floor + 1.0);
+
+        if (Double.doubleToRawLongBits(d) < 0L)
+            buffer.append('-');
+        buffer.append(rounded / power);
+        if (m_precision > 0) {
+            buffer.append('.');
+            long fraction = rounded % power;
+            for (long p = power / 10L; p > 0L; p /= 10L) {
+                buffer.append((char)('0' + fraction / p));
+                fraction %= p;
+            }
+        }
+        return true;
+    }
+
+    //pads what was appended after start to the width
+    private void _pad(StringBuilder buffer, int start) {
+        int pad = m_width - (buffer.length() - start);
+        if (pad <= 0)
+            return;
+        if (m_leftJustify) {
+            while (pad-- > 0)
+                buffer.append(' ');
+        }
+        else {
+            int at = start;
+            char c = ' ';
+            if (m_zeroPad) {
+                c = '0';
+                if (buffer.charAt(at) == '-')
+                    at++;
+            }
+            while (pad-- > 0)
+                buffer.insert(at, c);
+        }
+    }
+
+    //the numbers are only rendered here for locales with the ASCII digits, minus sign and a period for the decimal
+    private static boolean _plain(Locale locale) {
+        synchronized (m_plainLocales) {
+            Boolean plain = m_plainLocales.get(locale);
+            if (plain == null) {
+                DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+                plain = symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-' && symbols.getDecimalSeparator() == '.';
+                m_plainLocales.put(locale, plain);
+            }
+            return plain;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.SIMRacingApps;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class projects the lap time of every car once per tick, for {@link com.SIMRacingApps.Car#getLapTimeProjected()}
+ * and the gap calculations in {@link com.SIMRacingApps.Gaps}.
+ * <p>
+ * The projection is worked out the same way as the original. The time left in the lap at the speed of the last lap, plus the time into the lap.
+ * While on pit road, for the pace car, or without a last lap, it is the time to run a whole lap at the current speed.
+ * Here the track length is read from {@link com.SIMRacingApps.Track#_getLengthMeters()},
+ * the speed is kept per car in meters per second, smoothed over {@link #SMOOTHING} seconds of session time so the projection
+ * does not jump with every blip of the speedometer, and the car's status is reduced to a flag on each tick.
+ * The speedometer is read once per car per tick, in its own UOM with the conversion kept, through {@link com.SIMRacingApps.Gauge#_getValueCurrent()},
+ * so the gaps can use the smoothed speed instead of reading it again. 
+ * The cars are looked up by id once per {@link com.SIMRacingApps.Session#getInfoVersion() InfoVersion} and the pace car comes from the standings.
+ * If the SIM's car overrides {@link com.SIMRacingApps.Car#getLapTimeProjected()}, its value is used instead of the projection.
+ * The projections and the speeds are in primitive arrays indexed by the car's id.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+class LapTimeProjections {
+
+    /** The time constant, in seconds, of the smoothing of the speed. */
+    static final double SMOOTHING = 0.5;
+
+    static final double METERS_PER_MILE = 1609.344;
+    static final double MPS_PER_MPH     = 0.44704;
+
+    //how the projection is done
+    private static final int BYLAPTIME  = 0;
+    private static final int BYSPEED    = 1;   //on pit road or the pace car
+
+    private Object   m_version      = null;    //the DataVersion of the last update
+    private double   m_time         = -1.0;
+    private int      m_ids          = 0;
+    private double[] m_projected    = new double[64];
+    private double[] m_speed        = new double[64];  //smoothed, meters per second
+    private boolean[] m_sampled     = new boolean[64]; //the speed was read on the last update, else the smoothing starts over
+    private boolean[] m_valid       = new boolean[64];
+    private Car[]    m_cars         = new Car[64];     //by id, looked up again when the InfoVersion changes
+    private Object   m_carsVersion  = null;
+    private String   m_speedUOM     = null;            //the UOM of the last speedometer and the factor to meters per second
+    private double   m_speedFactor  = MPS_PER_MPH;
+    private final Map<Class<?>,Boolean> m_overridden = new HashMap<Class<?>,Boolean>();
+
+    LapTimeProjections() {}
+
+    /**
+     * Projects the lap time of the cars.
+     * @param session The session.
+     * @param version The DataVersion being projected.
+     * @param time The session time of the tick.
+     * @param ids The ids of the cars.
+     * @param count The number of ids.
+     * @param paceCar The id of the pace car, -1 if none.
+     */
+    synchronized void _update(Session session, Object version, double time, int[] ids, int count, int paceCar) {
+        double dt     = m_time < 0.0 || time < m_time ? 0.0 : time - m_time;
+        //no smoothing after the session time went backwards, and nothing new if it has not moved
+        double alpha  = dt > 0.0 ? 1.0 - Math.exp(-dt / SMOOTHING) : (m_time < 0.0 || time < m_time ? 1.0 : 0.0);
+        double length = -1.0;
+
+        int size = 0;
+        for (int i = 0; i < count; i++)
+            size = Math.max(size, ids[i] + 1);
+        _grow(size);
+        Arrays.fill(m_valid, false);
+
+        Object infoVersion = session.getInfoVersion().getValue();
+        if (!infoVersion.equals(m_carsVersion)) {
+            Arrays.fill(m_cars, null);
+            m_carsVersion = infoVersion;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (id < 0)
+                continue;
+            Car car = m_cars[id];
+            if (car == null) {
+                car = session.getCar("I" + id);
+                if (car != null && car.getId().getInteger() == id)
+                    m_cars[id] = car;
+                else
+                    car = null;
+            }
+            if (car == null || !car.isValid()) {
+                m_sampled[id] = false;
+                continue;
+            }
+
+            Gauge speedometer = car._getGauge(Gauge.Type.SPEEDOMETER);
+            double speed = speedometer._getValueCurrent() * _speedFactor(speedometer._getUOM());
+            if (Double.isNaN(speed))
+                speed = 0.0;
+            m_speed[id]   = m_sampled[id] ? m_speed[id] + ((speed - m_speed[id]) * alpha) : speed;
+            m_sampled[id] = true;
+
+            //the SIM's own projection wins
+            if (_isOverridden(car)) {
+                m_projected[id] = car.getLapTimeProjected().getDouble();
+                m_valid[id]     = true;
+                continue;
+            }
+
+            int mode             = id == paceCar || __isPit(car._getStatusCurrent()) ? BYSPEED : BYLAPTIME;
+            double pct           = car.getLap(Car.LapType.COMPLETEDPERCENT).getDouble() / 100.0;
+            double remainingTime = car.getLapTime(Car.LapType.SESSIONLAST).getDouble() * (1.0 - pct);
+            double projected     = 0.0;
+
+            if ((remainingTime <= 0.0 || mode == BYSPEED) && m_speed[id] >= MPS_PER_MPH) {
+                if (length < 0.0)
+                    length = session.getTrack()._getLengthMeters();
+                projected = length / m_speed[id];
+            }
+            else
+            if (remainingTime > 0.0) {
+                projected = remainingTime + car.getLapTime(Car.LapType.CURRENT).getDouble();
+            }
+            m_projected[id] = projected;
+            m_valid[id]     = true;
+        }
+
+        //the cars not in the standings start over
+        for (int id = 0; id < m_ids; id++)
+            if (!m_valid[id])
+                m_sampled[id] = false;
+
+        m_time    = time;
+        m_version = version;
+    }
+
+    //returns the factor to convert a speed in the UOM to meters per second, only converted again when the UOM changes.
+    //Like the original, a speed that cannot be converted is taken to be in mph.
+    private double _speedFactor(String UOM) {
+        if (!UOM.equals(m_speedUOM)) {
+            Data mph = new Data("",1.0,UOM).convertUOM("mph");
+            m_speedFactor = mph.getDouble() * MPS_PER_MPH;
+            m_speedUOM    = UOM;
+        }
+        return m_speedFactor;
+    }
+
+    //the statuses the original projection matched with contains("PIT")
+    private static boolean __isPit(String status) {
+        if (status == null)
+            return false;
+        switch (status) {
+            case Car.Status.ENTERINGPITSTALL:
+            case Car.Status.INPITSTALL:
+            case Car.Status.EXITINGPITSTALL:
+            case Car.Status.ONPITROAD:
+            case Car.Status.APPROACHINGPITS:
+            case Car.Status.LEAVINGPITS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //returns true if the class of the car overrides getLapTimeProjected(), looked up once per class
+    private boolean _isOverridden(Car car) {
+        Boolean overridden = m_overridden.get(car.getClass());
+        if (overridden == null) {
+            try {
+                overridden = car.getClass().getMethod("getLapTimeProjected").getDeclaringClass() != Car.class;
+            }
+            catch (NoSuchMethodException e) {
+                overridden = false;
+            }
+            m_overridden.put(car.getClass(), overridden);
+        }
+        return overridden;
+    }
+
+    private void _grow(int ids) {
+        m_ids = Math.max(m_ids, ids);
+        if (ids <= m_projected.length)
+            return;
+        int size = Math.max(ids, m_projected.length * 2);
+        m_projected = Arrays.copyOf(m_projected, size);
+        m_speed     = Arrays.copyOf(m_speed, size);
+        m_sampled   = Arrays.copyOf(m_sampled, size);
+        m_valid     = Arrays.copyOf(m_valid, size);
+        m_cars      = Arrays.copyOf(m_cars, size);
+    }
+
+    /**
+     * @param version The current DataVersion.
+     * @param id The car's id.
+     * @return The projected lap time in seconds, NaN if the car was not projected for this DataVersion.
+     */
+    synchronized double getProjected(Object version, int id) {
+        if (version == null || !version.equals(m_version) || id < 0 || id >= m_ids || !m_valid[id])
+            return Double.NaN;
+        return m_projected[id];
+    }
+
+    /**
+     * @param version The current DataVersion.
+     * @param id The car's id.
+     * @return The smoothed speed in meters per second, NaN if the car was not projected for this DataVersion.
+     */
+    synchronized double getSpeed(Object version, int id) {
+        if (version == null || !version.equals(m_version) || id < 0 || id >= m_ids || !m_valid[id])
+            return Double.NaN;
+        return m_speed[id];
+    }
+}
@@ -0,0 +1,309 @@
+package com.SIMRacingApps;
+
+import java.util.Arrays;
+
+/**
+ * This class records a car's laps as traces indexed by the distance around the track,
+ * so the current lap can be compared with the session best or the last lap without resampling.
+ * <p>
+ * Each lap is a set of arrays, one per channel, with {@link #RESOLUTION} entries, one for every 0.1% of the lap,
+ * the same resolution the {@link com.SIMRacingApps.Track} maps use.
+ * Channel 0 is always the time into the lap. The other channels are the gauges listed in "lap-trace-gauges".
+ * As the car moves, the value at every 0.1% it passed since the last sample is interpolated from the two samples,
+ * so looking up a distance is just an index into the array.
+ * <p>
+ * The current lap, the last lap and the session best lap are kept. The arrays are reused from lap to lap,
+ * so once the laps are allocated, recording does not create any garbage.
+ * <p>
+ * The SIM implementor feeds it through {@link com.SIMRacingApps.Car#_addTrace(double, double)} every tick
+ * and {@link com.SIMRacingApps.Car#_addLap(double, double, boolean)} at the start/finish line,
+ * in either order around the line. It can be read from any thread.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class LapTrace {
+
+    /** The number of entries in each trace, one for every 0.1% of the lap. */
+    public static final int RESOLUTION = 1000;
+
+    /** The name of channel 0, the time into the lap in seconds. */
+    public static final String TIME = "Time";
+
+    private static final double BINSIZE = 100.0 / RESOLUTION;    //percent of the lap per entry
+
+    private final String[] m_channels;
+    private final String[] m_uoms;
+
+    private Lap m_current   = null;
+    private Lap m_pending   = null;    //crossed the line, waiting for the lap time from _addLap()
+    private Lap m_last      = null;
+    private Lap m_best      = null;
+    private Lap m_spare     = null;
+    private boolean m_crossed = false;  //the next lap starts at the line
+
+    //one lap, the channel arrays are allocated the first time they are written
+    private static class Lap {
+        final float[][] values;
+        final double[]  last;           //the values of the last sample
+        int     firstBin    = -1;
+        int     lastBin     = -1;
+        double  lastPercent = 0.0;
+        double  lapTime     = 0.0;
+
+        Lap(int channels) {
+            values = new float[channels][];
+            last   = new double[channels];
+        }
+
+        void reset() {
+            for (float[] v : values)
+                if (v != null)
+                    Arrays.fill(v, Float.NaN);
+            firstBin = lastBin = -1;
+            lastPercent = lapTime = 0.0;
+        }
+
+        float[] channel(int channel) {
+            if (values[channel] == null) {
+                values[channel] = new float[RESOLUTION];
+                Arrays.fill(values[channel], Float.NaN);
+            }
+            return values[channel];
+        }
+
+        float get(int channel, int bin) {
+            return values[channel] == null ? Float.NaN : values[channel][bin];
+        }
+    }
+
+    /**
+     * @param gauges The gauge types to record along with the time.
+     */
+    public LapTrace(String[] gauges) {
+        m_channels = new String[gauges.length + 1];
+        m_uoms     = new String[gauges.length + 1];
+        m_channels[0] = TIME;
+        m_uoms[0]     = "s";
+        for (int i = 0; i < gauges.length; i++) {
+            m_channels[i + 1] = gauges[i];
+            m_uoms[i + 1]     = "";
+        }
+    }
+
+    /**
+     * @param channel The name of the channel, "Time" or one of the gauge types. Not case sensitive.
+     * @return The index of the channel, -1 if it is not recorded.
+     */
+    public int getChannel(String channel) {
+        for (int i = 0; i < m_channels.length; i++)
+            if (m_channels[i].equalsIgnoreCase(channel))
+                return i;
+        return -1;
+    }
+
+    /**
+     * @param channel The index of the channel.
+     * @return The UOM of the channel's values.
+     */
+    public synchronized String getUOM(int channel) {
+        return m_uoms[channel];
+    }
+
+    /**
+     * Adds a sample of the current lap.
+     * @param percent The percentage of the lap completed.
+     * @param lapTime The time into the lap in seconds.
+     * @param values The values of the gauges in the order they were given to the constructor, or null to only record the time.
+     * @param uoms The UOM of each value, or null.
+     */
+    synchronized void _add(double percent, double lapTime, double[] values, String[] uoms) {
+        if (Double.isNaN(percent) || percent < 0.0 || percent > 100.0)
+            return;
+        if (m_current == null)
+            m_current = _newLap();
+
+        Lap lap = m_current;
+        if (lap.lastBin >= 0) {
+            if (percent < lap.lastPercent - 50.0) {
+                //crossed the line before _addLap() was called, hold the lap for it,
+                //unless it is just the end of the lap _addLap() already completed
+                if (lap.firstBin >= RESOLUTION - (RESOLUTION / 100)) {
+                    m_spare = lap;
+                }
+                else {
+                    if (m_pending != null)
+                        m_spare = m_pending;
+                    m_pending = lap;
+                }
+                m_current = lap = _newLap();
+                m_crossed = true;
+            }
+            else
+            if (percent <= lap.lastPercent) {
+                return;     //stopped or going backwards, keep the first time the car got here
+            }
+        }
+
+        int bin = Math.min(RESOLUTION - 1, (int)Math.floor(percent / BINSIZE));
+        int channels = values == null ? 1 : Math.min(m_channels.length, values.length + 1);
+
+        if (lap.lastBin < 0) {
+            lap.firstBin = bin;
+            //the lap starts at the line with no time on it
+            if (bin > 0 && (m_crossed || (bin <= RESOLUTION / 100 && lapTime > 0.0))) {
+                lap.lastPercent = 0.0;
+                lap.last[0]     = 0.0;
+                for (int c = 1; c < channels; c++)
+                    lap.last[c] = values[c - 1];
+                lap.lastBin     = 0;
+                lap.firstBin    = 0;
+                lap.channel(0)[0] = 0.0f;
+                for (int c = 1; c < channels; c++)
+                    lap.channel(c)[0] = (float)values[c - 1];
+            }
+        }
+
+        for (int c = 0; c < channels; c++) {
+            double value = c == 0 ? lapTime : values[c - 1];
+            float[] trace = lap.channel(c);
+            if (lap.lastBin < 0) {
+                trace[bin] = (float)value;
+            }
+            else {
+                double from = lap.last[c];
+                double span = percent - lap.lastPercent;
+                for (int b = lap.lastBin + 1; b <= bin; b++) {
+                    double f = Math.min(1.0, Math.max(0.0, ((b * BINSIZE) - lap.lastPercent) / span));
+                    trace[b] = (float)(from + ((value - from) * f));
+                }
+            }
+            lap.last[c] = value;
+            if (c > 0 && uoms != null && uoms[c - 1] != null)
+                m_uoms[c] = uoms[c - 1];
+        }
+        lap.lastBin     = bin;
+        lap.lastPercent = percent;
+        m_crossed       = false;
+    }
+
+    /**
+     * Completes the lap that just crossed the line.
+     * @param lapTime The lap time in seconds.
+     * @param valid false if the lap should not be used as the session best.
+     */
+    synchronized void _complete(double lapTime, boolean valid) {
+        Lap lap;
+        if (m_pending != null) {
+            lap = m_pending;
+            m_pending = null;
+        }
+        else {
+            lap = m_current;
+            m_current = null;
+            m_crossed = true;
+        }
+        if (lap == null || lap.lastBin < 0) {
+            if (lap != null)
+                m_spare = lap;
+            return;
+        }
+
+        //finish the time to the line, the gauges keep their last value
+        lap.lapTime = lapTime;
+        for (int c = 0; c < lap.values.length; c++) {
+            if (lap.values[c] == null)
+                continue;
+            double from = lap.last[c];
+            double to   = c == 0 && lapTime > 0.0 ? lapTime : from;
+            double span = 100.0 - lap.lastPercent;
+            for (int b = lap.lastBin + 1; b < RESOLUTION; b++) {
+                double f = span > 0.0 ? Math.min(1.0, ((b * BINSIZE) - lap.lastPercent) / span) : 1.0;
+                lap.values[c][b] = (float)(from + ((to - from) * f));
+            }
+        }
+        lap.lastBin = RESOLUTION - 1;
+
+        Lap oldLast = m_last, oldBest = m_best;
+        m_last = lap;
+        //only a whole lap can be the best
+        if (valid && lapTime > 0.0 && lap.firstBin == 0 && (oldBest == null || lapTime < oldBest.lapTime))
+            m_best = lap;
+
+        if (oldLast != null && oldLast != m_last && oldLast != m_best)
+            m_spare = oldLast;
+        else
+        if (oldBest != null && oldBest != m_best && oldBest != m_last)
+            m_spare = oldBest;
+    }
+
+    /**
+     * Forgets all the laps.
+     */
+    synchronized void _clear() {
+        m_current = m_pending = m_last = m_best = null;
+        m_crossed = false;
+    }
+
+    private Lap _newLap() {
+        Lap lap = m_spare;
+        m_spare = null;
+        if (lap == null)
+            lap = new Lap(m_channels.length);
+        else
+            lap.reset();
+        return lap;
+    }
+
+    private Lap _getLap(String lapType) {
+        if (lapType.equals(Car.LapType.SESSIONBEST))
+            return m_best;
+        if (lapType.equals(Car.LapType.SESSIONLAST))
+            return m_last;
+        if (lapType.equals(Car.LapType.CURRENT))
+            return m_current;
+        return null;
+    }
+
+    /**
+     * Returns how far ahead, negative, or behind, positive, the current lap is compared to a previous lap,
+     * at the last distance the car reached.
+     * @param lapType {@link com.SIMRacingApps.Car.LapType#SESSIONBEST} or {@link com.SIMRacingApps.Car.LapType#SESSIONLAST}.
+     * @return The delta in seconds, NaN if it is not known.
+     */
+    public synchronized double getDelta(String lapType) {
+        Lap reference = lapType.equals(Car.LapType.CURRENT) ? null : _getLap(lapType);
+        if (reference == null || m_current == null || m_current.lastBin < 0)
+            return Double.NaN;
+        int bin = m_current.lastBin;
+        return m_current.get(0, bin) - reference.get(0, bin);
+    }
+
+    /**
+     * @param lapType {@link com.SIMRacingApps.Car.LapType#SESSIONBEST} or {@link com.SIMRacingApps.Car.LapType#SESSIONLAST}.
+     * @return The lap time of the lap, zero if there isn't one.
+     */
+    public synchronized double getLapTime(String lapType) {
+        Lap lap = lapType.equals(Car.LapType.CURRENT) ? null : _getLap(lapType);
+        return lap == null ? 0.0 : lap.lapTime;
+    }
+
+    /**
+     * Returns a copy of a channel of a lap.
+     * @param lapType {@link com.SIMRacingApps.Car.LapType#CURRENT}, {@link com.SIMRacingApps.Car.LapType#SESSIONBEST}
+     *                or {@link com.SIMRacingApps.Car.LapType#SESSIONLAST}.
+     * @param channel The index of the channel.
+     * @return The {@link #RESOLUTION} values, NaN where the car has not been, or null if there is no such lap.
+     */
+    public synchronized double[] getTrace(String lapType, int channel) {
+        Lap lap = _getLap(lapType);
+        if (lap == null || channel < 0 || channel >= m_channels.length)
+            return null;
+        double[] trace = new double[RESOLUTION];
+        for (int b = 0; b < RESOLUTION; b++)
+            trace[b] = lap.get(channel, b);
+        return trace;
+    }
+}
@@ -12,6 +12,9 @@ import java.util.logging.Level;
 import com.SIMRacingApps.Data.State;
 import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
 import com.SIMRacingApps.Util.FindFile;
+import com.SIMRacingApps.Util.Histogram;
+import com.SIMRacingApps.Util.JMX;
+import com.SIMRacingApps.Util.Metrics;
 import com.SIMRacingApps.Util.Sound;
 
 /**
@@ -139,6 +142,7 @@ public class SIMPlugin {
         try {
             c = (SIMPlugin) Thread.currentThread().getContextClassLoader().loadClass(SIMClass).newInstance();
             c.m_SIMName = SIM;
+            JMX.register("SIMPlugin", SIM, c.new Management(), SIMPluginMBean.class);
             Server.logger().info(c.getVersion().getString());
         } 
         catch (InstantiationException e) {
@@ -156,8 +160,26 @@ public class SIMPlugin {
     }
 
     private TeamSpeak                       m_teamspeak = null;
+    private History                         m_history = null;
     private ArrayList<SIMPluginCallback>    m_callbacks = new ArrayList<SIMPluginCallback>();
     private Map<String,SIMPluginCallback>   m_loadedCallbacks = new HashMap<String,SIMPluginCallback>();
+    private volatile Map<String,SIMPluginCallback> m_callbackIndex = new HashMap<String,SIMPluginCallback>(); //upper case name to callback
+    private volatile int                    m_callbackDepth = 0;    //the most parts in a callback's name
+    
+    /**
+     * Rebuilds the index used to route SIMPluginCallback paths, see callMethod().
+     * Call it every time m_loadedCallbacks is changed.
+     */
+    private void _indexCallbacks() {
+        Map<String,SIMPluginCallback> index = new HashMap<String,SIMPluginCallback>();
+        int depth = 0;
+        for (Entry<String,SIMPluginCallback> entry : m_loadedCallbacks.entrySet()) {
+            index.put(entry.getKey().toUpperCase(), entry.getValue());
+            depth = Math.max(depth, entry.getKey().split("[.]").length);
+        }
+        m_callbackDepth = depth;
+        m_callbackIndex = index;
+    }
     
     /**
      * Class constructor. Protected so it cannot be instantiated. Meant to be called by the SIM's constructor.
@@ -165,6 +187,7 @@ public class SIMPlugin {
      * 
      */
     protected SIMPlugin() throws SIMPluginException {
+        m_history = new History();
         Boolean teamspeak = Server.getArg("teamspeak", true) && !Server.getArg("safemode", false);
         if (teamspeak) {
             String teamspeakClient = Server.getArg("teamspeak-client", "localhost");
@@ -182,10 +205,44 @@ public class SIMPlugin {
             m_callbacks.get(i).destroy();
         }
         m_callbacks = new ArrayList<SIMPluginCallback>();
+        m_loadedCallbacks.clear();
+        _indexCallbacks();
         
         if (m_teamspeak != null)
             m_teamspeak.disconnect();
         m_teamspeak = null;
+        
+        JMX.unregister("SIMPlugin", m_SIMName);
+    }
+    
+    /**
+     * The JMX MBean for this SIMPlugin.
+     */
+    private class Management implements SIMPluginMBean {
+        public String getSIMName()                  { return m_SIMName; }
+        public int    getIPS()                      { return m_ips; }
+        public String getDataVersion() {
+            synchronized (SIMPlugin.this) {
+                return getSession().getDataVersion().getString();
+            }
+        }
+        public long   getDataVersionLagMilliseconds() { return m_lastTick == 0L ? -1L : System.currentTimeMillis() - m_lastTick; }
+        public String getPlay()                     { synchronized (SIMPlugin.this) { return SIMPlugin.this.getPlay().getString(); } }
+        public String getRecord()                   { synchronized (SIMPlugin.this) { return SIMPlugin.this.getRecord().getString(); } }
+        public boolean isSync()                     { return m_sync; }
+        public void   setSync(boolean sync)         { m_sync = sync; }
+        public double getPlaybackSpeed()            { return m_playbackSpeed; }
+        public void   setPlaybackSpeed(double speed) {
+            if (speed > 0.0) {
+                m_playbackSpeed = speed;
+                Server.logger().info(String.format("Playback speed set to %.2f", speed));
+            }
+        }
+        public String[] getCallbacks() {
+            synchronized (SIMPlugin.this) {
+                return m_loadedCallbacks.keySet().toArray(new String[0]);
+            }
+        }
     }
 
     /**
@@ -205,6 +262,7 @@ public class SIMPlugin {
                 c = (SIMPluginCallback) cl.getConstructor(SIMPlugin.class).newInstance(this);
                 m_callbacks.add( c );
                 m_loadedCallbacks.put( name, c );
+                _indexCallbacks();
                 Server.logger().info("SIMPlugin Callback Loaded "+callbackClass);
             } 
             catch (InstantiationException e) {
@@ -254,6 +312,7 @@ public class SIMPlugin {
         if (callback != null) {
             callback.destroy();
             m_loadedCallbacks.remove(name);
+            _indexCallbacks();
             Server.logger().info("SIMPlugin Callback ["+name+"] removed.");
         }
     }
@@ -467,6 +526,39 @@ public class SIMPlugin {
         return callMethod(this,path);
     }
     
+    private volatile int m_ips = 0;
+    private volatile long m_lastTick = 0L;
+    private volatile long m_tickStart = 0L;
+    private volatile long m_tickCount = 0L;
+    private volatile double m_playbackSpeed = 1.0;
+    
+    /**
+     * Returns the history of the paths in "history-paths". 
+     * It locks its own buffers, so the servlets call it without locking the SIM.
+     * @return The history.
+     */
+    public History _getHistory() { return m_history; }
+    
+    /**
+     * Returns the number of times per second the run loop is getting data from the SIM.
+     * @return The iterations per second.
+     */
+    public int _getIPS() { return m_ips; }
+    
+    /**
+     * Returns when the SIM had the data ready for the current tick, 
+     * so the callbacks can measure the time it took them to act on it.
+     * @return The time as returned by System.nanoTime().
+     */
+    public long _getTickStart() { return m_tickStart; }
+    
+    /**
+     * Returns the number of ticks the run loop has had data from the SIM for, 
+     * so values that only change when the SIM's data does can be read once per tick.
+     * @return The number of ticks, zero if the run loop is not running.
+     */
+    public long _getTickCount() { return m_tickCount; }
+    
     /**
      * 3 methods work together to poll the SIM for data (isActive, waitForDataReady, isConnected).
      * <p>
@@ -510,11 +602,15 @@ public class SIMPlugin {
      */
     public void run(Callback callback)
     {
-        double sessionstart = 0.0, prevsessiontime = 0.0;
+        double sessionstart = 0.0, prevsessiontime = 0.0, prevspeed = m_playbackSpeed;
         int  ips = 0;
         int  ipsnext = 0;
         long ipstime = 0L;
         ArrayList<Callback> callbacks = new ArrayList<Callback>();
+        Histogram tickTime = Metrics.histogram("sra_simplugin_dataready_seconds", "Time spent calling DataReady() on all the callbacks for each SIM tick");
+        Metrics.gauge("sra_simplugin_ips", "Iterations per second of the SIM run loop", null, null, new Metrics.Gauge() {
+            public double getValue() { return m_ips; }
+        });
         
         if (callback != null)
             callbacks.add(callback);
@@ -528,6 +624,13 @@ public class SIMPlugin {
         while (isActive()) {
             try {
                 if (waitForDataReady()) {
+                    long tickStart = System.nanoTime();
+                    m_tickStart = tickStart;
+                    m_tickCount++;
+                    synchronized (this) {
+                        getSession()._updateTick();
+                    }
+                    long callbacksStart = System.nanoTime(); //the engines above record their own times
                     for (int i=0; i < callbacks.size(); i++) {
                         synchronized (this) {
                             if (callbacks.get(i) != null && !callbacks.get(i).DataReady(this,ips)) {
@@ -537,20 +640,31 @@ public class SIMPlugin {
                             }
                         }
                     }
-                    double currenttime = System.currentTimeMillis()/1000.0;
+                    tickTime.recordSince(callbacksStart);
+                    
+                    if (m_history.isRecording()) {
+                        synchronized (this) {
+                            m_history._record(this);
+                        }
+                    }
+                    m_lastTick = System.currentTimeMillis();
+                    double currenttime = m_lastTick/1000.0;
 
                     //sync with the times in the data, else if it gets too fast, slow it down
                     if (!getPlay().getString().isEmpty() && getSync().getBoolean()) {
                         double sessiontime = getSession().getTimeElapsed().getDouble(); //number if seconds since the session began
+                        double speed = m_playbackSpeed;
 
                         if (sessionstart == 0.0
                         || sessiontime < prevsessiontime  //new session started, recalibrate
+                        || speed != prevspeed             //speed changed, recalibrate
                         ) {
                         	//initialize to when the session began
-                            sessionstart = currenttime - sessiontime;
+                            sessionstart = currenttime - (sessiontime / speed);
+                            prevspeed = speed;
                         }
                         else {
-                            double sleeptime = (sessionstart + sessiontime) - currenttime;
+                            double sleeptime = (sessionstart + (sessiontime / speed)) - currenttime;
 
 //                                if (sleeptime > 0.016) {
                             if (sleeptime > 0.0) {
@@ -585,6 +699,7 @@ public class SIMPlugin {
                                 Server.logger().finest(String.format("IPS(%d) dropped below threshold(25), DataVersion=(%s)", ipsnext,this.getSession().getDataVersion().getString()));
                         }
                         ips = ipsnext;
+                        m_ips = ips;
                         ipsnext = 0;
                     }
                 }
@@ -692,6 +807,7 @@ public class SIMPlugin {
     
     private Map<String /*className*/,Map<String /*methodName*/,Map<Integer /*argCount*/,Method>>> m_dataMethods = 
             new HashMap<String,Map<String,Map<Integer,Method>>>();
+    private Map<String /*className*/,Histogram> m_callMethodTime = new HashMap<String,Histogram>();
 //    private Map<String,Map<String,Map<Integer,Method>>> m_voidMethods = new HashMap<String,Map<String,Map<Integer,Method>>>(); /* <class name, <method name, <number of arguments, method>>> */
 
     /**
@@ -774,6 +890,7 @@ public class SIMPlugin {
             } //for each method in the class
             
             m_dataMethods.put(className, methods);
+            m_callMethodTime.put(className, Metrics.histogram("sra_callmethod_seconds", "Time spent in the method a data path resolved to, by class", "class", classInstance.getClass().getSimpleName()));
 
         } //if class has not been read
 
@@ -851,6 +968,10 @@ public class SIMPlugin {
                         o = callMethod(getSession().getTrack(),String.join("/",args));
                     }
                     else
+                    if (name.equalsIgnoreCase("HISTORY")) {
+                        o = m_history.getHistory(args);
+                    }
+                    else
                     if (name.equalsIgnoreCase("TEAMSPEAK")) {
                         if (m_teamspeak != null)
                             o = callMethod(m_teamspeak,String.join("/",args));
@@ -859,22 +980,38 @@ public class SIMPlugin {
                     }
                     else
                     if (name.equalsIgnoreCase("SIMPLUGINCALLBACK")) {
-                        //search through the list of SIMPluginCallback(s) and see if it matches
-                        //there is no way to know how deep the callback class path could be, so a starts with match is performed.
-                        //Since this is a linear search, maybe it won't need to be optimized until there is enough callbacks to warrent it.
-                        String callbackPath = String.join(".",args).toUpperCase();
-                        Iterator<Entry<String, SIMPluginCallback>>itr = m_loadedCallbacks.entrySet().iterator();
-                        while (itr.hasNext()) {
-                            Entry<String, SIMPluginCallback> entry = itr.next();
-                            //callbackPath = MSPEC.SHIFTLIGHT.STATE
-                            //getKey() = MSPEC.ShiftLight
-                            if (callbackPath.startsWith(entry.getKey().toUpperCase() + ".")) {
-                                //remove the class name from the args, then call the method with the remaining args
-                                for (int i=entry.getKey().split("[.]").length; i > 0; i--)
-                                    args.remove(0); 
-                                o = callMethod(entry.getValue(),String.join("/",args));
-                                //o = entry.getValue().ProcessRequest(args);
+                        //there is no way to know how deep the callback class path could be, 
+                        //so look up each leading part of the path in the index, keeping the longest one loaded.
+                        //args = MSPEC, ShiftLight, State matches MSPEC.SHIFTLIGHT
+                        Map<String,SIMPluginCallback> index = m_callbackIndex;
+                        SIMPluginCallback callback = null;
+                        int depth = 0;
+                        StringBuilder key = new StringBuilder();
+                        for (int i=0; i < args.size() - 1 && i < m_callbackDepth; i++) {
+                            if (i > 0)
+                                key.append('.');
+                            key.append(args.get(i).toUpperCase());
+                            SIMPluginCallback c = index.get(key.toString());
+                            if (c != null) {
+                                callback = c;
+                                depth = i + 1;
+                            }
+                        }
+                        
+                        if (callback != null) {
+                            //remove the class name from the args, then call the method with the remaining args
+                            args.subList(0, depth).clear();
+                            SIMPluginCallback.Handler handler = callback._getHandler(args.get(0));
+                            if (handler != null) {
+                                String method = args.get(0).toUpperCase();
+                                methodCalled = callback.getClass().getSimpleName() + "." + method;
+                                o = handler.handle(args.subList(1, args.size()));
+                                if (o != null)
+                                    o.add("SET",method.startsWith("SET") || method.startsWith("INCREMENT") || method.startsWith("DECREMENT"),"boolean");
                             }
+                            //if the handler did not take the arguments, try the methods
+                            if (o == null)
+                                o = callMethod(callback,String.join("/",args));
                         }
                         
                         if (o == null)
@@ -898,6 +1035,16 @@ public class SIMPlugin {
                     }
                 }
                 
+                //the values from the session information are kept by the car until it changes,
+                //copied because they are shared and renamed below
+                if (o == null && args.size() == 0 && classInstance instanceof com.SIMRacingApps.Car) {
+                    Data identity = ((Car)classInstance)._getIdentity(name);
+                    if (identity != null) {
+                        o = new Data(identity);
+                        o.add("SET",false,"boolean");
+                    }
+                }
+                
                 if (o == null) {
                     if (m_dataMethods.containsKey(className)) {
                         if (m_dataMethods.get(className).containsKey(name)) {
@@ -905,7 +1052,9 @@ public class SIMPlugin {
                             if (m_dataMethods.get(className).get(name).containsKey(count)) {
                                 Method method = m_dataMethods.get(className).get(name).get(count);
                                 methodCalled = method.getName();
+                                long start = System.nanoTime();
                                 o = (Data) method.invoke(classInstance,args.toArray());
+                                m_callMethodTime.get(className).recordSince(start);
                                 //now if it was a set, increment, or decrement operation, 
                                 //let the caller know by setting the SET variable to true
                                 if (name.startsWith("SET") || name.startsWith("INCREMENT") || name.startsWith("DECREMENT"))
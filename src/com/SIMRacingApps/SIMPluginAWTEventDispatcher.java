@@ -5,10 +5,14 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeListenerProxy;
 import java.beans.PropertyChangeSupport;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import com.SIMRacingApps.SIMPlugin.Callback;
 import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
+import com.SIMRacingApps.Util.Histogram;
+import com.SIMRacingApps.Util.Metrics;
 
 /**
  * This class is used by a Java AWT application to send data events to registered listeners. 
@@ -44,6 +48,10 @@ import com.SIMRacingApps.SIMPlugin.SIMPluginException;
  *  //start the dispatcher thread running to place data into the event queue
  *  SIMPluginAWTEventDispatcher.getDispatcher().startThread();
  * </pre>  
+ * <p>
+ * The changes found on a tick are collected into a batch, and at most one Runnable is waiting on the event queue at a time.
+ * If the event dispatch thread falls behind the SIM, only the latest value of each name is fired when it catches up.
+ * How far behind it is, is recorded in the metric sra_awt_edt_lag_seconds, see {@link #getEDTLagMilliseconds()}.
  */
 public class SIMPluginAWTEventDispatcher {
 
@@ -126,6 +134,7 @@ public class SIMPluginAWTEventDispatcher {
      */
     public void addPropertyChangeListener(String name,PropertyChangeListener listener) {
         m_Pcs.addPropertyChangeListener(name,listener);
+        _subscribe();
     }
     
     /**
@@ -135,9 +144,131 @@ public class SIMPluginAWTEventDispatcher {
      */
     public void removePropertyChangeListener(String name,PropertyChangeListener listener) {
         m_Pcs.removePropertyChangeListener(name,listener);
+        _subscribe();
+    }
+
+    /**
+     * A name that has listeners, split into the paths it is made of.
+     */
+    private static class Subscription {
+        final String name;
+        final String[] paths;
+        Subscription(String name) {
+            this.name  = name;
+            this.paths = name.split(";");
+        }
+    }
+    
+    private volatile Subscription[] m_subscriptions = new Subscription[0];
+    
+    /**
+     * Rebuilds the subscriptions from the listeners. Called when a listener is added or removed, 
+     * so the names are not split on every tick.
+     */
+    private synchronized void _subscribe() {
+        Map<String,Subscription> subscriptions = new LinkedHashMap<String,Subscription>();
+        for (Subscription subscription : m_subscriptions)
+            subscriptions.put(subscription.name, subscription);
+        
+        Set<String> names = new LinkedHashSet<String>();
+        for (PropertyChangeListener listener : m_Pcs.getPropertyChangeListeners()) {
+            if (listener instanceof PropertyChangeListenerProxy)
+                names.add(((PropertyChangeListenerProxy)listener).getPropertyName());
+        }
+        
+        Subscription[] a = new Subscription[names.size()];
+        int i = 0;
+        for (String name : names)
+            a[i++] = subscriptions.containsKey(name) ? subscriptions.get(name) : new Subscription(name);
+        m_subscriptions = a;
+    }
+
+    private final Object m_lock = new Object();
+    private Map<String,Data> m_pending = new LinkedHashMap<String,Data>();  //the batch waiting for the event dispatch thread. Only the latest value of a name is kept.
+    private Map<String,Data> m_spare   = new LinkedHashMap<String,Data>();  //the batch being fired, swapped with m_pending so the SIM is never blocked by the listeners
+    private final AtomicBoolean m_posted = new AtomicBoolean(false);
+    private volatile long m_postedNanos = 0L;
+    private volatile long m_lag = 0L;
+    private int m_previps = -1;
+    private final Histogram m_edtLag = Metrics.histogram("sra_awt_edt_lag_seconds", "Time from a batch of changes being posted until the event dispatch thread ran it");
+    private final AtomicLong m_coalesced = Metrics.counter("sra_awt_coalesced_total", "Number of changes replaced by a newer value before the event dispatch thread fired them");
+    
+    /**
+     * Returns how long the last batch of changes waited for the event dispatch thread.
+     * If this is more than a tick of the SIM, the listeners are taking too long.
+     * @return The lag in milliseconds.
+     */
+    public double getEDTLagMilliseconds() {
+        return m_lag / 1000000.0;
+    }
+    
+    /**
+     * Adds a change to the batch, replacing the previous value if it has not been fired yet.
+     */
+    private void _queue(String name, Data data) {
+        synchronized (m_lock) {
+            if (m_pending.put(name, data) != null)
+                m_coalesced.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Posts the batch to the event dispatch thread, unless it has already been posted and not run yet.
+     */
+    private void _post() {
+        synchronized (m_lock) {
+            if (m_pending.isEmpty())
+                return;
+        }
+        if (m_posted.compareAndSet(false, true)) {
+            m_postedNanos = System.nanoTime();
+            EventQueue.invokeLater(m_fire);
+        }
     }
+    
+    private final Runnable m_fire = new Runnable() {
+        public void run() {
+            m_lag = System.nanoTime() - m_postedNanos;
+            m_edtLag.record(m_lag);
+            
+            Map<String,Data> events;
+            synchronized (m_lock) {
+                events    = m_pending;
+                m_pending = m_spare;
+                m_spare   = null;
+            }
+            //from here, new changes go in a new batch and get posted again
+            m_posted.set(false);
+            
+            try {
+                for (Map.Entry<String,Data> event : events.entrySet()) {
+                    String s = event.getKey();
+                    Data sd  = event.getValue();
 
-    private Map<String,Data> m_eventqueue;    //implemented as a map so if dispatcher is slower than the event queuer, only the latest value will be in there.
+                    //if it is FPS all by itself, don't fire unless it has changed.
+                    //if combined with other values, then it will fire on DataVersion as well.
+                    //Don't combine to reduce the number of events being fired.
+                    if (s.equalsIgnoreCase("FPS")) {
+                        if (sd.getInteger("FPS") != m_previps) {
+                            m_Pcs.firePropertyChange(s, new Data(sd.getName()), sd);
+                            m_previps = sd.getInteger("FPS");
+                        }
+                    }
+                    else {
+                        m_Pcs.firePropertyChange(s, new Data(sd.getName()), sd);
+                    }
+                }
+            }
+            catch (Exception e) {
+                Server.logStackTrace(Level.SEVERE,"Exception",e);
+            }
+            
+            events.clear();
+            synchronized (m_lock) {
+                m_spare = events;
+            }
+        }
+    };
 
     /**
      * Starts the dispatcher thread.
@@ -148,8 +279,6 @@ public class SIMPluginAWTEventDispatcher {
      */
     public void startThread(Callback callback) {
 
-        m_eventqueue = new HashMap<String,Data>();
-
         //create a Thread that retrieves the data and updates the event queue
         Thread t = new Thread( new Runnable() {
             
@@ -159,7 +288,6 @@ public class SIMPluginAWTEventDispatcher {
 
                 m_SIMPlugin.run(new Callback() {
                     Map<String,Data> oldvalues = new HashMap<String,Data>();
-                    int previps = -1;
 
                     public boolean Waiting(SIMPlugin SIMPlugin) throws SIMPluginException {
                         if (callback != null)
@@ -173,71 +301,33 @@ public class SIMPluginAWTEventDispatcher {
                             if (!callback.DataReady(SIMPlugin, ips))
                                 return false;
                         
-                        synchronized (m_eventqueue) {
-                            PropertyChangeListener[] listeners = m_Pcs.getPropertyChangeListeners();
-                            for (int i = 0; i < listeners.length; i++) {
-                                if (listeners[i] instanceof PropertyChangeListenerProxy) {
-                                    PropertyChangeListenerProxy proxy = (PropertyChangeListenerProxy)listeners[i];
-                                        String name = proxy.getPropertyName();
-                                        Data data = new Data(name);
-
-                                        String names[] = name.split(";");
+                        Subscription[] subscriptions = m_subscriptions;
+                        for (int i = 0; i < subscriptions.length; i++) {
+                            String name = subscriptions[i].name;
+                            Data data = new Data(name);
 
-                                        for (String m : names) {
-                                            Data o = null;
-                                            if (m.equalsIgnoreCase("FPS")) {
-                                                o = new Data(m,ips);
-                                                //to get a true FPS, need to really get the most volatile data from the SIMPlugin and only return when it changes
-                                                o.add(SIMPlugin.getData("Session/DataVersion"));
-                                                data.add(o);
-                                            }
-                                            else
-                                            {
-                                                o = SIMPlugin.getData(m);
-                                                data.add(m,o.getValue(),o.getUOM());
-                                            }
-                                        }
-                                        if (data != null && (oldvalues.get(name) == null || !data.equals(oldvalues.get(name)))) {
-                                            oldvalues.put(name, data);
-                                            m_eventqueue.put(name, data);
-                                        }
+                            for (String m : subscriptions[i].paths) {
+                                Data o = null;
+                                if (m.equalsIgnoreCase("FPS")) {
+                                    o = new Data(m,ips);
+                                    //to get a true FPS, need to really get the most volatile data from the SIMPlugin and only return when it changes
+                                    o.add(SIMPlugin.getData("Session/DataVersion"));
+                                    data.add(o);
+                                }
+                                else
+                                {
+                                    o = SIMPlugin.getData(m);
+                                    data.add(m,o.getValue(),o.getUOM());
                                 }
                             }
-
-                            if (!m_eventqueue.isEmpty()) {
-                                //fire the events on the event dispatch queue
-                                EventQueue.invokeLater(new Runnable() {
-                                    public void run() {
-                                        try {
-                                            //I'm going to fire the events inside this block so the Dispatcher will block until I'm done.
-                                            synchronized (m_eventqueue) {
-                                                for (String s : m_eventqueue.keySet()) {
-                                                    Data sd = m_eventqueue.get(s);
-
-                                                    //if it is FPS all by itself, don't fire unless it has changed.
-                                                    //if combined with other values, then it will fire on DataVersion as well.
-                                                    //Don't combine to reduce the number of events being fired.
-                                                    if (s.equalsIgnoreCase("FPS")) {
-                                                        if (sd.getInteger("FPS") != previps) {
-                                                            m_Pcs.firePropertyChange(s, new Data(sd.getName()), sd);
-                                                            previps = sd.getInteger("FPS");
-                                                        }
-                                                    }
-                                                    else {
-                                                        m_Pcs.firePropertyChange(s, new Data(sd.getName()), sd);
-                                                    }
-                                                }
-
-                                                m_eventqueue.clear();
-                                            } //synchronized
-                                        }
-                                        catch (Exception e) {
-                                            Server.logStackTrace(Level.SEVERE,"Exception",e);
-                                        }
-                                    }
-                                });
+                            if (oldvalues.get(name) == null || !data.equals(oldvalues.get(name))) {
+                                oldvalues.put(name, data);
+                                _queue(name, data);
                             }
-                        } //synchronized
+                        }
+
+                        //fire the events on the event dispatch queue
+                        _post();
                         return true;
                     }
                 });
@@ -0,0 +1,138 @@
+package com.SIMRacingApps.SIMPluginCallbacks.DataPublisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * This class turns each snapshot of the published values into a payload that only has the values
+ * that changed since the last one the web server acknowledged.
+ * <p>
+ * Every payload has a "Sequence" number, that increments with each payload, and a "Full" flag.
+ * When "Full" is true, the payload has every value and replaces what the web server has.
+ * When it is false, the web server should update only the values in the payload and keep the rest,
+ * except for the keys listed in "Removed", which are no longer published and should be deleted.
+ * The keys passed to the constructor are always sent, so the web server can tell who it's from.
+ * <p>
+ * A full snapshot is sent first, then every "fullInterval" milliseconds,
+ * when the session changes, and when the web server returns "Resync": true in its response.
+ * Every payload is a full snapshot until one of them is acknowledged,
+ * so a full snapshot that was replaced by a newer payload, or that failed, is sent again.
+ * <p>
+ * Because the changes are relative to what was acknowledged, not what was sent,
+ * a payload that was replaced by a newer one, or that failed, does not lose any changes.
+ * The web server must process the payloads in the order it receives them.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Delta {
+
+    public static final String SEQUENCE = "Sequence";
+    public static final String FULL     = "Full";
+    public static final String RESYNC   = "Resync";
+    public static final String REMOVED  = "Removed";
+
+    private final String[] m_alwaysSend;
+    private final long m_fullInterval;
+    private Map<String,Object> m_acknowledged = new HashMap<String,Object>();
+    private long m_sequence = 0L;
+    private long m_lastFull = 0L;              //when the last full snapshot that was acknowledged was built
+    private long m_lastFullSequence = 0L;      //and its sequence, acknowledgments of older payloads are ignored
+    private boolean m_resync = true;           //send full snapshots until one built after this was set is acknowledged
+    private long m_resyncAfter = 0L;
+    private final Map<Long,Long> m_built = new HashMap<Long,Long>();  //when each unacknowledged full snapshot was built, by sequence
+
+    /**
+     * @param alwaysSend The keys to send in every payload.
+     * @param fullInterval The milliseconds between full snapshots. Zero only sends them when needed.
+     */
+    public Delta(String[] alwaysSend, long fullInterval) {
+        m_alwaysSend   = alwaysSend;
+        m_fullInterval = fullInterval;
+    }
+
+    /**
+     * Returns the payload for the current snapshot of the values.
+     * Pass the returned map to {@link #acknowledged(Map)} when the web server accepts it.
+     * @param current All of the values to publish.
+     * @return The payload to send.
+     */
+    public synchronized Map<String,Object> next(Map<String,Object> current) {
+        long now = System.currentTimeMillis();
+        boolean full = m_resync || (m_fullInterval > 0L && now - m_lastFull >= m_fullInterval);
+
+        Map<String,Object> payload = new LinkedHashMap<String,Object>();
+        payload.put(SEQUENCE, ++m_sequence);
+        payload.put(FULL, full);
+
+        if (full) {
+            payload.putAll(current);
+            //only the latest one can be sent, so forget the others
+            m_built.clear();
+            m_built.put(m_sequence, now);
+        }
+        else {
+            for (String key : m_alwaysSend) {
+                if (current.containsKey(key))
+                    payload.put(key, current.get(key));
+            }
+            for (Entry<String,Object> value : current.entrySet()) {
+                Object acknowledged = m_acknowledged.get(value.getKey());
+                if (acknowledged == null ? value.getValue() != null : !acknowledged.equals(value.getValue()))
+                    payload.put(value.getKey(), value.getValue());
+            }
+            List<String> removed = new ArrayList<String>();
+            for (String key : m_acknowledged.keySet()) {
+                if (!current.containsKey(key))
+                    removed.add(key);
+            }
+            if (!removed.isEmpty())
+                payload.put(REMOVED, removed);
+        }
+        return payload;
+    }
+
+    /**
+     * Call this when the web server has accepted a payload returned by {@link #next(Map)}.
+     * @param payload The payload.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void acknowledged(Map<String,Object> payload) {
+        Object o = payload.get(SEQUENCE);
+        long sequence = o instanceof Long ? (Long)o : 0L;
+        if (sequence <= m_lastFullSequence)
+            return;
+        
+        if (Boolean.TRUE.equals(payload.get(FULL))) {
+            m_acknowledged = new HashMap<String,Object>(payload);
+            Long built = m_built.remove(sequence);
+            m_lastFull = built != null ? built : System.currentTimeMillis();
+            m_lastFullSequence = sequence;
+            if (sequence > m_resyncAfter)
+                m_resync = false;
+        }
+        else {
+            m_acknowledged.putAll(payload);
+            Object removed = payload.get(REMOVED);
+            if (removed instanceof List)
+                m_acknowledged.keySet().removeAll((List<String>)removed);
+        }
+        m_acknowledged.remove(SEQUENCE);
+        m_acknowledged.remove(FULL);
+        m_acknowledged.remove(REMOVED);
+    }
+
+    /**
+     * Sends full snapshots until one that was built after this call is acknowledged.
+     */
+    public synchronized void resync() {
+        m_resync      = true;
+        m_resyncAfter = m_sequence;
+    }
+}
@@ -1,11 +1,7 @@
 package com.SIMRacingApps.SIMPluginCallbacks.DataPublisher;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,6 +16,7 @@ import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.Server;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
+import com.SIMRacingApps.Util.Config;
 
 /**
  * This plugin will be designed to send that data to an external web server. 
@@ -38,9 +35,21 @@ import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
  * 2. DataPublisher-Post-URL-1643 = http://www.YourLeaguesWebsite.com/Data
  * 3. DataPublisher-Post-Interval-1643 = 5000
  * 4. DataPublisher-Post-Log = false
+ * 5. DataPublisher-Post-Gzip = false
+ * 6. DataPublisher-Post-Timeout = 10000
+ * 7. DataPublisher-Post-Delta-1643 = false
+ * 8. DataPublisher-Post-Full-Interval = 60000
  * </pre>
  * The plugin will start sending data, for the defined interval in milliseconds, 
  * using a HTTP POST with the data as a JSON formatted payload. 
+ * The posts are sent by a {@link Publisher} in the background, so a slow web server does not hold up this plug-in.
+ * If a post fails, it is retried with a backoff, and only the latest data is sent.
+ * If DataPublisher-Post-Gzip is true, the payload is compressed and the Content-Encoding header is set to gzip.
+ * <p>
+ * If DataPublisher-Post-Delta is true for the league, each payload only has the values that changed since the 
+ * last payload the web server accepted, plus "Sequence" and "Full" fields, and a "Removed" list of the keys that are no longer sent.
+ * A full payload is sent every DataPublisher-Post-Full-Interval milliseconds, or when the web server returns "Resync": true,
+ * until the web server accepts one. See {@link Delta} for the details.
  * The web server would have to be able to parse this and store it in a database. 
  * <pre>
  * Here's a PHP example.
@@ -187,8 +196,11 @@ import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
  */
 public class Post extends SIMPluginCallback {
 
+    private static final Config.Pattern POSTINTERVAL = Config.pattern("datapublisher-post-interval-%s");
+    private static final Config.Pattern POSTURL      = Config.pattern("datapublisher-post-url-%s");
+    private static final Config.Pattern POSTDELTA    = Config.pattern("datapublisher-post-delta-%s");
+    private static final int DEFAULT_INTERVAL = 5000;
     private Genson m_genson; //synchronize on this for all member variables
-	private Long m_lastUpdate = 0L;
 	private Properties m_variables;
 	private String m_version;
 	private String m_session = "";
@@ -196,6 +208,8 @@ public class Post extends SIMPluginCallback {
     private SimpleDateFormat m_dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     private Map<String,Object> m_results = new HashMap<String,Object>();
     private boolean m_logit = false;
+    private Publisher m_publisher = null;
+    private Delta m_delta = null;
 
     /**
 	 * Constructor. 
@@ -209,8 +223,49 @@ public class Post extends SIMPluginCallback {
 		
         m_logit = Server.getArg("datapublisher-post-log",m_logit);
         
+        //There are over 300 subscriptions, only read them when it's time to post, not on every tick.
+        //Once the league is known, ProcessData() changes this to the league's interval.
+        setSamplingInterval(DEFAULT_INTERVAL);
+        
 		m_genson = new Genson();
 	    m_dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+	    
+	    //these are sent in every payload, even when they haven't changed
+	    m_delta = new Delta(
+	            new String[] { "SIMName", "SIMVersion", "Session/Id", "Session/LeagueId", "Version", "PostDateGMT" },
+	            Server.getArg("datapublisher-post-full-interval", 60000)
+	    );
+	    
+	    try {
+	        m_publisher = new Publisher("DataPublisher.Post", new Publisher.Listener() {
+	            @SuppressWarnings("unchecked")
+	            @Override
+	            public void response(String url, Object context, String result) {
+	                //the web server has these values now, so the next delta can be relative to them
+	                if (context != null)
+	                    m_delta.acknowledged((Map<String,Object>)context);
+	                
+	                //Cache this away for the API routes to read it
+	                try {
+	                    Map<String,Object> results = m_genson.deserialize(result, Map.class);
+	                    if (results != null) {
+	                        synchronized (m_genson) {
+	                            m_results = results;
+	                        }
+	                        if (Boolean.TRUE.equals(results.get(Delta.RESYNC)))
+	                            m_delta.resync();
+	                    }
+	                }
+	                catch (Exception e) {}
+	                if (m_logit)
+	                    Server.logger().info(String.format("DataPublish.Post Server Returned %s",result));
+	            }
+	        });
+	    }
+	    catch (Exception e) {
+	        Server.logStackTrace(e);
+	        throw new SIMPluginException("DataPublisher.Post cannot start the HTTP client: " + e.getMessage());
+	    }
 		
         InputStream in = null;
         try {
@@ -278,15 +333,15 @@ public class Post extends SIMPluginCallback {
     public void destroy() {
 		super.destroy();
 		
-		//TODO: Add code to clean up your plug-in here
+		if (m_publisher != null)
+		    m_publisher.close();
 	}
 	
 	/**
 	 * ProcessData is called from within the dedicated thread for this plug-in
 	 * every time there is data available in the queue it pops it off the queue and passes it to this method.
 	 * 
-	 * At this point in the design, it will get called every 16ms. 
-	 * At some point, I may change it to only get called if the subscribed to data changes.
+	 * It gets called once per posting interval, because that is the sampling interval it sets.
 	 * 
 	 * NOTE: If you find you need to use the SIMPlugin argument, inclose it in a synchronized block. 
 	 * You are in a separate thread, so this will block the main thread. Do not keep it locked very long.
@@ -318,128 +373,82 @@ public class Post extends SIMPluginCallback {
         Data leagueId = data.get("Session/LeagueId");
         Data isSpectatorME = data.get("Car/ME/IsSpectator");
 
-        int interval = Server.getArg(String.format("datapublisher-post-interval-%s",leagueId.getString()), 5000);
+        int interval = POSTINTERVAL.key(leagueId.getString()).asInt(DEFAULT_INTERVAL);
+        
+        //The sampling interval controls how often we post, so there's no need to track the time we last posted.
+        setSamplingInterval(interval);
 
-        if (!isSpectatorME.getBoolean() && m_lastUpdate + interval <= System.currentTimeMillis()) {
+        if (!isSpectatorME.getBoolean()) {
     
-            String publish_URL = Server.getArg(String.format("datapublisher-post-url-%s",leagueId.getString()),"");
+            String publish_URL = POSTURL.key(leagueId.getString()).asString("");
             
             if (!publish_URL.isEmpty()) {
                 
-                try {
-                    URL url = new URL(publish_URL);
-                    HttpURLConnection urlc = (HttpURLConnection) url.openConnection();
-                    urlc.setRequestProperty("Referer", "http://SIMRacingApps.com/");
-                    urlc.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-                    
-                    urlc.setRequestMethod("POST");
-                    urlc.setDoInput(true);
-                    urlc.setDoOutput(true);
-                    urlc.setUseCaches(false);
-                    
-                    Map<String,Object> output_map   = new HashMap<String,Object>();
-                    //now load up the data
-                    Iterator<Object> itr = m_variables.keySet().iterator();
-                    
-                    while (itr.hasNext()) {
-                        String key = itr.next().toString();
-                        String format = m_variables.getProperty(key);
-                        Data d = data.get(key);
-                        if (d != null) {
-                            output_map.put(key, d.getStringFormatted(format));
-                        }
-                    }
-                    
-                    //add sim name, version and time stamp
-                    output_map.put("SIMName",           data.get("SIMName").getString());
-                    output_map.put("SIMVersion",        data.get("Version").getString());
-                    output_map.put("Session/Id",        data.get("Session/Id").getString());
-                    output_map.put("Session/LeagueId",  data.get("Session/LeagueId").getString());
-                    output_map.put("Version",           m_version);
-                    output_map.put("PostDateGMT",       m_dateFormat.format(System.currentTimeMillis()));
-                    
-                    if (!((String)output_map.get("Session/Id")).equals(m_session)) {
-                        m_session = (String) output_map.get("Session/Id");
-                        m_date    = (String) output_map.get("PostDateGMT");
+                Map<String,Object> output_map   = new HashMap<String,Object>();
+                //now load up the data
+                Iterator<Object> itr = m_variables.keySet().iterator();
+                
+                while (itr.hasNext()) {
+                    String key = itr.next().toString();
+                    String format = m_variables.getProperty(key);
+                    Data d = data.get(key);
+                    if (d != null) {
+                        output_map.put(key, d.getStringFormatted(format));
                     }
+                }
+                
+                //add sim name, version and time stamp
+                output_map.put("SIMName",           data.get("SIMName").getString());
+                output_map.put("SIMVersion",        data.get("Version").getString());
+                output_map.put("Session/Id",        data.get("Session/Id").getString());
+                output_map.put("Session/LeagueId",  data.get("Session/LeagueId").getString());
+                output_map.put("Version",           m_version);
+                output_map.put("PostDateGMT",       m_dateFormat.format(System.currentTimeMillis()));
+                
+                if (!((String)output_map.get("Session/Id")).equals(m_session)) {
+                    m_session = (String) output_map.get("Session/Id");
+                    m_date    = (String) output_map.get("PostDateGMT");
+                    m_delta.resync();
+                }
 
-                    ArrayList<Map<String,String>> drivers = new ArrayList<Map<String,String>>();
+                ArrayList<Map<String,String>> drivers = new ArrayList<Map<String,String>>();
 
-                    for (int i=0; i < 64; i++) {
-                        Data number = data.get(String.format("Car/I%d/Number", i));
-                        Data isSpectator = data.get(String.format("Car/I%d/IsSpectator", i));
-                        Data isPaceCar = data.get(String.format("Car/I%d/IsPaceCar", i));
-                        
-                        if (number != null 
-                        && !number.getString().isEmpty() 
-                        && !isSpectator.getBoolean()
-                        && !isPaceCar.getBoolean()
-                        ) {
-                            Map<String,String> driver = new HashMap<String,String>();
-                            
-                            driver.put("Number",number.getString());
-                            driver.put("DriverName",data.get(String.format("Car/I%d/DriverName", i)).getString());
-                            driver.put("ClassName",data.get(String.format("Car/I%d/ClassName", i)).getString());
-                            drivers.add(driver);
-                        }
-                    }
-
-                    output_map.put("Drivers", drivers);
+                for (int i=0; i < 64; i++) {
+                    Data number = data.get(String.format("Car/I%d/Number", i));
+                    Data isSpectator = data.get(String.format("Car/I%d/IsSpectator", i));
+                    Data isPaceCar = data.get(String.format("Car/I%d/IsPaceCar", i));
                     
-                    output_map.put("StartDateGMT", m_date);
-
-                    //post it
-                    OutputStream os = urlc.getOutputStream();
-                    if (os != null) {
-                        String packet = m_genson.serialize(output_map);
-                        
-                        if (m_logit)
-                            Server.logger().info(String.format("DataPublisher.Post.Sent = %s", packet));
-                            
-                        os.write(packet.getBytes("UTF-8"));
-                        os.flush();
-                        os.close();
+                    if (number != null 
+                    && !number.getString().isEmpty() 
+                    && !isSpectator.getBoolean()
+                    && !isPaceCar.getBoolean()
+                    ) {
+                        Map<String,String> driver = new HashMap<String,String>();
                         
-                        InputStream is = urlc.getInputStream();
-                        
-                        if (is != null) {
-            
-                            byte[] buffer = new byte[1024];
-                            int bytesRead;
-                            ByteArrayOutputStream out = new ByteArrayOutputStream();
-    
-                            try {
-                                while ((bytesRead = is.read(buffer)) != -1) {
-                                    out.write(buffer,0,bytesRead);
-                                }
-                            }
-                            finally {
-                                is.close();
-                            }
-                            
-                            //Cache this away for the API routes to read it
-                            String result = out.toString();
-                            try {
-                                @SuppressWarnings("unchecked")
-                                Map<String,Object> results = m_genson.deserialize(result, Map.class);
-                                if (results != null) {
-                                    synchronized (m_genson) {
-                                        m_results = results;
-                                    }
-                                }
-                            }
-                            catch (Exception e) {}
-                            if (m_logit)
-                                Server.logger().info(String.format("DataPublish.Post Server Returned %s",result));
-                        }
+                        driver.put("Number",number.getString());
+                        driver.put("DriverName",data.get(String.format("Car/I%d/DriverName", i)).getString());
+                        driver.put("ClassName",data.get(String.format("Car/I%d/ClassName", i)).getString());
+                        drivers.add(driver);
                     }
                 }
-                catch (IOException e) {
-                    Server.logStackTrace(e);
-                }
+
+                output_map.put("Drivers", drivers);
+                
+                output_map.put("StartDateGMT", m_date);
+
+                //only send what changed, if the league's web server supports it
+                Map<String,Object> payload = POSTDELTA.key(leagueId.getString()).asBoolean(false)
+                                           ? m_delta.next(output_map)
+                                           : null;
+                
+                //post it, the publisher sends it in the background and calls us back with the results
+                String packet = m_genson.serialize(payload != null ? payload : output_map);
+                
+                if (m_logit)
+                    Server.logger().info(String.format("DataPublisher.Post.Sent = %s", packet));
+                
+                m_publisher.publish(publish_URL, packet, payload);
             }
-            
-            m_lastUpdate = System.currentTimeMillis();
         }
         
         return true;
@@ -0,0 +1,321 @@
+package com.SIMRacingApps.SIMPluginCallbacks.DataPublisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+import com.SIMRacingApps.Server;
+import com.SIMRacingApps.Util.Histogram;
+import com.SIMRacingApps.Util.Metrics;
+
+/**
+ * This class posts JSON payloads to one or more web servers without blocking the caller.
+ * <p>
+ * It uses the Jetty HttpClient, which keeps the connections open between posts.
+ * There is only ever one post in flight to each URL. If a new payload is published while one is in flight,
+ * or while waiting to retry, it replaces any payload that is still waiting. The latest one wins, because
+ * the receiver only cares about the current state. The number of URLs waiting is bounded.
+ * <p>
+ * Failed posts, including any response that is not a 2xx, are retried with an exponential backoff,
+ * starting at 1 second and doubling up to 60 seconds.
+ * <p>
+ * Each URL reports the metrics sra_publisher_request_seconds, sra_publisher_failures_total,
+ * sra_publisher_retries_total, sra_publisher_coalesced_total and sra_publisher_bytes_total.
+ * <p>
+ * The options are:
+ * <ul>
+ * <li>datapublisher-post-gzip = true to compress the body with gzip. The receiver must be able to inflate it. Defaults to false.</li>
+ * <li>datapublisher-post-timeout = The milliseconds to wait for a response. Defaults to 10000.</li>
+ * </ul>
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Publisher {
+
+    /**
+     * Implement this to receive the response from the web server.
+     */
+    public interface Listener {
+        /**
+         * Called on one of the publisher's threads when a post succeeds.
+         * @param url The URL that was posted to.
+         * @param context The context passed to {@link Publisher#publish(String, String, Object)} with the payload that was posted.
+         * @param response The body of the response.
+         */
+        public void response(String url, Object context, String response);
+    }
+
+    private static final long MINIMUM_BACKOFF = 1000L;
+    private static final long MAXIMUM_BACKOFF = 60000L;
+    private static final int  MAXIMUM_URLS    = 16;
+    private static final int  MAXIMUM_RESPONSE = 1024 * 1024;
+
+    private final String m_name;
+    private final Listener m_listener;
+    private final HttpClient m_client;
+    private final boolean m_gzip;
+    private final long m_timeout;
+    private final Map<String,Endpoint> m_endpoints = new HashMap<String,Endpoint>();
+    private final AtomicLong m_dropped;
+
+    /**
+     * The state of each URL. Synchronize on it to change it.
+     */
+    private class Endpoint {
+        final String url;
+        String payload      = null;   //the payload waiting to be sent
+        Object context      = null;
+        boolean inFlight    = false;
+        boolean retrying    = false;
+        int attempts        = 0;
+        final Histogram latency;
+        final AtomicLong failures;
+        final AtomicLong retries;
+        final AtomicLong coalesced;
+        final AtomicLong bytes;
+
+        Endpoint(String url) {
+            this.url  = url;
+            String label = label(url);
+            latency   = Metrics.histogram("sra_publisher_request_seconds", "Time from sending a post until the response is received", "endpoint", label);
+            failures  = Metrics.counter("sra_publisher_failures_total", "Number of posts that failed", "endpoint", label);
+            retries   = Metrics.counter("sra_publisher_retries_total", "Number of posts that were retries", "endpoint", label);
+            coalesced = Metrics.counter("sra_publisher_coalesced_total", "Number of payloads replaced by a newer one before they were sent", "endpoint", label);
+            bytes     = Metrics.counter("sra_publisher_bytes_total", "Number of bytes posted, after compression", "endpoint", label);
+        }
+    }
+
+    /**
+     * Creates a publisher and starts its HTTP client.
+     * @param name The name used for the threads and the log messages.
+     * @param listener (Optional) The listener for the responses, can be null.
+     * @throws Exception If the HTTP client cannot be started.
+     */
+    public Publisher(String name, Listener listener) throws Exception {
+        m_name     = name;
+        m_listener = listener;
+        m_gzip     = Server.getArg("datapublisher-post-gzip", false);
+        m_timeout  = Server.getArg("datapublisher-post-timeout", 10000);
+        m_dropped  = Metrics.counter("sra_publisher_dropped_total", "Number of payloads dropped because too many URLs were waiting", "publisher", name);
+
+        QueuedThreadPool threads = new QueuedThreadPool(8, 1);
+        threads.setName(name);
+        threads.setDaemon(true);
+
+        //verify the server's certificate and host name, this Jetty does not check the host name unless asked to
+        SslContextFactory ssl = new SslContextFactory(false);
+        ssl.setEndpointIdentificationAlgorithm("HTTPS");
+
+        //one selector thread is plenty for a handful of connections
+        m_client = new HttpClient(new HttpClientTransportOverHTTP(1), ssl);
+        m_client.setExecutor(threads);
+        m_client.setScheduler(new ScheduledExecutorScheduler(name + "-scheduler", true));
+        m_client.setConnectTimeout(Math.min(m_timeout, 5000L));
+        m_client.setIdleTimeout(MAXIMUM_BACKOFF * 2);
+        m_client.setMaxConnectionsPerDestination(1);
+        m_client.setFollowRedirects(true);
+        m_client.start();
+    }
+
+    /**
+     * Stops the HTTP client. Anything waiting to be sent is discarded.
+     */
+    public void close() {
+        try {
+            m_client.stop();
+        } catch (Exception e) {
+            Server.logStackTrace(Level.WARNING, m_name + ": while stopping the HTTP client", e);
+        }
+    }
+
+    private static String label(String url) {
+        try {
+            URI uri = new URI(url);
+            return uri.getHost() + (uri.getPort() > 0 ? ":" + uri.getPort() : "") + uri.getPath();
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
+    /**
+     * Queues the payload to be posted to the URL and returns immediately.
+     * If a payload for this URL is already waiting, it is replaced.
+     * @param url The URL to post to.
+     * @param payload The JSON payload.
+     */
+    public void publish(String url, String payload) {
+        publish(url, payload, null);
+    }
+
+    /**
+     * Queues the payload to be posted to the URL and returns immediately.
+     * If a payload for this URL is already waiting, it is replaced.
+     * @param url The URL to post to.
+     * @param payload The JSON payload.
+     * @param context (Optional) Anything the caller wants passed back to the listener when this payload is acknowledged.
+     */
+    public void publish(String url, String payload, Object context) {
+        Endpoint endpoint;
+        synchronized (m_endpoints) {
+            endpoint = m_endpoints.get(url);
+            if (endpoint == null) {
+                if (m_endpoints.size() >= MAXIMUM_URLS) {
+                    m_dropped.incrementAndGet();
+                    return;
+                }
+                endpoint = new Endpoint(url);
+                m_endpoints.put(url, endpoint);
+            }
+        }
+
+        synchronized (endpoint) {
+            if (endpoint.payload != null)
+                endpoint.coalesced.incrementAndGet();
+            endpoint.payload = payload;
+            endpoint.context = context;
+            //if busy, it will be picked up when the current post, or the retry, finishes
+            if (endpoint.inFlight || endpoint.retrying)
+                return;
+        }
+        send(endpoint);
+    }
+
+    private byte[] encode(String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        if (!m_gzip)
+            return bytes;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private void send(final Endpoint endpoint) {
+        final String payload;
+        final Object context;
+        final boolean retry;
+        synchronized (endpoint) {
+            if (endpoint.payload == null || endpoint.inFlight)
+                return;
+            payload          = endpoint.payload;
+            context          = endpoint.context;
+            endpoint.payload = null;
+            endpoint.context = null;
+            endpoint.inFlight = true;
+            endpoint.retrying = false;
+            retry            = endpoint.attempts > 0;
+        }
+
+        try {
+            byte[] body = encode(payload);
+            if (retry)
+                endpoint.retries.incrementAndGet();
+            endpoint.bytes.addAndGet(body.length);
+
+            Request request = m_client.newRequest(endpoint.url)
+                    .method(HttpMethod.POST)
+                    .header("Referer", "http://SIMRacingApps.com/")
+                    .content(new BytesContentProvider("application/json; charset=UTF-8", body))
+                    .timeout(m_timeout, TimeUnit.MILLISECONDS);
+            if (m_gzip)
+                request.header("Content-Encoding", "gzip");
+
+            final long start = System.nanoTime();
+            request.send(new BufferingResponseListener(MAXIMUM_RESPONSE) {
+                @Override
+                public void onComplete(Result result) {
+                    endpoint.latency.recordSince(start);
+                    int status = result.getResponse() == null ? 0 : result.getResponse().getStatus();
+                    if (result.isSucceeded() && status >= 200 && status < 300) {
+                        completed(endpoint, context, getContentAsString(StandardCharsets.UTF_8));
+                    }
+                    else {
+                        failed(endpoint, payload, context, result.isFailed()
+                                ? result.getFailure().toString()
+                                : "HTTP " + status + " " + result.getResponse().getReason());
+                    }
+                }
+            });
+        }
+        catch (Exception e) {
+            failed(endpoint, payload, context, e.toString());
+        }
+    }
+
+    private void completed(Endpoint endpoint, Object context, String response) {
+        synchronized (endpoint) {
+            endpoint.inFlight = false;
+            endpoint.attempts = 0;
+        }
+
+        if (m_listener != null) {
+            try {
+                m_listener.response(endpoint.url, context, response);
+            }
+            catch (Exception e) {
+                Server.logStackTrace(Level.WARNING, m_name + ": while processing the response from " + endpoint.url, e);
+            }
+        }
+
+        //send anything that was published while this one was in flight
+        send(endpoint);
+    }
+
+    private void failed(final Endpoint endpoint, String payload, Object context, String reason) {
+        endpoint.failures.incrementAndGet();
+        long backoff;
+        synchronized (endpoint) {
+            endpoint.inFlight = false;
+            //retry this one, unless a newer one is already waiting
+            if (endpoint.payload == null) {
+                endpoint.payload = payload;
+                endpoint.context = context;
+            }
+            backoff = Math.min(MAXIMUM_BACKOFF, MINIMUM_BACKOFF << Math.min(endpoint.attempts, 16));
+            endpoint.attempts++;
+            endpoint.retrying = true;
+        }
+
+        Server.logger().warning(String.format("%s: post to %s failed, %s, retrying in %d ms", m_name, endpoint.url, reason, backoff));
+
+        try {
+            m_client.getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (endpoint) {
+                        endpoint.retrying = false;
+                    }
+                    send(endpoint);
+                }
+            }, backoff, TimeUnit.MILLISECONDS);
+        }
+        catch (Exception e) {
+            //the client has been stopped
+            synchronized (endpoint) {
+                endpoint.retrying = false;
+            }
+        }
+    }
+}
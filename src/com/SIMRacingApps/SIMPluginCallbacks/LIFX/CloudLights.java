@@ -0,0 +1,109 @@
+package com.SIMRacingApps.SIMPluginCallbacks.LIFX;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+import com.SIMRacingApps.Server;
+
+/**
+ * This class sends the commands to the LIFX HTTP API at https://api.lifx.com.
+ * <p>
+ * It uses the Jetty HttpClient, which keeps the connection to the API open between commands,
+ * so only the first command pays for the TLS handshake.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class CloudLights extends Lights {
+
+    private static final long TIMEOUT = 10000L;
+
+    private final String m_token;
+    private final HttpClient m_client;
+
+    /**
+     * Creates the lights and starts the HTTP client.
+     * @param name The name used for the threads and the log messages.
+     * @param listener (Optional) The listener, can be null.
+     * @param token The token from https://cloud.lifx.com.
+     * @throws Exception If the HTTP client cannot be started.
+     */
+    public CloudLights(String name, Listener listener, String token) throws Exception {
+        super(name, listener);
+        m_token = token;
+
+        QueuedThreadPool threads = new QueuedThreadPool(4, 1);
+        threads.setName(name + "-http");
+        threads.setDaemon(true);
+
+        //verify the server's certificate and host name before sending the token, this Jetty does not check the host name unless asked to
+        SslContextFactory ssl = new SslContextFactory(false);
+        ssl.setEndpointIdentificationAlgorithm("HTTPS");
+
+        m_client = new HttpClient(new HttpClientTransportOverHTTP(1), ssl);
+        m_client.setExecutor(threads);
+        m_client.setScheduler(new ScheduledExecutorScheduler(name + "-scheduler", true));
+        m_client.setConnectTimeout(5000L);
+        m_client.setIdleTimeout(5 * 60 * 1000L);
+        m_client.setMaxConnectionsPerDestination(1);
+        m_client.start();
+    }
+
+    @Override
+    protected void _send(final String state, final String api) throws Exception {
+        String api_parts[] = api.split(" ");
+        if (api_parts.length != 2)
+            throw new IllegalArgumentException("expected METHOD URL, got " + api);
+
+        m_client.newRequest(api_parts[1])
+                .method(api_parts[0])
+                .header("Accept", "*/*")
+                .header("Authorization", String.format("Bearer %s", m_token))
+                .content(new BytesContentProvider("application/json", new byte[0]))
+                .timeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .send(new BufferingResponseListener() {
+                    @Override
+                    public void onComplete(Result result) {
+                        if (result.isFailed()) {
+                            Server.logger().warning(String.format("%s._send(%s): %s", m_name, state, result.getFailure().toString()));
+                            completed(state, api, false);
+                            return;
+                        }
+
+                        int responseCode = result.getResponse().getStatus();
+                        String response  = getContentAsString(StandardCharsets.UTF_8);
+
+                        //do not set the state unless it returns a good code
+                        if (responseCode == 200 || responseCode == 207) {
+                            Server.logger().info(String.format("%s._send(%s): response code = %d, %s", m_name, state, responseCode, response));
+                            completed(state, api, true);
+                        }
+                        else {
+                            Server.logger().warning(String.format("%s._send(%s): response code = %d, %s", m_name, state, responseCode, response));
+                            completed(state, api, false);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    protected void _close() {
+        try {
+            m_client.stop();
+        } catch (Exception e) {
+            Server.logStackTrace(Level.WARNING, m_name + ": while stopping the HTTP client", e);
+        }
+    }
+}
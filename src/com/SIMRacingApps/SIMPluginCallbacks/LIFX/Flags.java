@@ -1,13 +1,9 @@
 package com.SIMRacingApps.SIMPluginCallbacks.LIFX;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
 
 import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin;
@@ -37,6 +33,15 @@ import com.SIMRacingApps.Util.State;
  * There is an option in the app, under each light's settings, to add the light to the cloud and assign the group. 
  * This field is case sensitive, so type it exactly as you see here.
  * <p>
+ * To skip the cloud and send the commands straight to the lights on your network, add the following.
+ * No token is needed. See {@link LANLights} for the details.
+ * <pre>
+ * LIFX-flags-lan = Y
+ * LIFX-lan-addresses = 255.255.255.255
+ * </pre>
+ * The commands are sent on their own thread, so a slow network never holds up this plug-in.
+ * Only the latest flag is sent, so if the flags change faster than the lights can, the ones in between are skipped.
+ * <p>
  *
  * @author    Jeffrey Gilliam
  * @since     1.4
@@ -64,6 +69,10 @@ public class Flags extends SIMPluginCallback {
     long m_blinkDuration = 0;
     Map<String,String> m_api = new HashMap<String,String>();
     boolean m_testMode = false;
+    Lights m_lights = null;
+    volatile String m_requested = states.unknown;   //the state last sent to the lights, which may not have been delivered yet
+    volatile long m_holdUntil = 0L;                 //give the initialize pulse time to be seen
+    final ConcurrentLinkedQueue<String> m_delivered = new ConcurrentLinkedQueue<String>();
     
     /**
 	 * Constructor. 
@@ -90,12 +99,32 @@ public class Flags extends SIMPluginCallback {
         m_api.put(states.checkeredflag,         Server.getArg("LIFX-api-flags-checkered",         "POST https://api.lifx.com/v1/lights/group:SRA-flags/effects/pulse?color=white%20brightness:{BRIGHTNESS}&from_color=white%20brightness:0&period=0.5&cycles=9999&power_on=true"));
         m_api.put(states.redflag,               Server.getArg("LIFX-api-flags-red",               "PUT https://api.lifx.com/v1/lights/group:SRA-flags/state?power=on&color=red&brightness={BRIGHTNESS}&duration=0"));
 		
-		if (m_token.isEmpty()) 
-		    Server.logger().warning("No LIFX-token found in settings. See http://github.com/SIMRacingApps/SIMRacingApps/wiki/LIFX-Lights-Setup.");
+        Lights.Listener listener = new Lights.Listener() {
+            @Override
+            public void sent(String state) {
+                if (state.equals(states.initialize))
+                    m_holdUntil = System.currentTimeMillis() + 2000L;
+                //m_state belongs to the callback thread, it picks these up in ProcessData()
+                m_delivered.add(state);
+            }
+        };
+        
+        try {
+            if (Server.getArg("LIFX-flags-lan", false))
+                m_lights = new LANLights("LIFX.Flags", listener, Server.getArg("LIFX-lan-addresses", "255.255.255.255"), Server.getArg("LIFX-lan-port", LANLights.PORT));
+            else
+            if (!m_token.isEmpty())
+                m_lights = new CloudLights("LIFX.Flags", listener, m_token);
+            else
+                Server.logger().warning("No LIFX-token found in settings. See http://github.com/SIMRacingApps/SIMRacingApps/wiki/LIFX-Lights-Setup.");
+        }
+        catch (Exception e) {
+            Server.logStackTrace(Level.SEVERE, "LIFX.Flags: cannot start the lights", e);
+        }
 		
-		//Show that the light is working
+		//Show that the light is working, ProcessData() waits for it to finish
+        m_holdUntil = System.currentTimeMillis() + 2000L;
 		_send(states.initialize);
-		try { Thread.sleep(2000); } catch (InterruptedException e) {}
 		
 		//Call Subscribe one for each path you want to get data for.
 		Subscribe("/Car/REFERENCE/IsYellowFlag"); 
@@ -116,14 +145,16 @@ public class Flags extends SIMPluginCallback {
     public void destroy() {
 		super.destroy();
 		
-		m_state.setState(states.unknown,System.currentTimeMillis());
+		m_requested = states.unknown;
 		_send(states.off);
+		if (m_lights != null)
+		    m_lights.close(2000L);
 	}
 
     private void _send(String state) {
-        if (!m_token.isEmpty()) {
+        if (m_lights != null) {
             
-            if (m_state.equals(state))
+            if (m_requested.equals(state))
                 return;
             
             String api = m_api.get(state);
@@ -131,61 +162,13 @@ public class Flags extends SIMPluginCallback {
             if (api == null)
                 return;
             
-            String api_parts[] = api.replace("{BRIGHTNESS}", Double.toString(m_brightness)).split(" "); 
+            api = api.replace("{BRIGHTNESS}", Double.toString(m_brightness)); 
             
-            if (api_parts.length != 2)
-                return;
-            
-            Server.logger().info(String.format("LIFX.Flags._send(%s): %s,%s",state,api_parts[0],api_parts[1]));
+            Server.logger().info(String.format("LIFX.Flags._send(%s): %s",state,api));
             
-            try {
-                URL url = new URL(api_parts[1]);
-                HttpsURLConnection urlc = (HttpsURLConnection)url.openConnection();
-                urlc.setRequestMethod(api_parts[0]);
-                urlc.setRequestProperty("Accept","*/*");
-                urlc.setRequestProperty("Authorization", String.format("Bearer %s",m_token));
-                //urlc.setRequestProperty("accept-encoding","gzip, deflate");
-                urlc.setRequestProperty("content-type","application/json");
-                urlc.setRequestProperty("content-lenth","0");
-    
-                try {
-                    urlc.connect();
-                }
-                catch (IOException e) {}
-                
-                
-                BufferedReader in = new BufferedReader(new InputStreamReader(urlc.getInputStream()));
-                StringBuffer response = new StringBuffer();
-                
-                if (in != null) {
-                    String inputLine;
-    
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-                }
-
-                int responseCode = urlc.getResponseCode();
-                
-                //do not set the state unless it returns a good code
-                if (responseCode == 200 || responseCode == 207) {
-                    Server.logger().info(String.format("LIFX.Flags._send(%s): response code = %d, %s",state,responseCode,response.toString()));
-                    m_state.setState(state,System.currentTimeMillis());
-                }
-                else {
-                    Server.logger().warning(String.format("LIFX.Flags._send(%s): response code = %d, %s",state,responseCode,response.toString()));
-                }
-                
-                return;
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-                Server.logStackTrace(e);
-            }
-            catch (Exception e) {
-                Server.logStackTrace(e);
-            }
+            //returns immediately, m_state is updated when the lights have it
+            m_requested = state;
+            m_lights.send(state, api);
         }
     }
 	/**
@@ -224,6 +207,13 @@ public class Flags extends SIMPluginCallback {
 //        boolean isCheckered = false;
         long    currentTime = System.currentTimeMillis();
         
+        String delivered;
+        while ((delivered = m_delivered.poll()) != null)
+            m_state.setState(delivered,currentTime);
+        
+        if (currentTime < m_holdUntil)
+            return true;
+        
         if (m_testMode) {
             if (m_state.equals(states.off) && m_state.getTime(currentTime) > 10000L) {
                 isYellow = true;
@@ -267,7 +257,7 @@ public class Flags extends SIMPluginCallback {
             //if data is empty, then the SIM is not running
             if (data.isEmpty()) {
                 //turn the light(s) off
-                if (!m_state.equals(states.off))
+                if (!m_requested.equals(states.off))
                     _send(states.off);
                 return true;
             }
@@ -281,23 +271,23 @@ public class Flags extends SIMPluginCallback {
         }
                     
         if (isRed) {
-            if (!m_state.equals(states.redflag)) {
+            if (!m_requested.equals(states.redflag)) {
                 _send(states.redflag);
             }
         }
         else 
         if (isWhite) {
-            if (!m_state.equals(states.whiteflag)) {
+            if (!m_requested.equals(states.whiteflag)) {
                 _send(states.whiteflag);
             }
         }
         else 
         if (isYellow) {
-            if (!m_state.equals(states.yellowflagblinking) && !m_state.equals(states.yellowflag)) {
+            if (!m_requested.equals(states.yellowflagblinking) && !m_requested.equals(states.yellowflag)) {
                 _send(states.yellowflagblinking);
             }
             else
-            if (m_state.equals(states.yellowflagblinking)) { 
+            if (m_requested.equals(states.yellowflagblinking) && m_state.equals(states.yellowflagblinking)) { 
                 if (m_state.getTime(currentTime) > m_blinkDuration) {
                     _send(states.yellowflag);
                 }
@@ -305,26 +295,26 @@ public class Flags extends SIMPluginCallback {
         }
         else
         if (isBlue) {
-            if (!m_state.equals(states.blueflag)) {
+            if (!m_requested.equals(states.blueflag)) {
                 _send(states.blueflag);
             }
         }
         else
         if (isGreen) {
-            if (!m_state.equals(states.greenflag)) {
+            if (!m_requested.equals(states.greenflag)) {
                 _send(states.greenflag);
             }
         }
         else
 //        if (isCheckered) {
-//            if (!m_state.equals(states.checkeredflag)) {
+//            if (!m_requested.equals(states.checkeredflag)) {
 //                _send(states.checkeredflag);
 //            }
 //        }
 //        else 
         {
             //if the light(s) are on, turn them off
-            if (!m_state.equals(states.off))
+            if (!m_requested.equals(states.off))
                 _send(states.off);
         }
         
@@ -0,0 +1,366 @@
+package com.SIMRacingApps.SIMPluginCallbacks.LIFX;
+
+import java.awt.Color;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.SIMRacingApps.Server;
+
+/**
+ * This class sends the commands straight to the lights on the local network
+ * using the LIFX LAN protocol over UDP, without the round trip to the cloud.
+ * <p>
+ * The same "METHOD URL" commands as the HTTP API are used, so any changes to them in the settings apply here too.
+ * Only the "state", "effects/pulse" and "effects/breathe" commands are supported.
+ * The selector in the URL, like "group:SRA-flags", is ignored. The commands are sent to every light at the addresses
+ * in the setting "LIFX-lan-addresses", which defaults to the broadcast address, 255.255.255.255, meaning all the lights on your network.
+ * Separate multiple addresses with commas.
+ * <p>
+ * Each packet asks the lights to acknowledge it, and is sent again, up to 3 times, if none do.
+ * <p>
+ * To test without a light, run this class to start a fake bulb that logs the commands it receives and acknowledges them.
+ * <pre>
+ *    java -classpath SIMRacingAppsServer.exe com.SIMRacingApps.SIMPluginCallbacks.LIFX.LANLights 56701
+ * </pre>
+ * Then start the server with "LIFX-lan-addresses = 127.0.0.1" and "LIFX-lan-port = 56701".
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class LANLights extends Lights {
+
+    public static final int PORT = 56700;
+
+    private static final int HEADER             = 36;
+    private static final int ACKNOWLEDGEMENT    = 45;
+    private static final int SETCOLOR           = 102;
+    private static final int SETWAVEFORM        = 103;
+    private static final int SETPOWER           = 117;
+    private static final int WAVEFORM_SINE      = 1;
+    private static final int WAVEFORM_PULSE     = 4;
+    private static final int ACK_TIMEOUT        = 250;
+    private static final int ATTEMPTS           = 3;
+
+    private static final Map<String,Double> m_hues = new HashMap<String,Double>();
+    static {
+        m_hues.put("red",       0.0);
+        m_hues.put("orange",    36.0);
+        m_hues.put("yellow",    60.0);
+        m_hues.put("green",     120.0);
+        m_hues.put("cyan",      180.0);
+        m_hues.put("blue",      250.0);
+        m_hues.put("purple",    280.0);
+        m_hues.put("pink",      325.0);
+    }
+
+    private final DatagramSocket m_socket;
+    private final List<InetSocketAddress> m_addresses = new ArrayList<InetSocketAddress>();
+    private final int m_source;
+    private int m_sequence = 0;
+    private final byte[] m_receiveBuffer = new byte[256];
+
+    /**
+     * Creates the lights and opens the UDP socket.
+     * @param name The name used for the thread and the log messages.
+     * @param listener (Optional) The listener, can be null.
+     * @param addresses The comma separated addresses of the lights, or the broadcast address.
+     * @param port The UDP port the lights listen on, normally 56700.
+     * @throws Exception If the socket cannot be opened.
+     */
+    public LANLights(String name, Listener listener, String addresses, int port) throws Exception {
+        super(name, listener);
+        for (String address : addresses.split(",")) {
+            if (!address.trim().isEmpty())
+                m_addresses.add(new InetSocketAddress(address.trim(), port));
+        }
+        //any non-zero value, so the lights send the acknowledgements back to us
+        m_source = new Random().nextInt(Integer.MAX_VALUE - 2) + 2;
+        m_socket = new DatagramSocket();
+        m_socket.setBroadcast(true);
+        m_socket.setSoTimeout(ACK_TIMEOUT);
+    }
+
+    @Override
+    protected void _send(String state, String api) throws Exception {
+        boolean acknowledged = true;
+        for (byte[] packet : _encode(api)) {
+            if (!_transmit(packet)) {
+                acknowledged = false;
+                break;
+            }
+        }
+        if (acknowledged)
+            Server.logger().info(String.format("%s._send(%s): acknowledged", m_name, state));
+        completed(state, api, acknowledged);
+    }
+
+    @Override
+    protected void _close() {
+        m_socket.close();
+    }
+
+    /**
+     * Sends the packet to every address and waits for an acknowledgement from any of them.
+     */
+    private boolean _transmit(byte[] packet) throws Exception {
+        int sequence = packet[23] & 0xff;
+        for (int attempt=0; attempt < ATTEMPTS; attempt++) {
+            for (InetSocketAddress address : m_addresses)
+                m_socket.send(new DatagramPacket(packet, packet.length, address));
+
+            long until = System.currentTimeMillis() + ACK_TIMEOUT;
+            while (System.currentTimeMillis() < until) {
+                DatagramPacket response = new DatagramPacket(m_receiveBuffer, m_receiveBuffer.length);
+                try {
+                    m_socket.receive(response);
+                }
+                catch (SocketTimeoutException e) {
+                    break;
+                }
+                ByteBuffer b = ByteBuffer.wrap(response.getData(), 0, response.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+                //skip the acknowledgements from the other lights and the earlier attempts
+                if (response.getLength() >= HEADER
+                &&  b.getShort(32) == ACKNOWLEDGEMENT
+                &&  b.getInt(4) == m_source
+                &&  (b.get(23) & 0xff) == sequence
+                )
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] _packet(int type, byte[] payload) {
+        ByteBuffer b = ByteBuffer.allocate(HEADER + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.putShort((short)(HEADER + payload.length));
+        b.putShort((short)(1024 | 0x1000 | 0x2000));    //protocol, addressable, tagged, because the target is all lights
+        b.putInt(m_source);
+        b.putLong(0L);                                  //target, all lights
+        b.put(new byte[6]);
+        b.put((byte)0x02);                              //ack_required
+        b.put((byte)(m_sequence = (m_sequence + 1) & 0xff));
+        b.putLong(0L);
+        b.putShort((short)type);
+        b.putShort((short)0);
+        b.put(payload);
+        return b.array();
+    }
+
+    private byte[] _setPower(boolean on) {
+        ByteBuffer b = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+        b.putShort((short)(on ? 65535 : 0));
+        b.putInt(0);
+        return _packet(SETPOWER, b.array());
+    }
+
+    private byte[] _setColor(int[] hsbk, long duration) {
+        ByteBuffer b = ByteBuffer.allocate(13).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte)0);
+        for (int i=0; i < 4; i++)
+            b.putShort((short)hsbk[i]);
+        b.putInt((int)duration);
+        return _packet(SETCOLOR, b.array());
+    }
+
+    private byte[] _setWaveform(boolean isTransient, int[] hsbk, long period, double cycles, int waveform) {
+        ByteBuffer b = ByteBuffer.allocate(21).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte)0);
+        b.put((byte)(isTransient ? 1 : 0));
+        for (int i=0; i < 4; i++)
+            b.putShort((short)hsbk[i]);
+        b.putInt((int)period);
+        b.putFloat((float)cycles);
+        b.putShort((short)0);                           //skew_ratio, 0 is a 50% duty cycle
+        b.put((byte)waveform);
+        return _packet(SETWAVEFORM, b.array());
+    }
+
+    /**
+     * Translates an HTTP API command to the LAN packets that do the same thing.
+     */
+    private List<byte[]> _encode(String api) throws Exception {
+        String api_parts[] = api.split(" ");
+        if (api_parts.length != 2)
+            throw new IllegalArgumentException("expected METHOD URL, got " + api);
+
+        URI uri = new URI(api_parts[1]);
+        Map<String,String> query = new HashMap<String,String>();
+        if (uri.getRawQuery() != null) {
+            for (String parameter : uri.getRawQuery().split("&")) {
+                String[] nv = parameter.split("=", 2);
+                query.put(URLDecoder.decode(nv[0], "UTF-8"), nv.length > 1 ? URLDecoder.decode(nv[1], "UTF-8") : "");
+            }
+        }
+
+        List<byte[]> packets = new ArrayList<byte[]>();
+        String path = uri.getPath();
+
+        if (path.endsWith("/state")) {
+            if ("off".equals(query.get("power"))) {
+                packets.add(_setPower(false));
+            }
+            else {
+                int[] hsbk = _hsbk(query.get("color"), query.get("brightness"));
+                long duration = (long)(_double(query.get("duration"), 1.0) * 1000.0);
+                packets.add(_setColor(hsbk, duration));
+                if ("on".equals(query.get("power")))
+                    packets.add(_setPower(true));
+            }
+        }
+        else
+        if (path.endsWith("/effects/pulse") || path.endsWith("/effects/breathe")) {
+            if (query.containsKey("from_color"))
+                packets.add(_setColor(_hsbk(query.get("from_color"), null), 0L));
+            if (!"false".equals(query.get("power_on")))
+                packets.add(_setPower(true));
+            packets.add(_setWaveform(
+                    !"true".equals(query.get("persist")),
+                    _hsbk(query.get("color"), null),
+                    (long)(_double(query.get("period"), 1.0) * 1000.0),
+                    _double(query.get("cycles"), 1.0),
+                    path.endsWith("/effects/pulse") ? WAVEFORM_PULSE : WAVEFORM_SINE
+            ));
+        }
+        else {
+            throw new IllegalArgumentException("not supported on the LAN, " + path);
+        }
+
+        return packets;
+    }
+
+    private static double _double(String value, double defaultValue) {
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int _scale(double value) {
+        return (int)Math.round(Math.max(0.0, Math.min(1.0, value)) * 65535.0);
+    }
+
+    /**
+     * Converts a color string of the HTTP API, like "yellow brightness:0.5", to hue, saturation, brightness and kelvin.
+     * Supports the color names, hue:, saturation:, brightness:, kelvin:, #RRGGBB and rgb:R,G,B.
+     */
+    private static int[] _hsbk(String color, String brightness) {
+        double hue = 0.0, saturation = 0.0, bright = 1.0, kelvin = 3500.0;
+
+        if (color != null) {
+            for (String token : color.trim().toLowerCase().split("\\s+")) {
+                String[] nv = token.split(":", 2);
+                if (m_hues.containsKey(token)) {
+                    hue = m_hues.get(token);
+                    saturation = 1.0;
+                }
+                else
+                if (token.equals("white")) {
+                    saturation = 0.0;
+                }
+                else
+                if (token.startsWith("#") || nv[0].equals("rgb")) {
+                    int r, g, b;
+                    if (token.startsWith("#")) {
+                        int rgb = Integer.parseInt(token.substring(1), 16);
+                        r = (rgb >> 16) & 0xff; g = (rgb >> 8) & 0xff; b = rgb & 0xff;
+                    }
+                    else {
+                        String[] c = nv[1].split(",");
+                        r = Integer.parseInt(c[0]); g = Integer.parseInt(c[1]); b = Integer.parseInt(c[2]);
+                    }
+                    float[] hsb = Color.RGBtoHSB(r, g, b, null);
+                    hue = hsb[0] * 360.0; saturation = hsb[1]; bright = hsb[2];
+                }
+                else
+                if (nv.length == 2) {
+                    if (nv[0].equals("hue"))        hue        = _double(nv[1], hue);
+                    if (nv[0].equals("saturation")) saturation = _double(nv[1], saturation);
+                    if (nv[0].equals("brightness")) bright     = _double(nv[1], bright);
+                    if (nv[0].equals("kelvin"))     { kelvin   = _double(nv[1], kelvin); saturation = 0.0; }
+                }
+            }
+        }
+
+        if (brightness != null)
+            bright = _double(brightness, bright);
+
+        return new int[] {
+            (int)Math.round(((hue % 360.0 + 360.0) % 360.0) / 360.0 * 65535.0),
+            _scale(saturation),
+            _scale(bright),
+            (int)Math.max(1500.0, Math.min(9000.0, kelvin))
+        };
+    }
+
+    //java -classpath SIMRacingAppsServer.exe com.SIMRacingApps.SIMPluginCallbacks.LIFX.LANLights [port]
+    //logs to the console, the server's logger does not need the settings to run
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+        DatagramSocket socket = new DatagramSocket(port);
+        byte[] buffer = new byte[256];
+        Server.logger().info(String.format("LIFX fake bulb listening on port %d", port));
+
+        while (true) {
+            DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+            socket.receive(request);
+            if (request.getLength() < HEADER)
+                continue;
+
+            ByteBuffer b = ByteBuffer.wrap(request.getData(), 0, request.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+            int source   = b.getInt(4);
+            int flags    = b.get(22) & 0xff;
+            int sequence = b.get(23) & 0xff;
+            int type     = b.getShort(32) & 0xffff;
+
+            String s;
+            switch (type) {
+                case SETPOWER:
+                    s = String.format("SetPower(level=%d)", b.getShort(36) & 0xffff);
+                    break;
+                case SETCOLOR:
+                    s = String.format("SetColor(hue=%.0f,saturation=%.2f,brightness=%.2f,kelvin=%d,duration=%d)",
+                            (b.getShort(37) & 0xffff) * 360.0 / 65535.0, (b.getShort(39) & 0xffff) / 65535.0,
+                            (b.getShort(41) & 0xffff) / 65535.0, b.getShort(43) & 0xffff, b.getInt(45));
+                    break;
+                case SETWAVEFORM:
+                    s = String.format("SetWaveform(transient=%d,hue=%.0f,saturation=%.2f,brightness=%.2f,kelvin=%d,period=%d,cycles=%.0f,waveform=%d)",
+                            b.get(37), (b.getShort(38) & 0xffff) * 360.0 / 65535.0, (b.getShort(40) & 0xffff) / 65535.0,
+                            (b.getShort(42) & 0xffff) / 65535.0, b.getShort(44) & 0xffff, b.getInt(46), b.getFloat(50), b.get(56));
+                    break;
+                default:
+                    s = String.format("type=%d", type);
+            }
+            Server.logger().info(String.format("LIFX fake bulb: from %s, source=%d, sequence=%d, %s", request.getSocketAddress(), source, sequence, s));
+
+            if ((flags & 0x02) != 0) {
+                ByteBuffer ack = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                ack.putShort((short)HEADER);
+                ack.putShort((short)(1024 | 0x1000));
+                ack.putInt(source);
+                ack.put(new byte[] {(byte)0xd0, 0x73, (byte)0xd5, 0x00, 0x00, 0x01, 0x00, 0x00});   //a LIFX MAC address
+                ack.put(new byte[6]);
+                ack.put((byte)0);
+                ack.put((byte)sequence);
+                ack.putLong(0L);
+                ack.putShort((short)ACKNOWLEDGEMENT);
+                ack.putShort((short)0);
+                socket.send(new DatagramPacket(ack.array(), HEADER, request.getSocketAddress()));
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.SIMRacingApps.SIMPluginCallbacks.LIFX;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.SIMRacingApps.Server;
+
+/**
+ * This class sends commands to the LIFX lights without blocking the caller.
+ * <p>
+ * There is only ever one command in flight. If a new one is sent while one is in flight,
+ * it replaces any command that is still waiting. Only the latest state of the lights matters,
+ * so if the flags change faster than the lights can be updated, the states in between are skipped.
+ * <p>
+ * A command that fails is retried, unless a newer one is waiting, starting after 1 second
+ * and doubling up to 30 seconds.
+ * <p>
+ * The subclasses decide how the commands are delivered, see {@link CloudLights} and {@link LANLights}.
+ * The command is the API from the settings, "METHOD URL", as used by the LIFX HTTP API.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public abstract class Lights {
+
+    /**
+     * Implement this to be notified when the lights have changed.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread of the lights when a command was delivered.
+         * @param state The state that was sent with the command.
+         */
+        public void sent(String state);
+    }
+
+    private static final long MINIMUM_BACKOFF = 1000L;
+    private static final long MAXIMUM_BACKOFF = 30000L;
+
+    private static class Command {
+        final String state;
+        final String api;
+        Command(String state, String api) {
+            this.state = state;
+            this.api   = api;
+        }
+    }
+
+    protected final String m_name;
+    private final Listener m_listener;
+    private final ScheduledExecutorService m_executor;
+    private Command m_pending   = null;     //the command waiting to be sent
+    private boolean m_busy      = false;    //true while a command is in flight or waiting to be retried
+    private int     m_attempts  = 0;
+
+    private final Runnable m_next = new Runnable() {
+        @Override
+        public void run() {
+            _next();
+        }
+    };
+
+    /**
+     * @param name The name used for the thread and the log messages.
+     * @param listener (Optional) The listener, can be null.
+     */
+    protected Lights(final String name, Listener listener) {
+        m_name     = name;
+        m_listener = listener;
+        m_executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a command and returns immediately.
+     * If a command is already waiting, it is replaced.
+     * @param state The state the lights will be in, passed back to the listener.
+     * @param api The command.
+     */
+    public void send(String state, String api) {
+        synchronized (this) {
+            m_pending = new Command(state, api);
+            if (m_busy)
+                return;
+            m_busy = true;
+        }
+        try {
+            m_executor.execute(m_next);
+        }
+        catch (Exception e) {
+            //closed
+        }
+    }
+
+    /**
+     * Waits for the command in flight, and any waiting, to be delivered, then stops.
+     * @param timeout The maximum milliseconds to wait.
+     */
+    public void close(long timeout) {
+        long until = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            while (m_busy && m_attempts == 0 && System.currentTimeMillis() < until) {
+                try {
+                    wait(Math.max(1L, until - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        m_executor.shutdownNow();
+        _close();
+    }
+
+    private void _next() {
+        Command command;
+        synchronized (this) {
+            command   = m_pending;
+            m_pending = null;
+            if (command == null) {
+                m_busy = false;
+                notifyAll();
+                return;
+            }
+        }
+        try {
+            _send(command.state, command.api);
+        }
+        catch (Exception e) {
+            Server.logStackTrace(Level.WARNING, String.format("%s._send(%s)", m_name, command.state), e);
+            completed(command.state, command.api, false);
+        }
+    }
+
+    /**
+     * Subclasses call this exactly once for each call to {@link #_send(String, String)}, from any thread.
+     * @param state The state passed to _send().
+     * @param api The command passed to _send().
+     * @param success true if the lights accepted the command.
+     */
+    protected void completed(String state, String api, boolean success) {
+        long backoff = 0L;
+        synchronized (this) {
+            if (success) {
+                m_attempts = 0;
+            }
+            else {
+                //retry this one, unless a newer one is already waiting
+                if (m_pending == null)
+                    m_pending = new Command(state, api);
+                backoff = Math.min(MAXIMUM_BACKOFF, MINIMUM_BACKOFF << Math.min(m_attempts, 16));
+                m_attempts++;
+                notifyAll();    //close() does not wait for retries
+            }
+        }
+
+        if (success && m_listener != null) {
+            try {
+                m_listener.sent(state);
+            }
+            catch (Exception e) {
+                Server.logStackTrace(Level.WARNING, String.format("%s.sent(%s)", m_name, state), e);
+            }
+        }
+
+        if (!success)
+            Server.logger().warning(String.format("%s._send(%s): failed, retrying in %d ms", m_name, state, backoff));
+
+        try {
+            m_executor.schedule(m_next, backoff, TimeUnit.MILLISECONDS);
+        }
+        catch (Exception e) {
+            //closed
+        }
+    }
+
+    /**
+     * Delivers the command. It must not block for long, and must call
+     * {@link #completed(String, String, boolean)} when the lights respond, or fail to.
+     * @param state The state the lights will be in.
+     * @param api The command.
+     * @throws Exception If the command cannot be sent. completed() is called for you.
+     */
+    protected abstract void _send(String state, String api) throws Exception;
+
+    /**
+     * Releases the resources of the subclass.
+     */
+    protected abstract void _close();
+}
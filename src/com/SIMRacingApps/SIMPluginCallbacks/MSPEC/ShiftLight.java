@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import com.SIMRacingApps.Car;
@@ -11,9 +12,10 @@ import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Server;
-import com.SIMRacingApps.Windows;
-import com.SIMRacingApps.Windows.Handle;
+import com.SIMRacingApps.SIMPluginCallbacks.Realtime;
 import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
+import com.SIMRacingApps.Util.Config;
+import com.SIMRacingApps.Util.SerialPort;
 
 /**
  * This class implements the interface to the MSPEC Shift Light.
@@ -27,6 +29,12 @@ import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
  * 
  * By default the light will come on when speeding. You can control
  * this with the "mspec-speeding = true or false" variable.
+ * <p>
+ * The lights are switched from {@link #ProcessRealtime(SIMPlugin, Realtime)}, on the SIM's thread,
+ * in the same tick the SIM has the data. The ports are opened and closed from ProcessData(),
+ * so that never holds up the SIM. The time from the SIM having the data until the line changes
+ * is reported in the metric sra_serial_line_latency_seconds. See {@link com.SIMRacingApps.Util.SerialPort}
+ * for how to measure it without a light.
  * 
  * This document was used as the reference to this implementation.
  * <a href="http://www.silabs.com/Support%20Documents/TechnicalDocs/an197.pdf"></a>
@@ -44,7 +52,8 @@ public class ShiftLight extends SIMPluginCallback {
     private long    m_blinkRateLimiter          = 500;
     private long    m_blinkRate                 = 300;
     private long    m_blinkRateCritical         = 100;
-    private Map<String,_ShiftLight> m_lights    = new HashMap<String,_ShiftLight>();
+    private Map<String,_ShiftLight> m_lights    = new ConcurrentHashMap<String,_ShiftLight>();
+    private static final Config.Key SPEEDING    = Config.key("mspec-speeding");
     
     public static String[] types = {"eflag","rpm","red","green","blue","yellow","redflag","greenflag","yellowflag"};
 
@@ -68,21 +77,19 @@ public class ShiftLight extends SIMPluginCallback {
                 }
             }
         }
-        Subscribe("Car/REFERENCE/PitSpeedLimit");
-        Subscribe("Car/REFERENCE/Gauge/Gear/ValueCurrent");
-        Subscribe("Car/REFERENCE/Gauge/Gear/CapacityMaximum");
-        Subscribe("Car/REFERENCE/Gauge/Tachometer/ValueCurrent");
-        Subscribe("Car/REFERENCE/Gauge/Speedometer/ValueCurrent");
+        
+        //The lights get their data in ProcessRealtime(). 
+        //ProcessData() only needs to know if the SIM is running, to open and close the ports, so once a second is plenty.
         Subscribe("Car/REFERENCE/Status");
-        Subscribe("Car/REFERENCE/Messages");
-        Subscribe("Car/REFERENCE/IsYellowFlag");
-        Subscribe("Car/REFERENCE/IsBlueFlag");
-        Subscribe("Session/IsGreenFlag");
-        Subscribe("Session/IsCautionFlag");
+        setSamplingInterval(1000L);
+        setRealtime(true);
     }
 
     @Override
     public void destroy() {
+        setRealtime(false);
+        super.destroy();
+        
         Iterator<Entry<String, _ShiftLight>> itr = m_lights.entrySet().iterator();
         while (itr.hasNext()) {
             Entry<String, _ShiftLight> entry = itr.next();
@@ -100,16 +107,24 @@ public class ShiftLight extends SIMPluginCallback {
             if (data.isEmpty())
                 entry.getValue().disconnect();  //have the light disconnect when the SIM isn't running
             else
-                entry.getValue().onDataVersionChanged(data);
+                entry.getValue().connect();
         }
         
         return true;
     }
     
+    @Override
+    public boolean ProcessRealtime(SIMPlugin SIMPlugin, Realtime realtime) {
+        for (_ShiftLight light : m_lights.values())
+            light.onTick(realtime);
+        return true;
+    }
+    
     private class _ShiftLight {
         private int                            m_commPort          = 0;
         private String                         m_function          = "rpm";
-        private Handle                         m_handle            = null;
+        private volatile SerialPort            m_port              = null;
+        private long                           m_ready             = 0L;   //when the SIM had the data for the current tick
         private boolean                        m_prevState         = false;
         private int                            m_prevLight         = NONE;
         private long                           m_blinkStart        = 0L;
@@ -126,9 +141,29 @@ public class ShiftLight extends SIMPluginCallback {
         public _ShiftLight(int commPort,String function) throws SIMPlugin.SIMPluginException {
             m_commPort  = commPort;
             m_function  = function.toLowerCase();
-            m_handle = Windows.openCommPort(m_commPort);
-            if (m_handle == null) {
-                throw new SIMPlugin.SIMPluginException("MSPEC: Error connecting "+m_function+" light to comm port "+Integer.toString(m_commPort)+", "+Windows.getLastErrorMessage());
+            m_port = SerialPort.open(m_commPort);
+            if (m_port == null) {
+                throw new SIMPlugin.SIMPluginException("MSPEC: Error connecting "+m_function+" light to comm port "+Integer.toString(m_commPort)+", "+SerialPort.getLastErrorMessage());
+            }
+        }
+    
+        /**
+         * Called to connect to the comm port, if not connected. 
+         * Opening the port can take a while, so this is not called from the SIM's thread.
+         */
+        public void connect() {
+            if (m_port == null) {
+                Server.logger().info("MSPEC: Connecting "+m_function+" light to comm port "+Integer.toString(m_commPort));
+                SerialPort port = SerialPort.open(m_commPort);
+                if (port == null) {
+                    Server.logger().warning("MSPEC: Error connecting to comm port "+Integer.toString(m_commPort)+", "+SerialPort.getLastErrorMessage());
+                    return;
+                }
+                synchronized (this) {
+                    m_port      = port;
+                    m_prevState = false;
+                    m_prevLight = NONE;
+                }
             }
         }
     
@@ -136,42 +171,46 @@ public class ShiftLight extends SIMPluginCallback {
          * Called to disconnect from the comm port
          */
         public void disconnect() {
-            if (m_handle != null) {
+            SerialPort port;
+            synchronized (this) {
+                port   = m_port;
+                m_port = null;
+            }
+            if (port != null) {
                 Server.logger().info("disconnect()");
-                Windows.setCommPortRTS(m_handle,true);  //try and turn it off before we close it
-                Windows.closeHandle(m_handle);
-                m_handle = null;
+                port.setRTS(true,0L);  //try and turn it off before we close it
+                port.close();
             }
         }
         
         private void _light(boolean state, int light) {
-            if (m_prevState != state || m_prevLight != light) {
+            if (m_port != null && (m_prevState != state || m_prevLight != light)) {
                 if (state) {
                     if (Server.isLogLevelFiner())
                         Server.logger().finer("MSPEC: Turning On the "+m_function+" light("+String.format("%d", light));
                     
                     if ((light & RTS) > 0) {
-                        if (!Windows.setCommPortRTS(m_handle,true)) {
-                            Server.logger().warning("MSPEC: Error turning on the "+m_function+" light. " + Windows.getLastErrorMessage());
+                        if (!m_port.setRTS(true,m_ready)) {
+                            Server.logger().warning("MSPEC: Error turning on the "+m_function+" light. " + SerialPort.getLastErrorMessage());
                             disconnect();
                         }
                     }
                     else {
-                        if (!Windows.setCommPortRTS(m_handle,false)) {
-                            Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(RTS). " + Windows.getLastErrorMessage());
+                        if (!m_port.setRTS(false,m_ready)) {
+                            Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(RTS). " + SerialPort.getLastErrorMessage());
                             disconnect();
                         }
                     }
                 
                     if ((light & DTR) > 0) {
-                        if (!Windows.setCommPortDTR(m_handle,true)) {
-                            Server.logger().warning("MSPEC: Error turning on the "+m_function+" light. " + Windows.getLastErrorMessage());
+                        if (!m_port.setDTR(true,m_ready)) {
+                            Server.logger().warning("MSPEC: Error turning on the "+m_function+" light. " + SerialPort.getLastErrorMessage());
                             disconnect();
                         }
                     }
                     else {
-                        if (!Windows.setCommPortDTR(m_handle,false)) {
-                            Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(DTR). " + Windows.getLastErrorMessage());
+                        if (!m_port.setDTR(false,m_ready)) {
+                            Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(DTR). " + SerialPort.getLastErrorMessage());
                             disconnect();
                         }
                     }
@@ -179,12 +218,12 @@ public class ShiftLight extends SIMPluginCallback {
                 else {
                     if (Server.isLogLevelFiner())
                         Server.logger().finer("MSPEC: Turning Off the "+m_function+" light");
-                    if (!Windows.setCommPortRTS(m_handle,false)) {
-                        Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(RTS). " + Windows.getLastErrorMessage());
+                    if (!m_port.setRTS(false,m_ready)) {
+                        Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(RTS). " + SerialPort.getLastErrorMessage());
                         disconnect();
                     }
-                    if (!Windows.setCommPortDTR(m_handle,false)) {
-                        Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(DTR). " + Windows.getLastErrorMessage());
+                    if (!m_port.setDTR(false,m_ready)) {
+                        Server.logger().warning("MSPEC: Error turning off the "+m_function+" light(DTR). " + SerialPort.getLastErrorMessage());
                         disconnect();
                     }
                 }
@@ -210,51 +249,47 @@ public class ShiftLight extends SIMPluginCallback {
             }
         }
         
-        public void onDataVersionChanged(Map<String,Data> data) {
+        /**
+         * Called on the SIM's thread, every tick, to switch the light.
+         * @param realtime The values for this tick.
+         */
+        public synchronized void onTick(Realtime realtime) {
         
             try {
-                if (m_handle == null) {
-                    Server.logger().info("MSPEC: Connecting "+m_function+" light to comm port "+Integer.toString(m_commPort));
-                    m_handle = Windows.openCommPort(m_commPort);
-                    if (m_handle == null) {
-                        Server.logger().warning("MSPEC: Error connecting to comm port "+Integer.toString(m_commPort)+", "+Windows.getLastErrorMessage());
-                        return;
-                    }
-                }
+                if (m_port == null)
+                    return;     //ProcessData() will connect it
+                
+                m_ready = realtime.getTickStart();
     
                 if (m_function.equals("rpm") || m_function.equals("red")) {
-//                    Data limit            = data.get("Car/REFERENCE/PitSpeedLimit");
-                    String gear           = data.get("Car/REFERENCE/Gauge/Gear/ValueCurrent").getString();
-                    String maxgear        = data.get("Car/REFERENCE/Gauge/Gear/CapacityMaximum").getString();
-                    Data tach             = data.get("Car/REFERENCE/Gauge/Tachometer/ValueCurrent"); 
-                    Data speed            = data.get("Car/REFERENCE/Gauge/Speedometer/ValueCurrent");
-                    String status         = data.get("Car/REFERENCE/Status").getString();
-                    boolean pitLimiter    = data.get("Car/REFERENCE/Messages").getString().contains(";PITSPEEDLIMITER;");
-                    boolean pitRoadActive = Server.getArg("mspec-speeding",true) && status.contains("PIT") && !status.equals(Car.Status.LEAVINGPITS);
+                    String status         = realtime.getStatus();
+                    boolean pitLimiter    = realtime.isPitSpeedLimiter();
+                    boolean pitRoadActive = SPEEDING.asBoolean(true) && status.contains("PIT") && !status.equals(Car.Status.LEAVINGPITS);
 
                     if (pitLimiter) {
                         _lightBlink(m_blinkRateLimiter,RTS);
                     }
                     else
-                    if (pitRoadActive && speed.getState().equalsIgnoreCase("OVERLIMIT")) {
+                    if (pitRoadActive && realtime.getSpeedometerState().equalsIgnoreCase("OVERLIMIT")) {
                         _lightSwitch(true,RTS);
                     }
                     else
-                    if (pitRoadActive && speed.getState().equalsIgnoreCase("WAYOVERLIMIT")) {
+                    if (pitRoadActive && realtime.getSpeedometerState().equalsIgnoreCase("WAYOVERLIMIT")) {
                         //_lightSwitch(true,RTS);
                         _lightBlink(m_blinkRateCritical,RTS);
                     }
                     else
-                    if (!gear.equals(maxgear)) {
-                        if (tach.getState().equalsIgnoreCase("SHIFT")) {
+                    if (!realtime.getGear().equals(realtime.getGearMaximum())) {
+                        String tach = realtime.getTachometerState();
+                        if (tach.equalsIgnoreCase("SHIFT")) {
                             _lightSwitch(true,RTS);
                         }
                         else {
-                            if (tach.getState().equalsIgnoreCase("SHIFTBLINK")) {
+                            if (tach.equalsIgnoreCase("SHIFTBLINK")) {
                                 _lightBlink(m_blinkRate,RTS);
                             }
                             else
-                            if (tach.getState().equalsIgnoreCase("CRITICAL")) {
+                            if (tach.equalsIgnoreCase("CRITICAL")) {
                                 _lightBlink(m_blinkRateCritical,RTS);
                             }
                             else {
@@ -268,7 +303,7 @@ public class ShiftLight extends SIMPluginCallback {
                 }
                 else
                 if (m_function.equals("green") || m_function.equals("greenflag")) {
-                    if (data.get("Session/IsGreenFlag").getBoolean()) {
+                    if (realtime.isGreenFlag()) {
                         _lightSwitch(true,RTS);
                     }
                     else {
@@ -277,7 +312,7 @@ public class ShiftLight extends SIMPluginCallback {
                 }
                 else
                 if (m_function.equals("blue") || m_function.equals("blueflag")) {
-                    if (data.get("Car/REFERENCE/IsBlueFlag").getBoolean()) {
+                    if (realtime.isBlueFlag()) {
                         _lightSwitch(true,RTS);
                     }
                     else {
@@ -286,8 +321,8 @@ public class ShiftLight extends SIMPluginCallback {
                 }
                 else
                 if (m_function.equals("yellow") || m_function.equals("yellowflag")) {
-                    boolean yellowFlag = data.get("Car/REFERENCE/IsYellowFlag").getBoolean()
-                                      || data.get("Session/IsCautionFlag").getBoolean();
+                    boolean yellowFlag = realtime.isYellowFlag()
+                                      || realtime.isCautionFlag();
                                 
                     if (yellowFlag) {
                         if (m_startTime == 0L)
@@ -305,8 +340,8 @@ public class ShiftLight extends SIMPluginCallback {
                 }
                 else
                 if (m_function.equals("eflag")) {
-                    boolean yellowFlag = data.get("Car/REFERENCE/IsYellowFlag").getBoolean()
-                                      || data.get("Session/IsCautionFlag").getBoolean();
+                    boolean yellowFlag = realtime.isYellowFlag()
+                                      || realtime.isCautionFlag();
                                 
                     if (yellowFlag) {
                         if (m_startTime == 0L)
@@ -318,12 +353,12 @@ public class ShiftLight extends SIMPluginCallback {
                             _lightSwitch(true,RTS);
                     }
                     else
-                    if (data.get("Session/IsGreenFlag").getBoolean()) {
+                    if (realtime.isGreenFlag()) {
                         _lightSwitch(true,DTR);
                         m_startTime = 0L;
                     }
                     else
-                    if (data.get("Car/REFERENCE/IsBlueFlag").getBoolean()) {
+                    if (realtime.isBlueFlag()) {
                         _lightSwitch(true,RTS | DTR);
                         m_startTime = 0L;
                     }
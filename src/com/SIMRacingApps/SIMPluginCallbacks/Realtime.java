@@ -0,0 +1,123 @@
+package com.SIMRacingApps.SIMPluginCallbacks;
+
+import com.SIMRacingApps.Car;
+import com.SIMRacingApps.Car.StatusFlag;
+import com.SIMRacingApps.Gauge;
+import com.SIMRacingApps.SIMPlugin;
+
+/**
+ * This class gives the realtime callbacks the values they need as primitives,
+ * see {@link SIMPluginCallback#ProcessRealtime(SIMPlugin, Realtime)}.
+ * <p>
+ * The values are read straight from the Car and Gauge objects of the REFERENCE car,
+ * without resolving a data path, so no map, path parsing or reflection is involved.
+ * The Gauge objects are looked up once and kept until the REFERENCE car changes.
+ * The gauges are read through their primitive accessors, like {@link com.SIMRacingApps.Gauge#_getValueCurrent()},
+ * so no {@link com.SIMRacingApps.Data} is built for them when the SIM sets their values with
+ * {@link com.SIMRacingApps.Gauge#_setValueCurrent(double, String, String)}.
+ * The same goes for the status and the flags of the car, see {@link com.SIMRacingApps.Car#_setStatusCurrent(String, int)}.
+ * They are read once per tick, on the first call that needs them.
+ * <p>
+ * It is only valid on the SIM's thread, during the call to ProcessRealtime(). Do not keep a reference to it.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Realtime {
+
+    private static final int GREEN      = 1;
+    private static final int CAUTION    = 2;
+
+    private SIMPlugin m_SIMPlugin;
+    private long m_tickStart;
+    private Car  m_car;
+    private Car  m_gaugeCar;
+    private Gauge m_tachometerGauge;
+    private Gauge m_speedometerGauge;
+    private Gauge m_gearGauge;
+    private String m_gearMaximum;
+    private String m_gearMaximumAt;     //the gear when the maximum was read, it is read again when the gear changes
+    private String m_status;            //null until read this tick
+    private int    m_flags;             //-1 until read this tick
+    private int    m_sessionFlags;      //-1 until read this tick
+
+    Realtime() {}
+
+    /**
+     * Called by SIMPluginCallback at the start of each tick to forget the values of the previous tick.
+     */
+    Realtime _tick(SIMPlugin SIMPlugin) {
+        m_SIMPlugin   = SIMPlugin;
+        m_tickStart   = SIMPlugin._getTickStart();
+        m_car         = null;
+        m_status      = null;
+        m_flags       = -1;
+        m_sessionFlags= -1;
+        return this;
+    }
+
+    private Car _car() {
+        if (m_car == null) {
+            m_car = m_SIMPlugin.getSession().getCar("REFERENCE");
+            if (m_car != m_gaugeCar) {
+                m_gaugeCar          = m_car;
+                m_tachometerGauge   = m_car._getGauge(Gauge.Type.TACHOMETER);
+                m_speedometerGauge  = m_car._getGauge(Gauge.Type.SPEEDOMETER);
+                m_gearGauge         = m_car._getGauge(Gauge.Type.GEAR);
+                m_gearMaximumAt     = null;
+            }
+        }
+        return m_car;
+    }
+
+    /** @return The System.nanoTime() the SIM had the data for this tick ready. Pass it to the output to measure the latency. */
+    public long    getTickStart()               { return m_tickStart; }
+    /** @return The engine RPM. */
+    public double  getTachometer()              { _car(); return m_tachometerGauge._getValueCurrent(); }
+    /** @return The state of the tachometer, like "SHIFT", "SHIFTBLINK" or "CRITICAL". */
+    public String  getTachometerState()         { _car(); return m_tachometerGauge._getStateCurrent(); }
+    /** @return The speed in the gauge's units. */
+    public double  getSpeedometer()             { _car(); return m_speedometerGauge._getValueCurrent(); }
+    /** @return The state of the speedometer, like "OVERLIMIT" or "WAYOVERLIMIT". */
+    public String  getSpeedometerState()        { _car(); return m_speedometerGauge._getStateCurrent(); }
+    /** @return The current gear, "R", "N" or the number. */
+    public String  getGear()                    { _car(); return m_gearGauge._getValueCurrentString(); }
+    /** @return The highest gear. */
+    public String  getGearMaximum() {
+        _car();
+        String gear = m_gearGauge._getValueCurrentString();
+        if (m_gearMaximumAt == null || !m_gearMaximumAt.equals(gear)) {
+            m_gearMaximum   = m_gearGauge.getCapacityMaximum().getString();
+            m_gearMaximumAt = gear;
+        }
+        return m_gearMaximum;
+    }
+
+    private int _flags() {
+        if (m_flags < 0)
+            m_flags = _car()._getFlagsCurrent();
+        return m_flags;
+    }
+
+    private int _sessionFlags() {
+        if (m_sessionFlags < 0)
+            m_sessionFlags = (m_SIMPlugin.getSession().getIsGreenFlag().getBoolean()   ? GREEN   : 0)
+                           | (m_SIMPlugin.getSession().getIsCautionFlag().getBoolean() ? CAUTION : 0);
+        return m_sessionFlags;
+    }
+
+    /** @return The status of the car, see {@link com.SIMRacingApps.Car.Status}. */
+    public String  getStatus()                  { if (m_status == null) m_status = _car()._getStatusCurrent(); return m_status; }
+    /** @return true if the pit speed limiter is on. */
+    public boolean isPitSpeedLimiter()          { return (_flags() & StatusFlag.PITSPEEDLIMITER) != 0; }
+    /** @return true if the yellow flag is waving for the car. */
+    public boolean isYellowFlag()               { return (_flags() & StatusFlag.YELLOW) != 0; }
+    /** @return true if the blue flag is waving for the car. */
+    public boolean isBlueFlag()                 { return (_flags() & StatusFlag.BLUE) != 0; }
+    /** @return true if the green flag is waving. */
+    public boolean isGreenFlag()                { return (_sessionFlags() & GREEN) != 0; }
+    /** @return true if the session is under caution. */
+    public boolean isCautionFlag()              { return (_sessionFlags() & CAUTION) != 0; }
+}
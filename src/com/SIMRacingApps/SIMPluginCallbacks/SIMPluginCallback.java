@@ -2,15 +2,23 @@ package com.SIMRacingApps.SIMPluginCallbacks;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 
 import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.SIMPlugin.Callback;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Server;
+import com.SIMRacingApps.Util.Histogram;
+import com.SIMRacingApps.Util.JMX;
+import com.SIMRacingApps.Util.Metrics;
 
 /**
  * This class is the abstract base class for all SIMPluginCallback classes.
@@ -28,6 +36,9 @@ import com.SIMRacingApps.Server;
  * Example: /SIMRacingApps/SIMPluginCallback/Sounds/PitCountDown/setVolume/50
  * will call the setVolume method and pass it 50.
  *
+ * Instead of relying on reflection, a plug-in can also register a {@link Handler} for a name with {@link #addHandler(String, Handler)}.
+ * A handler is looked up before the methods, and called with the rest of the path.
+ *
  * If you know Java, you will probably know how to compile your source code. 
  * But just in case you don't, here's an example how. 
  * Of course, your specific server version may be different.
@@ -61,6 +72,13 @@ import com.SIMRacingApps.Server;
  *
  * For distribution with a Java App that uses the SIMRacingAppsServer.exe as a jar file, just add the .sra file to the classpath.
  *
+ * By default, each plug-in gets its own thread to call ProcessData() on.
+ * With "simplugin-callback-scheduler = shared" in the settings, all plug-ins share a small pool of threads instead,
+ * see "simplugin-callback-threads". Each plug-in still gets its data in order, and never on two threads at once,
+ * but a plug-in that blocks in ProcessData() holds up a shared thread, so only use it with plug-ins that don't.
+ * Either way, a call to ProcessData() that takes longer than "simplugin-callback-budget" milliseconds, default 16, 
+ * is counted as an overrun and logged.
+ *
  * If you would like your plug-in distributed as part of SIMRacingApps, please send me a request to do so at support@simracingapps.com.
  *
  * @author Jeffrey Gilliam
@@ -70,14 +88,56 @@ import com.SIMRacingApps.Server;
  */
 public class SIMPluginCallback implements Callback {
 
+    /**
+     * Implement this to answer a path of your plug-in directly, see {@link SIMPluginCallback#addHandler(String, Handler)}.
+     */
+    public interface Handler {
+        /**
+         * Called on the thread making the request, with the SIMPlugin locked. 
+         * Synchronize with your ProcessData() thread if you need to.
+         * @param args The parts of the path after the name. Do not keep a reference to it.
+         * @return The value, or null if the arguments are not valid.
+         */
+        public Data handle(List<String> args);
+    }
+
     private final ArrayList<String> m_dataPaths = new ArrayList<String>();
-    private final BlockingQueue<Map<String, Data>> m_queue;
+    private final Map<String,Handler> m_handlers = new ConcurrentHashMap<String,Handler>();
+    private volatile BlockingQueue<Map<String, Data>> m_queue;
     private final Thread m_thread;
+    private final Runnable m_task;
+    private final AtomicBoolean m_scheduled = new AtomicBoolean(false);
+    private volatile boolean m_stopped = false;
+    private final String m_name;
+    private volatile boolean m_enabled = true;
+    private volatile int m_queueCapacity = 2;
+    private volatile long m_samplingInterval = 0L;
+    private volatile boolean m_sampleRequested = true;
+    private long m_lastSample = 0L;
+    private volatile boolean m_realtime = false;
+    private final Realtime m_realtimeData = new Realtime();
+    private final Histogram m_realtimeTime;
+    private final AtomicLong m_realtimeFailures;
+    private long m_lastRealtimeFailureWarning = 0L;
+    private final Histogram m_dataReadyTime;
+    private final Histogram m_processDataTime;
+    private final AtomicLong m_queueDrops;
+    private volatile long m_timeBudget = 16L;
+    private final AtomicLong m_overruns;
+    private long m_lastOverrunWarning = 0L;
 
 	@SuppressWarnings("unused")
     private SIMPluginCallback() {
         m_queue  = null;
         m_thread = null;
+        m_task   = null;
+        m_name   = null;
+        m_realtimeTime    = null;
+        m_realtimeFailures= null;
+        m_dataReadyTime   = null;
+        m_processDataTime = null;
+        m_queueDrops      = null;
+        m_overruns        = null;
 	}
 
     /**
@@ -93,28 +153,152 @@ public class SIMPluginCallback implements Callback {
     public SIMPluginCallback(SIMPlugin SIMPlugin, String name) throws SIMPluginException {
         //Create the queue for the thread. Set the size small so the thread can't get too far behind real-time, 
         //yet allow for some concurrency with the puts and takes.
+        m_queue = new ArrayBlockingQueue<Map<String, Data>>(m_queueCapacity);
+        m_name  = name;
+        m_realtimeTime    = Metrics.histogram("sra_callback_realtime_seconds", "Time spent on the SIM thread in a callback's ProcessRealtime()", "callback", name);
+        m_dataReadyTime   = Metrics.histogram("sra_callback_dataready_seconds", "Time spent on the SIM thread getting the subscribed data for a callback", "callback", name);
+        m_processDataTime = Metrics.histogram("sra_callback_processdata_seconds", "Time spent in a callback's ProcessData()", "callback", name);
+        m_queueDrops      = Metrics.counter("sra_callback_queue_drops_total", "Number of times the data was dropped because the callback's queue was full", "callback", name);
+        m_overruns        = Metrics.counter("sra_callback_overruns_total", "Number of times a callback's ProcessData() took longer than its time budget", "callback", name);
+        m_realtimeFailures= Metrics.counter("sra_callback_realtime_failures_total", "Number of ticks a callback's ProcessRealtime() threw an exception on", "callback", name);
+        m_timeBudget      = Math.max(1L, Server.getArg("simplugin-callback-budget", 16));
         
-        m_queue = new ArrayBlockingQueue<Map<String, Data>>(2);
-        m_thread = new Thread(new Runnable(){
-            @Override
-            public void run() {
-                try {
-                    Map<String,Data> data;
-                    while ((data = m_queue.take()) != null) { //wait for something to do
-                        if (!ProcessData(SIMPlugin,data))
-                            break;
+        if (Server.getArg("simplugin-callback-scheduler", "dedicated").equalsIgnoreCase("shared")) {
+            m_thread = null;
+            m_task   = new Runnable() {
+                @Override
+                public void run() {
+                    //process one entry, then go to the back of the line so the other plug-ins get a turn
+                    try {
+                        Map<String,Data> data = m_queue.poll();
+                        if (data != null && !m_stopped && !_processData(SIMPlugin, data)) {
+                            m_stopped = true;
+                            m_queue.clear();
+                        }
+                    }
+                    finally {
+                        //even if an Error got out of ProcessData(), or it could never be scheduled again
+                        m_scheduled.set(false);
                     }
+                    //DataReady() may have queued more after the poll, but could not schedule it while this was running
+                    if (!m_queue.isEmpty())
+                        _schedule();
                 }
-                catch (InterruptedException e) {
-                    //Silently exit the thread
+            };
+        }
+        else {
+            m_task   = null;
+            m_thread = new Thread(new Runnable(){
+                @Override
+                public void run() {
+                    try {
+                        Map<String,Data> data;
+                        while ((data = m_queue.take()) != null) { //wait for something to do
+                            if (!_processData(SIMPlugin,data))
+                                break;
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        //Silently exit the thread
+                    }
                 }
-            }
-        });
+            });
+            
+            m_thread.setName("SIMPluginCallback."+name);
+            m_thread.start();
+        }
+        
+        JMX.register("SIMPluginCallback", name, new Management(), SIMPluginCallbackMBean.class);
+    }
+    
+    /**
+     * Calls ProcessData() and checks it against the time budget.
+     * In shared mode an exception is caught, so it cannot take a shared thread down, and the plug-in is stopped
+     * just like its own thread would have been.
+     */
+    private boolean _processData(SIMPlugin SIMPlugin, Map<String,Data> data) {
+        long start = System.nanoTime();
+        boolean keepAlive;
+        try {
+            keepAlive = ProcessData(SIMPlugin,data);
+        }
+        catch (RuntimeException e) {
+            if (m_thread != null)
+                throw e;
+            Server.logStackTrace(Level.SEVERE, "SIMPluginCallback."+m_name+".ProcessData() failed, stopping it", e);
+            keepAlive = false;
+        }
+        long elapsed = System.nanoTime() - start;
+        m_processDataTime.record(elapsed);
         
-        m_thread.setName("SIMPluginCallback."+name);
-        m_thread.start();
+        if (elapsed > m_timeBudget * 1000000L) {
+            long overruns = m_overruns.incrementAndGet();
+            long now = System.currentTimeMillis();
+            if (now - m_lastOverrunWarning >= 60000L) {
+                m_lastOverrunWarning = now;
+                Server.logger().warning(String.format("SIMPluginCallback.%s.ProcessData() took %.1f ms, over its budget of %d ms, %d times so far",
+                        m_name, elapsed / 1000000.0, m_timeBudget, overruns));
+            }
+        }
+        return keepAlive;
+    }
+    
+    /**
+     * In shared mode, queues this plug-in on the shared threads, unless it is already queued or running.
+     */
+    private void _schedule() {
+        if (m_task != null && !m_stopped && m_scheduled.compareAndSet(false, true))
+            Scheduler.execute(m_task);
+    }
+    
+    /**
+     * The JMX MBean for this callback.
+     */
+    private class Management implements SIMPluginCallbackMBean {
+        public String  getName()                        { return m_name; }
+        public boolean isEnabled()                      { return m_enabled; }
+        public void    setEnabled(boolean enabled) {
+            m_enabled = enabled;
+            Server.logger().info(String.format("SIMPluginCallback %s is %s", m_name, enabled ? "enabled" : "disabled"));
+        }
+        public int     getSubscriptionCount()           { return m_dataPaths.size(); }
+        public int     getQueueDepth()                  { return m_queue.size(); }
+        public int     getQueueCapacity()               { return m_queueCapacity; }
+        public void    setQueueCapacity(int capacity)   { _setQueueCapacity(capacity); }
+        public long    getQueueDrops()                  { return m_queueDrops.get(); }
+        public long    getSamplingInterval()            { return SIMPluginCallback.this.getSamplingInterval(); }
+        public void    setSamplingInterval(long interval) { SIMPluginCallback.this.setSamplingInterval(interval); }
+        public boolean isShared()                       { return m_task != null; }
+        public long    getTimeBudget()                  { return m_timeBudget; }
+        public void    setTimeBudget(long milliseconds) { m_timeBudget = Math.max(1L, milliseconds); }
+        public long    getOverruns()                    { return m_overruns.get(); }
+        public boolean isRealtime()                     { return m_realtime; }
+        public long    getRealtimeFailures()            { return m_realtimeFailures.get(); }
+        public double  getRealtimeMeanMilliseconds()    { return m_realtimeTime.getMean() / 1000000.0; }
+        public double  getRealtimeP99Milliseconds()     { return m_realtimeTime.getPercentile(0.99) / 1000000.0; }
+        public double  getDataReadyMeanMilliseconds()   { return m_dataReadyTime.getMean() / 1000000.0; }
+        public double  getDataReadyP99Milliseconds()    { return m_dataReadyTime.getPercentile(0.99) / 1000000.0; }
+        public double  getProcessDataMeanMilliseconds() { return m_processDataTime.getMean() / 1000000.0; }
+        public double  getProcessDataP99Milliseconds()  { return m_processDataTime.getPercentile(0.99) / 1000000.0; }
     }
 	
+    /**
+     * Replaces the queue with one of the new capacity, keeping what fits of the data already queued.
+     * The old queue is given an empty entry, so a thread waiting on it wakes up and moves to the new one.
+     */
+    private synchronized void _setQueueCapacity(int capacity) {
+        capacity = Math.max(1, capacity);
+        if (capacity == m_queueCapacity)
+            return;
+        BlockingQueue<Map<String, Data>> queue = new ArrayBlockingQueue<Map<String, Data>>(capacity);
+        BlockingQueue<Map<String, Data>> old   = m_queue;
+        old.drainTo(queue, capacity);
+        m_queueCapacity = capacity;
+        m_queue = queue;
+        old.clear();
+        old.offer(new HashMap<String,Data>());
+    }
+
 	/**
 	 * Called when the SIMPlugin is destroyed.
 	 * If you override this method, be sure to call super.destroy() first.
@@ -122,23 +306,134 @@ public class SIMPluginCallback implements Callback {
     public void destroy() {
         if (m_thread != null)
             m_thread.interrupt();
+        m_stopped = true;
+        m_queue.clear();
+        if (m_name != null)
+            JMX.unregister("SIMPluginCallback", m_name);
     }
 	
     protected void Subscribe(String dataPath) {
         m_dataPaths.add(dataPath);
     }
     
+    /**
+     * Registers a handler for a name in the path of this plug-in.
+     * For example, the handler for "Volume" of Sounds.Shift is called for /SIMPluginCallback/Sounds/Shift/Volume.
+     * Like the methods, a leading "get" is optional and the name is not case sensitive.
+     * 
+     * @param name The name, "Volume" or "setVolume".
+     * @param handler The handler.
+     */
+    protected void addHandler(String name, Handler handler) {
+        String key = name.toUpperCase();
+        if (key.startsWith("GET"))
+            key = key.substring(3);
+        m_handlers.put(key, handler);
+    }
+    
+    /**
+     * Returns the handler registered for a name, see {@link #addHandler(String, Handler)}.
+     * @param name The name from the path.
+     * @return The handler or null if there isn't one.
+     */
+    public Handler _getHandler(String name) {
+        if (m_handlers.isEmpty())
+            return null;
+        String key = name.toUpperCase();
+        Handler handler = m_handlers.get(key);
+        if (handler == null && key.startsWith("GET"))
+            handler = m_handlers.get(key.substring(3));
+        return handler;
+    }
+    
+    /**
+     * Sets how often the subscribed data is read from the SIM and passed to ProcessData().
+     * By default, it is read on every tick of the SIM.
+     * If your plug-in only needs the data every so often, set this so the SIM's thread 
+     * does not spend time getting data you are going to ignore.
+     * It can be changed at any time, including from ProcessData(), and takes effect on the next tick.
+     * 
+     * @param milliseconds The minimum time between reads. Zero reads on every tick.
+     */
+    protected void setSamplingInterval(long milliseconds) {
+        m_samplingInterval = Math.max(0L, milliseconds);
+    }
+    
+    /**
+     * Returns the sampling interval set by {@link #setSamplingInterval(long)}.
+     * @return The interval in milliseconds.
+     */
+    protected long getSamplingInterval() {
+        return m_samplingInterval;
+    }
+    
+    /**
+     * Asks for the subscribed data to be read on the next tick, regardless of the sampling interval.
+     * Use this to pull the data on demand when your plug-in has something to do before the next interval.
+     */
+    protected void requestSample() {
+        m_sampleRequested = true;
+    }
+    
+    /**
+     * Turns on the realtime tier for this plug-in. When on, {@link #ProcessRealtime(SIMPlugin, Realtime)} 
+     * is called on the SIM's thread, every tick, before the subscribed data is queued for ProcessData().
+     * Only use this when the time from the SIM having the data until your plug-in acts on it is the whole point,
+     * like a shift light. Everything else should use ProcessData().
+     * 
+     * @param realtime true to turn it on.
+     */
+    protected void setRealtime(boolean realtime) {
+        m_realtime = realtime;
+    }
+    
+    /**
+     * Returns true if the realtime tier is on, see {@link #setRealtime(boolean)}.
+     * @return true if on.
+     */
+    protected boolean isRealtime() {
+        return m_realtime;
+    }
+    
 	/**
 	 * This method is called every time the SIM has new data available.
 	 * By default this method push the data into the queue. You should not need to override this method.
 	 * It will not block if the queue is full. I do this so your plug-in gets data that is very close to real-time.
 	 * If it takes to look to process the queue, then you will simply get the next available data.
+	 * If a sampling interval has been set, the data is only read when the interval has passed, 
+	 * see {@link #setSamplingInterval(long)}.
 	 * 
 	 * @param SIMPlugin An instance of the current SIM.
 	 * @param ips Iterations per second.
 	 * @return true to stay alive, false to stop the server.
 	 */
 	public boolean DataReady(SIMPlugin SIMPlugin, Integer ips) {
+	    if (!m_enabled)
+	        return true;
+	    if (m_realtime) {
+	        long start = System.nanoTime();
+	        try {
+	            if (!ProcessRealtime(SIMPlugin, m_realtimeData._tick(SIMPlugin)))
+	                m_realtime = false;
+	        }
+	        catch (Exception e) {
+	            //never let a realtime callback take the SIM thread down with it, skip this tick and try again on the next one
+	            long failures = m_realtimeFailures.incrementAndGet();
+	            long now = System.currentTimeMillis();
+	            if (now - m_lastRealtimeFailureWarning >= 60000L) {
+	                m_lastRealtimeFailureWarning = now;
+	                Server.logStackTrace(Level.SEVERE, String.format("SIMPluginCallback.%s.ProcessRealtime() failed, skipping the tick, %d times so far", m_name, failures), e);
+	            }
+	        }
+	        m_realtimeTime.recordSince(start);
+	    }
+	    long start = System.nanoTime();
+	    if (m_sampleRequested)
+	        m_sampleRequested = false;
+	    else
+	    if (start - m_lastSample < m_samplingInterval * 1000000L)
+	        return true;
+	    m_lastSample = start;
 	    Map<String,Data> data = new HashMap<String,Data>();
 	    for (int i=0; i < m_dataPaths.size(); i++) {
             try {
@@ -147,7 +442,10 @@ public class SIMPluginCallback implements Callback {
                 Server.logStackTrace(e);
             }
 	    }
-	    m_queue.offer(data);
+	    if (!m_queue.offer(data))
+	        m_queueDrops.incrementAndGet();
+	    _schedule();
+	    m_dataReadyTime.recordSince(start);
 	    return true; 
 	}
 	
@@ -158,12 +456,13 @@ public class SIMPluginCallback implements Callback {
 	 * @return true to stay alive, false to stop the server.
 	 */
 	public boolean Waiting(SIMPlugin SIMPlugin)   {
-	    m_queue.offer(new HashMap<String,Data>());
+	    if (m_enabled && m_queue.offer(new HashMap<String,Data>()))
+	        _schedule();
 	    return true; 
 	}
 
     /**
-     * ProcessData is called from within the dedicated thread for this plug-in
+     * ProcessData is called from within the dedicated thread for this plug-in, or a shared thread, see the class notes,
      * every time there is data available in the queue it pops it off the queue and passes it to this method.
      * 
      * A should override this method to implement your plug-in's functionality.
@@ -192,4 +491,18 @@ public class SIMPluginCallback implements Callback {
      */
 	public boolean ProcessData(SIMPlugin SIMPlugin, Map<String,Data> data) { return true; }
 
+    /**
+     * ProcessRealtime is called on the SIM's thread, synchronously, every tick, if {@link #setRealtime(boolean)} is on.
+     * The SIMPlugin is already locked, so read the values through the {@link Realtime} accessors without synchronizing.
+     * <p>
+     * Every microsecond spent here delays the SIM's thread and every other plug-in.
+     * Read only what you need, do not log or block, and leave anything slow, 
+     * like opening a port, to ProcessData(). If this method throws an exception, it is logged and the tick is skipped.
+     * 
+     * @param SIMPlugin A reference to the SIMPlugin instance.
+     * @param realtime The accessors for this tick. Only valid during this call.
+     * @return true to keep getting called, false to turn off the realtime tier.
+     */
+    public boolean ProcessRealtime(SIMPlugin SIMPlugin, Realtime realtime) { return true; }
+
 }
\ No newline at end of file
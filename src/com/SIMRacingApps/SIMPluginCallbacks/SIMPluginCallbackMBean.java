@@ -0,0 +1,57 @@
+package com.SIMRacingApps.SIMPluginCallbacks;
+
+/**
+ * The JMX management interface for each loaded {@link com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback}.
+ * It is registered as "com.SIMRacingApps:type=SIMPluginCallback,name=(callback name)".
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public interface SIMPluginCallbackMBean {
+    /** @return The name of the callback. */
+    public String getName();
+    /** @return true if the callback is receiving data. */
+    public boolean isEnabled();
+    /** @param enabled false to stop sending data to the callback, true to resume. */
+    public void setEnabled(boolean enabled);
+    /** @return The number of paths the callback subscribes to. */
+    public int getSubscriptionCount();
+    /** @return The number of entries waiting in the queue. */
+    public int getQueueDepth();
+    /** @return The maximum number of entries the queue will hold before dropping. */
+    public int getQueueCapacity();
+    /** @param capacity The maximum number of entries the queue will hold before dropping. Must be at least 1. */
+    public void setQueueCapacity(int capacity);
+    /** @return The number of times data was dropped because the queue was full. */
+    public long getQueueDrops();
+    /** @return The minimum number of milliseconds between reads of the subscribed data. Zero reads on every tick. */
+    public long getSamplingInterval();
+    /** @param interval The minimum number of milliseconds between reads of the subscribed data. */
+    public void setSamplingInterval(long interval);
+    /** @return true if ProcessData() is called on the shared threads, false if the callback has its own thread. */
+    public boolean isShared();
+    /** @return The milliseconds ProcessData() can take before it is counted as an overrun. */
+    public long getTimeBudget();
+    /** @param milliseconds The milliseconds ProcessData() can take before it is counted as an overrun. */
+    public void setTimeBudget(long milliseconds);
+    /** @return The number of times ProcessData() took longer than the time budget. */
+    public long getOverruns();
+    /** @return true if ProcessRealtime() is being called on the SIM's thread. */
+    public boolean isRealtime();
+    /** @return The number of ticks ProcessRealtime() threw an exception on. They are skipped, the realtime tier stays on. */
+    public long getRealtimeFailures();
+    /** @return The average time, on the SIM's thread, spent in ProcessRealtime(). */
+    public double getRealtimeMeanMilliseconds();
+    /** @return The 99th percentile time, on the SIM's thread, spent in ProcessRealtime(). */
+    public double getRealtimeP99Milliseconds();
+    /** @return The average time, on the SIM's thread, to get the subscribed data. */
+    public double getDataReadyMeanMilliseconds();
+    /** @return The 99th percentile time, on the SIM's thread, to get the subscribed data. */
+    public double getDataReadyP99Milliseconds();
+    /** @return The average time spent in ProcessData(). */
+    public double getProcessDataMeanMilliseconds();
+    /** @return The 99th percentile time spent in ProcessData(). */
+    public double getProcessDataP99Milliseconds();
+}
@@ -0,0 +1,59 @@
+package com.SIMRacingApps.SIMPluginCallbacks;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.SIMRacingApps.Server;
+import com.SIMRacingApps.Util.Metrics;
+
+/**
+ * This class is the pool of threads shared by the plug-ins when "simplugin-callback-scheduler = shared".
+ * <p>
+ * The number of threads is set by "simplugin-callback-threads", default 2.
+ * Each plug-in has at most one task in the pool at a time, so its data is processed in order and never concurrently.
+ * A task processes one entry from the plug-in's queue and then goes to the back of the line if there is more,
+ * so a busy plug-in cannot starve the others.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+class Scheduler {
+
+    private static ThreadPoolExecutor m_executor = null;
+
+    private Scheduler() {}
+
+    /**
+     * Queues a task to run on the shared threads, starting them the first time.
+     * @param task The task.
+     */
+    static synchronized void execute(Runnable task) {
+        if (m_executor == null) {
+            int threads = Math.max(1, Server.getArg("simplugin-callback-threads", 2));
+            final AtomicInteger count = new AtomicInteger();
+            m_executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "SIMPluginCallback.Scheduler-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            Metrics.gauge("sra_callback_scheduler_pending", "Number of plug-ins waiting for a shared thread", null, null, new Metrics.Gauge() {
+                @Override
+                public double getValue() {
+                    return m_executor.getQueue().size();
+                }
+            });
+            Server.logger().info(String.format("SIMPluginCallback.Scheduler: started %d shared threads", threads));
+        }
+        m_executor.execute(task);
+    }
+}
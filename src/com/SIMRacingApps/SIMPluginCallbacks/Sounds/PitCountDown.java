@@ -7,7 +7,6 @@ import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Server;
-import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
 import com.SIMRacingApps.Util.Sound;
 
 /**
@@ -48,7 +47,7 @@ import com.SIMRacingApps.Util.Sound;
  * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
  * @license Apache License 2.0
  */
-public class PitCountDown extends SIMPluginCallback {
+public class PitCountDown extends SoundCallback {
 
     private final ArrayList<Sound> m_clips = new ArrayList<Sound>();
     private final boolean m_play10;
@@ -128,6 +127,8 @@ public class PitCountDown extends SIMPluginCallback {
         Subscribe("Car/REFERENCE/Status");
         Subscribe("Session/DiffCars/REFERENCE/PITSTALL");
         Subscribe("Session/IsReplay");
+        
+        addVolumeHandlers();
 	}
 	
 	/**
@@ -6,7 +6,6 @@ import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Server;
-import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
 import com.SIMRacingApps.Util.Sound;
 
 /**
@@ -32,7 +31,7 @@ import com.SIMRacingApps.Util.Sound;
  * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
  * @license Apache License 2.0
  */
-public class PitSpeedLimit extends SIMPluginCallback {
+public class PitSpeedLimit extends SoundCallback {
 
     private final Sound m_clip;
     private final String m_device;
@@ -72,6 +71,8 @@ public class PitSpeedLimit extends SIMPluginCallback {
         Subscribe("Car/REFERENCE/Status");
         Subscribe("Car/REFERENCE/Gauge/Speedometer/ValueCurrent");
         Subscribe("Session/IsReplay");
+        
+        addVolumeHandlers();
 	}
 	
 	/**
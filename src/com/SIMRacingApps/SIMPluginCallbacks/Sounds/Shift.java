@@ -6,7 +6,6 @@ import com.SIMRacingApps.Data;
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Server;
-import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
 import com.SIMRacingApps.Util.Sound;
 
 /**
@@ -30,7 +29,7 @@ import com.SIMRacingApps.Util.Sound;
  * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
  * @license Apache License 2.0
  */
-public class Shift extends SIMPluginCallback {
+public class Shift extends SoundCallback {
 
     private final long TIMETOPLAY = 5000L;  //play anyway if more than this since the last time played.
     
@@ -69,6 +68,8 @@ public class Shift extends SIMPluginCallback {
         Subscribe("Car/REFERENCE/Gauge/Gear/ValueCurrent");
         Subscribe("Car/REFERENCE/Gauge/Gear/CapacityMaximum");
         Subscribe("Session/IsReplay");
+        
+        addVolumeHandlers();
 	}
 	
 	/**
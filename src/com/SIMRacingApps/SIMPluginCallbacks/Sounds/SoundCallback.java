@@ -0,0 +1,63 @@
+package com.SIMRacingApps.SIMPluginCallbacks.Sounds;
+
+import java.util.List;
+
+import com.SIMRacingApps.Data;
+import com.SIMRacingApps.SIMPlugin;
+import com.SIMRacingApps.SIMPlugin.SIMPluginException;
+import com.SIMRacingApps.SIMPluginCallbacks.SIMPluginCallback;
+
+/**
+ * The base of the plug-ins that play sounds.
+ * They all have a volume that the clients can get and set through the paths "Volume" and "setVolume/(PERCENTAGE)".
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public abstract class SoundCallback extends SIMPluginCallback {
+
+    /**
+     * Constructor. 
+     *
+     * @param SIMPlugin An instance of the current SIM.
+     * @param name The name of the plug-in.
+     * @throws SIMPluginException If there's a problem constructing your plug-in.
+     */
+    public SoundCallback(SIMPlugin SIMPlugin, String name) throws SIMPluginException {
+        super(SIMPlugin,name);
+    }
+
+    /**
+     * Gets the volume as a percentage.
+     * @return The volume percentage in a {@link com.SIMRacingApps.Data} container.
+     */
+    public abstract Data getVolume();
+
+    /**
+     * Sets the volume as a percentage. Range 0.0 to 100.0
+     * @param percentage The new volume percentage, between 0.0 and 100.0.
+     * @return The new volume percentage in a {@link com.SIMRacingApps.Data} container.
+     */
+    public abstract Data setVolume(String percentage);
+
+    /**
+     * Answers the volume paths directly instead of through reflection.
+     * Call it from the constructor once the sounds are loaded.
+     */
+    protected void addVolumeHandlers() {
+        addHandler("Volume", new Handler() {
+            @Override
+            public Data handle(List<String> args) {
+                return args.isEmpty() ? getVolume() : null;
+            }
+        });
+        addHandler("setVolume", new Handler() {
+            @Override
+            public Data handle(List<String> args) {
+                return args.size() == 1 ? setVolume(args.get(0)) : null;
+            }
+        });
+    }
+}
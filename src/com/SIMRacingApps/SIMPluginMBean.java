@@ -0,0 +1,35 @@
+package com.SIMRacingApps;
+
+/**
+ * The JMX management interface for the running {@link com.SIMRacingApps.SIMPlugin}.
+ * It is registered as "com.SIMRacingApps:type=SIMPlugin,name=(SIMName)".
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public interface SIMPluginMBean {
+    /** @return The name of the SIM. */
+    public String getSIMName();
+    /** @return The iterations per second of the run loop during the last full second. */
+    public int getIPS();
+    /** @return The current DataVersion of the session. */
+    public String getDataVersion();
+    /** @return The number of milliseconds since the SIM last had new data. */
+    public long getDataVersionLagMilliseconds();
+    /** @return The file being played back, blank if live. */
+    public String getPlay();
+    /** @return The file being recorded to, blank if not recording. */
+    public String getRecord();
+    /** @return true if play back is synchronized with the times in the file. */
+    public boolean isSync();
+    /** @param sync true to synchronize play back with the times in the file, false to play as fast as possible. */
+    public void setSync(boolean sync);
+    /** @return The play back speed, where 1.0 is real time. */
+    public double getPlaybackSpeed();
+    /** @param speed The play back speed, where 1.0 is real time, 2.0 is twice as fast. Only used when Sync is true. */
+    public void setPlaybackSpeed(double speed);
+    /** @return The names of the callbacks that are loaded. */
+    public String[] getCallbacks();
+}
@@ -0,0 +1,346 @@
+package com.SIMRacingApps.SIMPlugins.Synthetic;
+
+import java.util.ArrayList;
+
+import com.SIMRacingApps.Car;
+import com.SIMRacingApps.Data;
+import com.SIMRacingApps.Gauge;
+import com.SIMRacingApps.SIMPlugin;
+import com.SIMRacingApps.Server;
+import com.SIMRacingApps.Session;
+import com.SIMRacingApps.Standings;
+import com.SIMRacingApps.Track;
+
+/**
+ * A SIM that does not need a SIM. It generates a tick at a fixed rate so the server,
+ * the callbacks and the transports can be exercised without iRacing running.
+ * It is used by the {@link com.SIMRacingApps.Util.LoadTester} and can be selected with "-sim Synthetic".
+ * <p>
+ * The value of {@link com.SIMRacingApps.Session#getDataVersion() /Session/DataVersion} is the
+ * wall clock time, in milliseconds, that the tick was generated.
+ * Clients can subtract it from the time they receive it to get the end-to-end staleness of the data.
+ * <p>
+ * The options are:
+ * <ul>
+ * <li>synthetic-hz = The number of ticks per second to generate. Defaults to 60.</li>
+ * <li>synthetic-cars = The number of cars to put on the track. Defaults to 0, no cars.</li>
+ * <li>synthetic-laptime = The lap time, in seconds, of the fastest car. Defaults to 30.0.</li>
+ * <li>synthetic-sectors = The number of sectors, all the same length. Defaults to 0, no sectors.</li>
+ * </ul>
+ * The cars start in a line, each a little slower than the one in front of it, in two classes, odd and even ids.
+ * Every fourth car drives through pit road at the end of each lap. ME is the car in the middle of the field.
+ * Each car uses a little more than 2.5 liters of fuel a lap and every tenth lap is run under caution.
+ * The speed, RPM and gear rise and fall around the lap and, with the status, are set on the cars each tick
+ * the way a real SIM would, see {@link com.SIMRacingApps.Gauge#_setValueCurrent(double, String, String)}.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class SyntheticSIMPlugin extends SIMPlugin {
+
+    private static final String[] GEARS = {"N","1","2","3","4"};
+    private final long m_tickNanos;
+    private long m_nextTick     = 0L;
+    private long m_tickTime     = 0L;
+    private long m_startTime    = 0L;
+    private Session m_session   = null;
+    private Track m_track       = null;
+    private final double m_lapTime;
+    private final SyntheticCar[] m_cars;
+    private final int m_sectors;
+
+    public SyntheticSIMPlugin() throws SIMPluginException {
+        super();
+        int hz = Math.max(1, Server.getArg("synthetic-hz", 60));
+        m_tickNanos = 1000000000L / hz;
+        m_startTime = System.currentTimeMillis();
+        m_lapTime = Math.max(1.0, Server.getArg("synthetic-laptime", 30.0));
+        m_cars = new SyntheticCar[Math.max(0, Server.getArg("synthetic-cars", 0))];
+        m_sectors = Math.max(0, Server.getArg("synthetic-sectors", 0));
+        for (int id=0; id < m_cars.length; id++)
+            m_cars[id] = new SyntheticCar(id);
+        Server.logger().info(String.format("SyntheticSIMPlugin generating %d ticks per second with %d cars", hz, m_cars.length));
+    }
+
+    @Override
+    protected boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    protected boolean waitForDataReady() {
+        long now = System.nanoTime();
+        if (m_nextTick == 0L)
+            m_nextTick = now;
+
+        long sleep = m_nextTick - now;
+        if (sleep > 0L) {
+            try {
+                Thread.sleep(sleep / 1000000L, (int)(sleep % 1000000L));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        //if we fell behind, do not try to catch up with a burst of ticks
+        m_nextTick = Math.max(m_nextTick + m_tickNanos, System.nanoTime());
+
+        synchronized (this) {
+            m_tickTime = System.currentTimeMillis();
+        }
+
+        double elapsed = _elapsed();
+        for (int id=0; id < m_cars.length; id++)
+            m_cars[id]._tick(elapsed);
+        return true;
+    }
+
+    @Override
+    public Session getSession() {
+        if (m_session == null)
+            m_session = new SyntheticSession(this);
+        return m_session;
+    }
+
+    /**
+     * The session for the Synthetic SIM. Only the values that move on every tick are implemented.
+     */
+    public class SyntheticSession extends Session {
+
+        public SyntheticSession(SIMPlugin SIMPlugin) {
+            super(SIMPlugin);
+        }
+
+        @Override
+        public Car getCar(String carIdentifier) {
+            if (m_cars.length == 0)
+                return super.getCar(carIdentifier);
+
+            int id = _getCarId(carIdentifier);
+            if (id == Standings.NOTINDEXED) {
+                //the car number is the id plus one
+                id = -1;
+                try {
+                    String number = carIdentifier.startsWith("N") ? carIdentifier.substring(1) : carIdentifier;
+                    id = Integer.parseInt(number) - 1;
+                } catch (NumberFormatException e) {}
+            }
+            return id >= 0 && id < m_cars.length ? m_cars[id] : super.getCar(carIdentifier);
+        }
+
+        @Override
+        public Data getCars() {
+            return new Data("Session/Cars",m_cars.length,"",Data.State.NORMAL);
+        }
+
+        @Override
+        protected void _loadStandings(Standings standings) {
+            double elapsed = _elapsed();
+            for (int id=0; id < m_cars.length; id++) {
+                SyntheticCar car = m_cars[id];
+                double distance = car._distance(elapsed);
+                standings.add(id, id + 1, id % 2, (id / 2) + 1, car._percent(distance), true, car._isPitRoad(distance));
+            }
+            standings.setME(m_cars.length / 2);
+        }
+
+        @Override
+        public Track getTrack() {
+            if (m_sectors == 0)
+                return super.getTrack();
+            if (m_track == null)
+                m_track = new SyntheticTrack(SyntheticSIMPlugin.this);
+            return m_track;
+        }
+
+        @Override
+        public Data getDataVersion() {
+            long tickTime;
+            synchronized (SyntheticSIMPlugin.this) {
+                tickTime = m_tickTime;
+            }
+            return new Data("Session/DataVersion",tickTime,"",Data.State.NORMAL);
+        }
+
+        @Override
+        public Data getInfoVersion() {
+            //the cars never change
+            return new Data("Session/InfoVersion",m_startTime,"",Data.State.NORMAL);
+        }
+
+        @Override
+        public Data getTimeElapsed() {
+            long tickTime;
+            synchronized (SyntheticSIMPlugin.this) {
+                tickTime = m_tickTime;
+            }
+            return new Data("Session/TimeElapsed",(tickTime - m_startTime) / 1000.0,"s",Data.State.NORMAL);
+        }
+    }
+
+    /**
+     * The track for the Synthetic SIM, with "synthetic-sectors" sectors all the same length.
+     */
+    public class SyntheticTrack extends Track {
+
+        public SyntheticTrack(SIMPlugin SIMPlugin) {
+            super(SIMPlugin);
+        }
+
+        @Override
+        public Data getSectors(String sectorType, String UOM) {
+            Data d = super.getSectors(sectorType, UOM);
+            if (sectorType.equalsIgnoreCase(SectorType.PERCENTAGE)) {
+                ArrayList<Double> sectors = new ArrayList<Double>();
+                for (int sector = 0; sector < m_sectors; sector++) {
+                    sectors.add((100.0 * sector) / m_sectors);
+                    sectors.add((100.0 * (sector + 1)) / m_sectors);
+                }
+                d.setValue(sectors,"%",Data.State.NORMAL);
+            }
+            return d;
+        }
+    }
+
+    private double _elapsed() {
+        synchronized (this) {
+            return (m_tickTime - m_startTime) / 1000.0;
+        }
+    }
+
+    /**
+     * A car on the Synthetic track. Its id is where it started and, because it is slower than every car in front of it,
+     * also its position minus one.
+     */
+    public class SyntheticCar extends Car {
+
+        private final double m_carLapTime;
+        private int m_lapsCompleted = 0;
+        private Gauge m_speedometer = null;
+        private Gauge m_tachometer  = null;
+        private Gauge m_gear        = null;
+        private double m_speedFactor= 1.0;  //km/h to the speedometer's UOM
+
+        public SyntheticCar(int id) {
+            super(SyntheticSIMPlugin.this, id, "Synthetic", "com/SIMRacingApps/Car.json");
+            m_carLapTime = m_lapTime * (1.0 + (0.002 * id));
+        }
+
+        //adds the laps completed since the last tick and where the car is now
+        void _tick(double elapsed) {
+            double distance = _distance(elapsed);
+            int completed = (int)Math.floor(Math.max(0.0, distance));
+            while (m_lapsCompleted < completed) {
+                m_lapsCompleted++;
+                _addLap(m_carLapTime, 2.5 + (0.05 * (m_lapsCompleted % 3)) + (0.01 * m_id), m_lapsCompleted % 10 != 0);
+            }
+            _setTelemetry(distance);
+            if (distance > 0.0)
+                _addTrace(_percent(distance), (distance - Math.floor(distance)) * m_carLapTime);
+        }
+
+        //the default gauge from Car.json, registered so every reader gets this instance
+        private Gauge _newGauge(String type) {
+            Gauge gauge = new Gauge(type, this, getSession().getTrack(), null, null);
+            _setGauge(gauge);
+            return gauge;
+        }
+
+        //sets the values a real SIM reads from its telemetry as primitives
+        private void _setTelemetry(double distance) {
+            if (m_speedometer == null) {
+                m_speedometer = _newGauge(Gauge.Type.SPEEDOMETER);
+                m_tachometer  = _newGauge(Gauge.Type.TACHOMETER);
+                m_gear        = _newGauge(Gauge.Type.GEAR);
+                m_speedFactor = new Data("",1.0,"km/h").convertUOM(m_speedometer._getUOM()).getDouble();
+            }
+            boolean pitRoad = _isPitRoad(distance);
+            double  kph     = distance <= 0.0 ? 0.0 : pitRoad ? 72.0 : 200.0 + (60.0 * Math.sin(2.0 * Math.PI * (distance - Math.floor(distance))));
+            int     gear    = kph <= 0.0 ? 0 : Math.min(GEARS.length - 1, 1 + (int)(kph / 65.0));
+            double  rpm     = gear == 0 ? 900.0 : 2500.0 + (2250.0 * (kph - (65.0 * (gear - 1))) / 65.0);
+            m_speedometer._setValueCurrent(kph * m_speedFactor, GEARS[gear], "");
+            m_tachometer._setValueCurrent(rpm, GEARS[gear], "");
+            m_gear._setValueCurrent(gear);
+            _setStatusCurrent(pitRoad ? Car.Status.ONPITROAD : Car.Status.ONTRACK, pitRoad ? Car.StatusFlag.PITSPEEDLIMITER : 0);
+        }
+
+        //laps run since the start, the grid starts behind the line
+        double _distance(double elapsed) {
+            return (elapsed / m_carLapTime) - (0.01 * m_id);
+        }
+
+        double _percent(double distance) {
+            return (distance - Math.floor(distance)) * 100.0;
+        }
+
+        boolean _isPitRoad(double distance) {
+            return m_id % 4 == 3 && distance > 0.0 && distance - Math.floor(distance) >= 0.95;
+        }
+
+        @Override public boolean isME()         { return m_id == m_cars.length / 2; }
+        @Override public Data getId()           { return new Data("Car/"+m_carIdentifier+"/Id",m_id,"id",Data.State.NORMAL); }
+        @Override public Data getPosition()     { return new Data("Car/"+m_carIdentifier+"/Position",m_id + 1,"integer",Data.State.NORMAL); }
+        @Override public Data getPositionClass(){ return new Data("Car/"+m_carIdentifier+"/PositionClass",(m_id / 2) + 1,"integer",Data.State.NORMAL); }
+
+        @Override
+        public Data getNumber() {
+            Data identity = _getIdentity("NUMBER");
+            if (identity != null)
+                return identity;
+            return new Data("Car/"+m_carIdentifier+"/Number",Integer.toString(m_id + 1),"String",Data.State.NORMAL);
+        }
+
+        @Override
+        public Data getClassName() {
+            Data identity = _getIdentity("CLASSNAME");
+            if (identity != null)
+                return identity;
+            return new Data("Car/"+m_carIdentifier+"/ClassName",m_id % 2 == 0 ? "A" : "B","String",Data.State.NORMAL);
+        }
+
+        @Override
+        public Data getDriverName(boolean allowMapping) {
+            return new Data("Car/"+m_carIdentifier+"/DriverName","Driver " + (m_id + 1),"text",Data.State.NORMAL);
+        }
+
+        @Override
+        public Data getStatus() {
+            return new Data("Car/"+m_carIdentifier+"/Status",_isPitRoad(_distance(_elapsed())) ? Car.Status.ONPITROAD : Car.Status.ONTRACK,"Car.Status",Data.State.NORMAL);
+        }
+
+        @Override
+        public Data getLap(String lapType,int lapsToAverage) {
+            Data d = super.getLap(lapType,lapsToAverage);
+            String s = d.getString("reference");
+            double distance = Math.max(0.0, _distance(_elapsed()));
+            if (s.equals(LapType.COMPLETED))
+                d.setValue((int)Math.floor(distance),"lap");
+            else
+            if (s.equals(LapType.CURRENT))
+                d.setValue((int)Math.floor(distance) + 1,"lap");
+            else
+            if (s.equals(LapType.COMPLETEDPERCENT))
+                d.setValue(_percent(distance),"%");
+            return d;
+        }
+
+        @Override
+        public Data getLapTime(String lapType,int lapsToAverage) {
+            Data d = super.getLapTime(lapType,lapsToAverage);
+            String s = d.getString("reference");
+            double distance = _distance(_elapsed());
+            if (s.equals(LapType.SESSIONLAST) || s.equals(LapType.SESSIONBEST) || s.equals(LapType.BEST)) {
+                if (distance >= 1.0)
+                    d.setValue(m_carLapTime,"s",Data.State.NORMAL);
+            }
+            else
+            if (s.equals(LapType.CURRENT)) {
+                if (distance > 0.0)
+                    d.setValue((distance - Math.floor(distance)) * m_carLapTime,"s",Data.State.NORMAL);
+            }
+            return d;
+        }
+    }
+}
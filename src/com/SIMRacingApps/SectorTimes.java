@@ -0,0 +1,239 @@
+package com.SIMRacingApps;
+
+import java.util.Arrays;
+
+/**
+ * This class times every car through the sectors of the track, once per tick on the server,
+ * so the clients showing sector splits do not have to poll the lap percentage and time them in JavaScript.
+ * <p>
+ * On each tick, {@link com.SIMRacingApps.Session} passes it the cars in the {@link com.SIMRacingApps.Standings}
+ * and the session time. When a car's sector changes, the time it crossed the start of the new sector is interpolated
+ * between the two samples from the percentage of the lap at each, so the times do not depend on when the ticks landed.
+ * If a tick jumps more than one sector, each one in between is crossed in turn.
+ * A sector is only timed if the car was seen crossing into it, and it is not used for the bests if the car was on pit road during it.
+ * <p>
+ * Per car, the time so far in the current sector, the last time and the best time of each sector are kept,
+ * along with the best time of each sector by any car in the session. They are all in primitive arrays indexed by the car's id.
+ * When the session time goes backwards or the sectors change, everything is forgotten.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+class SectorTimes {
+
+    private int      m_sectors       = 0;
+    private double   m_time          = -1.0;    //the session time of the last update
+
+    //the state of each car, by id
+    private int      m_ids           = 0;
+    private int[]    m_sector        = new int[64];      //the sector the car is in, zero if not known
+    private double[] m_percent       = new double[64];
+    private double[] m_sampleTime    = new double[64];
+    private double[] m_start         = new double[64];   //the time the car crossed into the sector, NaN if it was not seen
+    private boolean[] m_pitted       = new boolean[64];
+    private int[]    m_completed     = new int[64];      //the sector the car last completed
+
+    //the times of each sector, by id * m_sectors + sector - 1, zero if not timed
+    private double[] m_last          = new double[0];
+    private double[] m_best          = new double[0];
+
+    //the best of each sector by any car
+    private double[] m_sessionBest   = new double[0];
+    private int[]    m_sessionBestId = new int[0];
+
+    SectorTimes() {}
+
+    /**
+     * Samples the cars and records any sectors they completed.
+     * @param session The session.
+     * @param track The track.
+     * @param time The session time of the tick.
+     * @param ids The ids of the cars to sample.
+     * @param count The number of ids.
+     */
+    synchronized void _update(Session session, Track track, double time, int[] ids, int count) {
+        int sectors = track._getSectorCount();
+
+        if (sectors != m_sectors || time < m_time) {
+            _clear(sectors);
+        }
+        m_time = time;
+        if (sectors == 0)
+            return;
+
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (id < 0)
+                continue;
+            _grow(id + 1);
+
+            Car car = session.getCar("I" + id);
+            String status = car != null && car.isValid() ? car.getStatus().getString() : Car.Status.INVALID;
+            double percent = car != null && car.isValid() ? car.getLap(Car.LapType.COMPLETEDPERCENT).getDouble() : -1.0;
+            if (status.equals(Car.Status.INVALID)
+            ||  status.equals(Car.Status.INGARAGE)
+            ||  status.equals(Car.Status.TOWING)
+            ||  Double.isNaN(percent) || percent < 0.0 || percent > 100.0
+            ) {
+                m_sector[id] = 0;
+                m_start[id]  = Double.NaN;
+                continue;
+            }
+
+            boolean pit = status.contains("PIT");
+            int sector  = track._getSector(percent);
+            int from    = m_sector[id];
+
+            if (sector == 0) {
+                m_start[id] = Double.NaN;
+            }
+            else
+            if (from == 0) {
+                //joined in the middle of the sector
+                m_start[id]  = Double.NaN;
+                m_pitted[id] = pit;
+            }
+            else
+            if (sector != from) {
+                double distance = percent - m_percent[id];
+                if (distance < -50.0)
+                    distance += 100.0;
+
+                if (distance > 0.0 && distance < 50.0) {
+                    int next = (from % sectors) + 1;
+                    for (int steps = 0; steps < sectors; steps++) {
+                        double at = track._getSectorStart(next) - m_percent[id];
+                        if (at < -50.0)
+                            at += 100.0;
+                        double f = Math.min(1.0, Math.max(0.0, at / distance));
+                        double crossed = m_sampleTime[id] + ((time - m_sampleTime[id]) * f);
+                        if (!Double.isNaN(m_start[id]))
+                            _record(id, from, crossed - m_start[id], !m_pitted[id]);
+                        m_start[id]  = crossed;
+                        m_pitted[id] = pit;
+                        from = next;
+                        if (next == sector)
+                            break;
+                        next = (next % sectors) + 1;
+                    }
+                }
+                else {
+                    //went backwards or jumped, like a reset, the sector cannot be timed
+                    m_start[id]  = Double.NaN;
+                    m_pitted[id] = pit;
+                }
+            }
+
+            if (pit)
+                m_pitted[id] = true;
+            m_sector[id]     = sector;
+            m_percent[id]    = percent;
+            m_sampleTime[id] = time;
+        }
+    }
+
+    private void _record(int id, int sector, double time, boolean valid) {
+        if (time <= 0.0)
+            return;
+        int i = (id * m_sectors) + sector - 1;
+        m_last[i] = time;
+        m_completed[id] = sector;
+        if (!valid)
+            return;
+        if (m_best[i] == 0.0 || time < m_best[i])
+            m_best[i] = time;
+        if (m_sessionBest[sector - 1] == 0.0 || time < m_sessionBest[sector - 1]) {
+            m_sessionBest[sector - 1]   = time;
+            m_sessionBestId[sector - 1] = id;
+        }
+    }
+
+    private void _clear(int sectors) {
+        m_sectors = sectors;
+        Arrays.fill(m_sector, 0);
+        Arrays.fill(m_completed, 0);
+        m_last          = new double[m_sector.length * sectors];
+        m_best          = new double[m_sector.length * sectors];
+        m_sessionBest   = new double[sectors];
+        m_sessionBestId = new int[sectors];
+        Arrays.fill(m_sessionBestId, -1);
+    }
+
+    private void _grow(int ids) {
+        m_ids = Math.max(m_ids, ids);
+        if (ids <= m_sector.length)
+            return;
+        int size = Math.max(ids, m_sector.length * 2);
+        m_sector     = Arrays.copyOf(m_sector, size);
+        m_percent    = Arrays.copyOf(m_percent, size);
+        m_sampleTime = Arrays.copyOf(m_sampleTime, size);
+        m_start      = Arrays.copyOf(m_start, size);
+        m_pitted     = Arrays.copyOf(m_pitted, size);
+        m_completed  = Arrays.copyOf(m_completed, size);
+        m_last       = Arrays.copyOf(m_last, size * m_sectors);
+        m_best       = Arrays.copyOf(m_best, size * m_sectors);
+    }
+
+    /** @return The number of sectors being timed. */
+    synchronized int getSectors() { return m_sectors; }
+
+    /**
+     * @param id The car's id.
+     * @return The sector the car is in, zero if it is not known.
+     */
+    synchronized int getSector(int id) {
+        return id >= 0 && id < m_ids ? m_sector[id] : 0;
+    }
+
+    /**
+     * @param id The car's id.
+     * @return The sector the car last completed, zero if none.
+     */
+    synchronized int getCompleted(int id) {
+        return id >= 0 && id < m_ids ? m_completed[id] : 0;
+    }
+
+    /**
+     * @param id The car's id.
+     * @return The time so far in the sector the car is in, NaN if it is not being timed.
+     */
+    synchronized double getCurrent(int id) {
+        return id >= 0 && id < m_ids && m_sector[id] > 0 ? m_time - m_start[id] : Double.NaN;
+    }
+
+    /**
+     * @param id The car's id.
+     * @param sector The sector number starting with 1.
+     * @return The last time of the sector, zero if not timed.
+     */
+    synchronized double getLast(int id, int sector) {
+        return id >= 0 && id < m_ids && sector > 0 && sector <= m_sectors ? m_last[(id * m_sectors) + sector - 1] : 0.0;
+    }
+
+    /**
+     * @param id The car's id.
+     * @param sector The sector number starting with 1.
+     * @return The best time of the sector, zero if not timed.
+     */
+    synchronized double getBest(int id, int sector) {
+        return id >= 0 && id < m_ids && sector > 0 && sector <= m_sectors ? m_best[(id * m_sectors) + sector - 1] : 0.0;
+    }
+
+    /**
+     * @param sector The sector number starting with 1.
+     * @return The best time of the sector by any car, zero if not timed.
+     */
+    synchronized double getSessionBest(int sector) {
+        return sector > 0 && sector <= m_sectors ? m_sessionBest[sector - 1] : 0.0;
+    }
+
+    /**
+     * @param sector The sector number starting with 1.
+     * @return The id of the car with the best time of the sector, -1 if not timed.
+     */
+    synchronized int getSessionBestId(int sector) {
+        return sector > 0 && sector <= m_sectors ? m_sessionBestId[sector - 1] : -1;
+    }
+}
@@ -22,7 +22,6 @@ import java.net.URLDecoder;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -31,11 +30,19 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -45,9 +52,13 @@ import javax.websocket.server.ServerEndpointConfig;
 
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
+import com.SIMRacingApps.Util.Config;
 import com.SIMRacingApps.Util.FindFile;
+import com.SIMRacingApps.Util.JMX;
+import com.SIMRacingApps.Util.Metrics;
 import com.SIMRacingApps.Util.SendKeys;
 import com.SIMRacingApps.Util.Sound;
 import com.SIMRacingApps.Util.URLBroadcastThread;
@@ -85,11 +96,13 @@ public class Server {
     private static String m_log   = "SIMRacingApps";
     private static ConsoleHandler _console = null;
     private static FileHandler _file = null;
+    private static AsyncLogHandler _async = null;
     private static int m_port          = 80;
-    private static Map<String,String> m_args = new HashMap<String,String>();
+    private static Map<String,String> m_args = new ConcurrentHashMap<String,String>();
     private static Genson m_genson = new Genson();
     private static Properties m_version = new Properties();
     private static int RESERVED_CORES = 2;    
+    private static final int LOGQUEUESIZE = 10000;
     public static String getLog() {
         return m_log + "-0.log.txt";
     }
@@ -108,11 +121,18 @@ public class Server {
             _console = new ConsoleHandler();
             _console.setFormatter(new LogFormatter());
             _console.setLevel(_logger.getLevel());
-            _logger.addHandler(_console);
+            
+            //the handlers are called from the async handler's thread, so the callers never wait on the console or the file.
+            _async = new AsyncLogHandler(LOGQUEUESIZE);
+            _async.setLevel(_logger.getLevel());
+            _async.addHandler(_console);
+            _logger.addHandler(_async);
             _logger.setUseParentHandlers(false);
         }
 
         //if the level has been changed, then update handlers
+        if (_logger.getLevel().intValue() != _async.getLevel().intValue())
+            _async.setLevel(_logger.getLevel());
         if (_logger.getLevel().intValue() != _console.getLevel().intValue())
             _console.setLevel(_logger.getLevel());
         if (_file != null && _logger.getLevel().intValue() != _file.getLevel().intValue())
@@ -129,7 +149,7 @@ public class Server {
                 _file = new FileHandler(filename,maxsize,maxfiles);
                 _file.setFormatter(new LogFormatter());
                 _file.setLevel(_logger.getLevel());
-                _logger.addHandler(_file);
+                _async.addHandler(_file);
                 _logger.info(String.format("Logging to %s, max size: %dMB, max files = %d",filename,maxsize/1000000,maxfiles));
             } catch (SecurityException | IOException e) {
                 Server.logStackTrace(e);
@@ -139,32 +159,246 @@ public class Server {
         return _logger;
     }
 
+    /**
+     * The JMX MBean for the server.
+     */
+    private static class Management implements ServerMBean {
+        public String getVersion() {
+            return String.format("%s.%s Build-%s",m_version.get("major"),m_version.get("minor"),m_version.get("build"));
+        }
+        public int getPort() { return m_port; }
+        public String getLogLevel() { return logger().getLevel().getName(); }
+        public void setLogLevel(String level) {
+            logger().setLevel(Level.parse(level.toUpperCase()));
+            logger(); //this updates the handlers to the new level
+            logger().info("Log level changed to " + logger().getLevel().getName());
+        }
+        public String getArg(String arg) { return Server.getArg(arg); }
+        public void setArg(String arg, String value) { Server.setArg(arg, value); }
+        public String[] getArgs() {
+            ArrayList<String> args = new ArrayList<String>();
+            for (Entry<String,String> entry : new TreeMap<String,String>(m_args).entrySet())
+                args.add(entry.getKey() + " = " + entry.getValue());
+            return args.toArray(new String[args.size()]);
+        }
+    }
+    
+    /**
+     * The log records are formatted as "timestamp: level: message: caller[thread]".
+     * A message with multiple lines is written as one line per line of the message, each with the same prefix and suffix.
+     * <p>
+     * The thread and the caller are captured by the {@link AsyncLogHandler} on the thread that logged the record,
+     * because by the time the record is formatted, it is on the log writer's thread.
+     * The caller can be left out with the argument "log-caller=false", then the handler does not capture it.
+     * Only the handler that owns this formatter calls it, and the handlers lock while publishing,
+     * so the cached timestamp does not need to be synchronized.
+     */
     private static class LogFormatter extends Formatter {
+        private static final Config.Key CALLER = Config.key("log-caller");
+        private long m_second = -1L;
+        private String m_timestamp = "";
+        private final StringBuilder m_sb = new StringBuilder(256);
+
+        //true if the caller is written, so the handler has to capture it
+        boolean usesCaller() {
+            return CALLER.asBoolean(true);
+        }
 
         /* (non-Javadoc)
          * @see java.util.logging.Formatter#format(java.util.logging.LogRecord)
          */
         @Override
-        public synchronized String format(LogRecord record) {
-            StackTraceElement[] trace = (new Exception()).getStackTrace();
+        public String format(LogRecord record) {
+            String threadName;
+            StackTraceElement[] trace;
+            boolean showCaller = usesCaller();
+            if (!showCaller) {
+                threadName = record instanceof AsyncLogRecord ? ((AsyncLogRecord)record).m_threadName : Thread.currentThread().getName();
+                trace = null;
+            }
+            else
+            if (record instanceof AsyncLogRecord) {
+                threadName = ((AsyncLogRecord)record).m_threadName;
+                trace = ((AsyncLogRecord)record).m_caller == null ? null : ((AsyncLogRecord)record).m_caller.getStackTrace();
+            }
+            else {
+                threadName = Thread.currentThread().getName();
+                trace = (new Exception()).getStackTrace();
+            }
             
-            String className = "unknownClass";
-            for (int caller=1; caller < trace.length; caller++) {
-                if (!trace[caller].toString().startsWith("java.util.logging.")
-                &&  !trace[caller].toString().startsWith("com.SIMRacingApps.Server.logStackTrace")
+            String className = showCaller ? "unknownClass" : "";
+            for (int caller=1; trace != null && caller < trace.length; caller++) {
+                if (!trace[caller].getClassName().startsWith("java.util.logging.")
+                &&  !trace[caller].getClassName().startsWith(AsyncLogHandler.class.getName())
+                &&  !(trace[caller].getClassName().equals(Server.class.getName()) && trace[caller].getMethodName().equals("logStackTrace"))
                 ) {
                     className = trace[caller].toString();
                     break;
                 }
             }
             
-            return String.format("%s: %-7s: %s: %s[%s]%n", 
-                    String.format("%1$tY%1$tm%1$td%1$tH%1$tM%1$tS.%1$tL", Calendar.getInstance()),
-                    record.getLevel(), 
-                    record.getMessage(),
-                    className,
-                    Thread.currentThread().getName()
-                    );
+            //formatting the date is the expensive part, so only do it when the second changes
+            long millis = record.getMillis();
+            long second = millis / 1000L;
+            if (second != m_second) {
+                m_timestamp = String.format("%1$tY%1$tm%1$td%1$tH%1$tM%1$tS", millis);
+                m_second = second;
+            }
+            int ms = (int)(millis - second * 1000L);
+            String level = record.getLevel().getName();
+            String message = record.getMessage();
+            
+            m_sb.setLength(0);
+            int from = 0;
+            do {
+                int to = message == null ? -1 : message.indexOf('\n', from);
+                m_sb.append(m_timestamp).append('.');
+                if (ms < 100) m_sb.append('0');
+                if (ms < 10)  m_sb.append('0');
+                m_sb.append(ms).append(": ").append(level);
+                for (int i = level.length(); i < 7; i++)
+                    m_sb.append(' ');
+                m_sb.append(": ");
+                if (message == null)
+                    m_sb.append("null");
+                else
+                    m_sb.append(message, from, to < 0 ? message.length() : to);
+                m_sb.append(": ").append(className).append('[').append(threadName).append(']').append(System.lineSeparator());
+                from = to + 1;
+            } while (from > 0);
+            return m_sb.toString();
+        }
+    }
+    
+    /**
+     * A copy of a LogRecord with the name of the thread that logged it and where it was logged from.
+     */
+    private static class AsyncLogRecord extends LogRecord {
+        private static final long serialVersionUID = 1L;
+        private final String m_threadName;
+        private final Throwable m_caller;
+        
+        AsyncLogRecord(LogRecord record, Throwable caller) {
+            super(record.getLevel(), record.getMessage());
+            setMillis(record.getMillis());
+            setLoggerName(record.getLoggerName());
+            setParameters(record.getParameters());
+            setThrown(record.getThrown());
+            setSequenceNumber(record.getSequenceNumber());
+            setThreadID(record.getThreadID());
+            m_threadName = Thread.currentThread().getName();
+            m_caller = caller;
+        }
+    }
+    
+    /**
+     * This handler puts the records in a bounded queue and returns immediately.
+     * A background thread takes them off and passes them to the console and file handlers.
+     * When the queue is full, the record is dropped and counted, so a flood of warnings
+     * cannot stall the SIM's thread while it waits on the disk or the console.
+     * The number of records dropped is logged once the writer catches up
+     * and is reported as the metric sra_log_dropped_total.
+     * <p>
+     * Finding the caller requires a stack trace. It is only captured if the record will fit in the queue,
+     * and only if one of the handlers formats with a {@link LogFormatter} that writes the caller.
+     * Only the Throwable is created on the caller's thread.
+     * Turning it into StackTraceElements, the expensive part, is done by the writer.
+     */
+    private static class AsyncLogHandler extends Handler {
+        private final BlockingQueue<LogRecord> m_queue;
+        private final List<Handler> m_handlers = new CopyOnWriteArrayList<Handler>();
+        private final AtomicLong m_dropped = Metrics.counter("sra_log_dropped_total", "Number of log records dropped because the log queue was full");
+        private final Thread m_thread;
+        private long m_droppedReported = 0L;
+        
+        AsyncLogHandler(int capacity) {
+            m_queue = new ArrayBlockingQueue<LogRecord>(capacity);
+            m_thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            write(m_queue.take());
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            });
+            m_thread.setName("Server.Logger");
+            m_thread.setDaemon(true);
+            m_thread.start();
+            
+            //write what is left in the queue when the JVM is exiting
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    AsyncLogHandler.this.flush();
+                }
+            });
+        }
+        
+        synchronized void addHandler(Handler handler) {
+            m_handlers.add(handler);
+        }
+        
+        private synchronized void write(LogRecord record) {
+            long dropped = m_dropped.get();
+            if (dropped != m_droppedReported) {
+                LogRecord warning = new LogRecord(Level.WARNING, String.format("%d log records were dropped because the log queue was full", dropped - m_droppedReported));
+                m_droppedReported = dropped;
+                for (Handler handler : m_handlers)
+                    handler.publish(warning);
+            }
+            for (Handler handler : m_handlers) {
+                try {
+                    handler.publish(record);
+                } catch (Exception e) {
+                    //there is nowhere to log this, the handler reports its own errors to its ErrorManager
+                }
+            }
+        }
+        
+        @Override
+        public void publish(LogRecord record) {
+            if (!isLoggable(record))
+                return;
+            //drop it before capturing anything if there is no room for it
+            if (m_queue.remainingCapacity() == 0) {
+                m_dropped.incrementAndGet();
+                return;
+            }
+            if (!m_queue.offer(new AsyncLogRecord(record,usesCaller() ? new Throwable() : null)))
+                m_dropped.incrementAndGet();
+        }
+        
+        //true if any of the handlers writes where the record was logged from, it does not wait on the writer
+        private boolean usesCaller() {
+            for (Handler handler : m_handlers) {
+                if (handler.getFormatter() instanceof LogFormatter && ((LogFormatter)handler.getFormatter()).usesCaller())
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Writes all the records in the queue, and flushes the handlers, before returning.
+         */
+        @Override
+        public void flush() {
+            LogRecord record;
+            while ((record = m_queue.poll()) != null)
+                write(record);
+            synchronized (this) {
+                for (Handler handler : m_handlers)
+                    handler.flush();
+            }
+        }
+
+        @Override
+        public void close() throws SecurityException {
+            flush();
+            m_thread.interrupt();
         }
     }
     
@@ -174,8 +408,9 @@ public class Server {
      * @param message A message you provide to be logged with the trace.
      * @param trace An array to the stack trace.
      */
-    public static synchronized void logStackTrace(Level level, String message, StackTraceElement[] trace) {
-        logger().log(level,"logStackTrace(Level,String,StackTraceElement[])");
+    public static void logStackTrace(Level level, String message, StackTraceElement[] trace) {
+        if (!logger().isLoggable(level))
+            return;
         if (message == null) {
             logger().log(level,"logStackTrace(Level,String,StackTraceElement[]): message is null");
             return;
@@ -184,18 +419,24 @@ public class Server {
             logger().log(level,"logStackTrace(Level,String,StackTraceElement[]): trace is null");
             return;
         }
+        //log the trace as one multi-line record, so another thread's records cannot end up in the middle of it
+        logger().log(level,formatStackTrace(trace));
+    }
+    
+    private static String formatStackTrace(StackTraceElement[] trace) {
+        StringBuilder sb = new StringBuilder("logStackTrace(Level,String,StackTraceElement[])");
         for (int index=0; index < trace.length; index++) {
             String className  = trace[index].getClassName();
             String methodName = trace[index].getMethodName();
             String fileName   = trace[index].getFileName();
-            String s = String.format("   at %s.%s (%s:%d) called by",
+            sb.append(String.format("\n   at %s.%s (%s:%d) called by",
                             className  == null ? "null" : className,
                             methodName == null ? "null" : methodName,
                             fileName   == null ? "null" : fileName,
                             trace[index].getLineNumber()
-            );
-            logger().log(level,s);
+            ));
         }
+        return sb.toString();
     }
     
     /**
@@ -205,12 +446,8 @@ public class Server {
      * @param message (optional) A message you provide to be logged with the trace.
      * @param exception The exception to get the trace from.
      */
-    public static synchronized void logStackTrace(Level level, String message, Exception exception) {
-        logger().log(level,"Exception in thread \"" + Thread.currentThread().getName() + "\" " + exception.getClass().getName() + ": " + exception.getLocalizedMessage() + " " + (message != null ? message : "[null message]"));
-        StackTraceElement[] trace = exception.getStackTrace();
-        logStackTrace(level,message,trace);
-        if (message != null && !message.isEmpty())
-            logger().log(level,"exception.getLocalizedMessage(): " + exception.getLocalizedMessage() + " " + message);
+    public static void logStackTrace(Level level, String message, Exception exception) {
+        logStackTrace(level,message,(Throwable)exception);
     }
 
     /**
@@ -220,12 +457,19 @@ public class Server {
      * @param message (optional) A message you provide to be logged with the trace.
      * @param throwable The throwable obtained from an exception.
      */
-    public static synchronized void logStackTrace(Level level, String message, Throwable throwable) {
-        logger().log(level,"Exception in thread \"" + Thread.currentThread().getName() + "\" " + throwable.getClass().getName() + ": " + throwable.getLocalizedMessage() + " " + (message != null ? message : "[null message]"));
-        StackTraceElement[] trace = throwable.getStackTrace();
-        logStackTrace(level,message,trace);
-        if (message != null && !message.isEmpty())
-            logger().log(level,throwable.getLocalizedMessage() + " " + message);
+    public static void logStackTrace(Level level, String message, Throwable throwable) {
+        if (!logger().isLoggable(level))
+            return;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Exception in thread \"" + Thread.currentThread().getName() + "\" " + throwable.getClass().getName() + ": " + throwable.getLocalizedMessage() + " " + (message != null ? message : "[null message]"));
+        if (message != null) {
+            sb.append("\n").append(formatStackTrace(throwable.getStackTrace()));
+            if (!message.isEmpty())
+                sb.append("\nexception.getLocalizedMessage(): " + throwable.getLocalizedMessage() + " " + message);
+        }
+        else
+            sb.append("\nlogStackTrace(Level,String,StackTraceElement[]): message is null");
+        logger().log(level,sb.toString());
     }
     
     public static void logStackTrace(Level level,Exception exception) {
@@ -277,6 +521,22 @@ public class Server {
         return "";
     }
     
+    /**
+     * Sets the value of the specified argument, as if it were passed on the command line.
+     * Code that reads the argument every time it needs it will see the new value immediately,
+     * as will any {@link com.SIMRacingApps.Util.Config} handles to it, and their listeners are notified.
+     * @param arg The argument name
+     * @param value The new value, null removes it
+     */
+    public static void setArg(String arg,String value) {
+        if (value == null)
+            m_args.remove(arg.toLowerCase());
+        else
+            m_args.put(arg.toLowerCase(), value);
+        logger().info(String.format("setArg(%s) = %s", arg.toLowerCase(), value));
+        Config._changed(arg);
+    }
+    
     /**
      * Returns the value of the specified argument as a string. 
      * The defaultValue be returned if arg not found or blank.
@@ -535,6 +795,9 @@ public class Server {
         logger().info(String.format("Logger.Level = %s",logger().getLevel().toString()));
 
         logArgs();
+        
+        //refresh any handles that were created before the args were parsed
+        Config._changed(null);
     }
     
     /**
@@ -563,10 +826,37 @@ public class Server {
     
     public static String m_hostname = "";  //once the service starts up, it will populate this.
 
-    private static org.eclipse.jetty.server.Server startServer(int port) throws Exception {
+    /**
+     * Creates the internal Jetty instance, registers all the servlets and web socket endpoints, and starts it.
+     * It is public so that tools, like the {@link com.SIMRacingApps.Util.LoadTester}, can run the same server that main() does.
+     *
+     * @param port The port number to listen on.
+     * @return The started Jetty server.
+     * @throws Exception If the server cannot be started, for example, the port is in use.
+     */
+    public static org.eclipse.jetty.server.Server startServer(int port) throws Exception {
         //since my package is also named Server, I have to specify the entire path to Jetty
         org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server(port);
         
+        JMX.register("Server", null, new Management(), ServerMBean.class);
+
+        final QueuedThreadPool threadPool = (QueuedThreadPool)server.getThreadPool();
+        Metrics.gauge("sra_jetty_threads", "Jetty's thread pool usage", "state", "total", new Metrics.Gauge() {
+            public double getValue() { return threadPool.getThreads(); }
+        });
+        Metrics.gauge("sra_jetty_threads", "Jetty's thread pool usage", "state", "idle", new Metrics.Gauge() {
+            public double getValue() { return threadPool.getIdleThreads(); }
+        });
+        Metrics.gauge("sra_jetty_threads", "Jetty's thread pool usage", "state", "busy", new Metrics.Gauge() {
+            public double getValue() { return threadPool.getBusyThreads(); }
+        });
+        Metrics.gauge("sra_jetty_threads", "Jetty's thread pool usage", "state", "max", new Metrics.Gauge() {
+            public double getValue() { return threadPool.getMaxThreads(); }
+        });
+        Metrics.gauge("sra_jetty_queued_jobs", "Jobs waiting for a Jetty thread", null, null, new Metrics.Gauge() {
+            public double getValue() { return threadPool.getQueueSize(); }
+        });
+
         ServletContextHandler contextHandler = new ServletContextHandler(ServletContextHandler.SESSIONS);
         contextHandler.setContextPath("/");
         contextHandler.setResourceBase(System.getProperty("java.io.tmpdir"));
@@ -0,0 +1,37 @@
+package com.SIMRacingApps;
+
+/**
+ * The JMX management interface for the {@link com.SIMRacingApps.Server}.
+ * It is registered as "com.SIMRacingApps:type=Server".
+ * <p>
+ * Changing an argument here has the same effect as changing it in settings.txt,
+ * without the restart, for any code that reads the argument when it needs it.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public interface ServerMBean {
+    /** @return The version of the server. */
+    public String getVersion();
+    /** @return The port the server is listening on. */
+    public int getPort();
+    /** @return The current logging level, i.e. INFO, FINE. */
+    public String getLogLevel();
+    /** @param level The new logging level, i.e. INFO, FINE. */
+    public void setLogLevel(String level);
+    /**
+     * @param arg The name of the argument.
+     * @return The value of an argument, blank if not set.
+     */
+    public String getArg(String arg);
+    /**
+     * Sets an argument.
+     * @param arg The name of the argument.
+     * @param value The new value.
+     */
+    public void setArg(String arg, String value);
+    /** @return All of the arguments as "name = value". */
+    public String[] getArgs();
+}
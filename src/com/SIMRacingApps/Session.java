@@ -10,6 +10,8 @@ import java.util.TimeZone;
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.Data;
 import com.SIMRacingApps.Data.State;
+import com.SIMRacingApps.Util.Histogram;
+import com.SIMRacingApps.Util.Metrics;
 
 /**
  * The class defines access to session level data.
@@ -98,6 +100,27 @@ public class Session {
     private Car defaultCar = null;
     private Track defaultTrack = null;
 
+    private final Standings m_standings = new Standings();
+    private Object m_standingsVersion = null;
+    private String m_standingsReference = null;
+    private long m_standingsTick = 0L;                  //the SIM tick the DataVersion and reference car were last read on
+    private int m_standingsReferenceChanges = 0;
+    private volatile int m_referenceChanges = 0;        //counts the calls to setReferenceCar()
+    private boolean m_standingsBuilding = false;
+    private volatile boolean m_standingsNotLoaded = false; //set by the default _loadStandings(), the SIM does not index its cars
+    private final Histogram m_standingsBuild = Metrics.histogram("sra_standings_build_seconds", "Time to build the standings index for a DataVersion");
+    private final Gaps m_gaps = new Gaps();
+    private boolean m_gapsBuilt = false;
+    private boolean m_gapsBuilding = false;
+    private final Histogram m_gapsBuild = Metrics.histogram("sra_gaps_build_seconds", "Time to read the cars and compute the gap vectors for a DataVersion");
+    private int[] m_tickIds = new int[64];
+    private int m_tickPaceCar = -1;
+    private final SectorTimes m_sectorTimes = new SectorTimes();
+    private double m_tickElapsed = -1.0;          //the session time of the last tick, to see when a new session starts
+    private final Histogram m_sectorTimesUpdate = Metrics.histogram("sra_sector_times_update_seconds", "Time to sample the cars and time the sectors for a tick");
+    private final LapTimeProjections m_projections = new LapTimeProjections();
+    private final Histogram m_projectionsUpdate = Metrics.histogram("sra_lap_time_projections_update_seconds", "Time to project the lap time of every car for a tick");
+
     protected String _getShortTimeZone(Date d, String longTimeZone) {
         TimeZone tz = TimeZone.getTimeZone(longTimeZone);
         String name = tz.getDisplayName(tz.inDaylightTime(d), TimeZone.SHORT);
@@ -257,6 +280,169 @@ public class Session {
      * @return An instance of {@link com.SIMRacingApps.Car}
      */
     public    Car     getCar(String carIndentifier)     { /*Car*/                                 return defaultCar != null ? defaultCar : (defaultCar = new Car(m_SIMPlugin)); }
+
+    /**
+     * Returns the id of the car the identifier refers to from the {@link com.SIMRacingApps.Standings} index.
+     * SIM implementors should call this first in {@link #getCar(String)} and only resolve the identifier themselves
+     * when {@link com.SIMRacingApps.Standings#NOTINDEXED} is returned.
+     * <p>
+     * The index is rebuilt, by calling {@link #_loadStandings(Standings)}, the first time it is needed
+     * after the DataVersion or the reference car changes. If the SIM does not override it, 
+     * every identifier returns {@link com.SIMRacingApps.Standings#NOTINDEXED} without taking the lock.
+     * 
+     * @param carIdentifier A car identifier as defined by {@link #getCar(String)}.
+     * @return The car id, -1 if there isn't a car there, or {@link com.SIMRacingApps.Standings#NOTINDEXED}.
+     */
+    protected int _getCarId(String carIdentifier) {
+        if (m_standingsNotLoaded)
+            return Standings.NOTINDEXED;
+        synchronized (m_standings) {
+            //resolving the reference car while building can come back here, let the SIM resolve those
+            if (!_refreshStandings())
+                return Standings.NOTINDEXED;
+            return m_standings.getCarId(carIdentifier);
+        }
+    }
+    
+    //rebuilds the standings if the DataVersion or the reference car changed. The caller holds the lock.
+    //returns false if called while building them or if the SIM does not load them.
+    private boolean _refreshStandings() {
+        if (m_standingsBuilding || m_standingsNotLoaded)
+            return false;
+        
+        //the DataVersion and the reference car are only read once per tick, unless the reference car was set since.
+        //If the run loop is not ticking, they are read every time.
+        long tick = m_SIMPlugin._getTickCount();
+        int referenceChanges = m_referenceChanges;
+        if (tick != 0L && tick == m_standingsTick && referenceChanges == m_standingsReferenceChanges)
+            return true;
+        Object version = getDataVersion().getValue();
+        String reference = getReferenceCar().getString();
+        if (!version.equals(m_standingsVersion) || !reference.equals(m_standingsReference)) {
+            long start = System.nanoTime();
+            m_standingsBuilding = true;
+            try {
+                m_standings._clear();
+                _loadStandings(m_standings);
+                if (m_standingsNotLoaded)
+                    return false;
+                m_standings._sort();
+                
+                int id = m_standings.getCarId(reference);
+                if (id == Standings.NOTINDEXED) {
+                    Car car = getCar(reference);
+                    id = car != null ? car.getId().getInteger() : -1;
+                }
+                m_standings._setReference(id);
+                
+                m_standingsVersion   = version;
+                m_standingsReference = reference;
+                m_gapsBuilt          = false;
+            }
+            finally {
+                m_standingsBuilding = false;
+            }
+            m_standingsBuild.recordSince(start);
+        }
+        m_standingsTick             = tick;
+        m_standingsReferenceChanges = referenceChanges;
+        return true;
+    }
+    
+    //returns the gaps for this DataVersion, reading the cars the first time. The caller holds the lock on the standings.
+    //returns null if called while building them, so the original calculation is used.
+    private Gaps _getGaps() {
+        if (m_gapsBuilding || !_refreshStandings())
+            return null;
+        if (!m_gapsBuilt) {
+            long start = System.nanoTime();
+            m_gapsBuilding = true;
+            try {
+                m_gaps._build(this, m_standings);
+                m_gapsBuilt = true;
+            }
+            finally {
+                m_gapsBuilding = false;
+            }
+            m_gapsBuild.recordSince(start);
+        }
+        return m_gaps;
+    }
+    
+    /**
+     * Called by {@link com.SIMRacingApps.SIMPlugin} once per tick, before the callbacks, to project the lap time of every car
+     * in the standings, so {@link com.SIMRacingApps.Car#getLapTimeProjected()} and the gaps read them from an array,
+     * and to time them through the track's sectors if it has any.
+     * The ids of the cars are copied from the standings once for both.
+     */
+    protected void _updateTick() {
+        double time = getTimeElapsed().getDouble();
+        if (time < m_tickElapsed) {  //a new session started, the track may not be the same
+            getTrack()._resetSectors();
+            getTrack()._resetLength();
+        }
+        m_tickElapsed = time;
+
+        int count = _copyStandingsIds();
+        if (count < 0)
+            return;
+
+        if (count > 0) {
+            long start = System.nanoTime();
+            m_projections._update(this, getDataVersion().getValue(), time, m_tickIds, count, m_tickPaceCar);
+            m_projectionsUpdate.recordSince(start);
+        }
+
+        if (getTrack()._getSectorCount() > 0 || m_sectorTimes.getSectors() > 0) {
+            long start = System.nanoTime();
+            m_sectorTimes._update(this, getTrack(), time, m_tickIds, count);
+            m_sectorTimesUpdate.recordSince(start);
+        }
+    }
+    
+    //returns the sector times, see Car.getSectorTime()
+    SectorTimes _getSectorTimes() {
+        return m_sectorTimes;
+    }
+    
+    //returns the lap time projections, see Gaps._build()
+    LapTimeProjections _getLapTimeProjections() {
+        return m_projections;
+    }
+    
+    //returns the projected lap time of the car for this DataVersion, NaN if it was not projected
+    double _getLapTimeProjected(int id) {
+        return m_projections.getProjected(getDataVersion().getValue(), id);
+    }
+    
+    //copies the ids of the cars in the standings into m_tickIds and the pace car's into m_tickPaceCar, 
+    //returns -1 if the standings are being built and zero if the SIM does not load them. Only called from the SIM's thread.
+    private int _copyStandingsIds() {
+        if (m_standingsNotLoaded)
+            return 0;
+        synchronized (m_standings) {
+            if (!_refreshStandings())
+                return m_standingsNotLoaded ? 0 : -1;
+            int count = m_standings.getCount();
+            if (m_tickIds.length < count)
+                m_tickIds = new int[Math.max(count, m_tickIds.length * 2)];
+            for (int e = 0; e < count; e++)
+                m_tickIds[e] = m_standings._getId(e);
+            m_tickPaceCar = m_standings._getPaceCar();
+            return count;
+        }
+    }
+    
+    /**
+     * Adds every car in the session to the standings index by calling {@link com.SIMRacingApps.Standings#add(int, int, int, int, double, boolean, boolean)}.
+     * SIM implementors should override this, without calling this one. The default adds no cars and marks the session
+     * as not indexed, so the index is never built again and every identifier is resolved by the SIM.
+     * 
+     * @param standings The index to add the cars to.
+     */
+    protected void _loadStandings(Standings standings) {
+        m_standingsNotLoaded = true;
+    }
     
     /**
      * Returns the actual number of cars registered for this session.
@@ -328,6 +514,27 @@ public class Session {
             return new Data("Session/DiffCars/null",0.0,"s",Data.State.NOTAVAILABLE);
         
         Data seconds        = new Data("Session/DiffCars/"+carIdentifier1+"/"+carIdentifier2,0.0,"s",Data.State.NOTAVAILABLE);
+
+        //the gaps between the cars in the standings are computed once per DataVersion.
+        //If the SIM indexes its cars, both are resolved from the index without looking them up.
+        boolean indexed = false;
+        if (!m_standingsNotLoaded && !carIdentifier1.equalsIgnoreCase("PITSTALL") && !carIdentifier2.equalsIgnoreCase("PITSTALL")) {
+            synchronized (m_standings) {
+                Gaps gaps = _getGaps();
+                if (gaps != null) {
+                    int id1 = m_standings.getCarId(carIdentifier1);
+                    int id2 = m_standings.getCarId(carIdentifier2);
+                    if (id1 == -1 || id2 == -1)
+                        return new Data("Session/DiffCars"+carIdentifier1+"/"+carIdentifier2,0.0,"s",Data.State.NOTAVAILABLE);
+                    if (id1 >= 0 && id2 >= 0) {
+                        indexed = true;
+                        if (gaps.getDiffCars(id1, id2))
+                            return __setGap(seconds, gaps);
+                    }
+                }
+            }
+        }
+
         String cartoproject = carIdentifier2;
         Car _car2           = getCar(carIdentifier2);
         Car _car1           = getCar(carIdentifier1);
@@ -353,6 +560,17 @@ public class Session {
                 _car2 = _car2;
         }
         
+        //the identifiers the index does not keep, like the car numbers, can still be in the gaps
+        if (!indexed && !m_standingsNotLoaded && !carIdentifier1.equalsIgnoreCase("PITSTALL") && !carIdentifier2.equalsIgnoreCase("PITSTALL")) {
+            int id1 = _car1.getId().getInteger();
+            int id2 = _car2.getId().getInteger();
+            synchronized (m_standings) {
+                Gaps gaps = _getGaps();
+                if (gaps != null && gaps.getDiffCars(id1, id2))
+                    return __setGap(seconds, gaps);
+            }
+        }
+        
         Data sessionlap = m_SIMPlugin.getSession().getLap();
 
         if ((m_SIMPlugin.getSession().getType().getString().equalsIgnoreCase("RACE") && sessionlap.getInteger() > 1)
@@ -464,6 +682,23 @@ public class Session {
         return seconds;
     }
     public    Data    getDiffCars(String carIdentifier)        { /*double(seconds),int(lap)*/            return getDiffCars("LEADER"+carIdentifier,carIdentifier); }
+
+    //sets the gap the gaps just found in the Data as seconds, laps or blank
+    private static Data __setGap(Data seconds, Gaps gaps) {
+        if (gaps.getType() == Gaps.LAPS) {
+            seconds.setValue((int)gaps.getValue());
+            seconds.setUOM("lap");
+        }
+        else
+        if (gaps.getType() == Gaps.BLANK) {
+            seconds.setValue("");
+            seconds.setUOM("");
+        }
+        else
+            seconds.setValue(gaps.getValue());
+        seconds.setState(State.NORMAL);
+        return seconds;
+    }
     public    Data    getDiffCars()                            { /*double(seconds),int(lap)*/            return getDiffCars("LEADERREFERENCE","REFERENCE"); }
     
     /**
@@ -479,6 +714,38 @@ public class Session {
      */
     public Data getDiffCarsRelative(String carIdentifier1, String carIdentifier2) {
         Data seconds = new Data("Session/DiffCarsRelative/"+carIdentifier1+"/"+carIdentifier2,0.0,"s");
+
+        //if the SIM indexes its cars, both are resolved from the index, without looking them up,
+        //and the gap is read from the gaps computed once per DataVersion
+        boolean indexed = false;
+        if (!m_standingsNotLoaded && !carIdentifier1.equalsIgnoreCase("PITSTALL") && !carIdentifier2.equalsIgnoreCase("PITSTALL")) {
+            synchronized (m_standings) {
+                Gaps gaps = _getGaps();
+                if (gaps != null) {
+                    int id1 = m_standings.getCarId(carIdentifier1);
+                    int id2 = m_standings.getCarId(carIdentifier2);
+                    if (id1 == -1 || id2 == -1)
+                        return new Data("Session/DiffCarsRelative/"+carIdentifier1+"/"+carIdentifier2,"","",Data.State.NOTAVAILABLE);
+                    if (id1 >= 0 && id2 >= 0) {
+                        indexed = true;
+                        try {
+                            int reference   = m_standings._getReference();
+                            int position    = __relativePosition(carIdentifier2, id2 == reference);
+                            int refposition = __relativePosition(carIdentifier1, id1 == reference);
+                            if (gaps.getDiffCarsRelative(id1, id2, position < refposition)) {
+                                seconds.setValue(gaps.getValue());
+                                seconds.setState(State.NORMAL);
+                                return seconds;
+                            }
+                        }
+                        catch (NumberFormatException e) {
+                            return seconds;
+                        }
+                    }
+                }
+            }
+        }
+
         Car _car2         = getCar(carIdentifier2);
         Car _car1         = getCar(carIdentifier1);
 //boolean logit = false;        
@@ -488,49 +755,27 @@ public class Session {
         )
             return new Data("Session/DiffCarsRelative/"+carIdentifier1+"/"+carIdentifier2,"","",Data.State.NOTAVAILABLE);
 
-        Data pct2 = _car2.getLap(Car.LapType.COMPLETEDPERCENT);
-        Data pct1 = _car1.getLap(Car.LapType.COMPLETEDPERCENT);
-
         try {
-            int position = 0;
-            int refposition = 0;
-
-            if (getCar("REFERENCE").getId().getInteger() == _car2.getId().getInteger() || carIdentifier2.startsWith("LEADER")) {
-//            if (car.equalsIgnoreCase("ME") || car.equalsIgnoreCase("REFERENCE")) {
-                position = 0;
-            }
-            else
-            if (carIdentifier2.startsWith("RPC") || carIdentifier2.startsWith("RLC")) {
-                position = Integer.parseInt(carIdentifier2.substring(3));
-            }
-            else
-            if (carIdentifier2.startsWith("RL") || carIdentifier2.startsWith("RP") || carIdentifier2.startsWith("RC") || carIdentifier2.startsWith("PC")) {
-                position = Integer.parseInt(carIdentifier2.substring(2));
-            }
-            else
-            if (carIdentifier2.startsWith("R") || carIdentifier2.startsWith("P") || carIdentifier2.startsWith("I")) {
-                position = Integer.parseInt(carIdentifier2.substring(1));
+            int reference   = getCar("REFERENCE").getId().getInteger();
+            int position    = __relativePosition(carIdentifier2, reference == _car2.getId().getInteger());
+            int refposition = __relativePosition(carIdentifier1, reference == _car1.getId().getInteger());
+
+            //the identifiers the index does not keep, like the car numbers, can still be in the gaps
+            if (!indexed && !m_standingsNotLoaded && !carIdentifier1.equalsIgnoreCase("PITSTALL") && !carIdentifier2.equalsIgnoreCase("PITSTALL")) {
+                int id1 = _car1.getId().getInteger();
+                int id2 = _car2.getId().getInteger();
+                synchronized (m_standings) {
+                    Gaps gaps = _getGaps();
+                    if (gaps != null && gaps.getDiffCarsRelative(id1, id2, position < refposition)) {
+                        seconds.setValue(gaps.getValue());
+                        seconds.setState(State.NORMAL);
+                        return seconds;
+                    }
+                }
             }
 
-            if (getCar("REFERENCE").getId().getInteger() == _car1.getId().getInteger() || carIdentifier1.startsWith("LEADER")) {
-//            if (refcar.equalsIgnoreCase("ME") || refcar.equalsIgnoreCase("REFERENCE")) {
-                refposition = 0;
-//if (position == 1) {  
-//    logit = true;
-//}
-            }
-            else
-            if (carIdentifier1.startsWith("RPC") || carIdentifier1.startsWith("RLC")) {
-                refposition = Integer.parseInt(carIdentifier1.substring(3));
-            }
-            else
-            if (carIdentifier1.startsWith("RL") || carIdentifier1.startsWith("RP") || carIdentifier1.startsWith("RC") || carIdentifier1.startsWith("PC")) {
-                refposition = Integer.parseInt(carIdentifier1.substring(2));
-            }
-            else
-            if (carIdentifier1.startsWith("R") || carIdentifier1.startsWith("P") || carIdentifier1.startsWith("I")) {
-                refposition = Integer.parseInt(carIdentifier1.substring(1));
-            }
+            Data pct2 = _car2.getLap(Car.LapType.COMPLETEDPERCENT);
+            Data pct1 = _car1.getLap(Car.LapType.COMPLETEDPERCENT);
 
             Data carspeed; //if car is ahead of reference, the use reference speed. If behind, use car's speed.
             double distanceBetween = 0.0;
@@ -575,6 +820,20 @@ public class Session {
         return seconds;
     }
     public    Data    getDiffCarsRelative(String carIdentifier)        { /*double(seconds),int(lap)*/            return getDiffCarsRelative("LEADER"+carIdentifier,carIdentifier); }
+
+    //returns the position the identifier is named with, zero for the reference car and the leaders, see getDiffCarsRelative().
+    //Throws NumberFormatException if the identifier is not followed by a number.
+    private static int __relativePosition(String carIdentifier, boolean isReference) {
+        if (isReference || carIdentifier.startsWith("LEADER"))
+            return 0;
+        if (carIdentifier.startsWith("RPC") || carIdentifier.startsWith("RLC"))
+            return Integer.parseInt(carIdentifier.substring(3));
+        if (carIdentifier.startsWith("RL") || carIdentifier.startsWith("RP") || carIdentifier.startsWith("RC") || carIdentifier.startsWith("PC"))
+            return Integer.parseInt(carIdentifier.substring(2));
+        if (carIdentifier.startsWith("R") || carIdentifier.startsWith("P") || carIdentifier.startsWith("I"))
+            return Integer.parseInt(carIdentifier.substring(1));
+        return 0;
+    }
     public    Data    getDiffCarsRelative()                            { /*double(seconds),int(lap)*/            return getDiffCarsRelative("LEADERREFERENCE","REFERENCE"); }
     
     /**
@@ -599,6 +858,20 @@ public class Session {
      */
     public    Data    getIncidentLimit()                              { /*int*/                                  return new Data("Session/IncidentLimit",0,"x",Data.State.NOTAVAILABLE); } 
 
+    /**
+     * Returns a SIM specific value that changes only when the session information changes,
+     * like the drivers, car numbers, colors and classes.
+     * Do not make any assumptions of how this is formatted. Assume it's just a printable string.
+     * <p>
+     * It is used to know when values that only come from the session information, like the car's identity, need to be read again.
+     * SIMs should override it. If the state is not NORMAL, those values are read every time they are asked for.
+     * 
+     * <p>PATH = {@link #getInfoVersion() /Session/InfoVersion}
+     * 
+     * @return The version in a {@link com.SIMRacingApps.Data} container.
+     */
+    public    Data    getInfoVersion()                 { /*Long*/                                return new Data("Session/InfoVersion",getDataVersion().getValue(),"",Data.State.NOTAVAILABLE); }
+
     /**
      * Returns true if the client should hide the App windows.
      * 
@@ -1053,6 +1326,28 @@ public class Session {
      */
     public    Data    setRestart(String command)          { /*String*/      return new Data("Session/setRestart",command,"String",Data.State.NOTAVAILABLE); }
 
+    /**
+     * Returns the best time of a sector by any car in the session.
+     * The sectors are timed by the server, see {@link com.SIMRacingApps.Car#getSectorTime(String, String)}.
+     * The id of the car that set it is returned in the "car" value.
+     * 
+     * <p>PATH = {@link #getSectorTimeBest(String) /Session/SectorTimeBest/(SECTOR)}
+     * 
+     * @since 1.23
+     * @param sector The sector number starting with 1.
+     * @return The time in seconds in a {@link com.SIMRacingApps.Data} container.
+     */
+    public    Data    getSectorTimeBest(String sector) {
+        int n = new Data("",sector).getInteger();
+        Data d = new Data("Session/SectorTimeBest/"+sector,0.0,"s",Data.State.NOTAVAILABLE);
+        double time = m_sectorTimes.getSessionBest(n);
+        d.add("car",m_sectorTimes.getSessionBestId(n));
+        if (time > 0.0)
+            d.setValue(time,"s",Data.State.NORMAL);
+        return d;
+    }
+    public    Data    getSectorTimeBest()              { return getSectorTimeBest("1"); }
+
     /**
      * Returns if the SIM has own pit count down spotter enabled.
      * 
@@ -1354,6 +1649,7 @@ public class Session {
                 m_referenceCar = "ME";
             else
                 m_referenceCar = carIdentifier;
+        m_referenceChanges++;
         return getReferenceCar();
     }
     public    Data    setReferenceCar()                { /*void*/                                return setReferenceCar("ME");}
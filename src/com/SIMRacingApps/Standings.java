@@ -0,0 +1,431 @@
+package com.SIMRacingApps;
+
+import java.util.Arrays;
+
+/**
+ * This class is an index of the cars in the session, built once per {@link com.SIMRacingApps.Session#getDataVersion() DataVersion},
+ * that resolves the positional and relative car identifiers, like LEADER, P3, PC2, R1, RL-2, RP1 and REFERENCE, to a car id
+ * without scanning or sorting the field each time one is asked for.
+ * See {@link com.SIMRacingApps.Session#getCar(String)} for what each identifier means.
+ * <p>
+ * The SIM adds every car it knows about in {@link com.SIMRacingApps.Session#_loadStandings(Standings)}.
+ * The index then keeps the car ids in primitive int arrays sorted by position, by class position
+ * and by the location on the track, and the lookups are just an array access.
+ * The track order is sorted starting from the order of the previous DataVersion, which is almost always still in order,
+ * so the sort does not cost more than a pass over the field.
+ * <p>
+ * Identifiers the index does not keep, like car numbers, TRANSMITTING and PITSTALL, return {@link #NOTINDEXED}
+ * and the SIM resolves them the way it always has. So does every identifier while no cars have been added.
+ * <p>
+ * Only {@link com.SIMRacingApps.Session} rebuilds the index, and it holds the lock while doing so and while reading from it.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Standings {
+
+    /** Returned by {@link #getCarId(String)} for the identifiers the index does not keep. */
+    public static final int NOTINDEXED = -2;
+
+    private static final int NOCAR      = -1;
+    private static final int NOTANUMBER = Integer.MIN_VALUE;
+
+    //what the SIM added, in the order it added them
+    private int     m_count         = 0;
+    private boolean m_loaded        = false;        //true once sorted with cars in it
+    private int[]   m_id            = new int[64];
+    private int[]   m_position      = new int[64];
+    private int[]   m_class         = new int[64];
+    private int[]   m_positionClass = new int[64];
+    private double[] m_lapPercent   = new double[64];
+    private int[]   m_location      = new int[64];   //LOCATION_ flags
+    private static final int LOCATION_INWORLD = 1;
+    private static final int LOCATION_PITROAD = 2;
+
+    private int     m_me            = NOCAR;
+    private int     m_paceCar       = NOCAR;
+    private int     m_reference     = NOCAR;
+
+    //the index
+    private int[]   m_entryById     = new int[64];   //car id -> entry, -1 if not added
+    private int     m_ids           = 0;
+    private int[]   m_byPosition    = new int[64];   //position -> car id, position 0 is the pace car
+    private int     m_positions     = 0;
+    private int[]   m_order         = new int[64];   //entries sorted by the percentage of the lap completed, from the previous build
+    private int     m_orderCount    = 0;
+    private int[]   m_classIds      = new int[8];    //the distinct classes and the leader of each
+    private int[]   m_classLeaders  = new int[8];
+    private int     m_classCount    = 0;
+
+    //the index relative to the reference car
+    private int[]   m_byPositionClass       = new int[64];  //class position -> car id, for the reference car's class
+    private int     m_positionsClass        = 0;
+    private final Relative m_relative               = new Relative();
+    private final Relative m_relativeClass          = new Relative();
+    private final Relative m_relativeLocation       = new Relative();
+    private final Relative m_relativeLocationClass  = new Relative();
+
+    //the cars in the order they are on the track, starting at the line, and where the reference car is in that order
+    private static class Relative {
+        int[] cars      = new int[64];
+        int   count     = 0;
+        int   reference = -1;
+
+        void clear() {
+            count = 0;
+            reference = -1;
+        }
+
+        void add(int id, boolean isReference) {
+            if (count == cars.length)
+                cars = Arrays.copyOf(cars, count * 2);
+            if (isReference)
+                reference = count;
+            cars[count++] = id;
+        }
+
+        int get(int offset) {
+            if (offset == 0 || reference < 0 || Math.abs(offset) >= count)
+                return NOCAR;
+            return cars[Math.floorMod(reference + offset, count)];
+        }
+    }
+
+    Standings() {}
+
+    /**
+     * Adds a car to the index. Call it for every car in the session, including the pace car.
+     *
+     * @param id The SIM's id of the car.
+     * @param position The position of the car, starting at 1. Use zero if the car does not have a position yet.
+     * @param classId A number that is the same for every car in the same class.
+     * @param positionClass The position of the car in its class, starting at 1. Use zero if the car does not have a position yet.
+     * @param lapPercent The percentage of the current lap the car has completed, 0.0 to 100.0.
+     * @param inWorld true if the car is on the track or on pit road, false if it is in the garage or not in the session.
+     * @param onPitRoad true if the car is on pit road.
+     */
+    public void add(int id, int position, int classId, int positionClass, double lapPercent, boolean inWorld, boolean onPitRoad) {
+        if (id < 0)
+            return;
+        if (m_count == m_id.length) {
+            int size = m_count * 2;
+            m_id            = Arrays.copyOf(m_id, size);
+            m_position      = Arrays.copyOf(m_position, size);
+            m_class         = Arrays.copyOf(m_class, size);
+            m_positionClass = Arrays.copyOf(m_positionClass, size);
+            m_lapPercent    = Arrays.copyOf(m_lapPercent, size);
+            m_location      = Arrays.copyOf(m_location, size);
+        }
+        m_id[m_count]            = id;
+        m_position[m_count]      = position;
+        m_class[m_count]         = classId;
+        m_positionClass[m_count] = positionClass;
+        m_lapPercent[m_count]    = lapPercent;
+        m_location[m_count]      = (inWorld ? LOCATION_INWORLD : 0) | (onPitRoad ? LOCATION_PITROAD : 0);
+        m_count++;
+    }
+
+    /**
+     * Sets which car is ME.
+     * @param id The SIM's id of the car.
+     */
+    public void setME(int id) {
+        m_me = id;
+    }
+
+    /**
+     * Sets which car is the pace car. It will be position zero.
+     * @param id The SIM's id of the car.
+     */
+    public void setPaceCar(int id) {
+        m_paceCar = id;
+    }
+
+    /**
+     * Returns the id of the car the identifier refers to.
+     *
+     * @param carIdentifier The car identifier as defined by {@link com.SIMRacingApps.Session#getCar(String)}.
+     * @return The car id, -1 if there isn't a car there, or {@link #NOTINDEXED} if the index does not keep the identifier
+     *         or the SIM has not added any cars to it.
+     */
+    public int getCarId(String carIdentifier) {
+        if (!m_loaded || carIdentifier == null || carIdentifier.isEmpty())
+            return NOTINDEXED;
+
+        if (carIdentifier.equalsIgnoreCase("ME"))
+            return m_me;
+        if (carIdentifier.equalsIgnoreCase("REFERENCE"))
+            return m_reference;
+        if (carIdentifier.equalsIgnoreCase("PACECAR") || carIdentifier.equalsIgnoreCase("PACE")
+        ||  carIdentifier.equalsIgnoreCase("SAFETYCAR") || carIdentifier.equalsIgnoreCase("SAFETY"))
+            return m_paceCar;
+
+        if (_startsWith(carIdentifier, "LEADER")) {
+            if (carIdentifier.length() == 6)
+                return _byPosition(1);
+            //LEADERCLASS is the leader of the reference car's class, LEADERxxx is the leader of xxx's class
+            int id = carIdentifier.equalsIgnoreCase("LEADERCLASS") ? m_reference : getCarId(carIdentifier.substring(6));
+            if (id < 0)
+                return id;
+            int entry = _entry(id);
+            return entry < 0 ? NOCAR : _classLeader(m_class[entry]);
+        }
+
+        int n;
+        if (_startsWith(carIdentifier, "RPC")) {
+            if ((n = _number(carIdentifier, 3)) == NOTANUMBER)
+                return NOTINDEXED;
+            return n == 0 ? m_reference : _relativePosition(n, true);
+        }
+        if (_startsWith(carIdentifier, "RLC")) {
+            if ((n = _number(carIdentifier, 3)) == NOTANUMBER)
+                return NOTINDEXED;
+            return n == 0 ? m_reference : m_relativeLocationClass.get(n);
+        }
+        if (_startsWith(carIdentifier, "RP")) {
+            if ((n = _number(carIdentifier, 2)) == NOTANUMBER)
+                return NOTINDEXED;
+            return n == 0 ? m_reference : _relativePosition(n, false);
+        }
+        if (_startsWith(carIdentifier, "RL")) {
+            if ((n = _number(carIdentifier, 2)) == NOTANUMBER)
+                return NOTINDEXED;
+            return n == 0 ? m_reference : m_relativeLocation.get(n);
+        }
+        if (_startsWith(carIdentifier, "RC")) {
+            if ((n = _number(carIdentifier, 2)) == NOTANUMBER)
+                return NOTINDEXED;
+            return n == 0 ? m_reference : m_relativeClass.get(n);
+        }
+        if (_startsWith(carIdentifier, "R")) {
+            if ((n = _number(carIdentifier, 1)) == NOTANUMBER)
+                return NOTINDEXED;
+            return n == 0 ? m_reference : m_relative.get(n);
+        }
+        if (_startsWith(carIdentifier, "PC")) {
+            if ((n = _number(carIdentifier, 2)) == NOTANUMBER || n < 0)
+                return NOTINDEXED;
+            return n == 0 ? m_paceCar : (n < m_positionsClass ? m_byPositionClass[n] : NOCAR);
+        }
+        if (_startsWith(carIdentifier, "P")) {
+            if ((n = _number(carIdentifier, 1)) == NOTANUMBER || n < 0)
+                return NOTINDEXED;
+            return n == 0 ? m_paceCar : _byPosition(n);
+        }
+        if (_startsWith(carIdentifier, "I")) {
+            if ((n = _number(carIdentifier, 1)) == NOTANUMBER || n < 0)
+                return NOTINDEXED;
+            return _entry(n) < 0 ? NOCAR : n;
+        }
+
+        return NOTINDEXED;
+    }
+
+    /**
+     * @return The number of cars added.
+     */
+    public int getCount() {
+        return m_count;
+    }
+
+    /** @return The id of the car that was added as this entry. */
+    int _getId(int entry)           { return m_id[entry]; }
+    /** @return The id of the leader, -1 if none. */
+    int _getLeader()                { return _byPosition(1); }
+    /** @return The id of the reference car, -1 if none. */
+    int _getReference()             { return m_reference; }
+    /** @return The id of the pace car, -1 if none. */
+    int _getPaceCar()               { return m_paceCar; }
+
+    /** @return The id of the leader of the car's class, -1 if none. */
+    int _getClassLeader(int id) {
+        int entry = _entry(id);
+        return entry < 0 ? NOCAR : _classLeader(m_class[entry]);
+    }
+
+    /** @return The id of the car one position ahead of the car, -1 if none. */
+    int _getAhead(int id) {
+        int entry = _entry(id);
+        return entry < 0 || m_position[entry] <= 1 ? NOCAR : _byPosition(m_position[entry] - 1);
+    }
+
+    /**
+     * Forgets the cars, called before the SIM adds them again.
+     */
+    void _clear() {
+        m_count     = 0;
+        m_loaded    = false;
+        m_me        = NOCAR;
+        m_paceCar   = NOCAR;
+        m_reference = NOCAR;
+    }
+
+    /**
+     * Builds the parts of the index that do not depend on the reference car.
+     * Until {@link #_setReference(int)} is called, the reference car is ME.
+     */
+    void _sort() {
+        int maxId = -1, maxPosition = 0;
+        for (int i = 0; i < m_count; i++) {
+            maxId       = Math.max(maxId, m_id[i]);
+            maxPosition = Math.max(maxPosition, m_position[i]);
+        }
+
+        m_ids = maxId + 1;
+        m_entryById = _fill(m_entryById, m_ids, -1);
+        for (int i = 0; i < m_count; i++)
+            m_entryById[m_id[i]] = i;
+
+        m_positions = maxPosition + 1;
+        m_byPosition = _fill(m_byPosition, m_positions, NOCAR);
+        m_classCount = 0;
+        for (int i = 0; i < m_count; i++) {
+            if (m_position[i] > 0)
+                m_byPosition[m_position[i]] = m_id[i];
+            if (m_positionClass[i] == 1)
+                _setClassLeader(m_class[i], m_id[i]);
+        }
+        if (m_paceCar >= 0)
+            m_byPosition[0] = m_paceCar;
+
+        //the cars are added in the same order every time, so if the count did not change,
+        //start with the order from last time and the insertion sort only has to move the cars that crossed the line.
+        if (m_orderCount != m_count) {
+            if (m_order.length < m_count)
+                m_order = new int[m_id.length];
+            for (int i = 0; i < m_count; i++)
+                m_order[i] = i;
+            m_orderCount = m_count;
+        }
+        for (int i = 1; i < m_count; i++) {
+            int entry = m_order[i];
+            double pct = m_lapPercent[entry];
+            int j = i - 1;
+            for (; j >= 0 && m_lapPercent[m_order[j]] > pct; j--)
+                m_order[j + 1] = m_order[j];
+            m_order[j + 1] = entry;
+        }
+
+        m_loaded = m_count > 0;
+        _setReference(m_me);
+    }
+
+    /**
+     * Builds the parts of the index that are relative to the reference car.
+     * @param id The id of the reference car.
+     */
+    void _setReference(int id) {
+        m_reference = id;
+        int entry = _entry(id);
+        int referenceClass    = entry < 0 ? Integer.MIN_VALUE : m_class[entry];
+        int referenceLocation = entry < 0 ? 0 : m_location[entry];
+
+        int maxPositionClass = 0;
+        for (int i = 0; i < m_count; i++)
+            if (m_class[i] == referenceClass)
+                maxPositionClass = Math.max(maxPositionClass, m_positionClass[i]);
+        m_positionsClass = maxPositionClass + 1;
+        m_byPositionClass = _fill(m_byPositionClass, m_positionsClass, NOCAR);
+        for (int i = 0; i < m_count; i++)
+            if (m_class[i] == referenceClass && m_positionClass[i] > 0)
+                m_byPositionClass[m_positionClass[i]] = m_id[i];
+        if (m_paceCar >= 0)
+            m_byPositionClass[0] = m_paceCar;
+
+        m_relative.clear();
+        m_relativeClass.clear();
+        m_relativeLocation.clear();
+        m_relativeLocationClass.clear();
+        for (int i = 0; i < m_count; i++) {
+            int e = m_order[i];
+            if ((m_location[e] & LOCATION_INWORLD) == 0 || m_id[e] == m_paceCar)
+                continue;
+            boolean isReference = m_id[e] == id;
+            boolean sameClass    = m_class[e] == referenceClass;
+            boolean sameLocation = (m_location[e] & LOCATION_PITROAD) == (referenceLocation & LOCATION_PITROAD);
+            m_relative.add(m_id[e], isReference);
+            if (sameClass)
+                m_relativeClass.add(m_id[e], isReference);
+            if (sameLocation)
+                m_relativeLocation.add(m_id[e], isReference);
+            if (sameClass && sameLocation)
+                m_relativeLocationClass.add(m_id[e], isReference);
+        }
+    }
+
+    //RP+1 is the car one position ahead of the reference car, which is the lower position number
+    private int _relativePosition(int offset, boolean inClass) {
+        int entry = _entry(m_reference);
+        if (entry < 0)
+            return NOCAR;
+        if (inClass) {
+            int position = m_positionClass[entry] - offset;
+            return m_positionClass[entry] > 0 && position > 0 && position < m_positionsClass ? m_byPositionClass[position] : NOCAR;
+        }
+        int position = m_position[entry] - offset;
+        return m_position[entry] > 0 ? _byPosition(position) : NOCAR;
+    }
+
+    private int _byPosition(int position) {
+        return position > 0 && position < m_positions ? m_byPosition[position] : NOCAR;
+    }
+
+    private int _entry(int id) {
+        return id >= 0 && id < m_ids ? m_entryById[id] : -1;
+    }
+
+    private int _classLeader(int classId) {
+        for (int i = 0; i < m_classCount; i++)
+            if (m_classIds[i] == classId)
+                return m_classLeaders[i];
+        return NOCAR;
+    }
+
+    private void _setClassLeader(int classId, int id) {
+        for (int i = 0; i < m_classCount; i++)
+            if (m_classIds[i] == classId)
+                return;
+        if (m_classCount == m_classIds.length) {
+            m_classIds     = Arrays.copyOf(m_classIds, m_classCount * 2);
+            m_classLeaders = Arrays.copyOf(m_classLeaders, m_classCount * 2);
+        }
+        m_classIds[m_classCount]     = classId;
+        m_classLeaders[m_classCount] = id;
+        m_classCount++;
+    }
+
+    private static int[] _fill(int[] array, int size, int value) {
+        if (array.length < size)
+            array = new int[Math.max(size, array.length * 2)];
+        Arrays.fill(array, 0, size, value);
+        return array;
+    }
+
+    private static boolean _startsWith(String s, String prefix) {
+        return s.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    //parses a signed number starting at "from" without creating any objects, returns NOTANUMBER if it isn't one
+    private static int _number(String s, int from) {
+        int n = s.length();
+        if (from >= n)
+            return NOTANUMBER;
+        boolean negative = false;
+        char c = s.charAt(from);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++from >= n)
+                return NOTANUMBER;
+        }
+        int value = 0;
+        for (int i = from; i < n; i++) {
+            c = s.charAt(i);
+            if (c < '0' || c > '9' || value > 100000)
+                return NOTANUMBER;
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
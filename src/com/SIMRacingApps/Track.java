@@ -95,6 +95,18 @@ public class Track {
     private long m_lastLoadTime = 0L;
     private Locale m_us = new Locale("us"); //used to override formatting for key lookups
 
+    //the sectors as primitives, built when the InfoVersion changes and reset when the track or the session changes, see _getSector()
+    private static final int SECTOR_SLOTS = 1000;                   //one for every 0.1% of the lap
+    private final short[] m_sectorLookup = new short[SECTOR_SLOTS]; //the sector of each slot, 0 for none, -1 if a boundary is in it
+    private double[] m_sectorBounds = new double[0];
+    private boolean m_sectorsLoaded = false;
+    private Object m_sectorsVersion = null;                         //the InfoVersion they were built for
+    private long m_sectorsTick = -1L;                               //the SIM tick the InfoVersion was last read on
+
+    //the length in meters, read when it loads and reset when the track or the session changes, see _getLengthMeters()
+    private volatile double m_lengthMeters = 0.0;
+    private volatile Object m_lengthVersion = null;                 //the InfoVersion it was last looked for, until it loads
+
 //    protected String m_distanceUOM, m_tempUOM, m_speedUOM;
 
     /**
@@ -122,6 +134,8 @@ public class Track {
             return false;
 
         m_name = "unknown";
+        _resetSectors();
+        _resetLength();
 //        m_distanceUOM = "UOM";
 //        m_tempUOM = "UOM";
 //        m_speedUOM = "UOM";
@@ -799,6 +813,34 @@ public class Track {
         }
         return getLength(distanceUOM); 
     }
+
+    /**
+     * Returns the length of the track in meters, for the calculations that need it on every tick.
+     * It is read from {@link #getLength()} when it loads and kept until the track or the session changes, see {@link #_resetLength()}.
+     * Until it loads, it is looked for again when the {@link com.SIMRacingApps.Session#getInfoVersion() InfoVersion} changes.
+     * 
+     * @return The length in meters, zero if it has not loaded.
+     */
+    public double _getLengthMeters() {
+        double meters = m_lengthMeters;
+        if (meters > 0.0 || SIMPlugin == null)
+            return meters;
+        Object version = SIMPlugin.getSession().getInfoVersion().getValue();
+        if (version == null || version.equals(m_lengthVersion))
+            return meters;
+        m_lengthVersion = version;
+        m_lengthMeters  = meters = getLength().convertUOM("mile").getDouble() * LapTimeProjections.METERS_PER_MILE;
+        return meters;
+    }
+
+    /**
+     * Forgets the length, so it is read again from {@link #getLength()} the next time it is used.
+     * Called when a new track is loaded and by {@link com.SIMRacingApps.Session} when a new session starts.
+     */
+    public void _resetLength() {
+        m_lengthVersion = null;
+        m_lengthMeters  = 0.0;
+    }
     
     /**
      * Returns the Longitude of the requested position based on percentage traveled from the start/finish line.
@@ -1066,6 +1108,111 @@ public class Track {
     public    Data    getSectors(String sectorType) { return getSectors(sectorType,sectorType.equalsIgnoreCase(SectorType.PERCENTAGE) ? "%" : "DEG"); }
     public    Data    getSectors()                  { return getSectors(SectorType.PERCENTAGE); }
 
+    /**
+     * Returns the sector a percentage of the lap is in, from the sectors returned by {@link #getSectors(String)}.
+     * <p>
+     * The sectors are read into a table with the sector for every 0.1% of the lap, so most lookups are an index into it.
+     * The table is built again every time the {@link com.SIMRacingApps.Session#getInfoVersion() InfoVersion} changes,
+     * which is read at most once per tick, and when the track or the session changes, see {@link #_resetSectors()}.
+     * If the SIM does not have an InfoVersion, it changes every tick, so the table is only built until the sectors load.
+     * Only the slots with a sector boundary inside them compare against the boundaries.
+     * 
+     * @param percentage The percentage of the lap completed.
+     * @return The sector number starting with 1, or zero(0) if the percentage is not in a sector.
+     */
+    public int _getSector(double percentage) {
+        synchronized (m_sectorLookup) {
+            _refreshSectors();
+            int slot = (int)Math.floor(percentage * 10.0);
+            if (slot >= 0 && slot < SECTOR_SLOTS && m_sectorLookup[slot] >= 0)
+                return m_sectorLookup[slot];
+            return __findSector(m_sectorBounds, percentage);
+        }
+    }
+
+    /**
+     * @return The number of sectors returned by {@link #getSectors(String)}, from the table.
+     */
+    public int _getSectorCount() {
+        synchronized (m_sectorLookup) {
+            _refreshSectors();
+            return m_sectorBounds.length / 2;
+        }
+    }
+
+    /**
+     * @param sector The sector number starting with 1.
+     * @return The percentage of the lap where the sector starts, NaN if there is no such sector.
+     */
+    public double _getSectorStart(int sector) {
+        synchronized (m_sectorLookup) {
+            _refreshSectors();
+            return sector > 0 && (sector * 2) <= m_sectorBounds.length ? m_sectorBounds[(sector - 1) * 2] : Double.NaN;
+        }
+    }
+
+    /**
+     * Forgets the sector table, so it is built again from {@link #getSectors(String)} the next time it is used.
+     * Called when a new track is loaded and by {@link com.SIMRacingApps.Session} when a new session starts.
+     */
+    public void _resetSectors() {
+        synchronized (m_sectorLookup) {
+            m_sectorsLoaded  = false;
+            m_sectorsVersion = null;
+            m_sectorsTick    = -1L;
+        }
+    }
+
+    //builds the table if the InfoVersion changed since it was built. The caller holds the lock.
+    private void _refreshSectors() {
+        if (SIMPlugin == null)
+            return;
+        //if the run loop is not ticking, the InfoVersion is read every time
+        long tick = SIMPlugin._getTickCount();
+        if (tick != 0L && tick == m_sectorsTick)
+            return;
+        m_sectorsTick = tick;
+        
+        Data info = SIMPlugin.getSession().getInfoVersion();
+        if (m_sectorsLoaded && !info.getState().equals(Data.State.NORMAL))
+            return;
+        Object version = info.getValue();
+        if (version == null || version.equals(m_sectorsVersion))
+            return;
+        m_sectorsVersion = version;
+
+        Data d = getSectors(SectorType.PERCENTAGE);
+        m_sectorsLoaded = d.getState().equals(Data.State.NORMAL);
+        ArrayList<Double> sectors = d.getDoubleArray();
+
+        double[] bounds = new double[sectors.size()];
+        for (int i = 0; i < bounds.length; i++)
+            bounds[i] = sectors.get(i);
+        m_sectorBounds = bounds;
+
+        for (int slot = 0; slot < SECTOR_SLOTS; slot++) {
+            double from = slot / 10.0, to = (slot + 1) / 10.0;
+            short sector = (short)__findSector(bounds, from);
+            //allow for the rounding of the slot's edges
+            for (double bound : bounds) {
+                if (bound > from - 1.0e-9 && bound < to + 1.0e-9) {
+                    sector = -1;
+                    break;
+                }
+            }
+            m_sectorLookup[slot] = sector;
+        }
+    }
+
+    //the starting points are inclusive and the ending points are exclusive, the first match wins
+    private static int __findSector(double[] bounds, double percentage) {
+        for (int sector = 0; (sector * 2) < bounds.length - 1; sector++) {
+            if (percentage >= bounds[sector * 2] && percentage < bounds[(sector * 2) + 1])
+                return sector + 1;
+        }
+        return 0;
+    }
+
     /**
      * Returns the current temperature of the track.
      * The location of this temperature is SIM specific. 
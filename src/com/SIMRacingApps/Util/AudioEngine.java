@@ -0,0 +1,387 @@
+package com.SIMRacingApps.Util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+import com.SIMRacingApps.Server;
+
+/**
+ * This class plays the {@link Sound} objects on a sound device.
+ * <p>
+ * There is one engine per device. It opens one SourceDataLine when it is created and keeps it open,
+ * so nothing is opened or resolved when a sound is played.
+ * A single thread mixes all the sounds playing on the device into that line,
+ * applying the volume, balance and pitch of each sound as it goes, so they can be changed while it plays.
+ * <p>
+ * The number of sounds that can play at the same time is fixed by "sound-voices", default 8.
+ * If all of them are busy, the one that started first is stopped to make room.
+ * The size of the line's buffer is set by "sound-buffer", in milliseconds, default 40.
+ * A smaller buffer lowers the latency, but the sound may break up if the mixing thread does not keep up.
+ * <p>
+ * The time from {@link Sound#play()} until its first sample comes out of the device is recorded in the metric
+ * sra_sound_latency_seconds for the device. If there is no sound device, or "sound-headless = Y",
+ * a headless line is used that consumes the samples at the same rate a device would.
+ * That allows the latency to be measured without a sound card.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class AudioEngine implements Runnable {
+
+    /** The sample rate all sounds are converted to when they are loaded. */
+    public static final float RATE          = 44100.0f;
+    /** The format of the line, 16 bit signed stereo. All sounds are converted to this when loaded. */
+    public static final AudioFormat FORMAT  = new AudioFormat(RATE, 16, 2, true, false);
+    private static final int FRAMESIZE      = 4;
+    private static final int CHUNK          = 220;      //frames mixed at a time, 5ms
+
+    private static final Map<String,AudioEngine> m_engines = new HashMap<String,AudioEngine>();
+
+    /**
+     * One play of a sound.
+     */
+    static class Voice {
+        final Sound sound;
+        final short[] samples;
+        long triggerNanos;
+        double position = 0.0;
+        int loops;
+        volatile boolean stopped = false;
+        volatile boolean active  = true;
+
+        Voice(Sound sound, short[] samples, int loops, long triggerNanos) {
+            this.sound        = sound;
+            this.samples      = samples;
+            this.loops        = loops;
+            this.triggerNanos = triggerNanos;
+        }
+    }
+
+    private final String m_name;
+    private final SourceDataLine m_line;
+    private final Voice[] m_voices;
+    private int m_count = 0;
+    private final Histogram m_latency;
+    private final AtomicLong m_stolen;
+
+    private AudioEngine(String name, SourceDataLine line, int voices) {
+        m_name    = name;
+        m_line    = line;
+        m_voices  = new Voice[Math.max(1, voices)];
+        m_latency = Metrics.histogram("sra_sound_latency_seconds", "Time from a sound being played until it comes out of the device", "device", name);
+        m_stolen  = Metrics.counter("sra_sound_voices_stolen_total", "Sounds stopped early to make room for another", "device", name);
+
+        Thread t = new Thread(this, "AudioEngine(" + name + ")");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Returns the engine for a device, opening the device the first time it is asked for.
+     * @param mixer The device. null for the system default.
+     * @return The engine.
+     */
+    static AudioEngine get(Mixer mixer) {
+        String name = mixer == null ? "default" : mixer.getMixerInfo().getName();
+        synchronized (m_engines) {
+            AudioEngine engine = m_engines.get(name);
+            if (engine == null) {
+                int milliseconds = Server.getArg("sound-buffer", 40);
+                int bufferSize   = Math.max(2 * CHUNK, (int)(RATE * milliseconds / 1000.0f)) * FRAMESIZE;
+                SourceDataLine line = null;
+
+                if (!Server.getArg("sound-headless", false)) {
+                    try {
+                        DataLine.Info info = new DataLine.Info(SourceDataLine.class, FORMAT);
+                        line = (SourceDataLine) (mixer == null ? AudioSystem.getLine(info) : mixer.getLine(info));
+                        line.open(FORMAT, bufferSize);
+                        line.start();
+                    }
+                    catch (Exception e) {
+                        Server.logger().warning(String.format("AudioEngine(%s): cannot open the device, using a headless line: %s", name, e.getMessage()));
+                        line = null;
+                    }
+                }
+
+                if (line == null) {
+                    HeadlessLine headless = new HeadlessLine();
+                    headless.open(FORMAT, bufferSize);
+                    headless.start();
+                    line = headless;
+                }
+
+                Server.logger().info(String.format("AudioEngine(%s): opened %s, buffer = %.0f ms",
+                        name, line.getClass().getSimpleName(), (line.getBufferSize() / FRAMESIZE) * 1000.0 / RATE));
+
+                engine = new AudioEngine(name, line, Server.getArg("sound-voices", 8));
+                m_engines.put(name, engine);
+            }
+            return engine;
+        }
+    }
+
+    /** @return The name of the device. */
+    public String getName() { return m_name; }
+    /** @return The latency from play() until the sound comes out of the device. */
+    public Histogram getLatency() { return m_latency; }
+
+    /**
+     * Starts playing a sound. Returns immediately.
+     * @param sound The sound, which gives the volume, balance and pitch while it plays.
+     * @param samples The samples of the sound, in {@link #FORMAT}, interleaved left and right.
+     * @param loops The number of times to start over when the end is reached, -1 forever.
+     * @return The voice, to be passed to {@link #stop(Voice)} and {@link #drain(Voice)}.
+     */
+    Voice play(Sound sound, short[] samples, int loops) {
+        Voice voice = new Voice(sound, samples, loops, System.nanoTime());
+        synchronized (this) {
+            if (m_count == m_voices.length) {
+                //steal the oldest
+                m_voices[0].stopped = true;
+                m_voices[0].active  = false;
+                System.arraycopy(m_voices, 1, m_voices, 0, m_count - 1);
+                m_voices[--m_count] = null;
+                m_stolen.incrementAndGet();
+            }
+            m_voices[m_count++] = voice;
+            notifyAll();
+        }
+        return voice;
+    }
+
+    /**
+     * Stops a voice. Returns immediately.
+     * @param voice The voice.
+     */
+    void stop(Voice voice) {
+        if (voice != null)
+            voice.stopped = true;
+    }
+
+    /**
+     * Waits for a voice to finish.
+     * @param voice The voice.
+     */
+    void drain(Voice voice) {
+        if (voice == null)
+            return;
+        synchronized (this) {
+            while (voice.active) {
+                try {
+                    wait(100L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        float[] mix   = new float[CHUNK * 2];
+        byte[] out    = new byte[CHUNK * FRAMESIZE];
+        Voice[] voices = new Voice[m_voices.length];
+
+        while (true) {
+            int count;
+            synchronized (this) {
+                while (m_count == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                count = m_count;
+                System.arraycopy(m_voices, 0, voices, 0, count);
+            }
+
+            try {
+                //when the first frame of this chunk will come out of the device
+                long queued = (m_line.getBufferSize() - m_line.available()) / FRAMESIZE;
+                long output = System.nanoTime() + (long)(queued * 1000000000.0 / RATE);
+
+                Arrays.fill(mix, 0.0f);
+                boolean finished = false;
+                for (int i = 0; i < count; i++) {
+                    Voice voice = voices[i];
+                    if (!voice.stopped) {
+                        if (voice.triggerNanos != 0L) {
+                            m_latency.record(output - voice.triggerNanos);
+                            voice.triggerNanos = 0L;
+                        }
+                        if (!_mix(voice, mix))
+                            voice.stopped = true;
+                    }
+                    if (voice.stopped)
+                        finished = true;
+                    voices[i] = null;
+                }
+
+                if (finished) {
+                    synchronized (this) {
+                        int j = 0;
+                        for (int i = 0; i < m_count; i++) {
+                            if (m_voices[i].stopped)
+                                m_voices[i].active = false;
+                            else
+                                m_voices[j++] = m_voices[i];
+                        }
+                        Arrays.fill(m_voices, j, m_count, null);
+                        m_count = j;
+                        notifyAll();
+                    }
+                }
+
+                for (int i = 0, b = 0; i < mix.length; i++, b += 2) {
+                    int sample = (int)mix[i];
+                    if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+                    if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+                    out[b]     = (byte)sample;
+                    out[b + 1] = (byte)(sample >> 8);
+                }
+
+                m_line.write(out, 0, out.length);
+            }
+            catch (Exception e) {
+                Server.logStackTrace(Level.SEVERE, String.format("AudioEngine(%s)", m_name), e);
+            }
+        }
+    }
+
+    /**
+     * Adds the next chunk of a voice to the mix.
+     * @return false if the voice has reached the end.
+     */
+    private static boolean _mix(Voice voice, float[] mix) {
+        short[] s   = voice.samples;
+        int frames  = s.length / 2;
+        if (frames == 0)
+            return false;
+
+        float gain  = voice.sound._getGain();
+        float pan   = voice.sound._getPan();
+        double step = voice.sound._getPitch();
+        float left  = gain * Math.min(1.0f, 2.0f * (1.0f - pan));
+        float right = gain * Math.min(1.0f, 2.0f * pan);
+        double pos  = voice.position;
+
+        for (int i = 0; i < mix.length; i += 2) {
+            if (pos >= frames) {
+                if (voice.loops == 0) {
+                    voice.position = pos;
+                    return false;
+                }
+                if (voice.loops > 0)
+                    voice.loops--;
+                pos -= frames;
+            }
+
+            int index   = (int)pos;
+            int next    = index + 1 < frames ? index + 1 : (voice.loops != 0 ? 0 : index);
+            float frac  = (float)(pos - index);
+            float l     = s[index * 2]     + (s[next * 2]     - s[index * 2])     * frac;
+            float r     = s[index * 2 + 1] + (s[next * 2 + 1] - s[index * 2 + 1]) * frac;
+
+            mix[i]     += l * left;
+            mix[i + 1] += r * right;
+            pos        += step;
+        }
+        voice.position = pos;
+        return true;
+    }
+
+    /**
+     * A line that does not make any sound. It consumes what is written at the rate of the format,
+     * blocking when the buffer is full just like a device would.
+     */
+    static class HeadlessLine implements SourceDataLine {
+        private static final Line.Info INFO = new Line.Info(SourceDataLine.class);
+
+        private AudioFormat m_format = FORMAT;
+        private int m_bufferFrames   = 0;
+        private long m_written       = 0L;
+        private double m_played      = 0.0;
+        private long m_clock         = 0L;
+        private boolean m_open       = false;
+        private boolean m_running    = false;
+
+        //advances the play head to now, it never gets ahead of what was written
+        private synchronized long _queued() {
+            long now = System.nanoTime();
+            if (m_running)
+                m_played = Math.min((double)m_written, m_played + (now - m_clock) * (double)m_format.getFrameRate() / 1000000000.0);
+            m_clock = now;
+            return m_written - (long)m_played;
+        }
+
+        @Override
+        public void open(AudioFormat format, int bufferSize) {
+            m_format       = format;
+            m_bufferFrames = bufferSize / format.getFrameSize();
+            m_open         = true;
+        }
+
+        @Override public void open(AudioFormat format)  { open(format, (int)(format.getFrameRate() / 10) * format.getFrameSize()); }
+        @Override public void open()                    { open(FORMAT); }
+
+        @Override
+        public int write(byte[] b, int off, int len) {
+            int frames = len / m_format.getFrameSize();
+            while (frames > 0) {
+                int space = m_bufferFrames - (int)_queued();
+                if (space <= 0 || !m_running) {
+                    try {
+                        Thread.sleep(1L);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    continue;
+                }
+                int n = Math.min(space, frames);
+                synchronized (this) {
+                    m_written += n;
+                }
+                frames -= n;
+            }
+            return len - frames * m_format.getFrameSize();
+        }
+
+        @Override public int available()                { return (m_bufferFrames - (int)_queued()) * m_format.getFrameSize(); }
+        @Override public int getBufferSize()            { return m_bufferFrames * m_format.getFrameSize(); }
+        @Override public AudioFormat getFormat()        { return m_format; }
+        @Override public synchronized void start()      { _queued(); m_running = true; }
+        @Override public synchronized void stop()       { _queued(); m_running = false; }
+        @Override public boolean isRunning()            { return m_running; }
+        @Override public boolean isActive()             { return m_running && _queued() > 0; }
+        @Override public synchronized void flush()      { m_played = m_written; }
+        @Override public void drain()                   { while (m_running && _queued() > 0) try { Thread.sleep(1L); } catch (InterruptedException e) { return; } }
+        @Override public synchronized long getLongFramePosition()   { _queued(); return (long)m_played; }
+        @Override public int getFramePosition()         { return (int)getLongFramePosition(); }
+        @Override public long getMicrosecondPosition()  { return (long)(getLongFramePosition() * 1000000.0 / m_format.getFrameRate()); }
+        @Override public float getLevel()               { return AudioSystem.NOT_SPECIFIED; }
+        @Override public Line.Info getLineInfo()        { return INFO; }
+        @Override public void close()                   { m_open = false; m_running = false; }
+        @Override public boolean isOpen()               { return m_open; }
+        @Override public Control[] getControls()        { return new Control[0]; }
+        @Override public boolean isControlSupported(Control.Type control) { return false; }
+        @Override public Control getControl(Control.Type control) { throw new IllegalArgumentException("Unsupported control type: " + control); }
+        @Override public void addLineListener(LineListener listener) {}
+        @Override public void removeLineListener(LineListener listener) {}
+    }
+}
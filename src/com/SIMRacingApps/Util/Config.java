@@ -0,0 +1,333 @@
+package com.SIMRacingApps.Util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+import com.SIMRacingApps.Server;
+
+/**
+ * This class provides typed handles to the arguments returned by {@link com.SIMRacingApps.Server#getArg(String)}.
+ * <p>
+ * A handle is looked up once and kept. Reading it is a volatile read of a value that was parsed
+ * when the argument was last set, so it can be used in code that runs on every tick of the SIM.
+ * <pre>
+ *    private static final Config.Key LEVEL = Config.key("fuel-level-needed-buffer-laps");
+ *    ...
+ *    double laps = LEVEL.asDouble(1.0);
+ * </pre>
+ * Arguments whose names are built from values, like "datapublisher-post-interval-1643", use a {@link Pattern}.
+ * It formats the name only the first time it sees the values and caches the handle after that.
+ * <pre>
+ *    private static final Config.Pattern INTERVAL = Config.pattern("datapublisher-post-interval-%s");
+ *    ...
+ *    int interval = INTERVAL.key(leagueId).asInt(5000);
+ * </pre>
+ * A {@link Chain} tries a list of patterns and returns the first one that is set to a valid value.
+ * <p>
+ * Listeners can be added to a handle, or to all of them, to be notified when an argument changes.
+ * The handles are refreshed by the Server when the arguments are parsed and when {@link com.SIMRacingApps.Server#setArg(String, String)} is called.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Config {
+
+    /**
+     * Implement this to be notified when an argument changes.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that changed the argument.
+         * @param key The handle of the argument that changed.
+         */
+        public void changed(Key key);
+    }
+
+    private static final Map<String,Key> m_keys = new ConcurrentHashMap<String,Key>();
+    private static final List<Listener> m_listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * The values of an argument, parsed once, each time the argument changes.
+     */
+    private static class Value {
+        final String  string;
+        final Integer integer;
+        final Double  number;
+        final Boolean bool;
+
+        Value(String name) {
+            string = Server.getArg(name);
+            Integer i = null;
+            Double  d = null;
+            if (!string.isEmpty()) {
+                try { i = Integer.parseInt(string); } catch (NumberFormatException e) {}
+                try { d = Double.parseDouble(string); } catch (NumberFormatException e) {}
+            }
+            integer = i;
+            number  = d;
+            //let the server decide what is true and false, if it returns the default both ways, it's not a boolean
+            boolean b = Server.getArg(name, false);
+            bool = b == Server.getArg(name, true) ? b : null;
+        }
+    }
+
+    /**
+     * A handle to a single argument.
+     */
+    public static class Key {
+        private final String m_name;
+        private volatile Value m_value;
+        private final List<Listener> m_listeners = new CopyOnWriteArrayList<Listener>();
+
+        private Key(String name) {
+            m_name  = name;
+            m_value = new Value(name);
+        }
+
+        /** @return The name of the argument in lower case. */
+        public String  getName()                        { return m_name; }
+        /** @return true if the argument is set to a non-blank value. */
+        public boolean isSet()                          { return !m_value.string.isEmpty(); }
+        /**
+         * @param defaultValue The value to return if not set.
+         * @return The value of the argument as a string, trimmed.
+         */
+        public String  asString(String defaultValue)    { Value v = m_value; return v.string.isEmpty() ? defaultValue : v.string; }
+        /**
+         * @param defaultValue The value to return if not set or not an integer.
+         * @return The value of the argument as an integer.
+         */
+        public int     asInt(int defaultValue)          { Value v = m_value; return v.integer == null ? defaultValue : v.integer; }
+        /**
+         * @param defaultValue The value to return if not set or not a number.
+         * @return The value of the argument as a double.
+         */
+        public double  asDouble(double defaultValue)    { Value v = m_value; return v.number == null ? defaultValue : v.number; }
+        /**
+         * @param defaultValue The value to return if not set or not a boolean.
+         * @return The value of the argument as a boolean, see {@link com.SIMRacingApps.Server#getArg(String, boolean)}.
+         */
+        public boolean asBoolean(boolean defaultValue)  { Value v = m_value; return v.bool == null ? defaultValue : v.bool; }
+
+        /**
+         * Adds a listener that is called when this argument changes.
+         * @param listener The listener.
+         * @return A reference to this.
+         */
+        public Key addListener(Listener listener) {
+            m_listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Removes a listener added by {@link #addListener(Listener)}.
+         * @param listener The listener.
+         */
+        public void removeListener(Listener listener) {
+            m_listeners.remove(listener);
+        }
+
+        private void refresh() {
+            Value value = new Value(m_name);
+            if (value.string.equals(m_value.string))
+                return;
+            m_value = value;
+            for (Listener listener : m_listeners)
+                notify(listener);
+            for (Listener listener : Config.m_listeners)
+                notify(listener);
+        }
+
+        private void notify(Listener listener) {
+            try {
+                listener.changed(this);
+            }
+            catch (Exception e) {
+                Server.logStackTrace(Level.WARNING, "while notifying a listener that " + m_name + " changed", e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_name + " = " + m_value.string;
+        }
+    }
+
+    /**
+     * A handle to the arguments whose names are built by formatting values into a pattern.
+     * The handle for each unique set of values is cached.
+     */
+    public static class Pattern {
+        private final String m_format;
+        private final Map<Object,Key> m_keys = new ConcurrentHashMap<Object,Key>();
+
+        private Pattern(String format) {
+            m_format = format;
+        }
+
+        /**
+         * Returns the handle for the argument with a single value formatted into the pattern.
+         * This is the common case and does not allocate once the handle is cached.
+         * @param arg The value.
+         * @return The handle.
+         */
+        public Key key(Object arg) {
+            Key key = m_keys.get(arg);
+            if (key == null) {
+                key = Config.key(String.format(m_format, arg));
+                m_keys.put(arg, key);
+            }
+            return key;
+        }
+
+        /**
+         * Returns the handle for the argument with the values formatted into the pattern.
+         * @param args The values.
+         * @return The handle.
+         */
+        public Key key(Object... args) {
+            if (args.length == 1)
+                return key(args[0]);
+            List<Object> cacheKey = Arrays.asList(args);
+            Key key = m_keys.get(cacheKey);
+            if (key == null) {
+                key = Config.key(String.format(m_format, args));
+                m_keys.put(cacheKey, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * A list of patterns, from the most specific to the least specific,
+     * where the first one that is set to a valid value wins.
+     * The same values are passed to every pattern, so use positional specifiers, like "%2$s", to pick the ones each pattern needs.
+     */
+    public static class Chain {
+        private final Pattern[] m_patterns;
+
+        private Chain(String... formats) {
+            m_patterns = new Pattern[formats.length];
+            for (int i=0; i < formats.length; i++)
+                m_patterns[i] = pattern(formats[i]);
+        }
+
+        /**
+         * @param defaultValue The value to return if none are set to a number.
+         * @param args The values to format into the patterns.
+         * @return The value of the first argument that is set to a number.
+         */
+        public double asDouble(double defaultValue, Object... args) {
+            for (Pattern pattern : m_patterns) {
+                Value v = pattern.key(args).m_value;
+                if (v.number != null)
+                    return v.number;
+            }
+            return defaultValue;
+        }
+
+        /**
+         * @param defaultValue The value to return if none are set to an integer.
+         * @param args The values to format into the patterns.
+         * @return The value of the first argument that is set to an integer.
+         */
+        public int asInt(int defaultValue, Object... args) {
+            for (Pattern pattern : m_patterns) {
+                Value v = pattern.key(args).m_value;
+                if (v.integer != null)
+                    return v.integer;
+            }
+            return defaultValue;
+        }
+
+        /**
+         * @param defaultValue The value to return if none are set.
+         * @param args The values to format into the patterns.
+         * @return The value of the first argument that is set.
+         */
+        public String asString(String defaultValue, Object... args) {
+            for (Pattern pattern : m_patterns) {
+                Value v = pattern.key(args).m_value;
+                if (!v.string.isEmpty())
+                    return v.string;
+            }
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the handle to an argument. The same handle is returned for every call with the same name.
+     * @param name The name of the argument. It is not case sensitive.
+     * @return The handle.
+     */
+    public static Key key(String name) {
+        String lower = name.toLowerCase();
+        Key key = m_keys.get(lower);
+        if (key == null) {
+            synchronized (m_keys) {
+                key = m_keys.get(lower);
+                if (key == null) {
+                    key = new Key(lower);
+                    m_keys.put(lower, key);
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns a pattern for arguments whose names are built from values.
+     * @param format The format, as used by String.format(), for the name.
+     * @return The pattern.
+     */
+    public static Pattern pattern(String format) {
+        return new Pattern(format);
+    }
+
+    /**
+     * Returns a chain of patterns, where the first argument set to a valid value wins.
+     * @param formats The formats, from the most specific to the least specific.
+     * @return The chain.
+     */
+    public static Chain chain(String... formats) {
+        return new Chain(formats);
+    }
+
+    /**
+     * Adds a listener that is called when any argument, that has a handle, changes.
+     * @param listener The listener.
+     */
+    public static void addListener(Listener listener) {
+        m_listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by {@link #addListener(Listener)}.
+     * @param listener The listener.
+     */
+    public static void removeListener(Listener listener) {
+        m_listeners.remove(listener);
+    }
+
+    /**
+     * Called by the Server when an argument changes, so the handles can be refreshed.
+     * @param name The name of the argument, or null if all of them may have changed.
+     */
+    public static void _changed(String name) {
+        if (name == null) {
+            for (Key key : m_keys.values())
+                key.refresh();
+        }
+        else {
+            Key key = m_keys.get(name.toLowerCase());
+            if (key != null)
+                key.refresh();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.SIMRacingApps.Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram that can be recorded to from any thread without blocking.
+ * <p>
+ * It uses the same idea as HdrHistogram, log-linear buckets.
+ * Each power of 2 is split into 32 linear sub-buckets, so any value is within about 3% of where it was recorded.
+ * The whole range of a long is covered in under 2000 buckets, so it is fixed memory and never resizes.
+ * <p>
+ * Recording is a couple of atomic increments.
+ * Reading the percentiles walks the buckets, so do that when reporting, not on a hot path.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Histogram {
+
+    private static final int SUBBITS    = 5;
+    private static final int SUBCOUNT   = 1 << SUBBITS;
+    private static final int BUCKETS    = SUBCOUNT + (63 - SUBBITS) * SUBCOUNT;
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_sum   = new AtomicLong();
+    private final AtomicLong m_max   = new AtomicLong();
+
+    private static int index(long value) {
+        if (value < SUBCOUNT)
+            return value < 0 ? 0 : (int)value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub       = (int)(value >>> (magnitude - SUBBITS)) & (SUBCOUNT - 1);
+        return SUBCOUNT + (magnitude - SUBBITS) * SUBCOUNT + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUBCOUNT)
+            return index;
+        int group = (index - SUBCOUNT) / SUBCOUNT;
+        int sub   = (index - SUBCOUNT) % SUBCOUNT;
+        return ((long)(SUBCOUNT + sub)) << group;
+    }
+
+    private static long width(int index) {
+        if (index < SUBCOUNT)
+            return 1L;
+        return 1L << ((index - SUBCOUNT) / SUBCOUNT);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0L)
+            value = 0L;
+        m_counts.incrementAndGet(index(value));
+        m_count.incrementAndGet();
+        m_sum.addAndGet(value);
+
+        long max;
+        while (value > (max = m_max.get())) {
+            if (m_max.compareAndSet(max, value))
+                break;
+        }
+    }
+
+    /**
+     * Records the time that has elapsed since the start time.
+     * @param startNanos The starting time as returned by System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() { return m_count.get(); }
+    public long getSum()   { return m_sum.get(); }
+    public long getMax()   { return m_max.get(); }
+    public double getMean() {
+        long count = m_count.get();
+        return count > 0 ? (double)m_sum.get() / count : 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     * @param percentile A number between 0.0 and 1.0, for example, 0.99.
+     * @return The value, accurate to the resolution of the bucket it falls in.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0L;
+        for (int i=0; i < BUCKETS; i++)
+            total += m_counts.get(i);
+        if (total == 0L)
+            return 0L;
+
+        long target = Math.max(1L, (long)Math.ceil(total * percentile));
+        long seen = 0L;
+        for (int i=0; i < BUCKETS; i++) {
+            seen += m_counts.get(i);
+            if (seen >= target)
+                return Math.min(lowerBound(i) + width(i) / 2L, m_max.get());
+        }
+        return m_max.get();
+    }
+}
@@ -0,0 +1,72 @@
+package com.SIMRacingApps.Util;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.SIMRacingApps.Server;
+
+/**
+ * This class registers the server's MBeans with the platform MBean Server,
+ * so the data pipeline can be watched and tuned, while it is running, from JConsole or VisualVM.
+ * <p>
+ * All MBeans are registered under the "com.SIMRacingApps" domain as "com.SIMRacingApps:type=(type),name=(name)".
+ * If an MBean with the same name is already registered, it is replaced.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class JMX {
+
+    public static final String DOMAIN = "com.SIMRacingApps";
+
+    private static ObjectName objectName(String type, String name) throws Exception {
+        String s = DOMAIN + ":type=" + type;
+        if (name != null && !name.isEmpty())
+            s += ",name=" + (name.matches("[A-Za-z0-9._-]*") ? name : ObjectName.quote(name));
+        return new ObjectName(s);
+    }
+
+    /**
+     * Registers an MBean.
+     * @param type The type, for example "SIMPluginCallback".
+     * @param name The name, for example "Sounds.Shift". Can be null if there is only one of this type.
+     * @param implementation The object that implements the interface.
+     * @param mbeanInterface The interface that defines the attributes and operations.
+     * @param <T> The interface type.
+     */
+    public static <T> void register(String type, String name, T implementation, Class<T> mbeanInterface) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(new StandardMBean(implementation, mbeanInterface), objectName);
+        }
+        catch (Exception e) {
+            Server.logStackTrace(Level.WARNING, "while registering MBean " + type + "," + name, e);
+        }
+    }
+
+    /**
+     * Unregisters an MBean. Silently ignores it if it is not registered.
+     * @param type The type used to register it.
+     * @param name The name used to register it.
+     */
+    public static void unregister(String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        }
+        catch (Exception e) {
+            Server.logStackTrace(Level.WARNING, "while unregistering MBean " + type + "," + name, e);
+        }
+    }
+}
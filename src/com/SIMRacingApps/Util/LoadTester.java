@@ -0,0 +1,616 @@
+package com.SIMRacingApps.Util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+import com.SIMRacingApps.Server;
+import com.SIMRacingApps.servlets.DataService;
+import com.owlike.genson.Genson;
+import com.sun.management.OperatingSystemMXBean;
+
+/**
+ * This class is a command line tool that measures how many clients a single server can feed.
+ * It starts the same embedded Jetty server that {@link com.SIMRacingApps.Server#main(String[])} does,
+ * connects it to a SIM, then spins up simulated clients for each of the transports.
+ * <ul>
+ * <li>Data          = POST to "/SIMRacingApps/Data" to subscribe, then GET with the sessionid to poll.</li>
+ * <li>DataSocket    = Web Socket, sends the sessionid to poll.</li>
+ * <li>DataStreaming = Web Socket, sends "sessionid;interval" once and the server pushes.</li>
+ * <li>DataEvent     = HTTP Server Sent Events, the server pushes "data:" lines.</li>
+ * </ul>
+ * Every client subscribes to "Session/DataVersion" along with a realistic set of paths for an overlay.
+ * The staleness is the time the client received a DataVersion minus the time the SIM produced it.
+ * With the "Synthetic" SIM, the DataVersion is the wall clock time of the tick, so this is exact.
+ * With any other SIM, or a play file, it is measured from the first time any client saw that DataVersion.
+ * <p>
+ * When done, a JSON report is written to the "loadtest" folder in the user's path, so the results can be tracked across releases.
+ * <p>
+ * All of the Server's arguments are accepted, plus these options:
+ * <ul>
+ * <li>-sim {SIMName}, defaults to Synthetic.</li>
+ * <li>-play {playFile}, a recorded file to play back instead.</li>
+ * <li>-loadtest-port {port}, defaults to 8099.</li>
+ * <li>-loadtest-clients {n}, the number of clients per protocol, defaults to 4.</li>
+ * <li>-loadtest-protocols {list}, semicolon separated, defaults to Data;DataSocket;DataStreaming;DataEvent.</li>
+ * <li>-loadtest-interval {ms}, how often each client asks for data, defaults to 100.</li>
+ * <li>-loadtest-warmup {seconds}, time before measuring starts, defaults to 5.</li>
+ * <li>-loadtest-duration {seconds}, time to measure, defaults to 60.</li>
+ * <li>-loadtest-subscriptions {list}, semicolon separated paths to use instead of the defaults.</li>
+ * <li>-loadtest-report {filename}, where to write the report.</li>
+ * </ul>
+ * Example: java -cp SIMRacingApps.jar com.SIMRacingApps.Util.LoadTester -loadtest-clients 25 -loadtest-duration 120
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class LoadTester {
+
+    private static final String[] DEFAULT_SUBSCRIPTIONS = {
+        "Session/TimeElapsed",
+        "Session/TimeRemaining",
+        "Session/LapsToGo",
+        "Session/IsGreenFlag",
+        "Session/IsCautionFlag",
+        "Session/IsCheckeredFlag",
+        "Car/REFERENCE/Gauge/Speedometer/ValueCurrent",
+        "Car/REFERENCE/Gauge/Tachometer/ValueCurrent",
+        "Car/REFERENCE/Gauge/Gear/ValueCurrent",
+        "Car/REFERENCE/Gauge/Throttle/ValueCurrent",
+        "Car/REFERENCE/Gauge/Brake/ValueCurrent",
+        "Car/REFERENCE/Gauge/FuelLevel/ValueCurrent",
+        "Car/REFERENCE/FuelLaps/5",
+        "Car/REFERENCE/Lap/CompletedPercent",
+        "Car/REFERENCE/LapTime/Best",
+        "Car/REFERENCE/LapTimeDelta/Best",
+        "Car/REFERENCE/Position",
+        "Car/LEADER/DriverName",
+        "Car/P2/DriverName",
+        "Car/P3/DriverName",
+        "Car/R1/DriverName",
+        "Car/R-1/DriverName",
+        "Session/DiffCars/LEADER/REFERENCE",
+        "Session/DiffCars/R1/REFERENCE",
+        "Session/DiffCars/REFERENCE/R-1"
+    };
+
+    private static final String DATAVERSION = "Session/DataVersion";
+    private static final int MAXSTALENESS = 10000;  //milliseconds, anything larger goes in the last bucket
+
+    private static volatile boolean m_running   = true;
+    private static volatile boolean m_measuring = false;
+    private static final Genson m_genson = new Genson();
+    private static String m_baseURL = "";
+    private static List<String> m_subscriptions = new ArrayList<String>();
+    private static long m_interval = 100L;
+
+    //used to measure staleness when the DataVersion is not a time stamp
+    private static final Map<String,Long> m_firstSeen = new LinkedHashMap<String,Long>() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Long> eldest) {
+            return size() > 10000;
+        }
+    };
+
+    /**
+     * Holds the counters for each protocol.
+     * The staleness is kept as a histogram with 1 millisecond buckets.
+     */
+    private static class Stats {
+        final String name;
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes    = new AtomicLong();
+        final AtomicLong errors   = new AtomicLong();
+        final long[] staleness    = new long[MAXSTALENESS+1];
+        int clients = 0;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void recordMessage(String message) {
+            long received = System.currentTimeMillis();
+            if (!m_measuring)
+                return;
+
+            messages.incrementAndGet();
+            bytes.addAndGet(message.length());
+
+            String version = findDataVersion(message);
+            if (version != null) {
+                long produced = received;
+                try {
+                    long l = Long.parseLong(version);
+                    if (l > 1000000000000L)  //it's a time stamp, use it
+                        produced = l;
+                    else
+                        produced = firstSeen(version,received);
+                }
+                catch (NumberFormatException e) {
+                    produced = firstSeen(version,received);
+                }
+                int ms = (int)Math.max(0L, Math.min(MAXSTALENESS, received - produced));
+                synchronized (staleness) {
+                    staleness[ms]++;
+                }
+            }
+        }
+
+        void recordError() {
+            if (m_measuring)
+                errors.incrementAndGet();
+        }
+
+        Map<String,Object> report(double seconds) {
+            Map<String,Object> r = new LinkedHashMap<String,Object>();
+            r.put("Clients", clients);
+            r.put("Messages", messages.get());
+            r.put("MessagesPerSecond", Math.round(messages.get() / seconds * 10.0) / 10.0);
+            r.put("Bytes", bytes.get());
+            r.put("BytesPerSecond", Math.round(bytes.get() / seconds));
+            r.put("Errors", errors.get());
+
+            Map<String,Object> s = new LinkedHashMap<String,Object>();
+            synchronized (staleness) {
+                long count = 0, sum = 0, max = 0;
+                for (int i=0; i < staleness.length; i++) {
+                    count += staleness[i];
+                    sum   += staleness[i] * i;
+                    if (staleness[i] > 0)
+                        max = i;
+                }
+                s.put("Samples", count);
+                s.put("Mean", count > 0 ? Math.round((double)sum / count * 10.0) / 10.0 : 0.0);
+                s.put("P50", percentile(count,0.50));
+                s.put("P90", percentile(count,0.90));
+                s.put("P99", percentile(count,0.99));
+                s.put("Max", max);
+            }
+            r.put("StalenessMilliseconds", s);
+            return r;
+        }
+
+        private long percentile(long count, double percent) {
+            long target = (long)Math.ceil(count * percent);
+            long seen = 0;
+            for (int i=0; i < staleness.length; i++) {
+                seen += staleness[i];
+                if (seen > 0 && seen >= target)
+                    return i;
+            }
+            return 0;
+        }
+    }
+
+    private static long firstSeen(String version, long received) {
+        synchronized (m_firstSeen) {
+            Long first = m_firstSeen.get(version);
+            if (first == null) {
+                m_firstSeen.put(version, received);
+                return received;
+            }
+            return first;
+        }
+    }
+
+    /**
+     * Finds the value of "Session/DataVersion" in a JSON response without parsing all of it.
+     * The clients run in the same process as the server, so they should cost as little as possible.
+     * @param message The JSON response.
+     * @return The version as a String or null if not in this response.
+     */
+    private static String findDataVersion(String message) {
+        int i = message.indexOf("\"Name\": \"" + DATAVERSION + "\"");
+        if (i < 0)
+            return null;
+        i = message.indexOf("\"Value\": ", i);
+        if (i < 0)
+            return null;
+        i += 9;
+        int end = message.indexOf(',', i);
+        if (end < 0)
+            return null;
+        return message.substring(i, end).replace("\"", "").trim();
+    }
+
+    private static String subscriptionJSON() {
+        Map<String,Map<String,Map<String,Object>>> data = new LinkedHashMap<String,Map<String,Map<String,Object>>>();
+        int id = 0;
+        for (String path : m_subscriptions) {
+            Map<String,Object> value = new LinkedHashMap<String,Object>();
+            value.put("Name", path);
+            value.put("Format", "");
+            value.put("UOM", "");
+            value.put("Interval", m_interval);
+            Map<String,Map<String,Object>> name = new LinkedHashMap<String,Map<String,Object>>();
+            name.put(path, value);
+            data.put("id" + (id++), name);
+        }
+        return m_genson.serialize(data);
+    }
+
+    private static String readAll(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            sb.append(buffer, 0, n);
+        in.close();
+        return sb.toString();
+    }
+
+    /**
+     * Subscribes the sessionid to the data using the "/SIMRacingApps/Data" POST method.
+     * All of the protocols require this to be done first.
+     */
+    private static String subscribe(String sessionid) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(m_baseURL + "/SIMRacingApps/Data?sessionid=" + sessionid).openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        OutputStream os = conn.getOutputStream();
+        os.write(subscriptionJSON().getBytes("UTF-8"));
+        os.close();
+        return readAll(conn.getInputStream());
+    }
+
+    private abstract static class Client extends Thread {
+        protected final Stats m_stats;
+        protected final String m_sessionid;
+
+        Client(Stats stats, int n) {
+            super("LoadTester." + stats.name + "." + n);
+            setDaemon(true);
+            m_stats = stats;
+            m_sessionid = "LoadTester-" + stats.name + "-" + n;
+        }
+
+        @Override
+        public void run() {
+            try {
+                subscribe(m_sessionid);
+                runClient();
+            }
+            catch (Exception e) {
+                if (m_running) {
+                    m_stats.recordError();
+                    Server.logStackTrace(Level.WARNING, getName(), e);
+                }
+            }
+        }
+
+        protected abstract void runClient() throws Exception;
+        protected void close() {}
+    }
+
+    /** HTTP GET polling */
+    private static class DataClient extends Client {
+        DataClient(Stats stats, int n) { super(stats,n); }
+
+        @Override
+        protected void runClient() throws Exception {
+            URL url = new URL(m_baseURL + "/SIMRacingApps/Data?sessionid=" + m_sessionid);
+            while (m_running) {
+                try {
+                    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+                    m_stats.recordMessage(readAll(conn.getInputStream()));
+                }
+                catch (IOException e) {
+                    m_stats.recordError();
+                }
+                Thread.sleep(m_interval);
+            }
+        }
+    }
+
+    /** Web Socket where the client asks for each update */
+    private static class DataSocketClient extends Client {
+        private Session m_session = null;
+        DataSocketClient(Stats stats, int n) { super(stats,n); }
+
+        @Override
+        protected void runClient() throws Exception {
+            m_session = connect("/SIMRacingApps/DataSocket", m_stats);
+            while (m_running && m_session.isOpen()) {
+                m_session.getBasicRemote().sendText(m_sessionid);
+                Thread.sleep(m_interval);
+            }
+        }
+
+        @Override
+        protected void close() {
+            try { if (m_session != null) m_session.close(); } catch (IOException e) {}
+        }
+    }
+
+    /** Web Socket where the server pushes each update */
+    private static class DataStreamingClient extends Client {
+        private Session m_session = null;
+        DataStreamingClient(Stats stats, int n) { super(stats,n); }
+
+        @Override
+        protected void runClient() throws Exception {
+            m_session = connect("/SIMRacingApps/DataStreaming", m_stats);
+            m_session.getBasicRemote().sendText(m_sessionid + ";" + m_interval);
+        }
+
+        @Override
+        protected void close() {
+            try { if (m_session != null) m_session.close(); } catch (IOException e) {}
+        }
+    }
+
+    /** HTTP Server Sent Events */
+    private static class DataEventClient extends Client {
+        private HttpURLConnection m_conn = null;
+        DataEventClient(Stats stats, int n) { super(stats,n); }
+
+        @Override
+        protected void runClient() throws Exception {
+            m_conn = (HttpURLConnection) new URL(m_baseURL + "/SIMRacingApps/DataEvent?sessionid=" + m_sessionid + "&interval=" + m_interval).openConnection();
+            BufferedReader in = new BufferedReader(new InputStreamReader(m_conn.getInputStream(), "UTF-8"));
+            String line;
+            while (m_running && (line = in.readLine()) != null) {
+                if (line.startsWith("data: "))
+                    m_stats.recordMessage(line.substring(6));
+            }
+        }
+
+        @Override
+        protected void close() {
+            if (m_conn != null)
+                m_conn.disconnect();
+        }
+    }
+
+    private static WebSocketContainer m_container = null;
+
+    private static synchronized Session connect(String path, final Stats stats) throws Exception {
+        if (m_container == null)
+            m_container = ContainerProvider.getWebSocketContainer();
+
+        return m_container.connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+                    @Override
+                    public void onMessage(String message) {
+                        stats.recordMessage(message);
+                    }
+                });
+            }
+        }, ClientEndpointConfig.Builder.create().build(), new URI(m_baseURL.replace("http:", "ws:") + path));
+    }
+
+    private static Client createClient(Stats stats, int n) {
+        if (stats.name.equalsIgnoreCase("Data"))          return new DataClient(stats,n);
+        if (stats.name.equalsIgnoreCase("DataSocket"))    return new DataSocketClient(stats,n);
+        if (stats.name.equalsIgnoreCase("DataStreaming")) return new DataStreamingClient(stats,n);
+        if (stats.name.equalsIgnoreCase("DataEvent"))     return new DataEventClient(stats,n);
+        return null;
+    }
+
+    private static Map<String,Long> gcTotals() {
+        Map<String,Long> totals = new LinkedHashMap<String,Long>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(gc.getName() + ".Count", gc.getCollectionCount());
+            totals.put(gc.getName() + ".TimeMilliseconds", gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private static String getServerVersion() {
+        Properties version = new Properties();
+        try {
+            InputStream in = LoadTester.class.getClassLoader().getResourceAsStream("com/SIMRacingApps/version.properties");
+            if (in != null) {
+                version.load(in);
+                in.close();
+                return String.format("%s.%s Build-%s", version.get("major"), version.get("minor"), version.get("build"));
+            }
+        } catch (IOException e) {
+            Server.logStackTrace(Level.WARNING, "while reading version.properties", e);
+        }
+        return "Unknown";
+    }
+
+    public static void main(String[] args) {
+        //these defaults can be overridden by the arguments that follow them
+        String[] defaults = { "-sim", "Synthetic", "-teamspeak", "false", "-browser-autostart", "N", "-electron-autostart", "N" };
+        String[] allArgs = new String[defaults.length + args.length];
+        System.arraycopy(defaults, 0, allArgs, 0, defaults.length);
+        System.arraycopy(args, 0, allArgs, defaults.length, args.length);
+        Server.parseArgs(allArgs);
+
+        int port          = Server.getArg("loadtest-port", 8099);
+        int clients       = Server.getArg("loadtest-clients", 4);
+        int warmup        = Server.getArg("loadtest-warmup", 5);
+        int duration      = Server.getArg("loadtest-duration", 60);
+        String protocols  = Server.getArg("loadtest-protocols", "Data;DataSocket;DataStreaming;DataEvent");
+        m_interval        = Server.getArg("loadtest-interval", 100);
+        m_baseURL         = "http://localhost:" + port;
+
+        m_subscriptions.add(DATAVERSION);
+        String subscriptions = Server.getArg("loadtest-subscriptions", "");
+        if (subscriptions.isEmpty()) {
+            for (String path : DEFAULT_SUBSCRIPTIONS)
+                m_subscriptions.add(path);
+        }
+        else {
+            for (String path : subscriptions.split(";"))
+                if (!path.trim().isEmpty() && !path.trim().equals(DATAVERSION))
+                    m_subscriptions.add(path.trim());
+        }
+
+        if (!Server.getArg("play").isEmpty())
+            DataService.setPlay(Server.getArg("play"));
+        DataService.setSIMname(Server.getArg("sim"));
+
+        org.eclipse.jetty.server.Server server = null;
+        try {
+            server = Server.startServer(port);
+        }
+        catch (Exception e) {
+            Server.logStackTrace(Level.SEVERE, "while starting the server on port " + port, e);
+            System.exit(1);
+        }
+
+        Server.logger().info(String.format("LoadTester: %d clients per protocol(%s), interval %dms, %d subscriptions, warmup %ds, duration %ds",
+                clients, protocols, m_interval, m_subscriptions.size(), warmup, duration));
+
+        List<Stats> stats = new ArrayList<Stats>();
+        List<Client> allClients = new ArrayList<Client>();
+        for (String protocol : protocols.split(";")) {
+            if (protocol.trim().isEmpty())
+                continue;
+            Stats s = new Stats(protocol.trim());
+            for (int i=0; i < clients; i++) {
+                Client client = createClient(s,i);
+                if (client == null) {
+                    Server.logger().warning("LoadTester: Unknown protocol " + protocol);
+                    break;
+                }
+                s.clients++;
+                allClients.add(client);
+                client.start();
+            }
+            if (s.clients > 0)
+                stats.add(s);
+        }
+
+        OperatingSystemMXBean os = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
+
+        try {
+            Thread.sleep(warmup * 1000L);
+        } catch (InterruptedException e) {}
+
+        Map<String,Long> gcStart = gcTotals();
+        long start = System.currentTimeMillis();
+        double cpuSum = 0.0, cpuMax = 0.0;
+        int cpuSamples = 0;
+        long heapMax = 0L;
+        m_measuring = true;
+
+        while (System.currentTimeMillis() - start < duration * 1000L) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {}
+
+            double cpu = os.getProcessCpuLoad();
+            if (cpu >= 0.0) {
+                cpuSum += cpu;
+                cpuMax = Math.max(cpuMax, cpu);
+                cpuSamples++;
+            }
+            heapMax = Math.max(heapMax, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+
+        m_measuring = false;
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        Map<String,Long> gcEnd = gcTotals();
+
+        m_running = false;
+        for (Client client : allClients)
+            client.close();
+
+        //build the report
+        Map<String,Object> report = new LinkedHashMap<String,Object>();
+        Calendar c = new GregorianCalendar();
+        report.put("Date", String.format("%1$tY-%1$tm-%1$td %1$tH:%1$tM:%1$tS", c));
+        report.put("Version", getServerVersion());
+        report.put("Java", System.getProperty("java.version"));
+        report.put("Processors", Runtime.getRuntime().availableProcessors());
+        report.put("SIM", Server.getArg("sim"));
+        report.put("Play", Server.getArg("play"));
+        report.put("ClientsPerProtocol", clients);
+        report.put("IntervalMilliseconds", m_interval);
+        report.put("Subscriptions", m_subscriptions);
+        report.put("DurationSeconds", seconds);
+
+        Map<String,Object> protocolReport = new LinkedHashMap<String,Object>();
+        for (Stats s : stats)
+            protocolReport.put(s.name, s.report(seconds));
+        report.put("Protocols", protocolReport);
+
+        Map<String,Object> cpu = new LinkedHashMap<String,Object>();
+        cpu.put("ProcessAveragePercent", cpuSamples > 0 ? Math.round(cpuSum / cpuSamples * 1000.0) / 10.0 : -1.0);
+        cpu.put("ProcessMaxPercent", Math.round(cpuMax * 1000.0) / 10.0);
+        report.put("CPU", cpu);
+
+        Map<String,Object> gc = new LinkedHashMap<String,Object>();
+        for (Map.Entry<String,Long> entry : gcEnd.entrySet())
+            gc.put(entry.getKey(), entry.getValue() - (gcStart.containsKey(entry.getKey()) ? gcStart.get(entry.getKey()) : 0L));
+        report.put("GC", gc);
+        report.put("HeapUsedMaxBytes", heapMax);
+
+        String json = m_genson.serialize(report);
+
+        String filename = Server.getArg("loadtest-report", "");
+        if (filename.isEmpty()) {
+            filename = FindFile.getUserPath()[0] + "/loadtest/LoadTest_" + String.format("%1$tY-%1$tm-%1$td_%1$tH-%1$tM-%1$tS", c) + ".json";
+        }
+
+        try {
+            File file = new File(filename);
+            if (file.getParentFile() != null)
+                file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            out.write(json.getBytes("UTF-8"));
+            out.close();
+            Server.logger().info("LoadTester: Report written to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            Server.logStackTrace(Level.SEVERE, "while writing the report to " + filename, e);
+        }
+
+        //print a summary to the log
+        String summary = String.format("%n%-15s %7s %10s %10s %12s %7s %7s %7s %7s %7s", "Protocol","Clients","Msgs/s","KB/s","Samples","P50","P90","P99","Max","Errors");
+        for (Stats s : stats) {
+            Map<String,Object> r = s.report(seconds);
+            @SuppressWarnings("unchecked")
+            Map<String,Object> st = (Map<String,Object>)r.get("StalenessMilliseconds");
+            summary += String.format("%n%-15s %7d %10.1f %10.1f %12d %7d %7d %7d %7d %7d",
+                    s.name, s.clients, (Double)r.get("MessagesPerSecond"), ((Long)r.get("BytesPerSecond")) / 1024.0,
+                    (Long)st.get("Samples"), (Long)st.get("P50"), (Long)st.get("P90"), (Long)st.get("P99"), (Long)st.get("Max"),
+                    (Long)r.get("Errors"));
+        }
+        summary += String.format("%nCPU average %s%%, max %s%%, GC %s", cpu.get("ProcessAveragePercent"), cpu.get("ProcessMaxPercent"), gc.toString());
+        Server.logger().info("LoadTester: Results" + summary);
+
+        try {
+            server.stop();
+        } catch (Exception e) {
+            Server.logStackTrace(Level.WARNING, "while stopping the server", e);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,293 @@
+package com.SIMRacingApps.Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.owlike.genson.Genson;
+
+/**
+ * This class is the registry for the server's always on metrics.
+ * It keeps histograms, counters and gauges by family name, with an optional label,
+ * and can render all of them as JSON or in the Prometheus text format.
+ * <p>
+ * The names follow the Prometheus conventions. A histogram whose family ends in "_seconds" is recorded
+ * in nanoseconds and reported in seconds. Counters end in "_total".
+ * <p>
+ * Looking up a metric is 2 hash lookups with no allocation,
+ * but hot paths should still get the metric once and keep a reference to it.
+ * <pre>
+ *    private final Histogram m_time = Metrics.histogram("sra_my_seconds", "Time spent doing it", "callback", name);
+ *    ...
+ *    long start = System.nanoTime();
+ *    doIt();
+ *    m_time.recordSince(start);
+ * </pre>
+ * The metrics are available at {@link com.SIMRacingApps.servlets.Data /SIMRacingApps/Data/Metrics} as JSON
+ * and at /SIMRacingApps/Data/Metrics/Prometheus as text.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Metrics {
+
+    /**
+     * Implement this to report a value that is read when the metrics are rendered.
+     */
+    public interface Gauge {
+        public double getValue();
+    }
+
+    private static final String HISTOGRAM = "summary";
+    private static final String COUNTER   = "counter";
+    private static final String GAUGE     = "gauge";
+    private static final String NOLABEL   = "";
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final String label;
+        final double scale;
+        final Map<String/*labelValue*/,Object> children = new ConcurrentSkipListMap<String,Object>();
+
+        Family(String name, String help, String type, String label) {
+            this.name  = name;
+            this.help  = help;
+            this.type  = type;
+            this.label = label;
+            this.scale = name.endsWith("_seconds") ? 1e-9 : 1.0;
+        }
+    }
+
+    private static final Map<String,Family> m_families = new ConcurrentHashMap<String,Family>();
+    private static final Genson m_genson = new Genson();
+
+    private static Family family(String name, String help, String type, String label) {
+        Family family = m_families.get(name);
+        if (family == null) {
+            synchronized (m_families) {
+                family = m_families.get(name);
+                if (family == null) {
+                    family = new Family(name, help, type, label == null ? NOLABEL : label);
+                    m_families.put(name, family);
+                }
+            }
+        }
+        return family;
+    }
+
+    private static Object child(Family family, String labelValue) {
+        String key = labelValue == null ? NOLABEL : labelValue;
+        Object o = family.children.get(key);
+        if (o == null) {
+            synchronized (family) {
+                o = family.children.get(key);
+                if (o == null) {
+                    o = family.type.equals(HISTOGRAM) ? new Histogram() : new AtomicLong();
+                    family.children.put(key, o);
+                }
+            }
+        }
+        return o;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     * @param name The family name.
+     * @param help A description of what it measures.
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name, String help) {
+        return histogram(name, help, null, null);
+    }
+
+    /**
+     * Returns the histogram with the given name and label, creating it if needed.
+     * @param name The family name.
+     * @param help A description of what it measures.
+     * @param label The name of the label, for example "callback".
+     * @param labelValue The value of the label, for example "Sounds.Shift".
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name, String help, String label, String labelValue) {
+        return (Histogram)child(family(name, help, HISTOGRAM, label), labelValue);
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     * @param name The family name.
+     * @param help A description of what it counts.
+     * @return The counter.
+     */
+    public static AtomicLong counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    /**
+     * Returns the counter with the given name and label, creating it if needed.
+     * @param name The family name.
+     * @param help A description of what it counts.
+     * @param label The name of the label.
+     * @param labelValue The value of the label.
+     * @return The counter.
+     */
+    public static AtomicLong counter(String name, String help, String label, String labelValue) {
+        return (AtomicLong)child(family(name, help, COUNTER, label), labelValue);
+    }
+
+    /**
+     * Registers, or replaces, a gauge that is read when the metrics are rendered.
+     * @param name The family name.
+     * @param help A description of what it reports.
+     * @param label The name of the label, can be null.
+     * @param labelValue The value of the label, can be null.
+     * @param gauge The gauge to read.
+     */
+    public static void gauge(String name, String help, String label, String labelValue, Gauge gauge) {
+        family(name, help, GAUGE, label).children.put(labelValue == null ? NOLABEL : labelValue, gauge);
+    }
+
+    /**
+     * Removes a labeled metric. Use this when what it measures goes away, like a session being deleted.
+     * @param name The family name.
+     * @param labelValue The value of the label.
+     */
+    public static void remove(String name, String labelValue) {
+        Family family = m_families.get(name);
+        if (family != null)
+            family.children.remove(labelValue == null ? NOLABEL : labelValue);
+    }
+
+    private static double scaled(Family family, double value) {
+        return value * family.scale;
+    }
+
+    private static double gaugeValue(Gauge gauge) {
+        try {
+            return gauge.getValue();
+        }
+        catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns all of the metrics as a JSON string.
+     * <pre>
+     * {
+     *   "(name)": { "Type": "summary", "Help": "(help)", "Label": "(label)",
+     *               "Values": { "(labelValue)": { "Count": n, "Sum": n, "Mean": n, "P50": n, "P90": n, "P99": n, "P999": n, "Max": n } } },
+     *   "(name)": { "Type": "counter", "Help": "(help)", "Label": "(label)", "Values": { "(labelValue)": n } }
+     * }
+     * </pre>
+     * @return The metrics as JSON.
+     */
+    public static String toJSON() {
+        Map<String,Object> result = new LinkedHashMap<String,Object>();
+        for (Family family : new TreeMap<String,Family>(m_families).values()) {
+            Map<String,Object> f = new LinkedHashMap<String,Object>();
+            f.put("Type", family.type);
+            f.put("Help", family.help);
+            f.put("Label", family.label);
+            Map<String,Object> values = new LinkedHashMap<String,Object>();
+            for (Entry<String,Object> child : family.children.entrySet()) {
+                Object o = child.getValue();
+                if (o instanceof Histogram) {
+                    Histogram h = (Histogram)o;
+                    Map<String,Object> v = new LinkedHashMap<String,Object>();
+                    v.put("Count", h.getCount());
+                    v.put("Sum",   scaled(family, h.getSum()));
+                    v.put("Mean",  scaled(family, h.getMean()));
+                    v.put("P50",   scaled(family, h.getPercentile(0.50)));
+                    v.put("P90",   scaled(family, h.getPercentile(0.90)));
+                    v.put("P99",   scaled(family, h.getPercentile(0.99)));
+                    v.put("P999",  scaled(family, h.getPercentile(0.999)));
+                    v.put("Max",   scaled(family, h.getMax()));
+                    values.put(child.getKey(), v);
+                }
+                else
+                if (o instanceof AtomicLong) {
+                    values.put(child.getKey(), ((AtomicLong)o).get());
+                }
+                else
+                if (o instanceof Gauge) {
+                    double d = gaugeValue((Gauge)o);
+                    values.put(child.getKey(), Double.isNaN(d) ? "NaN" : (Object)d);
+                }
+            }
+            f.put("Values", values);
+            result.put(family.name, f);
+        }
+        return m_genson.serialize(result);
+    }
+
+    private static String labels(Family family, String labelValue, String extra) {
+        StringBuilder sb = new StringBuilder();
+        if (!family.label.isEmpty()) {
+            sb.append(family.label).append("=\"")
+              .append(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+              .append("\"");
+        }
+        if (extra != null) {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(extra);
+        }
+        return sb.length() > 0 ? "{" + sb.toString() + "}" : "";
+    }
+
+    private static String number(double d) {
+        if (Double.isNaN(d))
+            return "NaN";
+        if (d == (long)d)
+            return Long.toString((long)d);
+        return Double.toString(d);
+    }
+
+    /**
+     * Returns all of the metrics in the Prometheus text exposition format, version 0.0.4.
+     * Histograms are reported as a summary with quantiles.
+     * @return The metrics as text.
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (Family family : new TreeMap<String,Family>(m_families).values()) {
+            sb.append("# HELP ").append(family.name).append(" ").append(family.help.replace("\n", " ")).append("\n");
+            sb.append("# TYPE ").append(family.name).append(" ").append(family.type).append("\n");
+            for (Entry<String,Object> child : family.children.entrySet()) {
+                Object o = child.getValue();
+                String labelValue = child.getKey();
+                if (o instanceof Histogram) {
+                    Histogram h = (Histogram)o;
+                    double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+                    for (double q : quantiles) {
+                        sb.append(family.name).append(labels(family, labelValue, "quantile=\"" + q + "\"")).append(" ")
+                          .append(number(scaled(family, h.getPercentile(q)))).append("\n");
+                    }
+                    sb.append(family.name).append("_sum").append(labels(family, labelValue, null)).append(" ")
+                      .append(number(scaled(family, h.getSum()))).append("\n");
+                    sb.append(family.name).append("_count").append(labels(family, labelValue, null)).append(" ")
+                      .append(h.getCount()).append("\n");
+                }
+                else
+                if (o instanceof AtomicLong) {
+                    sb.append(family.name).append(labels(family, labelValue, null)).append(" ")
+                      .append(((AtomicLong)o).get()).append("\n");
+                }
+                else
+                if (o instanceof Gauge) {
+                    sb.append(family.name).append(labels(family, labelValue, null)).append(" ")
+                      .append(number(gaugeValue((Gauge)o))).append("\n");
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
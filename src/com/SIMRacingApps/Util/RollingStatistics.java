@@ -0,0 +1,135 @@
+package com.SIMRacingApps.Util;
+
+/**
+ * This class keeps the statistics of a value recorded once per lap, like the lap time or the fuel used,
+ * so the averages, the best and the worst can be read without going over the lap history each time.
+ * <p>
+ * Each lap is added with a flag saying if it is valid, for example, not a caution lap or a pit lap.
+ * Only the valid laps are counted in the statistics, but every lap is in the mask returned by {@link #getValidMask()}.
+ * <p>
+ * The last {@link #CAPACITY} valid laps are kept. When a lap is added, the sum, minimum and maximum of the last 1 to
+ * {@link #CAPACITY} valid laps are worked out, so asking for any of them is just reading an array.
+ * The totals since the last {@link #clear()} are also kept, for when all the laps are asked for.
+ * <p>
+ * Laps are added by the SIM's thread and can be read from any thread.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class RollingStatistics {
+
+    /** The number of valid laps kept for the rolling statistics. */
+    public static final int CAPACITY = 64;
+
+    private final double[] m_values  = new double[CAPACITY];    //the valid laps, a ring
+    private int     m_next          = 0;
+    private int     m_kept          = 0;
+
+    //index n-1 is for the last n valid laps
+    private final double[] m_sum     = new double[CAPACITY];
+    private final double[] m_minimum = new double[CAPACITY];
+    private final double[] m_maximum = new double[CAPACITY];
+
+    private int     m_count         = 0;
+    private int     m_validCount    = 0;
+    private long    m_validMask     = 0L;
+    private double  m_last          = 0.0;
+    private double  m_totalSum      = 0.0;
+    private double  m_totalMinimum  = 0.0;
+    private double  m_totalMaximum  = 0.0;
+
+    /**
+     * Adds a lap.
+     * @param value The value for the lap.
+     * @param valid true if the lap should be counted.
+     */
+    public synchronized void add(double value, boolean valid) {
+        m_count++;
+        m_last      = value;
+        m_validMask = (m_validMask << 1) | (valid ? 1L : 0L);
+        if (!valid)
+            return;
+
+        m_totalSum      += value;
+        m_totalMinimum   = m_validCount == 0 ? value : Math.min(m_totalMinimum, value);
+        m_totalMaximum   = m_validCount == 0 ? value : Math.max(m_totalMaximum, value);
+        m_validCount++;
+
+        m_values[m_next] = value;
+        m_next = (m_next + 1) % CAPACITY;
+        m_kept = Math.min(m_kept + 1, CAPACITY);
+
+        double sum = 0.0, minimum = value, maximum = value;
+        for (int n = 0, i = (m_next + CAPACITY - 1) % CAPACITY; n < m_kept; n++, i = (i + CAPACITY - 1) % CAPACITY) {
+            double v = m_values[i];
+            sum += v;
+            minimum = Math.min(minimum, v);
+            maximum = Math.max(maximum, v);
+            m_sum[n]     = sum;
+            m_minimum[n] = minimum;
+            m_maximum[n] = maximum;
+        }
+    }
+
+    /**
+     * Forgets all the laps.
+     */
+    public synchronized void clear() {
+        m_next = m_kept = m_count = m_validCount = 0;
+        m_validMask = 0L;
+        m_last = m_totalSum = m_totalMinimum = m_totalMaximum = 0.0;
+    }
+
+    /** @return The number of laps added, valid or not. */
+    public synchronized int    getCount()         { return m_count; }
+    /** @return The number of valid laps added. */
+    public synchronized int    getValidCount()    { return m_validCount; }
+    /** @return A bit for each of the last 64 laps, valid or not, set if it was valid. Bit 0 is the last lap. */
+    public synchronized long   getValidMask()     { return m_validMask; }
+    /** @return The value of the last lap, valid or not. */
+    public synchronized double getLast()          { return m_last; }
+
+    /**
+     * @param laps The number of valid laps. Zero, negative or more than are kept means all the valid laps.
+     * @return The number of valid laps that will be used for this many laps.
+     */
+    public synchronized int getLaps(int laps) {
+        return laps <= 0 || laps > m_kept ? m_validCount : laps;
+    }
+
+    /**
+     * @param laps The number of valid laps. Zero, negative or more than are kept means all the valid laps.
+     * @return The sum of the last valid laps, zero if there aren't any.
+     */
+    public synchronized double getSum(int laps) {
+        return laps <= 0 || laps > m_kept ? m_totalSum : m_sum[laps - 1];
+    }
+
+    /**
+     * @param laps The number of valid laps. Zero, negative or more than are kept means all the valid laps.
+     * @return The average of the last valid laps, zero if there aren't any.
+     */
+    public synchronized double getAverage(int laps) {
+        if (m_validCount == 0)
+            return 0.0;
+        return laps <= 0 || laps > m_kept ? m_totalSum / m_validCount : m_sum[laps - 1] / laps;
+    }
+
+    /**
+     * @param laps The number of valid laps. Zero, negative or more than are kept means all the valid laps.
+     * @return The smallest of the last valid laps, zero if there aren't any.
+     */
+    public synchronized double getMinimum(int laps) {
+        return laps <= 0 || laps > m_kept ? m_totalMinimum : m_minimum[laps - 1];
+    }
+
+    /**
+     * @param laps The number of valid laps. Zero, negative or more than are kept means all the valid laps.
+     * @return The largest of the last valid laps, zero if there aren't any.
+     */
+    public synchronized double getMaximum(int laps) {
+        return laps <= 0 || laps > m_kept ? m_totalMaximum : m_maximum[laps - 1];
+    }
+}
@@ -0,0 +1,134 @@
+package com.SIMRacingApps.Util;
+
+import com.SIMRacingApps.Server;
+import com.SIMRacingApps.Windows;
+import com.SIMRacingApps.Windows.Handle;
+
+/**
+ * This class controls the RTS and DTR lines of a serial port, which is how lights like the MSPEC Shift Light are switched.
+ * <p>
+ * Every change to a line is time stamped. If the caller passes the time, from System.nanoTime(),
+ * that the SIM had the data ready, the time from then until the line changed is recorded in the metric
+ * sra_serial_line_latency_seconds for the port. The last change can also be read back with
+ * {@link #getRTS()}, {@link #getDTR()} and {@link #getLastChangeNanos()}.
+ * <p>
+ * On Windows, the COM port is opened through {@link com.SIMRacingApps.Windows}.
+ * Everywhere else, or when "serial-port-fake = Y", a fake port is used that only keeps the state of the lines.
+ * This allows the latency to be measured without the hardware.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public abstract class SerialPort {
+
+    protected final int m_portNumber;
+    private final Histogram m_latency;
+    private volatile boolean m_rts = false;
+    private volatile boolean m_dtr = false;
+    private volatile long m_lastChange = 0L;
+
+    protected SerialPort(int portNumber) {
+        m_portNumber = portNumber;
+        m_latency    = Metrics.histogram("sra_serial_line_latency_seconds", "Time from the SIM having the data ready until the serial line changed", "port", "COM" + portNumber);
+    }
+
+    /**
+     * Opens the serial port.
+     * @param portNumber The port number, 3 for COM3.
+     * @return The port, or null if it cannot be opened. Call {@link #getLastErrorMessage()} for the reason.
+     */
+    public static SerialPort open(int portNumber) {
+        if (Server.getArg("serial-port-fake", !System.getProperty("os.name", "").startsWith("Windows")))
+            return new Fake(portNumber);
+        Handle handle = Windows.openCommPort(portNumber);
+        return handle == null ? null : new WindowsPort(portNumber, handle);
+    }
+
+    /**
+     * @return The reason the last call failed.
+     */
+    public static String getLastErrorMessage() {
+        if (Server.getArg("serial-port-fake", !System.getProperty("os.name", "").startsWith("Windows")))
+            return "";
+        return Windows.getLastErrorMessage();
+    }
+
+    /**
+     * Sets or clears the RTS line.
+     * @param flag true sets RTS, false clears it.
+     * @param readyNanos The System.nanoTime() that the data causing this change was ready, or zero if not known.
+     * @return true if successful.
+     */
+    public boolean setRTS(boolean flag, long readyNanos) {
+        if (!_setRTS(flag))
+            return false;
+        m_rts = flag;
+        _changed(readyNanos);
+        return true;
+    }
+
+    /**
+     * Sets or clears the DTR line.
+     * @param flag true sets DTR, false clears it.
+     * @param readyNanos The System.nanoTime() that the data causing this change was ready, or zero if not known.
+     * @return true if successful.
+     */
+    public boolean setDTR(boolean flag, long readyNanos) {
+        if (!_setDTR(flag))
+            return false;
+        m_dtr = flag;
+        _changed(readyNanos);
+        return true;
+    }
+
+    private void _changed(long readyNanos) {
+        m_lastChange = System.nanoTime();
+        if (readyNanos != 0L)
+            m_latency.record(m_lastChange - readyNanos);
+    }
+
+    /** @return The port number. */
+    public int     getPortNumber()      { return m_portNumber; }
+    /** @return The state of the RTS line after the last successful change. */
+    public boolean getRTS()             { return m_rts; }
+    /** @return The state of the DTR line after the last successful change. */
+    public boolean getDTR()             { return m_dtr; }
+    /** @return The System.nanoTime() of the last successful change, zero if none. */
+    public long    getLastChangeNanos() { return m_lastChange; }
+    /** @return The latency of the changes to the lines. */
+    public Histogram getLatency()       { return m_latency; }
+
+    /**
+     * Closes the port.
+     */
+    public abstract void close();
+
+    protected abstract boolean _setRTS(boolean flag);
+    protected abstract boolean _setDTR(boolean flag);
+
+    private static class WindowsPort extends SerialPort {
+        private final Handle m_handle;
+
+        WindowsPort(int portNumber, Handle handle) {
+            super(portNumber);
+            m_handle = handle;
+        }
+
+        @Override public void       close()                 { Windows.closeHandle(m_handle); }
+        @Override protected boolean _setRTS(boolean flag)   { return Windows.setCommPortRTS(m_handle, flag); }
+        @Override protected boolean _setDTR(boolean flag)   { return Windows.setCommPortDTR(m_handle, flag); }
+    }
+
+    private static class Fake extends SerialPort {
+        Fake(int portNumber) {
+            super(portNumber);
+            Server.logger().info(String.format("SerialPort: using a fake port for COM%d", portNumber));
+        }
+
+        @Override public void       close()                 {}
+        @Override protected boolean _setRTS(boolean flag)   { return true; }
+        @Override protected boolean _setDTR(boolean flag)   { return true; }
+    }
+}
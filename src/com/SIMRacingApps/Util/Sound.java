@@ -1,24 +1,29 @@
 package com.SIMRacingApps.Util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.FloatControl;
 import javax.sound.sampled.Line;
-import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import com.SIMRacingApps.Server;
 
 /**
  * This class allows you to load a sound file (WAV) and play it.
+ * <p>
+ * The file is decoded when the Sound is created, and the device is opened then as well, if it isn't already,
+ * so calling {@link #play()} only hands the samples to the {@link AudioEngine} of the device.
+ * Many sounds can play at the same time on the same device, and the volume, balance and pitch
+ * can be changed while a sound is playing.
  * 
  * @author Jeffrey Gilliam
  * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
@@ -27,18 +32,24 @@ import com.SIMRacingApps.Server;
  */
 public class Sound {
 
-    private Clip m_clip;
+    private static final double MINIMUM_GAIN_DB = -80.0;
+    private static final double MAXIMUM_GAIN_DB = 6.0206;   //the range of the MASTER_GAIN control of a Clip, so the volumes sound the same as they did
+    
+    private AudioEngine m_engine;
+    private AudioEngine.Voice m_voice;
+    private short[] m_samples;
     private FindFile m_file;
-    private AudioInputStream m_audioStream;
     private double m_length = 0.0;
     private String m_errorMessage = "";
     private long m_lastTimePlayed = 0L;
     private long m_minTimeBetweenPlays = 0L;
-    private FloatControl m_volumeControl = null;
-    private FloatControl m_balanceControl = null;
+    private volatile float m_gain = 1.0f;
+    private volatile float m_pan = 0.5f;
+    private volatile float m_pitch = 1.0f;
     private double m_volumePercentage = 100.0;
     static private double m_masterVolumePercentage = -1.0;
     static private Map<Sound,Sound> m_clips = new HashMap<Sound,Sound>();
+    static private Map<String,short[]> m_decoded = new HashMap<String,short[]>();
     
     /**
      * Constructor. Creates a Sound object. 
@@ -53,17 +64,10 @@ public class Sound {
         Sound.loadMixers();
         try {
             m_file = new FindFile(filename);
-            m_clip = _getClip(deviceName);
-            if (m_clip != null && m_file != null) {
-                m_audioStream = AudioSystem.getAudioInputStream(m_file.getBufferedInputStream());
-                m_clip.open(m_audioStream);
-                m_length = (double)m_clip.getMicrosecondLength() / 1000000.0;
-                
-                if(m_clip.isControlSupported(FloatControl.Type.MASTER_GAIN))
-                    m_volumeControl = (FloatControl) m_clip.getControl(FloatControl.Type.MASTER_GAIN);
-                
-                if(m_volumeControl == null && m_clip.isControlSupported(FloatControl.Type.VOLUME))
-                    m_volumeControl = (FloatControl) m_clip.getControl(FloatControl.Type.VOLUME);
+            if (Server.getArg("sound", true)) {
+                m_samples = _decode(m_file);
+                m_length  = (double)(m_samples.length / 2) / AudioEngine.RATE;
+                m_engine  = AudioEngine.get(_getMixer(deviceName));
                 
                 if (m_masterVolumePercentage < 0.0) {
                     m_masterVolumePercentage = Server.getArg("volume",Server.getArg("sound-volume", 100.0));
@@ -73,22 +77,75 @@ public class Sound {
                 
                 setVolume(100.0); //will get constrained to the master level
                     
-                if (m_clip.isControlSupported(FloatControl.Type.BALANCE))
-                    m_balanceControl = (FloatControl) m_clip.getControl(FloatControl.Type.BALANCE);
-                
-                if (m_balanceControl == null && m_clip.isControlSupported(FloatControl.Type.PAN))
-                    m_balanceControl = (FloatControl) m_clip.getControl(FloatControl.Type.PAN);
-                
                 synchronized (m_clips) {
                     m_clips.put(this, this);
                 }
             }
-        } catch (LineUnavailableException | UnsupportedAudioFileException | IOException e) {
+        } catch (UnsupportedAudioFileException | IOException e) {
             m_errorMessage = e.getMessage();
             Server.logStackTrace(e);
         }        
     }
     
+    /**
+     * Decodes the file to the format of the {@link AudioEngine}.
+     * A file is only decoded once, Sounds with the same file share the samples.
+     */
+    private static short[] _decode(FindFile file) throws UnsupportedAudioFileException, IOException {
+        synchronized (m_decoded) {
+            short[] samples = m_decoded.get(file.getFileFound());
+            if (samples != null)
+                return samples;
+        }
+        
+        AudioInputStream source = AudioSystem.getAudioInputStream(file.getBufferedInputStream());
+        try {
+            AudioFormat format = source.getFormat();
+            int channels = format.getChannels();
+            float rate = format.getSampleRate();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, rate, 16, channels, channels * 2, rate, false);
+            AudioInputStream in = format.matches(pcm) ? source : AudioSystem.getAudioInputStream(pcm, source);
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, n);
+            byte[] b = bytes.toByteArray();
+            
+            //convert to the rate of the engine, and to stereo by repeating mono or dropping any channels past 2
+            int frames = b.length / (channels * 2);
+            int outFrames = (int)((long)frames * AudioEngine.RATE / rate);
+            double step = rate / AudioEngine.RATE;
+            short[] samples = new short[outFrames * 2];
+            for (int i = 0; i < outFrames; i++) {
+                double pos = i * step;
+                int index  = (int)pos;
+                int next   = Math.min(index + 1, frames - 1);
+                float frac = (float)(pos - index);
+                for (int c = 0; c < 2; c++) {
+                    int channel = Math.min(c, channels - 1);
+                    int a = _sample(b, index, channel, channels);
+                    int z = _sample(b, next,  channel, channels);
+                    samples[i * 2 + c] = (short)(a + (z - a) * frac);
+                }
+            }
+            
+            synchronized (m_decoded) {
+                m_decoded.put(file.getFileFound(), samples);
+            }
+            return samples;
+        }
+        finally {
+            source.close();
+        }
+    }
+    
+    private static int _sample(byte[] b, int frame, int channel, int channels) {
+        int offset = (frame * channels + channel) * 2;
+        return (short)((b[offset] & 0xff) | (b[offset + 1] << 8));
+    }
+    
     /**
      * Returns the error message. Returns blank if no error occured.
      * @return The error message.
@@ -151,20 +208,13 @@ public class Sound {
      * @return The volume as a percentage in the range between 0.0 to 100.0
      */
     public double getVolume() {
-        if (m_volumeControl != null && m_masterVolumePercentage > 0.0) {
-            float max = m_volumeControl.getMaximum();
-            float min = m_volumeControl.getMinimum();
-            float range = max - min;
-            float value = m_volumeControl.getValue();
-            if (range > 0)
-                m_volumePercentage = (((value - min) / range) / (m_masterVolumePercentage / 100.0)) * 100.0;
-        }
         Server.logger().finest(String.format("getVolume(%.0f): %s",m_volumePercentage,this.m_file.toString()));
         return m_volumePercentage;
     }
     
     /**
      * Set the volume for this clip as a percentage of the volume range.
+     * It takes effect immediately, even if the clip is playing.
      * 
      * @param percentage The percentage in the range of 0.0 to 1.0 or 0.0 to 100.0
      */
@@ -172,18 +222,10 @@ public class Sound {
         if (percentage <= 1.0)
             percentage *= 100.0;
         
-        if (m_volumeControl != null && percentage >= 0.0 && percentage <= 100.0) {
-            float max = m_volumeControl.getMaximum();
-            float min = m_volumeControl.getMinimum();
-            float range = max - min;
-            float value = min + (((float)(m_masterVolumePercentage/100.0) * range) * (float)(percentage/100.0));
-            //Server.logger().fine("Sound.setVolume("+percentage+") = "+(((float)m_masterVolumePercentage) * (float)percentage));
-            
-            //keep within the boundaries in case of rounding issues
-            value = Math.max(min, value);
-            value = Math.min(max, value);
-            
-            m_volumeControl.setValue( value );
+        if (percentage >= 0.0 && percentage <= 100.0) {
+            //the percentage is of the range in decibels, like the volume controls of the device
+            double p = (m_masterVolumePercentage/100.0) * (percentage/100.0);
+            m_gain = p <= 0.0 ? 0.0f : (float)Math.pow(10.0, (MINIMUM_GAIN_DB + (MAXIMUM_GAIN_DB - MINIMUM_GAIN_DB) * p) / 20.0);
             m_volumePercentage = percentage;
             Server.logger().finest(String.format("setVolume(%.0f,%.0f): %s",m_volumePercentage, m_volumePercentage * (m_masterVolumePercentage/100.0),this.m_file.toString()));
         }
@@ -191,40 +233,50 @@ public class Sound {
     
     /**
      * Sets the balance position as a percentage of left to right. .5 is centered.
+     * It takes effect immediately, even if the clip is playing.
      * 
-     * Note: If the source file is mono, you cannot change the balance.
-     * Convert it to stereo.
      * @param percentage The balance position as a percentage between 0.0 to 100.0.
      */
     public void setBalance(double percentage) {
         if (percentage <= 1.0)
             percentage *= 100.0;
         
-        if (m_balanceControl != null && percentage >= 0.0 && percentage <= 100.0) {
-            float max = m_balanceControl.getMaximum();
-            float min = m_balanceControl.getMinimum();
-            float range = max - min;
-            float value = min + (range * (float)(percentage/100.0));
-            
-            //keep within the boundaries in case of rounding issues
-            value = Math.max(min, value);
-            value = Math.min(max, value);
-            
-            m_balanceControl.setValue( value );
-        }
+        if (percentage >= 0.0 && percentage <= 100.0)
+            m_pan = (float)(percentage / 100.0);
+    }
+    
+    /**
+     * Sets the pitch as a ratio of the original. 2.0 is an octave higher and twice as fast.
+     * It takes effect immediately, even if the clip is playing.
+     * 
+     * @param ratio The pitch between 0.25 and 4.0. Defaults to 1.0.
+     */
+    public void setPitch(double ratio) {
+        m_pitch = (float)Math.max(0.25, Math.min(4.0, ratio));
     }
     
+    /**
+     * Returns the pitch as a ratio of the original.
+     * @return The pitch.
+     */
+    public double getPitch() {
+        return m_pitch;
+    }
+    
+    //called by the AudioEngine while mixing
+    float _getGain()  { return m_gain; }
+    float _getPan()   { return m_pan; }
+    float _getPitch() { return m_pitch; }
+    
     /**
      * Starts the sound playing in the background.
      */
     public void play() {
         if ((m_lastTimePlayed + m_minTimeBetweenPlays) <= System.currentTimeMillis()) {
             stop();
-            if (m_clip != null) {
-                Server.logger().fine(String.format("Playing(%.0f=%.0f) %s",m_volumePercentage,getVolume(),m_file.getFileFound()));
-                setVolume(m_volumePercentage); //This will adjust the volume if the master has changed.
-                m_clip.setFramePosition(0);
-                m_clip.start();
+            if (m_engine != null) {
+                Server.logger().fine(String.format("Playing(%.0f) %s",m_volumePercentage,m_file.getFileFound()));
+                m_voice = m_engine.play(this, m_samples, 0);
                 m_lastTimePlayed = System.currentTimeMillis();
             }
         }
@@ -235,9 +287,8 @@ public class Sound {
      * @return Returns true if clip is currently playing
      */
     public boolean isPlaying() {
-        if (m_clip != null)
-            return m_clip.isActive();
-        return false;
+        AudioEngine.Voice voice = m_voice;
+        return voice != null && voice.active && !voice.stopped;
     }
     
     /**
@@ -255,38 +306,39 @@ public class Sound {
      * @param count The number of times to play the sound.
      */
     public void loop(int count) {
-        if (m_clip != null)
-            m_clip.loop(count);
+        if (m_engine != null) {
+            stop();
+            m_voice = m_engine.play(this, m_samples, count == Integer.MAX_VALUE || count < 0 ? -1 : count);
+        }
     }
 
     /**
      * Waits for the sound to stop playing, then returns.
      */
     public void drain() {
-        if (m_clip != null) 
-            m_clip.drain();
+        if (m_engine != null) 
+            m_engine.drain(m_voice);
     }
     
     /**
      * Stops the currently playing sound.
      */
     public void stop() {
-        if (m_clip != null && m_clip.isRunning())
-            m_clip.stop();
+        if (m_engine != null)
+            m_engine.stop(m_voice);
     }
     
     /**
      * Closes the sound. It will not play again after calling this.
      */
     public void close() {
+        stop();
+        m_engine  = null;
+        m_samples = null;
         if (m_file != null) {
             m_file.close();
             m_file = null;
         }
-        if (m_clip != null) {
-            m_clip.close();
-            m_clip = null;
-        }
         synchronized (m_clips) {
             if (m_clips.containsKey(this))
                 m_clips.remove(this);
@@ -299,93 +351,53 @@ public class Sound {
         super.finalize();
     }
 
-    private Clip _getClip(String name) {
-        Clip clip = null;
+    private static Mixer _findMixer(String name) {
         //first try the name given to us
-        Mixer mixer = m_clipMixers.get(name.toUpperCase().trim());
-        if (mixer != null) {
-            Line.Info clipInfo = new Line.Info(Clip.class);
-            try {
-                clip = (Clip) mixer.getLine(clipInfo);
-            } catch (LineUnavailableException e) {}
-        }
+        Mixer mixer = m_mixers.get(name.toUpperCase().trim());
         
         //See if user put the device in brackets. If so, just take everything inside them
-        if (clip == null) {
+        if (mixer == null) {
             String a1[] = name.split("\\[");
             if (a1.length >= 2) {
                 String a2[] = a1[1].split("\\]");
-                if (a2.length >= 2) {
-                    mixer = m_clipMixers.get(a2[0].toUpperCase().trim());
-                    if (mixer != null) {
-                        Line.Info clipInfo = new Line.Info(Clip.class);
-                        try {
-                            clip = (Clip) mixer.getLine(clipInfo);
-                        } catch (LineUnavailableException e) {}
-                    }
-                }
+                if (a2.length >= 2)
+                    mixer = m_mixers.get(a2[0].toUpperCase().trim());
             }
         }
+        return mixer;
+    }
+    
+    private static Mixer _getMixer(String name) {
+        Mixer mixer = _findMixer(name);
         
-        //if there's no clip, try the global device
-        if (clip == null) {
-            mixer = m_clipMixers.get(Server.getArg("sound-device","").toUpperCase().trim());
-            if (mixer != null) {
-                Line.Info clipInfo = new Line.Info(Clip.class);
-                try {
-                    clip = (Clip) mixer.getLine(clipInfo);
-                } catch (LineUnavailableException e) {}
-            }
-        }
-
-        //See if user put the device in brackets. If so, just take everything inside them
-        if (clip == null) {
-            String s = Server.getArg("sound-device","");
-            String a1[] = s.split("\\[");
-            if (a1.length >= 2) {
-                String a2[] = a1[1].split("\\]");
-                if (a2.length >= 2) {
-                    mixer = m_clipMixers.get(a2[0].toUpperCase().trim());
-                    if (mixer != null) {
-                        Line.Info clipInfo = new Line.Info(Clip.class);
-                        try {
-                            clip = (Clip) mixer.getLine(clipInfo);
-                        } catch (LineUnavailableException e) {}
-                    }
-                }
-            }
-        }
+        //if there's no mixer, try the global device
+        if (mixer == null)
+            mixer = _findMixer(Server.getArg("sound-device",""));
         
-        //if still no clip, try the system default device. It should always work unless there's no sound card.
-        if (clip == null && Server.getArg("sound", true)) {
-            try {
-                clip = (Clip) AudioSystem.getClip();
-                if (!name.isEmpty())
-                    Server.logger().warning("Sound Device("+name+") not found, using default");
-            } catch (LineUnavailableException e1) {
-                Server.logStackTrace(e1);
-            }
-        }
-        return clip;
+        //if still no mixer, use the system default device. 
+        if (mixer == null && !name.isEmpty())
+            Server.logger().warning("Sound Device("+name+") not found, using default");
+        
+        return mixer;
     }
     
-    private static Map<String,Mixer> m_clipMixers = null;
+    private static Map<String,Mixer> m_mixers = null;
     
     public static void loadMixers() {
-        if (m_clipMixers == null) {
-            m_clipMixers = new HashMap<String,Mixer>();
+        if (m_mixers == null) {
+            m_mixers = new HashMap<String,Mixer>();
             
             if (Server.getArg("sound", true)) {
                 Mixer.Info[] mixersInfo = AudioSystem.getMixerInfo();
             
-                Line.Info clipInfo   = new Line.Info(Clip.class);
+                Line.Info lineInfo = new Line.Info(SourceDataLine.class);
                 
                 for (int i=0; i < mixersInfo.length; i++) {
                     Mixer mixer = AudioSystem.getMixer(mixersInfo[i]);
                     
-                    if (mixer.isLineSupported(clipInfo)) {
-                        m_clipMixers.put(mixersInfo[i].getName().toUpperCase(), mixer);
-                        m_clipMixers.put(Integer.toString(i),mixer);
+                    if (mixer.isLineSupported(lineInfo)) {
+                        m_mixers.put(mixersInfo[i].getName().toUpperCase(), mixer);
+                        m_mixers.put(Integer.toString(i),mixer);
                         
                         Server.logger().info(String.format(
                                 "Sound Device[%d] = [%s]", 
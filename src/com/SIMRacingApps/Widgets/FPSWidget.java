@@ -23,6 +23,7 @@ public class FPSWidget extends Widget {
 
 	private Color m_foreground = Color.CYAN;
 	private JDataLabel dtjlblfps;
+	private final StringBuilder m_text = new StringBuilder(32);
 	
 	/**
 	 * Returns the Foreground Color.
@@ -54,10 +55,15 @@ public class FPSWidget extends Widget {
 				Data d = (Data)evt.getNewValue();
 				//I happen to know that the FPS works by adding the DataVersion. So, let's display it.
 				//It's the only data component that does this.
-				dtjlblfps.setText(d.getString() + "(" + d.getString("Session/DataVersion") + ")");
+				//Build it in the same buffer every time, the label only changes if the text did.
+				Object version = d.getValue("Session/DataVersion");
+				m_text.setLength(0);
+				m_text.append(d.getInteger()).append('(').append(version == null ? "" : version).append(')');
+				dtjlblfps.updateText(m_text);
 			}
 		});
 		dtjlblfps.setForeground(m_foreground);
+		dtjlblfps.setFixedWidth(true);	//the layout sizes it, not the text
 		dtjlblfps.setHorizontalTextPosition(SwingConstants.LEADING);
 		dtjlblfps.setText("{FPS}");
 		add(dtjlblfps);
@@ -2,6 +2,7 @@ package com.SIMRacingApps.servlets;
 
 import java.io.*;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 import com.owlike.genson.*;
 
@@ -18,6 +19,9 @@ import com.SIMRacingApps.Server;
  * This class implements the "/ConsumerTester" interface for the HTTP protocol.
  * It will be used to test the DataPublisher.Publish class.
  * It will take in the json string a log it, then return a fake return string.
+ * Payloads sent with "Content-Encoding: gzip" are inflated first.
+ * If it receives a delta payload, "Full": false, before it has received a full one for that session, 
+ * it returns "Resync": true to ask for a full one.
  * @author Jeffrey Gilliam
  * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
  * @since 1.2
@@ -27,6 +31,7 @@ import com.SIMRacingApps.Server;
 public class ConsumerTester extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private Genson genson;
+    private Set<String> fullSessions = Collections.synchronizedSet(new HashSet<String>());
 
     /**
      * Default Constructor.
@@ -85,8 +90,12 @@ public class ConsumerTester extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
+        Reader reader = "gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))
+                      ? new InputStreamReader(new GZIPInputStream(request.getInputStream()), "UTF-8")
+                      : request.getReader();
+        
         @SuppressWarnings("unchecked")
-        Map<String,Object> d = genson.deserialize(request.getReader(), Map.class);
+        Map<String,Object> d = genson.deserialize(reader, Map.class);
 
         Server.logger().info(String.format("doPost(): Input = %s",genson.serialize(d)));
 
@@ -94,6 +103,13 @@ public class ConsumerTester extends HttpServlet {
         
         result_map.put("MaxTires", 3);
         
+        Object full = d.get("Full");
+        if (Boolean.TRUE.equals(full))
+            fullSessions.add(String.valueOf(d.get("Session/Id")));
+        else
+        if (Boolean.FALSE.equals(full) && !fullSessions.contains(String.valueOf(d.get("Session/Id"))))
+            result_map.put("Resync", true);
+        
         String result = genson.serialize(result_map);
         
         //add these headers to try and prevent the various browsers from caching this data
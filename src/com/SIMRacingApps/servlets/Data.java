@@ -41,6 +41,7 @@ import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Server;
 import com.SIMRacingApps.Windows;
 import com.SIMRacingApps.Util.FindFile;
+import com.SIMRacingApps.Util.Metrics;
 import com.SIMRacingApps.Util.URLBroadcastThread;
 
 /**
@@ -127,6 +128,12 @@ import com.SIMRacingApps.Util.URLBroadcastThread;
  * By default, this returns a JSON string formatted "pretty" because I see it primarily being used from the browser ad-hoc.
  * If the data returned refers to a structure, then the ValueFormatted may actually be a JSON string. 
  * For example: http://localhost/SIMRacingApps/Data/Car/REFERENCE, will return all the data available for that car in JSON format.
+ * <p>
+ * <b>Metrics</b>
+ * <p>
+ * The server's internal metrics, see {@link com.SIMRacingApps.Util.Metrics}, are returned by
+ * http://localhost/SIMRacingApps/Data/Metrics as JSON and
+ * http://localhost/SIMRacingApps/Data/Metrics/Prometheus in the Prometheus text format.
  * You can specify the following parameters in the query string to change result returned.
  * <ul>
  *   <li> lang=(lang), to the data be localized to this language instead of the servers default.</li>
@@ -251,7 +258,7 @@ public class Data extends HttpServlet {
 
         //if we have data, call with the sessionid so it can register
         //else get the session by id and call the version of getJSON(Session) to retrieve it real-time instead of using the cache.
-        StringBuffer s = DataService.getJSON(sessionid,data);
+        byte[] s = DataService.getJSONBytes(sessionid,data);
 
         //add these headers to try and prevent the various browsers from caching this data
         response.addHeader("Expires", "Sat, 01 Mar 2014 00:00:00 GMT");
@@ -259,9 +266,12 @@ public class Data extends HttpServlet {
         response.addHeader("Cache-Control", "no-cache, must-revalidate");
 
         response.setContentType("application/json");
-        PrintWriter out = response.getWriter();
-        out.print(s);
+        response.setCharacterEncoding("UTF-8");
+        response.setContentLength(s.length);
+        OutputStream out = response.getOutputStream();
+        out.write(s);
         out.flush();
+        Transport.DATA.sent(s);
     }
     /**
      * The doGet method gets called when a HTTP GET request comes in.
@@ -281,6 +291,21 @@ public class Data extends HttpServlet {
         String data = request.getParameter("data");
         String path = data != null ? ("/"+data) : request.getPathInfo();
 
+        if (path != null && (path.equalsIgnoreCase("/Metrics") || path.equalsIgnoreCase("/Metrics/Prometheus"))) {
+            response.addHeader("Cache-Control", "no-cache, must-revalidate");
+            PrintWriter out = response.getWriter();
+            if (path.equalsIgnoreCase("/Metrics")) {
+                response.setContentType("application/json");
+                out.print(Metrics.toJSON());
+            }
+            else {
+                response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+                out.print(Metrics.toPrometheus());
+            }
+            out.flush();
+            return;
+        }
+
         //see if the user passed the parameters as REST and make the call to get the data now
         if (path != null) {
             com.SIMRacingApps.Data d = null;
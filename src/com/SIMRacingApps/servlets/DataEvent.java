@@ -52,17 +52,28 @@ public class DataEvent extends HttpServlet {
          
             PrintWriter writer = response.getWriter();
             
-            //TODO: EventSource: need a way to detect client disconnects and exit the loop
-            while (true) {
-                //can't have any line feeds in the data or confuses the parser
-                writer.write("data: " + DataService.getJSON(sessionid).toString().replace("\n", "") + "\n\n");
-                writer.flush();
+            Transport.DATAEVENT.opened();
+            try {
+                //the writer swallows the IOException when the client disconnects, so check for it each time through the loop
+                while (true) {
+                    //can't have any line feeds in the data or confuses the parser
+                    String json = DataService.getJSON(sessionid).toString().replace("\n", "");
+                    String message = "data: " + json + "\n\n";
+                    writer.write(message);
+                    Transport.DATAEVENT.sent(message);
+                    writer.flush();
+                    if (writer.checkError())
+                        break;
                 
-                try {
-                    Thread.sleep(interval);
-                } catch (InterruptedException e) {
+                    try {
+                        Thread.sleep(Transport.DATAEVENT.interval(interval));
+                    } catch (InterruptedException e) {
+                    }
                 }
             }
+            finally {
+                Transport.DATAEVENT.closed();
+            }
         } catch (Exception e1) {
             Server.logStackTrace(Level.WARNING, "while processing Web Events",e1);
         }
@@ -1,19 +1,30 @@
 package com.SIMRacingApps.servlets;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.SIMRacingApps.SIMPlugin;
 import com.SIMRacingApps.SIMPlugin.SIMPluginException;
 import com.SIMRacingApps.Data;
 import com.SIMRacingApps.Data.State;
+import com.SIMRacingApps.History;
 import com.SIMRacingApps.Server;
+import com.SIMRacingApps.Util.Histogram;
+import com.SIMRacingApps.Util.JMX;
+import com.SIMRacingApps.Util.Metrics;
 
 /**
  * This class implements the Data Caching Service for the servlets. 
@@ -42,6 +53,24 @@ public class DataService {
     private static volatile String m_startingVersion = "";
     private static volatile String m_endingVersion = "";
     private static volatile String m_SIMName = "iRacing";
+    private static volatile long m_minimumInterval = 0L;
+    private static final Map<String/*sessionid*/,SessionMetrics> m_sessionMetrics = new HashMap<String,SessionMetrics>();  //locked by m_sessionCache
+    
+    //the JSON of the values that only change with the session information, shared by all the sessions, see getFragmentsVersion()
+    private static final Object m_fragmentsLock = new Object();
+    private static final Map<String/*datapath*/,Fragment> m_fragments = new ConcurrentHashMap<String,Fragment>();
+    private static final Map<String/*datapath*/,Boolean> m_fragmentPaths = new ConcurrentHashMap<String,Boolean>();
+    private static Object m_fragmentsVersion = null;  //locked by m_fragmentsLock
+    private static final AtomicLong m_fragmentHits = Metrics.counter("sra_dataservice_json_fragments_total", "Number of values written from their cached JSON instead of being serialized", "result", "hit");
+    private static final AtomicLong m_fragmentMisses = Metrics.counter("sra_dataservice_json_fragments_total", "Number of values written from their cached JSON instead of being serialized", "result", "miss");
+    private static final AtomicLong m_fragmentReadsSkipped = Metrics.counter("sra_dataservice_fragment_reads_skipped_total", "Number of values not read from the SIM because their cached JSON was still current");
+    
+    //the paths, other than the car identity values, that only change with the session information, see isFragmentPath()
+    private static final Set<String> FRAGMENTPATHS = new HashSet<String>(Arrays.asList(
+        "SESSION/CLASSNAMES",
+        "TRACK/CATEGORY","TRACK/CITY","TRACK/CONFIGURATION","TRACK/COUNTRY","TRACK/DESCRIPTION",
+        "TRACK/LENGTH","TRACK/NAME","TRACK/TIMEZONE","TRACK/TYPE"
+    ));
 
     public static void stop() {
         m_recordfile = "";
@@ -156,6 +185,9 @@ public class DataService {
                 synchronized (m_sessionCache.get(sessionid)) {
                     m_sessionCache.remove(sessionid);
                 }
+                m_sessionMetrics.remove(sessionid);
+                Metrics.remove("sra_dataservice_updatesession_seconds", sessionid);
+                Metrics.remove("sra_dataservice_updatesession_values_total", sessionid);
             }
         }
     }
@@ -169,6 +201,10 @@ public class DataService {
     public static com.SIMRacingApps.Data getData(String datapath) throws SIMPluginException {
         start();
         
+        //the history only locks the buffer it copies from, so it does not wait for the SIM
+        if (m_SIMPlugin != null && History._isPath(datapath))
+            return m_SIMPlugin._getHistory().getHistory(datapath);
+        
         //put this in a sync block until I can get the SIMPlugins thread safe
         if (m_SIMPlugin != null) {
             synchronized (m_SIMPlugin) {
@@ -186,6 +222,19 @@ public class DataService {
      * @return A JSON String with the results.
      */
     public static StringBuffer getJSON(String sessionid, Map<String,Map<String,Map<String,Object>>> data) {
+        return new StringBuffer(new String(getJSONBytes(sessionid,data),StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * This method is called to subscribe to the data and return the results as JSON encoded in UTF-8.
+     * The values that only change with the session information are copied in as they were encoded the first time,
+     * so use this when the transport writes bytes.
+     * If data is null, then only the results are returned.
+     * @param sessionid The session identifier.
+     * @param data The data to subscribe to.
+     * @return The JSON with the results, encoded in UTF-8.
+     */
+    public static byte[] getJSONBytes(String sessionid, Map<String,Map<String,Map<String,Object>>> data) {
         start();
         
         Map<String,Map<String,com.SIMRacingApps.Data>> session = null;
@@ -207,6 +256,8 @@ public class DataService {
 //                        vars.put("timestamp", new com.SIMRacingApps.Data("timestamp",System.currentTimeMillis()));
 //                        session.put("__vars__", vars);
                         m_sessionCache.put(sessionid, session);
+                        if (!m_sessionMetrics.containsKey(sessionid))
+                            m_sessionMetrics.put(sessionid, new SessionMetrics(sessionid));
             
                         //see if any sessions should be deleted
 //                        Iterator<Entry<String, Map<String, Map<String, Data>>>> iter = m_sessionCache.entrySet().iterator();
@@ -300,8 +351,10 @@ public class DataService {
             }
         }
         
+        SessionMetrics metrics;
         synchronized (m_sessionCache) {
              session = m_sessionCache.get(sessionid);
+             metrics = m_sessionMetrics.get(sessionid);
         }
         
         if (session != null) {
@@ -309,11 +362,11 @@ public class DataService {
             synchronized (session) {
 //                session.get("__vars__").get("timestamp").setValue(System.currentTimeMillis());    //update the session time
 
-                return getJSON(session);
+                return getSessionJSON(metrics,session);
             }
         }
 
-        return new StringBuffer("{}");
+        return "{}".getBytes(StandardCharsets.UTF_8);
     }
     
     /**
@@ -325,13 +378,63 @@ public class DataService {
         return getJSON(sessionid,null);
     }
 
-    private static StringBuffer getJSON(Map<String,Map<String,com.SIMRacingApps.Data>> session) {
+    /**
+     * Returns the results as JSON encoded in UTF-8.
+     * @param sessionid The session identifier
+     * @return The results.
+     */
+    public static byte[] getJSONBytes(String sessionid) {
+        return getJSONBytes(sessionid,null);
+    }
+
+    /**
+     * The response being written, as UTF-8, so the cached fragments can be copied in without decoding them.
+     */
+    private static class JSONBuffer extends ByteArrayOutputStream {
+        JSONBuffer(int size) {
+            super(size);
+        }
+        
+        JSONBuffer append(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            write(b, 0, b.length);
+            return this;
+        }
+        
+        JSONBuffer append(byte[] b) {
+            write(b, 0, b.length);
+            return this;
+        }
+    }
+
+    /**
+     * The metrics of a session, looked up once when the session is created.
+     */
+    private static class SessionMetrics {
+        final Histogram updateTime;
+        final AtomicLong updated;
+        
+        SessionMetrics(String sessionid) {
+            updateTime = Metrics.histogram("sra_dataservice_updatesession_seconds", "Time spent refreshing a session's subscribed data from the SIM", "session", sessionid);
+            updated    = Metrics.counter("sra_dataservice_updatesession_values_total", "Number of subscribed values that changed", "session", sessionid);
+        }
+    }
+
+    private static byte[] getSessionJSON(SessionMetrics metrics, Map<String,Map<String,com.SIMRacingApps.Data>> session) {
         if (m_SIMPlugin == null)
-            return new StringBuffer("{}");
+            return "{}".getBytes(StandardCharsets.UTF_8);
         
-        updateSession(m_SIMPlugin,session);
+        //read before the values, so none of them is cached under a newer version than it was read for
+        Object version = getFragmentsVersion(m_SIMPlugin);
         
-        StringBuffer s = new StringBuffer("{");
+        long start = System.nanoTime();
+        int updated = updateSession(m_SIMPlugin,session,version);
+        if (metrics != null) {
+            metrics.updateTime.recordSince(start);
+            metrics.updated.addAndGet(updated);
+        }
+        
+        JSONBuffer s = new JSONBuffer(4096).append("{");
         
         for (Entry<String, Map<String, com.SIMRacingApps.Data>> dataid : session.entrySet()) {
             String id    = dataid.getKey();
@@ -348,7 +451,7 @@ public class DataService {
                 }
 
                 if (changed) {
-                    if (s.length() > 1) s.append(",");
+                    if (s.size() > 1) s.append(",");
 
                     s.append("\"");
                     s.append( id );
@@ -362,6 +465,24 @@ public class DataService {
                         //com.SIMRacingApps.Data obj = request.getValue();
                         String dataname= datakey.getValue().getName();
 
+                        //if it only changes with the session information and any session has serialized it, use that JSON
+                        boolean cacheable = isFragmentPath(dataname);
+                        Fragment fragment = cacheable ? getFragment(version, datakey.getValue()) : null;
+
+                        if (fragment != null) {
+                            session.get(id).get(name).setDirty(false);
+                            m_fragmentHits.incrementAndGet();
+                            if (count++ > 0)
+                                s.append(",");
+                            if (name.equals(dataname)) {
+                                s.append( "\"" );
+                                s.append( name );
+                                s.append( "\":" );
+                            }
+                            s.append( fragment.json );
+                            continue;
+                        }
+
                         //make a copy of it
                         com.SIMRacingApps.Data d = new com.SIMRacingApps.Data(session.get(id).get(name));
 
@@ -392,7 +513,13 @@ public class DataService {
                         }
 
 //                            String x = d.toString();
-                        s.append( d.toString(d.getName()) );  //force it to only stringify the default name
+                        String json = d.toString(d.getName());  //force it to only stringify the default name
+                        s.append( json );
+
+                        if (cacheable) {
+                            m_fragmentMisses.incrementAndGet();
+                            putFragment(version, datakey.getValue(), d, json);
+                        }
 
                     }
 
@@ -402,7 +529,7 @@ public class DataService {
         }
         
         s.append("}");
-        return s;
+        return s.toByteArray();
     }
     
 //    public static Map<String,Map<String,com.SIMRacingApps.Data>> getSession(String sessionid) {
@@ -443,22 +570,181 @@ public class DataService {
         return new Data("SIMVersion","NO Connection to SIM","",com.SIMRacingApps.Data.State.ERROR);
     }
     
-    private static int updateSession(SIMPlugin SIMPlugin, Map<String, Map<String, Data>> session) {
+    /**
+     * The JSON of a value as it was sent, along with a copy of the value, to know if it can be sent again.
+     * The JSON is kept as the UTF-8 bytes that are copied into the response.
+     * A value is serialized with its format, language and requested UOM, so the fragments of a path that differ by them are chained.
+     */
+    private static class Fragment {
+        final Object version;
+        final String format;
+        final String lang;
+        final String requestedUOM;
+        final com.SIMRacingApps.Data data;
+        final byte[] json;
+        final Fragment next;
+        
+        Fragment(Object version, com.SIMRacingApps.Data request, com.SIMRacingApps.Data data, String json, Fragment next) {
+            String name       = request.getName();
+            this.version      = version;
+            this.format       = request.getFormat(name);
+            this.lang         = request.getLang(name);
+            this.requestedUOM = request.getRequestedUOM(name);
+            this.data         = data;
+            this.json         = json.getBytes(StandardCharsets.UTF_8);
+            this.next         = next;
+        }
+        
+        //a copy of the fragment in another chain
+        Fragment(Fragment f, Fragment next) {
+            this.version      = f.version;
+            this.format       = f.format;
+            this.lang         = f.lang;
+            this.requestedUOM = f.requestedUOM;
+            this.data         = f.data;
+            this.json         = f.json;
+            this.next         = next;
+        }
+        
+        //true if it was serialized for this version and the same format, language and UOM as the request
+        boolean isFor(Object version, com.SIMRacingApps.Data request) {
+            String name = request.getName();
+            return this.version.equals(version)
+                && __equals(format, request.getFormat(name))
+                && __equals(lang, request.getLang(name))
+                && __equals(requestedUOM, request.getRequestedUOM(name));
+        }
+        
+        private static boolean __equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+        
+        //true if the value would serialize to the same JSON
+        boolean matches(com.SIMRacingApps.Data d) {
+            String name = d.getName();
+            if (d.getType(name) == null || data.getType(name) != d.getType(name))
+                return false;
+            Object value = d.getValue(name);
+            return value != null
+                && value.equals(data.getValue(name))
+                && d.getUOM(name).equals(data.getUOM(name))
+                && d.getState(name).equals(data.getState(name))
+                && d.getStatePercent(name) == data.getStatePercent(name);
+        }
+    }
+    
+    //returns the fragment for this request, null if there is not one for this version or the value changed
+    private static Fragment getFragment(Object version, com.SIMRacingApps.Data request) {
+        for (Fragment f = m_fragments.get(request.getName()); f != null; f = f.next) {
+            if (f.isFor(version, request))
+                return f.matches(request) ? f : null;
+        }
+        return null;
+    }
+    
+    //adds the fragment in front of the others for this path and version, replacing the one for the same request
+    private static void putFragment(Object version, com.SIMRacingApps.Data request, com.SIMRacingApps.Data data, String json) {
+        String path = request.getName();
+        Fragment next = null;
+        for (Fragment f = m_fragments.get(path); f != null; f = f.next) {
+            if (f.version.equals(version) && !f.isFor(version, request))
+                next = new Fragment(f, next);
+        }
+        m_fragments.put(path, new Fragment(version, request, data, json, next));
+    }
+    
+    /**
+     * The values of a car by its id that come from the session information, like /Car/I2/DriverName or /Car/I2/ClassColor,
+     * the values of the track, like /Track/Name, and /Session/ClassNames
+     * are the same until the {@link com.SIMRacingApps.Session#getInfoVersion() /Session/InfoVersion} changes.
+     * The answer is kept for each path, so it is only worked out the first time.
+     * @param path The path of the value.
+     * @return true if its JSON can be cached.
+     */
+    private static boolean isFragmentPath(String path) {
+        Boolean cacheable = m_fragmentPaths.get(path);
+        if (cacheable == null) {
+            String[] args = path.replaceFirst("^/+", "").split("/");
+            cacheable = (args.length == 2
+                        && FRAGMENTPATHS.contains((args[0] + "/" + args[1]).toUpperCase()))
+                     || (args.length == 3
+                        && args[0].equalsIgnoreCase("Car")
+                        && args[1].matches("[Ii][0-9]+")
+                        && com.SIMRacingApps.Car._isIdentity(args[2]));
+            m_fragmentPaths.put(path, cacheable);
+        }
+        return cacheable;
+    }
+    
+    /**
+     * The version of the fragments when the SIM does not provide an InfoVersion, so they are only shared by the sessions within a tick.
+     */
+    private static class TickVersion {
+        final long tick;
+        
+        TickVersion(long tick) {
+            this.tick = tick;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TickVersion && ((TickVersion)o).tick == tick;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Long.hashCode(tick);
+        }
+    }
+    
+    /**
+     * Returns the current {@link com.SIMRacingApps.Session#getInfoVersion() /Session/InfoVersion},
+     * or the current tick if the SIM does not provide one,
+     * and, when it changes, evicts the fragments of the other versions, so the values of cars and drivers that have left do not pile up.
+     * @param SIMPlugin The SIM.
+     * @return The version.
+     */
+    private static Object getFragmentsVersion(SIMPlugin SIMPlugin) {
+        com.SIMRacingApps.Data d;
+        long tick;
+        synchronized (SIMPlugin) {
+            d = SIMPlugin.getSession().getInfoVersion();
+            tick = SIMPlugin._getTickCount();
+        }
+        Object version = d.getState().equals(State.NORMAL) ? d.getValue() : new TickVersion(tick);
+        synchronized (m_fragmentsLock) {
+            if (!version.equals(m_fragmentsVersion)) {
+                m_fragmentsVersion = version;
+                Iterator<Fragment> iter = m_fragments.values().iterator();
+                while (iter.hasNext()) {
+                    if (!iter.next().version.equals(version))
+                        iter.remove();
+                }
+            }
+        }
+        return version;
+    }
+    
+    private static int updateSession(SIMPlugin SIMPlugin, Map<String, Map<String, Data>> session, Object version) {
         int count = 0;
         //now lock each session because all the values for a given session must be in sync with the SIMs data
         synchronized (session) {
             
             //find the highest interval that's ready to update
+            //the interval is never less than the minimum interval, which can be raised with JMX to shed load.
             long highest_interval = 0;
+            long minimum_interval = m_minimumInterval;
+            long now = System.currentTimeMillis();
             for ( Entry<String,Map<String,com.SIMRacingApps.Data>> id : session.entrySet()) {
 //                if (!id.getKey().equals("__vars__")) {
                     Iterator<Entry<String,com.SIMRacingApps.Data>> iter = id.getValue().entrySet().iterator();
                     while (iter.hasNext()) {
                         com.SIMRacingApps.Data data = iter.next().getValue();
+                        long interval = Math.max(data.getInterval(), minimum_interval);
                         //check if it's time to update
-                        if (data.isDataStale(data.getName())) {
-                            if (highest_interval < data.getInterval())
-                                highest_interval = data.getInterval();
+                        if (data.getTimeStamp(data.getName()) + interval <= now) {
+                            if (highest_interval < interval)
+                                highest_interval = interval;
                         }
                     }
 //                }
@@ -484,7 +770,14 @@ public class DataService {
 //without this, some values would update and others not, causing weird results in the clients.
 //Note: It's up to the clients to understand how to set their intervals to keep the values in sync.
 //                            if (data.isDataStale(data.getName())) {
-                                if (data.getInterval() <= highest_interval) {
+                                if (Math.max(data.getInterval(), minimum_interval) <= highest_interval) {
+    
+                                    //if it only changes with the session information and the value is what was cached for this version, it has not changed
+                                    if (isFragmentPath(data.getName()) && getFragment(version, data) != null) {
+                                        m_fragmentReadsSkipped.incrementAndGet();
+                                        data.updateTimeStamp(data.getName());
+                                        continue;
+                                    }
     
                                     com.SIMRacingApps.Data d;
                                     d = SIMPlugin.getData(data.getName());
@@ -539,11 +832,72 @@ public class DataService {
         return count;
     }
     
+    /**
+     * The JMX MBean for the DataService.
+     */
+    private static class Management implements DataServiceMBean {
+        public int getSessionCount() {
+            synchronized (m_sessionCache) {
+                return m_sessionCache.size();
+            }
+        }
+        
+        public int getSubscriptionCount() {
+            int count = 0;
+            synchronized (m_sessionCache) {
+                for (Map<String,Map<String,com.SIMRacingApps.Data>> session : m_sessionCache.values()) {
+                    synchronized (session) {
+                        for (Map<String,com.SIMRacingApps.Data> id : session.values())
+                            count += id.size();
+                    }
+                }
+            }
+            return count;
+        }
+        
+        public String[] getSessionIds() {
+            synchronized (m_sessionCache) {
+                return m_sessionCache.keySet().toArray(new String[0]);
+            }
+        }
+        
+        public int getTickRate() {
+            SIMPlugin SIMPlugin = m_SIMPlugin;
+            return SIMPlugin == null ? 0 : SIMPlugin._getIPS();
+        }
+        
+        public String[] getIntervalHistogram() {
+            Map<Long,Integer> intervals = new TreeMap<Long,Integer>();
+            synchronized (m_sessionCache) {
+                for (Map<String,Map<String,com.SIMRacingApps.Data>> session : m_sessionCache.values()) {
+                    synchronized (session) {
+                        for (Map<String,com.SIMRacingApps.Data> id : session.values()) {
+                            for (com.SIMRacingApps.Data data : id.values()) {
+                                Integer count = intervals.get(data.getInterval());
+                                intervals.put(data.getInterval(), count == null ? 1 : count + 1);
+                            }
+                        }
+                    }
+                }
+            }
+            String[] result = new String[intervals.size()];
+            int i = 0;
+            for (Entry<Long,Integer> interval : intervals.entrySet())
+                result[i++] = String.format("%d ms = %d", interval.getKey(), interval.getValue());
+            return result;
+        }
+        
+        public long getMinimumInterval()                { return m_minimumInterval; }
+        public void setMinimumInterval(long interval)   { m_minimumInterval = Math.max(0L, interval); }
+        public void deleteSession(String sessionid)     { DataService.deleteSession(sessionid); }
+    }
+    
     /**
      * starts the background thread to wait for events from the SIM.
      */
     public static void start() {
         synchronized (dt_lock) {
+            JMX.register("DataService", null, new Management(), DataServiceMBean.class);
             if (dt == null) {
                 m_stayalive = true;
                 dt = new Thread( new Runnable() {
@@ -0,0 +1,32 @@
+package com.SIMRacingApps.servlets;
+
+/**
+ * The JMX management interface for the {@link DataService}.
+ * It is registered as "com.SIMRacingApps:type=DataService".
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public interface DataServiceMBean {
+    /** @return The number of client sessions that have subscribed. */
+    public int getSessionCount();
+    /** @return The total number of paths subscribed to across all sessions. */
+    public int getSubscriptionCount();
+    /** @return The session ids. */
+    public String[] getSessionIds();
+    /** @return The number of times per second the SIM is producing data. */
+    public int getTickRate();
+    /** @return The requested intervals and how many subscriptions use them, in the form "interval ms = count". */
+    public String[] getIntervalHistogram();
+    /** @return The minimum interval, in milliseconds, used to refresh a subscription, regardless of what the client asked for. */
+    public long getMinimumInterval();
+    /** @param interval The minimum interval in milliseconds. Zero lets the clients decide. */
+    public void setMinimumInterval(long interval);
+    /**
+     * Deletes a session, for example, one left behind by a client that went away.
+     * @param sessionid The session id.
+     */
+    public void deleteSession(String sessionid);
+}
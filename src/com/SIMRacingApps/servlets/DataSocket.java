@@ -41,6 +41,7 @@ public class DataSocket extends Endpoint implements MessageHandler.Whole<String>
         this.m_session = session; 
         this.m_remote = this.m_session.getAsyncRemote(); 
         this.m_session.addMessageHandler(this);
+        Transport.DATASOCKET.opened();
         Server.logger().info("DataSocket: Session " + session.getId() + " has opened a connection"); 
     }
  
@@ -57,6 +58,7 @@ public class DataSocket extends Endpoint implements MessageHandler.Whole<String>
     { 
         Server.logger().info("DataSocket: Session " + m_session.getId() + ", "+m_sessionid+": has ended");
         super.onClose(session,closeReason); 
+        Transport.DATASOCKET.closed();
         this.m_session = null; 
         this.m_sessionid = "";
         this.m_remote = null; 
@@ -79,7 +81,9 @@ public class DataSocket extends Endpoint implements MessageHandler.Whole<String>
                 Server.logger().info("DataSocket: Session " + m_session.getId() + ", "+sessionid+": is requesting data");
                 m_sessionid = sessionid;
             }
-            this.m_remote.sendText(DataService.getJSON(m_sessionid).toString()); 
+            String json = DataService.getJSON(m_sessionid).toString();
+            Transport.DATASOCKET.sent(json);
+            this.m_remote.sendText(json); 
         } 
     }
 }
\ No newline at end of file
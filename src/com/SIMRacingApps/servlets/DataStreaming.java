@@ -43,6 +43,7 @@ public class DataStreaming extends Endpoint implements MessageHandler.Whole<Stri
         this.m_session = session; 
         this.m_remote = this.m_session.getAsyncRemote(); 
         this.m_session.addMessageHandler(this);
+        Transport.DATASTREAMING.opened();
         Server.logger().info("DataStreaming: Session " + session.getId() + " has opened a connection"); 
     }
  
@@ -59,6 +60,7 @@ public class DataStreaming extends Endpoint implements MessageHandler.Whole<Stri
     { 
         Server.logger().info("DataStreaming: Session " + m_session.getId() + ", "+m_sessionid+": has ended");
         super.onClose(session,closeReason); 
+        Transport.DATASTREAMING.closed();
         this.m_session = null; 
         this.m_sessionid = "";
         this.m_remote = null; 
@@ -87,10 +89,12 @@ public class DataStreaming extends Endpoint implements MessageHandler.Whole<Stri
             
             try {
                 while (true) {
-                    this.m_remote.sendText(DataService.getJSON(m_sessionid).toString()); 
+                    String json = DataService.getJSON(m_sessionid).toString();
+                    Transport.DATASTREAMING.sent(json);
+                    this.m_remote.sendText(json);
                     
                     try {
-                        Thread.sleep(interval);
+                        Thread.sleep(Transport.DATASTREAMING.interval(interval));
                     } catch (InterruptedException e) {
                     }
                 }
@@ -0,0 +1,102 @@
+package com.SIMRacingApps.servlets;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.SIMRacingApps.Util.JMX;
+import com.SIMRacingApps.Util.Metrics;
+
+/**
+ * This class keeps the shared counters and settings for each of the transports.
+ * There is one static instance per transport. Each one reports its metrics
+ * and is registered as a {@link TransportMBean}, so the minimum push interval can be changed while running.
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public class Transport implements TransportMBean {
+
+    public static final Transport DATA          = new Transport("Data");
+    public static final Transport DATASOCKET    = new Transport("DataSocket");
+    public static final Transport DATASTREAMING = new Transport("DataStreaming");
+    public static final Transport DATAEVENT     = new Transport("DataEvent");
+
+    private final String m_name;
+    private final AtomicLong m_bytes;
+    private final AtomicLong m_messages;
+    private final AtomicInteger m_connections = new AtomicInteger(0);
+    private volatile long m_minimumInterval = 0L;
+
+    private Transport(String name) {
+        m_name     = name;
+        m_bytes    = Metrics.counter("sra_transport_bytes_total", "Number of bytes sent to the clients, as encoded in UTF-8", "transport", name);
+        m_messages = Metrics.counter("sra_transport_messages_total", "Number of JSON responses sent to the clients", "transport", name);
+        Metrics.gauge("sra_transport_connections", "Number of connections currently open", "transport", name, new Metrics.Gauge() {
+            public double getValue() { return m_connections.get(); }
+        });
+        JMX.register("Transport", name, (TransportMBean)this, TransportMBean.class);
+    }
+
+    /**
+     * Call this each time a response is sent.
+     * @param text The text that was written, it is counted as the bytes of its UTF-8 encoding.
+     */
+    public void sent(CharSequence text) {
+        m_bytes.addAndGet(__utf8Length(text));
+        m_messages.incrementAndGet();
+    }
+
+    /**
+     * Call this each time a response is sent as bytes.
+     * @param bytes The UTF-8 bytes that were written.
+     */
+    public void sent(byte[] bytes) {
+        m_bytes.addAndGet(bytes.length);
+        m_messages.incrementAndGet();
+    }
+
+    //counts the bytes the text encodes to in UTF-8 without encoding it
+    private static long __utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80)
+                length += 1;
+            else
+            if (c < 0x800)
+                length += 2;
+            else
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else
+                length += 3;
+        }
+        return length;
+    }
+
+    /** Call this when a client connects. */
+    public void opened() { m_connections.incrementAndGet(); }
+
+    /** Call this when a client disconnects. */
+    public void closed() { m_connections.decrementAndGet(); }
+
+    /**
+     * Returns the interval to wait between pushes.
+     * @param requested The interval the client asked for in milliseconds.
+     * @return The larger of the requested interval and the minimum interval.
+     */
+    public long interval(long requested) {
+        return Math.max(requested, m_minimumInterval);
+    }
+
+    public String getName()                     { return m_name; }
+    public int    getConnections()              { return m_connections.get(); }
+    public long   getMessages()                 { return m_messages.get(); }
+    public long   getBytes()                    { return m_bytes.get(); }
+    public long   getMinimumInterval()          { return m_minimumInterval; }
+    public void   setMinimumInterval(long interval) { m_minimumInterval = Math.max(0L, interval); }
+}
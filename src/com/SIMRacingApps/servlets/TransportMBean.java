@@ -0,0 +1,25 @@
+package com.SIMRacingApps.servlets;
+
+/**
+ * The JMX management interface for each of the transports, Data, DataSocket, DataStreaming and DataEvent.
+ * It is registered as "com.SIMRacingApps:type=Transport,name=(transport)".
+ *
+ * @author Jeffrey Gilliam
+ * @since 1.23
+ * @copyright Copyright (C) 2015 - 2024 Jeffrey Gilliam
+ * @license Apache License 2.0
+ */
+public interface TransportMBean {
+    /** @return The name of the transport. */
+    public String getName();
+    /** @return The number of connections currently open. Always zero for Data, because it does not hold connections open. */
+    public int getConnections();
+    /** @return The number of JSON responses sent. */
+    public long getMessages();
+    /** @return The number of bytes sent, as encoded in UTF-8. */
+    public long getBytes();
+    /** @return The minimum number of milliseconds between pushes, regardless of the interval the client asked for. */
+    public long getMinimumInterval();
+    /** @param interval The minimum number of milliseconds between pushes. Zero lets the clients decide. */
+    public void setMinimumInterval(long interval);
+}